@@ -60,6 +60,9 @@ function triggers.onPickupPowerCore()
     -- add a trigger to exit
     em:addComponent(entity, ComponentFactory:trigger(entity, "changeWorld"))
     
+    -- the exit can be reached so start loading the next world's assets
+    gameManager:prefetchWorld("Stargem", "World_01")
+    
     -- set the animation, animation is broken because UV changes are not saved in file format
     --local animation = representationManager:getAnimationController(entityID)
     --animation:setAnimation("Take 001", -1)
@@ -77,5 +80,5 @@ end
 
  -- remove the entity
 function triggers.remove(entity)
-  em:recycle(entity)
+  commands:recycle(entity)
 end
\ No newline at end of file
@@ -16,10 +16,10 @@ function behaviour.jenny(entity)
     local inventory = em:getComponent(entity, Inventory)
     if inventory ~= nil then
     
-      script:setField(inventory, "gems", inventory.gems - 20)
+      script:setComponentField(entity, inventory, "gems", inventory.gems - 20)
     
       if inventory.gems < 0 then
-        script:setField(inventory, "gems", 0)
+        script:setComponentField(entity, inventory, "gems", 0)
       end
     end
     
@@ -32,7 +32,7 @@ function behaviour.jenny(entity)
       if skill ~= nil then
         maxHealth = maxHealth + skill.healthIncrease
       end    
-      script:setField(health, "currentHealth", maxHealth)
+      script:setComponentField(entity, health, "currentHealth", maxHealth)
     end
     
     -- move the player to the entrance gate
@@ -226,7 +226,7 @@ function behaviour.minebot(entity, brain)
     end
   
     triggers.enemyDied()
-    em:recycle(entity)
+    commands:recycle(entity)
     
   end
   
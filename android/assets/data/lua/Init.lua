@@ -24,6 +24,7 @@ EntityManager = luajava.bindClass("com.stargem.entity.EntityManager")
 EntityPersistence = luajava.bindClass("com.stargem.persistence.EntityPersistence")
 PersistenceManager = luajava.bindClass("com.stargem.persistence.PersistenceManager")
 PhysicsManager = luajava.bindClass("com.stargem.physics.PhysicsManager")
+SpatialIndex = luajava.bindClass("com.stargem.physics.SpatialIndex")
 ContactCallbackFlags = luajava.bindClass("com.stargem.physics.ContactCallbackFlags")
 RepresentationManager = luajava.bindClass("com.stargem.graphics.RepresentationManager")
 AIManager = luajava.bindClass("com.stargem.ai.AIManager")
@@ -35,8 +36,10 @@ ComponentFactory = luajava.bindClass("com.stargem.entity.ComponentFactory")
 
 -- get global instances of required managers
 em = EntityManager:getInstance()
+commands = em:getCommandBuffer()
 persistenceManager = PersistenceManager:getInstance():getEntityPersistence()
 physicsManager = PhysicsManager:getInstance()
+spatialIndex = SpatialIndex:getInstance()
 representationManager = RepresentationManager:getInstance()
 aiManager = AIManager:getInstance()
 behaviourManager = BehaviourManager:getInstance()
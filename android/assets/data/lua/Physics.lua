@@ -94,14 +94,14 @@ function collisions.healthPack(healthPack, recipient)
     if health.currentHealth < health.maxHealth then
       
       -- we use reflection to get around the fact there is only read access on member variables
-      script:setField(health, "currentHealth", (health.currentHealth + 35))
+      script:setComponentField(entity, health, "currentHealth", (health.currentHealth + 35))
                 
       if health.currentHealth > health.maxHealth then
-        script:setField(health, "currentHealth", health.maxHealth)
+        script:setComponentField(entity, health, "currentHealth", health.maxHealth)
       end
       
       -- the health pack was picked up so we remove it from the simulation
-      em:recycle(healthPack.userData)
+      commands:recycle(healthPack.userData)
       
     end
   end
@@ -113,8 +113,8 @@ function collisions.powerCore(powerCore, recipient)
   local inventory = em:getComponent(entity, Inventory)
   
   if not (inventory == nil) then
-    script:setField(inventory, "cores", (inventory.cores + 1))
-    em:recycle(powerCore.userData)
+    script:setComponentField(entity, inventory, "cores", (inventory.cores + 1))
+    commands:recycle(powerCore.userData)
     triggers.onPickupPowerCore()
   end
 end
@@ -125,8 +125,8 @@ function collisions.smallGem(gem, recipient)
   local inventory = em:getComponent(entity, Inventory)
   
   if not (inventory == nil) then
-    script:setField(inventory, "gems", (inventory.gems + 5))
-    em:recycle(gem.userData)
+    script:setComponentField(entity, inventory, "gems", (inventory.gems + 5))
+    commands:recycle(gem.userData)
   end
 end
 
@@ -136,8 +136,8 @@ function collisions.largeGem(gem, recipient)
   local inventory = em:getComponent(entity, Inventory)
   
   if not (inventory == nil) then
-    script:setField(inventory, "gems", (inventory.gems + 10))
-    em:recycle(gem.userData)
+    script:setComponentField(entity, inventory, "gems", (inventory.gems + 10))
+    commands:recycle(gem.userData)
   end
 end
 
@@ -148,8 +148,8 @@ function collisions.specialPower(specialPower, recipient)
   
   if not (inventory == nil) then
     if inventory.specials < 3 then
-      script:setField(inventory, "specials", (inventory.specials + 1))
-      em:recycle(specialPower.userData)
+      script:setComponentField(entity, inventory, "specials", (inventory.specials + 1))
+      commands:recycle(specialPower.userData)
     end
   end
 end
@@ -190,7 +190,7 @@ function collisions.damageZone(damage, victim)
   
     local behaviour = behaviourManager:getBehaviour(victimEntity:getId())
   
-    script:setField(health, "currentHealth", health.currentHealth - 30)
+    script:setComponentField(victimEntity, health, "currentHealth", health.currentHealth - 30)
     behaviour:onDamaged()
     
   end
@@ -37,7 +37,7 @@ function weapons.selfDestruct(id)
       entities.damageZone(transform)
       
       -- remove the entity that exploded
-      em:recycle(entity)
+      commands:recycle(entity)
       
     end
   end
@@ -112,7 +112,7 @@ function weapons.welderPistol(id)
           end
           
           -- hurt the entity
-          script:setField(health, "currentHealth", health.currentHealth - (damage * Config.FIXED_TIME_STEP))
+          script:setComponentField(targetEntity, health, "currentHealth", health.currentHealth - (damage * Config.FIXED_TIME_STEP))
           behaviour:onDamaged()
           
           -- add threat
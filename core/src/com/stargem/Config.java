@@ -14,6 +14,13 @@ public class Config {
 	public static final String PROFILE_DATABASE_PATH = "data/profiles/";
 	public static final String PROFILE_PATH 		= "data/profiles/";
 	public static final String DATABASE_EXTENSION 	= ".db";
+	public static final String QUICKSAVE_EXTENSION 	= ".quicksave";
+	public static final String JOURNAL_EXTENSION 	= ".journal";
+	
+	// profile database connections, a busy timeout in milliseconds and a cache size in KiB
+	public static final int DATABASE_READERS 		= 2;
+	public static final int DATABASE_BUSY_TIMEOUT 	= 5000;
+	public static final int DATABASE_CACHE_SIZE 	= 8192;
 	
 	// Campaigns path
 	public static final String CAMPAIGN_PATH 		= "data/campaigns/";
@@ -58,6 +65,8 @@ public class Config {
 	public static final String TABLE_WORLD			= "World";
 	public static final String TABLE_PLAYERS		= "Players";
 	public static final String TABLE_GATES 			= "Gates";
+	public static final String TABLE_MODIFIED		= "Modified";
+	public static final String TABLE_OVERLAY		= "Overlay";
 	
 	// Physics time step
 	public static final int MAX_UPDATE_ITERATIONS 	= 5;
@@ -65,8 +74,38 @@ public class Config {
 	public static final int TWEEN_TIME_STEP			= (int) (FIXED_TIME_STEP * 1000);
 	public static final int NUM_SUBSTEPS 			= 3;
 	
+	// number of components created up front for each type, burst types are spawned in 
+	// quick succession by scripts such as projectiles, pickups and sensors
+	public static final int COMPONENT_POOL_SIZE 	= 16;
+	public static final int COMPONENT_POOL_BURST_SIZE = 64;
+	
+	// number of body transforms the transform buffer makes room for up front
+	public static final int TRANSFORM_BUFFER_CAPACITY = 256;
+	
+	// edge length of the cells of the spatial index
+	public static final float SPATIAL_CELL_SIZE 	= 16;
+	
+	// entities read from the database in one batch, the batches read ahead of the main
+	// thread, and the time in milliseconds a frame may spend turning batches into entities
+	public static final int LOAD_BATCH_SIZE 		= 64;
+	public static final int LOAD_QUEUE_BATCHES 		= 4;
+	public static final int LOAD_FRAME_BUDGET 		= 8;
+	
+	// bytes of entity rows a phase read ahead of time may stage before the reader waits
+	public static final long PREFETCH_MEMORY_CAP 	= 8L * 1024 * 1024;
+	
+	// stream entities in and out by the terrain segment they are in, and the number of 
+	// segments around each player whose entities are kept loaded
+	public static final boolean REGION_STREAMING 	= true;
+	public static final int REGION_STREAM_RADIUS 	= 1;
+	
+	// read the world's rows from the world database and keep only the changed rows in
+	// the profile, instead of copying the whole world into the profile
+	public static final boolean WORLD_OVERLAY 		= true;
+	
 	// auto save frequency in seconds
 	public static final float AUTO_SAVE_FREQUENCY 	= 15;
+	public static final int AUTO_SAVE_CHECKPOINT 	= 20;
 	
 	// UI menu item names
 	public static final String UI_NEW_GAME			= "New Game";
@@ -3,6 +3,8 @@
  */
 package com.stargem;
 
+import java.io.File;
+
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.InputMultiplexer;
 import com.badlogic.gdx.InputProcessor;
@@ -39,10 +41,14 @@ import com.stargem.persistence.EntityPersistence;
 import com.stargem.persistence.GameSaver;
 import com.stargem.persistence.PersistenceManager;
 import com.stargem.persistence.PhaseLoader;
+import com.stargem.persistence.QuickSave;
+import com.stargem.persistence.RegionStreamer;
 import com.stargem.persistence.ProfilePersistence;
 import com.stargem.persistence.SimulationPersistence;
 import com.stargem.physics.PhysicsManager;
+import com.stargem.physics.SpatialIndex;
 import com.stargem.profile.ProfileManager;
+import com.stargem.utils.AssetList;
 import com.stargem.utils.Log;
 import com.stargem.utils.PlatformResolver;
 import com.stargem.utils.StringHelper;
@@ -84,6 +90,17 @@ public class GameManager {
 	
 	private final GameSaver gamesaver = new GameSaver();
 	private final PhaseLoader gameloader = new PhaseLoader();
+	private final RegionStreamer streamer = new RegionStreamer(gamesaver);
+	
+	// set when a phase has been loaded so the next one is prefetched
+	private boolean prefetchNextPhase;
+	
+	// quick saves and loads asked for by the player, made between ticks
+	private boolean quickSaveRequested;
+	private boolean quickLoadRequested;
+	
+	// the assets of the world the player is expected to go to next, queued in the asset manager
+	private AssetList prefetchedAssets;
 	
 	// array of all component types
 	private final Array<Class<? extends Component>> componentTypes = new Array<Class<? extends Component>>();
@@ -197,18 +214,7 @@ public class GameManager {
 		String campaignName = Config.DEFAULT_CAMPAIGN;
 		String worldName = Config.DEFAULT_WORLD;
 		
-		// build the path to the world's database
-		StringBuilder s = StringHelper.getBuilder();
-		s.append(Config.WORLD_DATABASE_PATH);
-		s.append(campaignName);
-		//s.append(File.separator);
-		s.append("/");
-		s.append(worldName);
-		//s.append(File.separator);
-		s.append("/");
-		s.append(Config.WORLD_DATABASE_NAME);
-		s.append(Config.DATABASE_EXTENSION);
-		String worldDatabasePath = s.toString();
+		String worldDatabasePath = this.getWorldDatabasePath(campaignName, worldName);
 		
 		DatabaseFactory.createWorldDatabase(worldDatabasePath, this.componentTypes);		
 	}
@@ -241,6 +247,9 @@ public class GameManager {
 		// load the profile data
 		this.profileManager.loadProfile(databaseName);
 		
+		// changes not saved when the game last ran are written to the database
+		this.persistenceManager.getEntityPersistence().openJournal(this.getProfileFile(Config.JOURNAL_EXTENSION).getPath());
+		
 	}
 
 	/**
@@ -273,6 +282,8 @@ public class GameManager {
 		
 		// create a new profile with the name given
 		this.profileManager.newProfile(name, databaseName);
+		
+		this.persistenceManager.getEntityPersistence().openJournal(this.getProfileFile(Config.JOURNAL_EXTENSION).getPath());
 	}
 	
 	/**
@@ -320,23 +331,23 @@ public class GameManager {
 		
 		game.setBlankScreen();
 		
-		// build the path to the world's database
-		StringBuilder s = StringHelper.getBuilder();
-		s.append(Config.WORLD_DATABASE_PATH);
-		s.append(campaignName);
-		//s.append(File.separator);
-		s.append("/");
-		s.append(levelName);
-		//s.append(File.separator);
-		s.append("/");
-		s.append(Config.WORLD_DATABASE_NAME);
-		s.append(Config.DATABASE_EXTENSION);
-		String worldDatabasePath = s.toString();
+		String worldDatabasePath = this.getWorldDatabasePath(campaignName, levelName);
+		
+		// saves and loads in flight belong to the old world's tables
+		this.gameloader.finishNow();
+		this.streamer.stop();
+		this.gamesaver.finish();
 		
 		// unload entities from the entity manager so that we have a clean start
 		// we want to keep any entities that are players because they are persistent
 		// form world to world.
 		this.unloadNonPlayerEntities();
+		
+		// the entities of the old world are replaced by the import, not deleted one by one
+		this.persistenceManager.getEntityPersistence().clearDeathRow();
+		
+		// a quick save belongs to the world it was made in
+		this.getProfileFile(Config.QUICKSAVE_EXTENSION).delete();
 				
 		// clear player entity IDs so they can be set by the new world import
 		this.playersManager.resetPlayerIds();
@@ -353,6 +364,66 @@ public class GameManager {
 		
 	}
 	
+	/**
+	 * @param campaignName
+	 * @param levelName
+	 * @return the path to the database of the world
+	 */
+	private String getWorldDatabasePath(String campaignName, String levelName) {
+		StringBuilder s = StringHelper.getBuilder();
+		s.append(Config.WORLD_DATABASE_PATH);
+		s.append(campaignName);
+		//s.append(File.separator);
+		s.append("/");
+		s.append(levelName);
+		//s.append(File.separator);
+		s.append("/");
+		s.append(Config.WORLD_DATABASE_NAME);
+		s.append(Config.DATABASE_EXTENSION);
+		return s.toString();
+	}
+	
+	/**
+	 * Queue the assets of a world in the asset manager before changing to it, for example
+	 * once its exit gate can be reached. The assets load a little each frame during play
+	 * so the loading screen finds most of them already loaded. Any world prefetched before
+	 * is released.
+	 * 
+	 * @param campaignName
+	 * @param levelName
+	 */
+	public void prefetchWorld(String campaignName, String levelName) {
+		
+		this.releasePrefetchedAssets();
+		
+		AssetList assets = new AssetList(this.assetManager);
+		if(this.persistenceManager.getSimulationPersistence().populateAssetList(assets, this.getWorldDatabasePath(campaignName, levelName))) {
+			assets.load();
+			this.prefetchedAssets = assets;
+		}
+	}
+	
+	/**
+	 * Release the assets queued by {@link #prefetchWorld(String, String)}. The asset manager 
+	 * counts references so assets the loaded world has taken since are kept.
+	 */
+	public void releasePrefetchedAssets() {
+		if(this.prefetchedAssets != null) {
+			this.prefetchedAssets.unload();
+			this.prefetchedAssets = null;
+		}
+	}
+	
+	/**
+	 * Start reading a phase of entities in the background so that loading it later only
+	 * has to create its entities. Nothing is done if a phase is already being read.
+	 * 
+	 * @param phase
+	 */
+	public void prefetchPhase(int phase) {
+		this.gameloader.prefetch(phase);
+	}
+	
 	/**
 	 * Remove all non player entities from the world. This is a part of the process of switching worlds
 	 */
@@ -360,7 +431,11 @@ public class GameManager {
 		
 		System.out.println(this.entityManager.getAllEntities().size);
 		
-		for(Entity e : this.entityManager.getAllEntities()) {			
+		// iterate backwards as recycling moves the last entity into the hole
+		Array<Entity> entities = this.entityManager.getAllEntities();
+		for(int i = entities.size - 1; i >= 0; i -= 1) {
+			Entity e = entities.get(i);
+			
 			// if the players list does not include this entity recycle it
 			if(!this.playersManager.playerExists(e)) {
 				
@@ -370,9 +445,8 @@ public class GameManager {
 			}
 		}
 		
-		// we have to save entities here so that the deleted entity list is cleared from the db
-		//this.saveGame(null);
-		this.persistenceManager.getEntityPersistence().clearDeathRow();
+		// the remaining player entities are put back as soon as their bodies move
+		SpatialIndex.getInstance().clear();
 	}
 	
 	/**
@@ -383,35 +457,191 @@ public class GameManager {
 	}
 	
 	/**
-	 * Save the current game to disk
+	 * Save the whole game to disk. The game is captured immediately and written 
+	 * on the game saver's thread. This must be called between ticks.
+	 * 
+	 * @param l notified when the save has been written, may be null
+	 * @return false if the previous save is still being written and nothing was saved
+	 */
+	public boolean saveGame(EntitiesSavedListener l) {
+		return gamesaver.save(l, false);
+	}
+	
+	/**
+	 * Save the game to disk, either in full or only the entities which have changed
+	 * since the last save. This must be called between ticks.
+	 * 
+	 * @param l notified when the save has been written, may be null
+	 * @param incremental true to save only what has changed
+	 * @return false if the previous save is still being written and nothing was saved
+	 */
+	public boolean saveGame(EntitiesSavedListener l, boolean incremental) {
+		return gamesaver.save(l, incremental);
+	}
+	
+	/**
+	 * Save the whole game to the quick save file of the profile as well as the database.
+	 * Entities streamed out of the game are part of the quick save through the copy of the
+	 * entity tables kept with it. This must be called between ticks.
+	 * 
+	 * @param l notified when the save has been written, may be null
+	 * @return false if the previous save is still being written and nothing was saved
+	 */
+	public boolean quickSave(EntitiesSavedListener l) {
+		// entities unloaded by the streamer are in the tables before they are copied
+		this.streamer.finishNow();
+		return gamesaver.quickSave(l, this.getProfileFile(Config.QUICKSAVE_EXTENSION));
+	}
+	
+	/**
+	 * Ask for a quick save to be made before the next tick, this can be called from 
+	 * input handlers and scripts while the game is running
+	 */
+	public void requestQuickSave() {
+		this.quickSaveRequested = true;
+	}
+	
+	/**
+	 * Ask for the quick save to be loaded before the next tick, this can be called from 
+	 * input handlers and scripts while the game is running
+	 */
+	public void requestQuickLoad() {
+		this.quickLoadRequested = true;
+	}
+	
+	/**
+	 * Replace the entities in the world with those of the profile's quick save. The 
+	 * entity tables are put back as they were at the quick save, so the entities which 
+	 * were streamed out of the game come back as they were too. The entities in the game
+	 * are read straight from the quick save file and the database is brought up to date 
+	 * by a full save in the background. This must be called between ticks.
+	 * 
+	 * @return false if there is no quick save to load
+	 */
+	public boolean quickLoad() {
+		
+		File file = this.getProfileFile(Config.QUICKSAVE_EXTENSION);
+		if(!file.exists()) {
+			return false;
+		}
+		
+		// a save in flight would be overwritten by the quick save anyway
+		this.gameloader.finishNow();
+		this.gamesaver.finish();
+		
+		EntityPersistence entityPersistence = this.persistenceManager.getEntityPersistence();
+		QuickSave quicksave = new QuickSave();
+		if(!quicksave.open(file, entityPersistence.getComponentTypes())) {
+			return false;
+		}
+		
+		// the streamed entities would only be written over by the quick save's tables
+		this.streamer.discard();
+		if(!entityPersistence.restoreQuickSave()) {
+			quicksave.close();
+			return false;
+		}
+		
+		// the tables already hold the quick save, so nothing recycled here is deleted
+		this.unloadNonPlayerEntities();
+		entityPersistence.clearDeathRow();
+		entityPersistence.load(quicksave);
+		quicksave.close();
+		
+		this.gamesaver.save(null, false);
+		return true;
+	}
+	
+	/**
+	 * @param extension
+	 * @return the file of the active profile with the given extension
 	 */
-	public void saveGame(EntitiesSavedListener l) {
-		gamesaver.setListener(l);
-		Thread t = new Thread(this.gamesaver);
-		t.start();		
+	private File getProfileFile(String extension) {
+		StringBuilder s = StringHelper.getBuilder();
+		s.append(Config.PROFILE_DATABASE_PATH);
+		s.append(this.profileManager.getActiveProfile().getDatabaseName());
+		s.append(extension);
+		return Gdx.files.local(s.toString()).file();
 	}
 	
 	/**
-	 * Load entities from disk in a separate thread
+	 * Start loading a phase of entities. The entities are read from disk on a separate 
+	 * thread and created a batch at a time by {@link #updateLoading()}, which must be
+	 * called every frame until the listener is notified. If the phase has been prefetched
+	 * its entities are created from what has already been read.
+	 * 
+	 * @param l notified on the main thread when every entity has been loaded, may be null
+	 * @param phase
 	 */
 	public void loadPhase(EntitiesLoadedListener l, int phase) {
-		gameloader.setPhase(phase);
-		gameloader.setListener(l);
-		Thread t = new Thread(this.gameloader);
-		t.start();		
+		gameloader.start(phase, l);
+		this.prefetchNextPhase = true;
+	}
+	
+	/**
+	 * Create the entities of the phase being loaded within this frame's time budget. Once
+	 * a phase has been loaded the next one is prefetched, and prefetched world assets are
+	 * loaded a little at a time. Quick saves and loads asked for since the last frame are
+	 * made first.
+	 */
+	public void updateLoading() {
+		if(this.quickLoadRequested) {
+			this.quickLoadRequested = false;
+			this.quickSaveRequested = false;
+			this.quickLoad();
+		}
+		else if(this.quickSaveRequested) {
+			// tried again next frame while the previous save is being written
+			this.quickSaveRequested = !this.quickSave(null);
+		}
+		
+		gameloader.update();
+		streamer.update();
+		
+		if(this.prefetchNextPhase && !gameloader.isBusy()) {
+			this.prefetchNextPhase = false;
+			int phase = this.persistenceManager.getEntityPersistence().getNextPhase();
+			if(phase != -1) {
+				gameloader.prefetch(phase);
+			}
+		}
+		
+		if(this.prefetchedAssets != null) {
+			this.assetManager.update(Config.LOAD_FRAME_BUDGET);
+		}
+	}
+	
+	/**
+	 * @return the loader of phases, for reporting progress
+	 */
+	public PhaseLoader getPhaseLoader() {
+		return gameloader;
+	}
+	
+	/**
+	 * @return the streamer which loads and unloads the entities around the players
+	 */
+	public RegionStreamer getRegionStreamer() {
+		return streamer;
 	}
 	
 	/**
-	 * Load entities from disk in a separate thread
+	 * Start loading the entities with their load flag set. If the world is streamed only 
+	 * the entities around the players are loaded.
 	 */
 	public void loadInitialPhase(EntitiesLoadedListener l) {
-		this.loadPhase(l, -1);				
+		gameloader.start(-1, this.streamer.getInitialRegions(), l);
+		this.prefetchNextPhase = true;
 	}
 	
 	/**
 	 * dispose of all resources created by the game manager
 	 */
 	public void dispose() {
+		this.gameloader.cancel();
+		this.streamer.finishNow();
+		this.gamesaver.finish();
+		this.persistenceManager.getEntityPersistence().closeJournal();
 		this.persistenceManager.dispose();
 		this.physicsManager.dispose();
 		this.representationManager.dispose();
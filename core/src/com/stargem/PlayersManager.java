@@ -3,6 +3,7 @@
  */
 package com.stargem;
 
+import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.IntMap;
 import com.stargem.entity.Entity;
 import com.stargem.entity.EntityManager;
@@ -95,6 +96,22 @@ public class PlayersManager {
 		}
 	}
 
+	/**
+	 * Fill the list with the entities of the players who have one
+	 * 
+	 * @param out the list to fill, it is cleared first
+	 * @return the given list
+	 */
+	public Array<Entity> getPlayerEntities(Array<Entity> out) {
+		out.clear();
+		for(Entity entity : this.players.values()) {
+			if(entity != null) {
+				out.add(entity);
+			}
+		}
+		return out;
+	}
+	
 	/**
 	 * Check whether or not the given entity is a localPlayer entity
 	 * 
@@ -23,6 +23,8 @@ public class Preferences {
 	public static int KEY_RIGHT 					= Keys.D;
 	public static int KEY_JUMP 						= Keys.SPACE;
 	public static int KEY_SPECIAL					= Keys.F;
+	public static int KEY_QUICK_SAVE				= Keys.F5;
+	public static int KEY_QUICK_LOAD				= Keys.F9;
 		
 	// Mouse Input
 	public static int MOUSE_SENSITIVITY 			= 10;
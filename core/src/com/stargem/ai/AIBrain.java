@@ -59,7 +59,7 @@ public class AIBrain {
 	 * @param amount
 	 */
 	public void increaseThreat(Entity entity, int amount) {
-		this.threatList.increaseThreat(entity.getId(), amount);
+		this.threatList.increaseThreat(entity.getHandle(), amount);
 	}
 	
 	/**
@@ -74,7 +74,7 @@ public class AIBrain {
 	 * @param amount
 	 */
 	public void decreaseThreat(Entity entity, int amount) {
-		this.threatList.decreaseThreat(entity.getId(), amount);
+		this.threatList.decreaseThreat(entity.getHandle(), amount);
 	}
 	
 	/**
@@ -83,7 +83,7 @@ public class AIBrain {
 	 * @param entity
 	 */
 	public void removeThreat(Entity entity) {
-		this.threatList.removeThreat(entity.getId());
+		this.threatList.removeThreat(entity.getHandle());
 	}
 	
 	/**
@@ -1,25 +1,26 @@
 package com.stargem.ai;
 
-import com.badlogic.gdx.utils.IdentityMap;
+import com.badlogic.gdx.utils.IntIntMap;
 import com.stargem.entity.Entity;
 import com.stargem.entity.EntityManager;
-import com.stargem.entity.EntityRecycleListener;
 
 /**
  * The threat list keeps track of the perceived danger other entities
  * pose to an AI brain.
+ * 
+ * Threats are keyed by entity handle. A handle goes stale when its entity is 
+ * recycled, so dead threats are dropped lazily when the list is read rather
+ * than through a recycle listener per brain.
  *
  * @author 	Chris B
  * @date	22 Apr 2014
  * @version	1.0
  */
-public class ThreatList implements EntityRecycleListener {
-	
-	//private final IntIntMap threats;
-	//private final IntIntMap removed;
-	private final IdentityMap<Integer, Integer> threats;
-	private final IdentityMap<Integer, Integer> removed;
+public class ThreatList {
 	
+	private final IntIntMap threats;
+	private final IntIntMap removed;
+	private final EntityManager em = EntityManager.getInstance();
 	
 	/**
 	 * The threat list keeps track of the perceived danger other entities
@@ -30,38 +31,31 @@ public class ThreatList implements EntityRecycleListener {
 	 */
 	public ThreatList() {
 		super();
-		this.threats = new IdentityMap<Integer, Integer>();
-		this.removed = new IdentityMap<Integer, Integer>();
-		EntityManager.getInstance().registerEntityRecycleListener(this);
+		this.threats = new IntIntMap();
+		this.removed = new IntIntMap();
 	}
 
 	/**
 	 * Increase the threat for the given entity by the given amount
 	 * 
-	 * @param entity
+	 * @param entity the handle of the threat
 	 * @param amount
 	 */
 	public void increaseThreat(int entity, int amount) {
 		
 		// check for a remembered threat
 		if(removed.containsKey(entity)) {
-			threats.put(entity, removed.get(entity));
-			removed.remove(entity);
+			threats.put(entity, removed.remove(entity, 0));
 		}
 		
-		if(!threats.containsKey(entity)) {			
-			threats.put(entity, amount);
-		}
-		else {
-			threats.put(entity, amount + threats.get(entity));
-		}
+		threats.put(entity, amount + threats.get(entity, 0));
 	}
 
 	/**
 	 * Decrease the threat for the given entity by the amount given.
 	 * The threat level cannot go below 0.
 	 * 
-	 * @param entity
+	 * @param entity the handle of the threat
 	 * @param amount
 	 */
 	public void decreaseThreat(int entity, int amount) {
@@ -69,7 +63,7 @@ public class ThreatList implements EntityRecycleListener {
 			return;
 		}
 		else {
-			int threat = (threats.get(entity) - amount > 0) ? threats.get(entity) : 0; 
+			int threat = (threats.get(entity, 0) - amount > 0) ? threats.get(entity, 0) : 0; 
 			threats.put(entity, threat);
 		}
 	}
@@ -77,12 +71,10 @@ public class ThreatList implements EntityRecycleListener {
 	/**
 	 * Remove the threat and forget it. Useful if the threat is dead
 	 * 
-	 * @param entity
+	 * @param entity the handle of the threat
 	 */
 	public void removeThreat(int entity) {
-		if(threats.containsKey(entity)) {
-			threats.remove(entity);
-		}
+		threats.remove(entity, 0);
 	}
 	
 	/**
@@ -90,19 +82,16 @@ public class ThreatList implements EntityRecycleListener {
 	 * So that if it is re-added the previous threat amount will be restored.
 	 * This is useful if the threat is lost but not dead
 	 * 
-	 * @param entity
+	 * @param entity the handle of the threat
 	 */
 	public void removeAndRememberThreat(int entity) {
 		if(threats.containsKey(entity)) {
-			removed.put(entity, threats.get(entity));
-			threats.remove(entity);
+			removed.put(entity, threats.remove(entity, 0));
 		}
 	}
 
 	public void removeRemembered(int entity) {
-		if(removed.containsKey(entity)) {
-			removed.remove(entity);
-		}
+		removed.remove(entity, 0);
 	}
 	
 	/**
@@ -111,6 +100,7 @@ public class ThreatList implements EntityRecycleListener {
 	 * @return the size of the threat list
 	 */
 	public int size() {
+		this.removeDead(threats);
 		return threats.size;
 	}
 
@@ -120,26 +110,38 @@ public class ThreatList implements EntityRecycleListener {
 	 * @return the biggest threat on the threat list
 	 */
 	public Entity getBiggestThreat() {
-		int id = -1;
+		this.removeDead(threats);
+		this.removeDead(removed);
+		
+		int handle = -1;
 		int biggestThreat = Integer.MIN_VALUE;
-		int amount = Integer.MIN_VALUE;
 		
-		for(int e : threats.keys()) {
-			amount = threats.get(e);			
-			if(amount > biggestThreat) {
-				id = e;
+		IntIntMap.Entries entries = threats.entries();
+		while(entries.hasNext()) {
+			IntIntMap.Entry e = entries.next();
+			if(e.value > biggestThreat) {
+				biggestThreat = e.value;
+				handle = e.key;
 			}
 		}
-		Entity entity = EntityManager.getInstance().getEntityByID(id);
-		return entity;
+		
+		if(handle == -1) {
+			return null;
+		}
+		return em.getEntity(handle);
 	}
-
-	/* (non-Javadoc)
-	 * @see com.stargem.entity.EntityRecycleListener#recycle(int)
+	
+	/**
+	 * Drop every threat whose entity has been recycled
+	 * 
+	 * @param map
 	 */
-	@Override
-	public void recycle(int entityId) {
-		this.removeThreat(entityId);
-		this.removeRemembered(entityId);
+	private void removeDead(IntIntMap map) {
+		IntIntMap.Keys keys = map.keys();
+		while(keys.hasNext()) {
+			if(!em.isAlive(keys.next())) {
+				keys.remove();
+			}
+		}
 	}
-}
\ No newline at end of file
+}
@@ -123,6 +123,12 @@ public class KeyboardMouseController extends AbstractControllerStrategy implemen
 		else if(keycode == Preferences.KEY_JUMP) {
 			component.isJumping = false;
 		}
+		else if(keycode == Preferences.KEY_QUICK_SAVE) {
+			GameManager.getInstance().requestQuickSave();
+		}
+		else if(keycode == Preferences.KEY_QUICK_LOAD) {
+			GameManager.getInstance().requestQuickLoad();
+		}
 		else if(keycode == Keys.ESCAPE) {
 			Gdx.app.exit();
 		}
@@ -0,0 +1,108 @@
+/**
+ *
+ */
+package com.stargem.entity;
+
+import com.badlogic.gdx.utils.Array;
+import com.stargem.entity.components.Component;
+
+/**
+ * Aspect.java
+ *
+ * Describes the component types an entity must and must not have to be of interest
+ * to a system. Aspects are given to the entity manager to create an {@link EntityQuery}
+ * which tracks the matching entities as components are added and removed.
+ *
+ * <pre>
+ * Aspect aspect = Aspect.all(Physics.class, RenderablePointLight.class).none(Parent.class);
+ * </pre>
+ */
+public class Aspect {
+
+	final Array<Class<? extends Component>> all = new Array<Class<? extends Component>>();
+	final Array<Class<? extends Component>> none = new Array<Class<? extends Component>>();
+
+	private Aspect() {
+	}
+
+	/**
+	 * Create an aspect matching entities which have the given component type. There is an
+	 * overload for each number of types up to three rather than varargs, which would make
+	 * every caller create a generic array.
+	 *
+	 * @param type
+	 * @return the new aspect
+	 */
+	public static Aspect all(Class<? extends Component> type) {
+		Aspect aspect = new Aspect();
+		aspect.all.add(type);
+		return aspect;
+	}
+
+	/**
+	 * Create an aspect matching entities which have both of the given component types.
+	 *
+	 * @param type1
+	 * @param type2
+	 * @return the new aspect
+	 */
+	public static Aspect all(Class<? extends Component> type1, Class<? extends Component> type2) {
+		Aspect aspect = all(type1);
+		aspect.all.add(type2);
+		return aspect;
+	}
+
+	/**
+	 * Create an aspect matching entities which have every one of the given component types.
+	 *
+	 * @param type1
+	 * @param type2
+	 * @param type3
+	 * @return the new aspect
+	 */
+	public static Aspect all(Class<? extends Component> type1, Class<? extends Component> type2, Class<? extends Component> type3) {
+		Aspect aspect = all(type1, type2);
+		aspect.all.add(type3);
+		return aspect;
+	}
+
+	/**
+	 * Exclude entities which have the given component type.
+	 *
+	 * @param type
+	 * @return this aspect for chaining
+	 */
+	public Aspect none(Class<? extends Component> type) {
+		this.none.add(type);
+		return this;
+	}
+
+	/**
+	 * Exclude entities which have either of the given component types.
+	 *
+	 * @param type1
+	 * @param type2
+	 * @return this aspect for chaining
+	 */
+	public Aspect none(Class<? extends Component> type1, Class<? extends Component> type2) {
+		this.none.add(type1);
+		this.none.add(type2);
+		return this;
+	}
+
+	/**
+	 * Exclude entities which have any of the given component types.
+	 *
+	 * @param type1
+	 * @param type2
+	 * @param type3
+	 * @return this aspect for chaining
+	 */
+	public Aspect none(Class<? extends Component> type1, Class<? extends Component> type2, Class<? extends Component> type3) {
+		this.none.add(type1);
+		this.none.add(type2);
+		this.none.add(type3);
+		return this;
+	}
+
+}
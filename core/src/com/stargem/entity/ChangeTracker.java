@@ -0,0 +1,171 @@
+/**
+ * 
+ */
+package com.stargem.entity;
+
+import com.badlogic.gdx.utils.Bits;
+import com.stargem.entity.components.Component;
+
+/**
+ * ChangeTracker.java
+ * 
+ * Records which components of which entities have changed for one consumer, such as 
+ * persistence, the network or the renderer. Each consumer creates its own tracker through 
+ * the entity manager and clears it as it handles the changes, so consumers never clear 
+ * each other's changes.
+ * 
+ * A change is recorded as a bit per component type in a set kept for each entity, and the
+ * changed entities are packed into a dense list which can be walked with an {@link EntityCursor}
+ * so a consumer only visits the entities which have actually changed. Adding and removing a 
+ * component both count as a change of that type, a removed component is one which is marked
+ * as changed but which the entity no longer has.
+ */
+public class ChangeTracker implements EntityView {
+
+	private static final int INITIAL_CAPACITY = 64;
+	
+	// the changed component type bits of each entity indexed by slot
+	private Bits[] changes = new Bits[INITIAL_CAPACITY];
+	
+	// the changed entities packed into a dense array, mapped by slot
+	private int[] sparse = new int[INITIAL_CAPACITY];
+	private Entity[] entities = new Entity[INITIAL_CAPACITY];
+	private int size;
+	
+	ChangeTracker() {
+	}
+	
+	/**
+	 * Record a change to the component with the given type id
+	 * 
+	 * @param entity
+	 * @param typeId
+	 */
+	synchronized void mark(Entity entity, int typeId) {
+		int slot = entity.index;
+		
+		if(slot >= sparse.length) {
+			int capacity = Math.max(slot + 1, sparse.length << 1);
+			
+			int[] newSparse = new int[capacity];
+			System.arraycopy(sparse, 0, newSparse, 0, sparse.length);
+			sparse = newSparse;
+			
+			Bits[] newChanges = new Bits[capacity];
+			System.arraycopy(changes, 0, newChanges, 0, changes.length);
+			changes = newChanges;
+		}
+		
+		Bits bits = changes[slot];
+		if(bits == null) {
+			bits = new Bits();
+			changes[slot] = bits;
+		}
+		bits.set(typeId);
+		
+		if(!this.contains(entity)) {
+			if(size == entities.length) {
+				Entity[] newEntities = new Entity[size << 1];
+				System.arraycopy(entities, 0, newEntities, 0, size);
+				entities = newEntities;
+			}
+			sparse[slot] = size;
+			entities[size] = entity;
+			size += 1;
+		}
+	}
+	
+	/**
+	 * @param entity
+	 * @return true if any component of the entity has changed
+	 */
+	synchronized public boolean contains(Entity entity) {
+		int slot = entity.index;
+		if(slot >= sparse.length) {
+			return false;
+		}
+		int dense = sparse[slot];
+		return dense < size && entities[dense] == entity;
+	}
+	
+	/**
+	 * @param entity
+	 * @param type
+	 * @return true if the component of the given type has changed
+	 */
+	public boolean isChanged(Entity entity, Class<? extends Component> type) {
+		int typeId = ComponentManager.getInstance().getTypeId(type);
+		synchronized(this) {
+			return this.contains(entity) && changes[entity.index].get(typeId);
+		}
+	}
+	
+	/**
+	 * Copy the ids of the component types which have changed for the given entity.
+	 * 
+	 * @param entity
+	 * @param out the bits to copy the changed type ids into, cleared first
+	 * @return the given bits
+	 */
+	synchronized public Bits getChangedTypes(Entity entity, Bits out) {
+		out.clear();
+		if(this.contains(entity)) {
+			out.or(changes[entity.index]);
+		}
+		return out;
+	}
+	
+	/**
+	 * Forget the changes to the given entity, once the consumer has handled them
+	 * 
+	 * @param entity
+	 */
+	synchronized public void clear(Entity entity) {
+		if(!this.contains(entity)) {
+			return;
+		}
+		
+		int slot = entity.index;
+		changes[slot].clear();
+		
+		// move the last changed entity into the hole
+		int dense = sparse[slot];
+		int last = size - 1;
+		if(dense != last) {
+			Entity moved = entities[last];
+			entities[dense] = moved;
+			sparse[moved.index] = dense;
+		}
+		entities[last] = null;
+		size = last;
+	}
+	
+	/**
+	 * Forget all changes
+	 */
+	synchronized public void clear() {
+		for(int i = 0; i < size; i += 1) {
+			changes[entities[i].index].clear();
+			entities[i] = null;
+		}
+		size = 0;
+	}
+	
+	/**
+	 * @return the number of changed entities
+	 */
+	@Override
+	synchronized public int size() {
+		return size;
+	}
+	
+	/**
+	 * @param index 0 to size - 1
+	 * @return the changed entity at the given index
+	 */
+	@Override
+	synchronized public Entity getEntity(int index) {
+		return entities[index];
+	}
+	
+}
@@ -0,0 +1,75 @@
+/**
+ * 
+ */
+package com.stargem.entity;
+
+import java.util.Iterator;
+
+import com.stargem.entity.components.Component;
+
+/**
+ * ComponentCursor.java
+ * 
+ * A reusable iterator over the components in a component store. Each cursor keeps
+ * its own position so cursors over the same store can be nested or used from 
+ * different threads. See {@link EntityCursor}.
+ */
+public class ComponentCursor<T extends Component> implements Iterator<T>, Iterable<T> {
+
+	private ComponentStore<T> store;
+	private int index;
+	
+	/**
+	 * Point this cursor at the start of the given store
+	 * 
+	 * @param store
+	 * @return this cursor
+	 */
+	public ComponentCursor<T> set(ComponentStore<T> store) {
+		this.store = store;
+		this.index = store.size();
+		return this;
+	}
+	
+	/**
+	 * Point this cursor at nothing, it will have no components
+	 * 
+	 * @return this cursor
+	 */
+	public ComponentCursor<T> clear() {
+		this.store = null;
+		this.index = 0;
+		return this;
+	}
+	
+	@Override
+	public boolean hasNext() {
+		if(store == null) {
+			return false;
+		}
+		
+		// the store may have shrunk since the last call
+		int size = store.size();
+		if(index > size) {
+			index = size;
+		}
+		return index > 0;
+	}
+	
+	@Override
+	public T next() {
+		index -= 1;
+		return store.getComponent(index);
+	}
+	
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("Remove components through the entity manager.");
+	}
+	
+	@Override
+	public Iterator<T> iterator() {
+		return this;
+	}
+	
+}
@@ -3,12 +3,37 @@
  */
 package com.stargem.entity;
 
+import java.lang.reflect.Constructor;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.GdxRuntimeException;
 import com.badlogic.gdx.utils.IdentityMap;
-import com.badlogic.gdx.utils.Pool;
+import com.stargem.Config;
 import com.stargem.entity.components.Component;
+import com.stargem.entity.components.Controller;
+import com.stargem.entity.components.Health;
+import com.stargem.entity.components.Inventory;
+import com.stargem.entity.components.Parent;
+import com.stargem.entity.components.Physics;
+import com.stargem.entity.components.RenderablePointLight;
+import com.stargem.entity.components.RenderableSkinned;
+import com.stargem.entity.components.RenderableStatic;
+import com.stargem.entity.components.RunSpeed;
+import com.stargem.entity.components.SkillModifiers;
+import com.stargem.entity.components.ThirdPersonCamera;
+import com.stargem.entity.components.Timer;
+import com.stargem.entity.components.Trigger;
+import com.stargem.entity.components.Weapon;
+import com.stargem.utils.Log;
+import com.stargem.utils.StringHelper;
 
 /**
  * ComponentManager.java
+ * 
+ * The registry of component types. Each type is given a small integer id and a 
+ * {@link ComponentPool} when it is registered. The built in types are registered 
+ * when the manager is created with pools which construct components directly and 
+ * are pre-warmed, so spawning does not allocate until a pool runs dry.
  *
  * @author 	Chris B
  * @date	24 Mar 2013
@@ -16,7 +41,10 @@ import com.stargem.entity.components.Component;
  */
 public class ComponentManager {
 
-	private final IdentityMap<Class<? extends Component>, Pool<? extends Component>> componentPools;
+	private final IdentityMap<Class<? extends Component>, ComponentPool<? extends Component>> componentPools;
+	
+	// pools indexed by type id
+	private final Array<ComponentPool<? extends Component>> pools;
 	
 	private static ComponentManager instance = new ComponentManager();
 	
@@ -25,36 +53,203 @@ public class ComponentManager {
 	}
 	
 	private ComponentManager() {
-		componentPools = new IdentityMap<Class<? extends Component>, Pool<? extends Component>>();
+		componentPools = new IdentityMap<Class<? extends Component>, ComponentPool<? extends Component>>();
+		pools = new Array<ComponentPool<? extends Component>>();
+		
+		this.registerDefaultTypes();
 	}
 	
 	/**
+	 * Register the built in component types. Types spawned in bursts by scripts, projectiles,
+	 * pickups and sensors, are given larger pools.
+	 */
+	private void registerDefaultTypes() {
+		int size = Config.COMPONENT_POOL_SIZE;
+		int burst = Config.COMPONENT_POOL_BURST_SIZE;
+		
+		this.registerComponentType(new ComponentPool<Physics>(Physics.class) {
+			@Override
+			protected Physics newObject() {
+				return new Physics();
+			}
+		}, burst);
+		
+		this.registerComponentType(new ComponentPool<RenderableStatic>(RenderableStatic.class) {
+			@Override
+			protected RenderableStatic newObject() {
+				return new RenderableStatic();
+			}
+		}, burst);
+		
+		this.registerComponentType(new ComponentPool<Parent>(Parent.class) {
+			@Override
+			protected Parent newObject() {
+				return new Parent();
+			}
+		}, burst);
+		
+		this.registerComponentType(new ComponentPool<Timer>(Timer.class) {
+			@Override
+			protected Timer newObject() {
+				return new Timer();
+			}
+		}, burst);
+		
+		this.registerComponentType(new ComponentPool<Trigger>(Trigger.class) {
+			@Override
+			protected Trigger newObject() {
+				return new Trigger();
+			}
+		}, burst);
+		
+		this.registerComponentType(new ComponentPool<RenderablePointLight>(RenderablePointLight.class) {
+			@Override
+			protected RenderablePointLight newObject() {
+				return new RenderablePointLight();
+			}
+		}, size);
+		
+		this.registerComponentType(new ComponentPool<RenderableSkinned>(RenderableSkinned.class) {
+			@Override
+			protected RenderableSkinned newObject() {
+				return new RenderableSkinned();
+			}
+		}, size);
+		
+		this.registerComponentType(new ComponentPool<Controller>(Controller.class) {
+			@Override
+			protected Controller newObject() {
+				return new Controller();
+			}
+		}, size);
+		
+		this.registerComponentType(new ComponentPool<Health>(Health.class) {
+			@Override
+			protected Health newObject() {
+				return new Health();
+			}
+		}, size);
+		
+		this.registerComponentType(new ComponentPool<Inventory>(Inventory.class) {
+			@Override
+			protected Inventory newObject() {
+				return new Inventory();
+			}
+		}, size);
+		
+		this.registerComponentType(new ComponentPool<RunSpeed>(RunSpeed.class) {
+			@Override
+			protected RunSpeed newObject() {
+				return new RunSpeed();
+			}
+		}, size);
+		
+		this.registerComponentType(new ComponentPool<SkillModifiers>(SkillModifiers.class) {
+			@Override
+			protected SkillModifiers newObject() {
+				return new SkillModifiers();
+			}
+		}, size);
+		
+		this.registerComponentType(new ComponentPool<ThirdPersonCamera>(ThirdPersonCamera.class) {
+			@Override
+			protected ThirdPersonCamera newObject() {
+				return new ThirdPersonCamera();
+			}
+		}, size);
+		
+		this.registerComponentType(new ComponentPool<Weapon>(Weapon.class) {
+			@Override
+			protected Weapon newObject() {
+				return new Weapon();
+			}
+		}, size);
+	}
+	
+	/**
+	 * Register a component type, giving it the next type id. If the type is already
+	 * registered nothing happens.
+	 * 
+	 * @param pool the pool which creates components of the type
+	 * @param prewarm the number of components to create up front
+	 */
+	synchronized public <T extends Component> void registerComponentType(ComponentPool<T> pool, int prewarm) {
+		if(componentPools.containsKey(pool.getType())) {
+			return;
+		}
+		
+		pool.typeId = pools.size;
+		pools.add(pool);
+		componentPools.put(pool.getType(), pool);
+		pool.prewarm(prewarm);
+	}
+	
+	/**
+	 * Register a type which has no pool of its own. Its constructor is looked up once
+	 * here rather than each time a component is created.
 	 * 
 	 * @param componentType the shape of component to register
+	 * @return the new pool
 	 */
-	private <T extends Component> void registerComponentType(final Class<T> componentType) {
-		if(!componentPools.containsKey(componentType)) {
-			
-			componentPools.put(componentType, new Pool<T>() {
-
-				@Override
-				protected T newObject() {
-					try {
-						return componentType.newInstance();
-					}
-					catch (InstantiationException e) {						
-						e.printStackTrace();
-						System.exit(0);
-						return null;
-					}
-					catch(IllegalAccessException e) {						
-						e.printStackTrace();
-						System.exit(0);
-						return null;
-					}
-				}				
-			});
+	private <T extends Component> ComponentPool<T> registerComponentType(final Class<T> componentType) {
+		final Constructor<T> constructor;
+		try {
+			constructor = componentType.getConstructor();
+		}
+		catch (NoSuchMethodException e) {
+			String message = "Component " + componentType.getSimpleName() + " has no public no argument constructor.";
+			Log.error(Config.REFLECTION_ERR, message, e);
+			throw new GdxRuntimeException(message, e);
 		}
+		
+		ComponentPool<T> pool = new ComponentPool<T>(componentType) {
+			@Override
+			protected T newObject() {
+				try {
+					return constructor.newInstance();
+				}
+				catch (Exception e) {
+					String message = "Could not create component " + componentType.getSimpleName();
+					Log.error(Config.REFLECTION_ERR, message, e);
+					throw new GdxRuntimeException(message, e);
+				}
+			}
+		};
+		
+		this.registerComponentType(pool, 0);
+		return pool;
+	}
+	
+	/**
+	 * Get the pool of the given component type, registering the type if needed.
+	 * 
+	 * @param componentType
+	 * @return the pool of the component type
+	 */
+	@SuppressWarnings("unchecked")
+	synchronized public <T extends Component> ComponentPool<T> getPool(Class<T> componentType) {
+		ComponentPool<T> pool = (ComponentPool<T>) componentPools.get(componentType);
+		if(pool == null) {
+			pool = this.registerComponentType(componentType);
+		}
+		return pool;
+	}
+	
+	/**
+	 * Get the type id of the given component type, registering the type if needed.
+	 * 
+	 * @param componentType
+	 * @return the small integer id of the component type
+	 */
+	public int getTypeId(Class<? extends Component> componentType) {
+		return this.getPool(componentType).getTypeId();
+	}
+	
+	/**
+	 * @return the number of registered component types
+	 */
+	synchronized public int getNumTypes() {
+		return pools.size;
 	}
 	
 	/**
@@ -64,12 +259,8 @@ public class ComponentManager {
 	 * @param componentType
 	 * @return
 	 */
-	@SuppressWarnings("unchecked")
-	public <T extends Component> T newComponentOfType(final Class<T> componentType) {
-		if(!componentPools.containsKey(componentType)) {
-			this.registerComponentType(componentType);			
-		}
-		return (T) componentPools.get(componentType).obtain();
+	synchronized public <T extends Component> T newComponentOfType(final Class<T> componentType) {
+		return this.getPool(componentType).obtain();
 	}
 	
 	/**
@@ -77,14 +268,35 @@ public class ComponentManager {
 	 * @param c the component to free
 	 */
 	@SuppressWarnings("unchecked")
-	public <T extends Component> void free(T c) {
-		if(componentPools.containsKey(c.getClass())) {
+	synchronized public <T extends Component> void free(T c) {
+		ComponentPool<T> pool = (ComponentPool<T>) componentPools.get(c.getClass());
+		if(pool != null) {
 			// free up the resources in the component
 			c.free();
 			
 			// return the component to it's pool
-			((Pool<T>)componentPools.get(c.getClass())).free(c);
+			pool.free(c);
+		}
+	}
+	
+	/**
+	 * Log the hit, miss and peak counters of every pool
+	 */
+	synchronized public void logStatistics() {
+		for(int i = 0; i < pools.size; i += 1) {
+			ComponentPool<? extends Component> pool = pools.get(i);
+			StringBuilder message = StringHelper.getBuilder();
+			message.append(pool.getType().getSimpleName());
+			message.append(" hits: ");
+			message.append(pool.getHits());
+			message.append(" misses: ");
+			message.append(pool.getMisses());
+			message.append(" peak: ");
+			message.append(pool.getPeakInUse());
+			message.append(" free: ");
+			message.append(pool.getFree());
+			Log.info(Config.INFO, message.toString());
 		}
 	}
 	
-}
\ No newline at end of file
+}
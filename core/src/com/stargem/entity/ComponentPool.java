@@ -0,0 +1,112 @@
+/**
+ * 
+ */
+package com.stargem.entity;
+
+import com.badlogic.gdx.utils.Pool;
+import com.stargem.entity.components.Component;
+
+/**
+ * ComponentPool.java
+ * 
+ * A pool of one type of component. Each pool is registered with the component manager
+ * which gives it a small integer type id. Subclasses create new components by calling
+ * the constructor directly so obtaining a component never goes through reflection.
+ * 
+ * The pool counts how many components were obtained from its free list (hits), how many
+ * had to be constructed (misses) and the largest number in use at once (peak), which is
+ * what the pre-warm size of the type should be tuned against.
+ */
+public abstract class ComponentPool<T extends Component> extends Pool<T> {
+
+	private final Class<T> type;
+	int typeId;
+	
+	private int hits;
+	private int misses;
+	private int inUse;
+	private int peakInUse;
+	
+	public ComponentPool(Class<T> type) {
+		super();
+		this.type = type;
+	}
+	
+	/**
+	 * Fill the free list so that the first components obtained are not constructed
+	 * 
+	 * @param size the number of free components to create
+	 */
+	public void prewarm(int size) {
+		for(int i = this.getFree(); i < size; i += 1) {
+			super.free(this.newObject());
+		}
+	}
+	
+	@Override
+	public T obtain() {
+		if(this.getFree() > 0) {
+			hits += 1;
+		}
+		else {
+			misses += 1;
+		}
+		
+		inUse += 1;
+		if(inUse > peakInUse) {
+			peakInUse = inUse;
+		}
+		
+		return super.obtain();
+	}
+	
+	@Override
+	public void free(T component) {
+		inUse -= 1;
+		super.free(component);
+	}
+	
+	/**
+	 * @return the component class held by this pool
+	 */
+	public Class<T> getType() {
+		return type;
+	}
+	
+	/**
+	 * @return the type id given to this pool by the component manager
+	 */
+	public int getTypeId() {
+		return typeId;
+	}
+	
+	/**
+	 * @return the number of components obtained from the free list
+	 */
+	public int getHits() {
+		return hits;
+	}
+	
+	/**
+	 * @return the number of components which had to be constructed when obtained
+	 */
+	public int getMisses() {
+		return misses;
+	}
+	
+	/**
+	 * @return the largest number of components in use at once
+	 */
+	public int getPeakInUse() {
+		return peakInUse;
+	}
+	
+	/**
+	 * Reset the hit, miss and peak counters
+	 */
+	public void resetStatistics() {
+		hits = 0;
+		misses = 0;
+		peakInUse = inUse;
+	}
+}
@@ -0,0 +1,212 @@
+/**
+ *
+ */
+package com.stargem.entity;
+
+import java.util.Iterator;
+
+import com.stargem.entity.components.Component;
+
+/**
+ * ComponentStore.java
+ *
+ * Holds every component of a single type in a dense array. A sparse array indexed
+ * by the entity's slot in the entity manager maps each entity to the position of its
+ * component in the dense array. Lookup, insertion and removal are constant time and
+ * iteration walks a packed array with no holes.
+ *
+ * Removal swaps the last component into the hole left behind. Cursors walk the
+ * dense array from the end to the start so that removing the current element, which
+ * systems regularly do, never causes an element to be skipped.
+ */
+public class ComponentStore<T extends Component> implements EntityView {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	// the bit used for this component type in each entity's component bits
+	private final int typeIndex;
+
+	// maps an entity slot to an index in the dense arrays
+	private int[] sparse;
+
+	// packed entities and their components, the same index refers to the same pair
+	private Entity[] entities;
+	private Object[] components;
+	private int size;
+
+	// shared cursors for callers which do not keep their own
+	private final EntityCursor entityCursor = new EntityCursor();
+	private final ComponentCursor<T> componentCursor = new ComponentCursor<T>();
+
+	public ComponentStore(int typeIndex) {
+		this.typeIndex = typeIndex;
+		this.sparse = new int[INITIAL_CAPACITY];
+		this.entities = new Entity[INITIAL_CAPACITY];
+		this.components = new Object[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * @return the bit used for this component type in each entity's component bits
+	 */
+	public int getTypeIndex() {
+		return typeIndex;
+	}
+
+	/**
+	 * Get the component belonging to the given entity
+	 *
+	 * @param entity
+	 * @return the component or null if the entity does not have one in this store
+	 */
+	@SuppressWarnings("unchecked")
+	public T get(Entity entity) {
+		int slot = entity.index;
+		if(slot >= sparse.length) {
+			return null;
+		}
+		int dense = sparse[slot];
+		if(dense < size && entities[dense] == entity) {
+			return (T) components[dense];
+		}
+		return null;
+	}
+
+	/**
+	 * @param entity
+	 * @return true if the entity has a component in this store
+	 */
+	public boolean contains(Entity entity) {
+		int slot = entity.index;
+		if(slot >= sparse.length) {
+			return false;
+		}
+		int dense = sparse[slot];
+		return dense < size && entities[dense] == entity;
+	}
+
+	/**
+	 * Map the component to the entity, replacing any component already mapped to it.
+	 *
+	 * @param entity
+	 * @param component
+	 * @return the replaced component or null if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public T put(Entity entity, T component) {
+		int slot = entity.index;
+
+		if(slot >= sparse.length) {
+			int[] newSparse = new int[Math.max(slot + 1, sparse.length << 1)];
+			System.arraycopy(sparse, 0, newSparse, 0, sparse.length);
+			sparse = newSparse;
+		}
+
+		int dense = sparse[slot];
+		if(dense < size && entities[dense] == entity) {
+			T old = (T) components[dense];
+			components[dense] = component;
+			return old;
+		}
+
+		if(size == entities.length) {
+			int capacity = size << 1;
+			Entity[] newEntities = new Entity[capacity];
+			Object[] newComponents = new Object[capacity];
+			System.arraycopy(entities, 0, newEntities, 0, size);
+			System.arraycopy(components, 0, newComponents, 0, size);
+			entities = newEntities;
+			components = newComponents;
+		}
+
+		sparse[slot] = size;
+		entities[size] = entity;
+		components[size] = component;
+		size += 1;
+
+		return null;
+	}
+
+	/**
+	 * Unmap the component from the given entity. The last component in the
+	 * dense array is moved into the hole.
+	 *
+	 * @param entity
+	 * @return the removed component or null if the entity had none
+	 */
+	@SuppressWarnings("unchecked")
+	public T remove(Entity entity) {
+		int slot = entity.index;
+		if(slot >= sparse.length) {
+			return null;
+		}
+
+		int dense = sparse[slot];
+		if(dense >= size || entities[dense] != entity) {
+			return null;
+		}
+
+		T removed = (T) components[dense];
+		int last = size - 1;
+
+		if(dense != last) {
+			Entity moved = entities[last];
+			entities[dense] = moved;
+			components[dense] = components[last];
+			sparse[moved.index] = dense;
+		}
+
+		entities[last] = null;
+		components[last] = null;
+		size = last;
+
+		return removed;
+	}
+
+	/**
+	 * @return the number of components in this store
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param index an index into the dense array, 0 to size - 1
+	 * @return the entity at the given dense index
+	 */
+	@Override
+	public Entity getEntity(int index) {
+		return entities[index];
+	}
+
+	/**
+	 * @param index an index into the dense array, 0 to size - 1
+	 * @return the component at the given dense index
+	 */
+	@SuppressWarnings("unchecked")
+	public T getComponent(int index) {
+		return (T) components[index];
+	}
+
+	/**
+	 * Returns the shared cursor over all entities in this store, reset to the start.
+	 * The shared cursor is not reentrant, a caller which may nest loops over the same
+	 * store should keep its own {@link EntityCursor}.
+	 *
+	 * @return the shared entity cursor
+	 */
+	public Iterator<Entity> entities() {
+		return entityCursor.set(this);
+	}
+
+	/**
+	 * Returns the shared cursor over all components in this store, reset to the start.
+	 * The shared cursor is not reentrant, a caller which may nest loops over the same
+	 * store should keep its own {@link ComponentCursor}.
+	 *
+	 * @return the shared component cursor
+	 */
+	public Iterator<T> components() {
+		return componentCursor.set(this);
+	}
+}
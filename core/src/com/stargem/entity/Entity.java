@@ -11,14 +11,33 @@ package com.stargem.entity;
  * An entity contains only an ID. The ID must be set though the
  * Entity manager.
  * 
+ * The ID is the key the entity is persisted under. At runtime an entity is also
+ * identified by a handle packing its slot in the entity manager with the generation
+ * of that slot. Slots are reused once an entity is recycled but the generation is 
+ * bumped, so a handle held after its entity has been recycled can be detected as 
+ * stale in constant time. Entity objects are pooled, hold the handle rather than 
+ * the object when a reference must outlive the current tick.
+ * 
  * @author 	Chris B
  * @date	25 Apr 2013
  * @version	1.0
  */
 public class Entity {
 
+	// handle layout, the low bits hold the slot and the high bits the generation
+	public static final int INDEX_BITS 		= 20;
+	public static final int INDEX_MASK 		= (1 << INDEX_BITS) - 1;
+	public static final int GENERATION_MASK = (1 << (31 - INDEX_BITS)) - 1;
+	
 	protected int id;
 	
+	// the slot this entity occupies in the entity manager, used to index component stores.
+	// unlike the id this never changes while the entity is alive.
+	protected int index;
+	
+	// the generation of the slot when this entity was created
+	protected int generation;
+	
 	/**
 	 * An entity contains only an ID. The ID must be set though the
 	 * Entity manager.
@@ -34,4 +53,13 @@ public class Entity {
 	public int getId() {
 		return id;
 	}
+	
+	/**
+	 * Get the handle of this entity, which stays valid until the entity is recycled
+	 * 
+	 * @return the handle packing the slot and generation of this entity
+	 */
+	public int getHandle() {
+		return (generation << INDEX_BITS) | index;
+	}
 }
\ No newline at end of file
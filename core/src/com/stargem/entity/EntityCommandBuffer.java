@@ -0,0 +1,135 @@
+/**
+ *
+ */
+package com.stargem.entity;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import com.stargem.entity.components.Component;
+
+/**
+ * EntityCommandBuffer.java
+ *
+ * Records structural changes to entities so that they can be applied in one batch at a
+ * sync point in the simulation update. Systems, scripts and contact callbacks record into
+ * the buffer while component stores and queries are being iterated, which means nothing is
+ * added to or removed from a store in the middle of a loop.
+ *
+ * The buffer is not thread safe. Systems may record into it from the scheduler's worker
+ * threads, so every system which records declares a write of {@link EntityCommandBuffer}
+ * and the scheduler never runs two of them at once. Scripts and contact callbacks record on
+ * the simulation thread. Playback happens on the simulation thread while no system is
+ * running. Recording does not allocate once the backing arrays have grown to the size of a
+ * typical tick.
+ */
+public class EntityCommandBuffer {
+
+	private static final int ADD_COMPONENT 		= 0;
+	private static final int REMOVE_COMPONENT 	= 1;
+	private static final int RECYCLE 			= 2;
+
+	private final EntityManager em;
+
+	// each recorded command is the same index across the three arrays, targets are
+	// held as handles so a command for an entity recycled before playback is dropped
+	private final IntArray commands = new IntArray();
+	private final IntArray targets = new IntArray();
+	private final Array<Object> arguments = new Array<Object>();
+
+	EntityCommandBuffer(EntityManager em) {
+		this.em = em;
+	}
+
+	/**
+	 * Create a new entity. The entity is created immediately so that its id can be used
+	 * straight away, but it has no components until they are added, so no system will
+	 * see it before the next playback.
+	 *
+	 * @return the new entity
+	 */
+	public Entity createEntity() {
+		return em.createEntity();
+	}
+
+	/**
+	 * Map the component to the entity at the next playback
+	 *
+	 * @param entity
+	 * @param component
+	 */
+	public <T extends Component> void addComponent(Entity entity, T component) {
+		this.record(ADD_COMPONENT, entity, component);
+	}
+
+	/**
+	 * Remove and free the component of the given type at the next playback
+	 *
+	 * @param entity
+	 * @param type
+	 */
+	public void removeComponent(Entity entity, Class<? extends Component> type) {
+		this.record(REMOVE_COMPONENT, entity, type);
+	}
+
+	/**
+	 * Recycle the entity and all of its components at the next playback
+	 *
+	 * @param entity
+	 */
+	public void recycle(Entity entity) {
+		this.record(RECYCLE, entity, null);
+	}
+
+	private void record(int command, Entity entity, Object argument) {
+		this.commands.add(command);
+		this.targets.add(entity.getHandle());
+		this.arguments.add(argument);
+	}
+
+	/**
+	 * @return the number of commands waiting to be played back
+	 */
+	public int size() {
+		return this.commands.size;
+	}
+
+	/**
+	 * Apply all recorded commands in the order they were recorded and empty the buffer.
+	 * Commands targeting an entity which has already been recycled are dropped, and the
+	 * component of a dropped add is freed. Commands recorded during playback, by component
+	 * free methods or recycle listeners, are applied in the same playback.
+	 */
+	@SuppressWarnings("unchecked")
+	public void playback() {
+		for(int i = 0; i < this.commands.size; i += 1) {
+
+			// a component added to an entity which has been recycled goes back to its pool
+			Entity entity = em.getEntity(this.targets.get(i));
+			if(entity == null) {
+				if(this.commands.get(i) == ADD_COMPONENT) {
+					ComponentManager.getInstance().free((Component) this.arguments.get(i));
+				}
+				continue;
+			}
+
+			switch(this.commands.get(i)) {
+
+				case ADD_COMPONENT:
+					em.addComponent(entity, (Component) this.arguments.get(i));
+					break;
+
+				case REMOVE_COMPONENT:
+					em.removeComponent(entity, (Class<? extends Component>) this.arguments.get(i));
+					break;
+
+				case RECYCLE:
+					em.recycle(entity);
+					break;
+			}
+		}
+
+		this.commands.clear();
+		this.targets.clear();
+		this.arguments.clear();
+	}
+}
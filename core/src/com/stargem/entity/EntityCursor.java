@@ -0,0 +1,108 @@
+/**
+ * 
+ */
+package com.stargem.entity;
+
+import java.util.Iterator;
+
+/**
+ * EntityCursor.java
+ * 
+ * A reusable iterator over the entities of a query or a component store. Each cursor
+ * keeps its own position, so any number of cursors can walk the same query at once, 
+ * nested or from different threads, without disturbing each other. A cursor is created
+ * once by its owner and pointed at a view each time it is used, so iterating allocates
+ * nothing.
+ * 
+ * Like the views themselves, a cursor walks from the end to the start so that the 
+ * current entity can leave the view while it is being processed.
+ * 
+ * <pre>
+ * private final EntityCursor cursor = new EntityCursor();
+ * ...
+ * for(Entity entity : cursor.set(query)) {
+ * </pre>
+ */
+public class EntityCursor implements Iterator<Entity>, Iterable<Entity> {
+
+	private EntityView view;
+	private int index;
+	
+	/**
+	 * Point this cursor at the start of the given query
+	 * 
+	 * @param query
+	 * @return this cursor
+	 */
+	public EntityCursor set(EntityQuery query) {
+		return this.set((EntityView) query);
+	}
+	
+	/**
+	 * Point this cursor at the start of the entities in the given store
+	 * 
+	 * @param store
+	 * @return this cursor
+	 */
+	public EntityCursor set(ComponentStore<?> store) {
+		return this.set((EntityView) store);
+	}
+	
+	/**
+	 * Point this cursor at the start of the entities changed in the given tracker
+	 * 
+	 * @param tracker
+	 * @return this cursor
+	 */
+	public EntityCursor set(ChangeTracker tracker) {
+		return this.set((EntityView) tracker);
+	}
+	
+	private EntityCursor set(EntityView view) {
+		this.view = view;
+		this.index = view.size();
+		return this;
+	}
+	
+	/**
+	 * Point this cursor at nothing, it will have no entities
+	 * 
+	 * @return this cursor
+	 */
+	public EntityCursor clear() {
+		this.view = null;
+		this.index = 0;
+		return this;
+	}
+	
+	@Override
+	public boolean hasNext() {
+		if(view == null) {
+			return false;
+		}
+		
+		// the view may have shrunk since the last call
+		int size = view.size();
+		if(index > size) {
+			index = size;
+		}
+		return index > 0;
+	}
+	
+	@Override
+	public Entity next() {
+		index -= 1;
+		return view.getEntity(index);
+	}
+	
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("Remove components through the entity manager.");
+	}
+	
+	@Override
+	public Iterator<Entity> iterator() {
+		return this;
+	}
+	
+}
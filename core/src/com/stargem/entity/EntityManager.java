@@ -3,10 +3,10 @@ package com.stargem.entity;
 import java.util.Iterator;
 
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Bits;
+import com.badlogic.gdx.utils.IdentityMap;
 import com.badlogic.gdx.utils.IntArray;
 import com.badlogic.gdx.utils.IntMap;
-import com.badlogic.gdx.utils.ObjectMap;
-import com.badlogic.gdx.utils.PooledLinkedList;
 import com.stargem.Config;
 import com.stargem.entity.components.Component;
 import com.stargem.utils.Log;
@@ -16,6 +16,19 @@ import com.stargem.utils.Log;
  * 
  * Modified in java to use Generics: instead of having a "ComponentType" enum, we use the class shape
  * of each subclass instead. This is safer.
+ * 
+ * Components of each type are held in a {@link ComponentStore}, a dense array indexed through
+ * the slot each entity is given when it is created.
+ * 
+ * A slot table maps each slot to its live entity, the generation of the slot and the entity's
+ * position in the list of all entities, so creating, looking up, recycling and checking a handle
+ * for staleness are all constant time.
+ * 
+ * Reads do not lock, so systems on the scheduler's worker threads look up components without
+ * contending for the manager. Entities and components are only created and removed between
+ * the scheduler's phases, at the sync points where the command buffer is played back, while no
+ * system is running. The map of component stores is replaced rather than changed when a new
+ * type is first seen, so it can be read at any time.
  */
 
 public class EntityManager {
@@ -23,34 +36,44 @@ public class EntityManager {
 	private static final Array<Entity> entityPool = new Array<Entity>();
 
 	private int lowestUnassignedEntityID = 1;
-	private final IntArray recycledID = new IntArray();
 	private final Array<Entity> allEntities;
-	private final ObjectMap<Class<?>, ObjectMap<Entity, ? extends Component>> componentStores;
-	private final ObjectMap<Entity, PooledLinkedList<? extends Component>> entityComponents;
 	private final IntMap<Entity> entityId;
+	
+	// each component type is kept in its own dense store indexed by entity slot
+	private volatile IdentityMap<Class<?>, ComponentStore<? extends Component>> componentStores;
+	private final Array<ComponentStore<? extends Component>> allStores;
+	
+	// entity slots index the component stores, freed slots are reused
+	private int nextEntityIndex = 0;
+	private final IntArray recycledIndex = new IntArray();
+	
+	// the slot table: the live entity, generation and position in allEntities of each slot
+	private Entity[] slots = new Entity[64];
+	private int[] generations = new int[64];
+	private int[] positions = new int[64];
+	
+	// the component type bits of each entity indexed by slot, and the queries matched against them
+	private Bits[] componentBits = new Bits[64];
+	private final Array<EntityQuery> queries = new Array<EntityQuery>();
+	
+	// one change tracker per consumer of component changes
+	private final Array<ChangeTracker> changeTrackers = new Array<ChangeTracker>();
+	
+	// changes marked by systems on the scheduler's worker threads, kept per thread so the
+	// threads never wait for each other and merged into the trackers by the scheduler
+	private final ThreadLocal<ChangeBuffer> changeBuffer = new ThreadLocal<ChangeBuffer>();
+	private final Array<ChangeBuffer> changeBuffers = new Array<ChangeBuffer>();
 
-	// null iterator is returned if a map of components does not exist. This saves having to 
+	// null iterators are returned if a map of components does not exist. This saves having to 
 	// deal with returning nulls, which is messy
-	public final Iterator<Entity> nullEntityIterator = new Iterator<Entity>() {
-
-		@Override
-		public boolean hasNext() {
-			return false;
-		}
-
-		@Override
-		public Entity next() {
-			return null;
-		}
-
-		@Override
-		public void remove() {
-		}
-
-	};
+	public final Iterator<Entity> nullEntityIterator = new EntityCursor();
+	private final Iterator<? extends Component> nullComponentIterator = new ComponentCursor<Component>();
 
 	// registered observers
 	private final Array<EntityRecycleListener> recycleListeners = new Array<EntityRecycleListener>();
+	
+	// structural changes recorded during the simulation update and applied at sync points
+	private final EntityCommandBuffer commandBuffer = new EntityCommandBuffer(this);
 
 	private static final EntityManager instance = new EntityManager();
 
@@ -60,90 +83,146 @@ public class EntityManager {
 
 	private EntityManager() {
 		allEntities = new Array<Entity>();
-		componentStores = new ObjectMap<Class<?>, ObjectMap<Entity, ? extends Component>>();
-		entityComponents = new ObjectMap<Entity, PooledLinkedList<? extends Component>>();
 		entityId = new IntMap<Entity>();
+		componentStores = new IdentityMap<Class<?>, ComponentStore<? extends Component>>();
+		allStores = new Array<ComponentStore<? extends Component>>();
 	}
 
 	/**
 	 * get the component of the given entity
 	 */
 	@SuppressWarnings("unchecked")
-	synchronized public <T extends Component> T getComponent(Entity entity, Class<T> componentType) {
+	public <T extends Component> T getComponent(Entity entity, Class<T> componentType) {
 
-		ObjectMap<Entity, ? extends Component> store = componentStores.get(componentType);
+		ComponentStore<? extends Component> store = componentStores.get(componentType);
 
 		if (store == null) {
 			return null;
 			//throw new IllegalArgumentException( "GET FAIL: there are no entities with a Component of class: "+componentType );
 		}
 
-		T result = (T) store.get(entity);
-		if (result == null) {
-			//Log.debug(Config.ENTITY_ERR, "No component of type " + componentType.getName() + " returning null");
-			return null;
-			//throw new IllegalArgumentException( "GET FAIL: "+entity+" does not possess Component of class\n   missing: "+componentType );
+		return (T) store.get(entity);
+	}
+
+	/**
+	 * return a list of all components of the given shape. The returned cursor is 
+	 * shared by all callers and is not reentrant.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends Component> Iterator<T> getAllComponentsOfType(Class<T> componentType) {
+		ComponentStore<? extends Component> store = componentStores.get(componentType);
+
+		if (store == null) {
+			return (Iterator<T>) this.nullComponentIterator;
 		}
 
-		return result;
+		return (Iterator<T>) store.components();
 	}
 
 	/**
-	 * return a list of all components of the given shape
+	 * return a list of all components of the given shape using the caller's own cursor,
+	 * which may be nested inside other loops.
+	 * 
+	 * @param componentType
+	 * @param cursor the cursor to point at the components
+	 * @return the given cursor
 	 */
-	@SuppressWarnings("unchecked")
-	synchronized public <T extends Component> Iterator<T> getAllComponentsOfType(Class<T> componentType) {
-		ObjectMap<Entity, ? extends Component> store = componentStores.get(componentType);
+	public <T extends Component> ComponentCursor<T> getAllComponentsOfType(Class<T> componentType, ComponentCursor<T> cursor) {
+		if (!componentStores.containsKey(componentType)) {
+			return cursor.clear();
+		}
+		return cursor.set(this.getStore(componentType));
+	}
+
+	/**
+	 * return a set of all entities which are mapped to a component. The returned
+	 * cursor is shared by all callers and is not reentrant.
+	 */
+	public <T extends Component> Iterator<Entity> getAllEntitiesPossessingComponent(Class<T> componentType) {
+
+		ComponentStore<? extends Component> store = componentStores.get(componentType);
 
-		// TODO this allocates memory how can this be fixed?
 		if (store == null) {
-			return new Iterator<T>() {
+			return this.nullEntityIterator;
+		}
 
-				@Override
-				public boolean hasNext() {
-					return false;
-				}
+		return store.entities();
+	}
 
-				@Override
-				public T next() {
-					return null;
-				}
+	/**
+	 * return a set of all entities which are mapped to a component using the caller's 
+	 * own cursor, which may be nested inside other loops.
+	 * 
+	 * @param componentType
+	 * @param cursor the cursor to point at the entities
+	 * @return the given cursor
+	 */
+	public <T extends Component> EntityCursor getAllEntitiesPossessingComponent(Class<T> componentType, EntityCursor cursor) {
 
-				@Override
-				public void remove() {
-				}
-			};
+		ComponentStore<? extends Component> store = componentStores.get(componentType);
+
+		if (store == null) {
+			return cursor.clear();
 		}
 
-		return (Iterator<T>) store.values();
+		return cursor.set(store);
 	}
 
 	/**
-	 * return a set of all entities which are mapped to a component
+	 * Get the store holding all components of the given type. The store is created
+	 * if it does not exist yet and uses the type id given by the component manager.
+	 * 
+	 * @param componentType
+	 * @return the store for the given component type
 	 */
-	synchronized public <T extends Component> Iterator<Entity> getAllEntitiesPossessingComponent(Class<T> componentType) {
+	@SuppressWarnings("unchecked")
+	public <T extends Component> ComponentStore<T> getStore(Class<T> componentType) {
+		ComponentStore<? extends Component> store = componentStores.get(componentType);
+
+		if (store == null) {
+			store = this.createStore(componentType);
+		}
+
+		return (ComponentStore<T>) store;
+	}
 
-		ObjectMap<Entity, ? extends Component> store = componentStores.get(componentType);
+	synchronized private <T extends Component> ComponentStore<? extends Component> createStore(Class<T> componentType) {
+		ComponentStore<? extends Component> store = componentStores.get(componentType);
 
 		if (store == null) {
-			return this.nullEntityIterator;
+			store = new ComponentStore<T>(ComponentManager.getInstance().getTypeId(componentType));
+			allStores.add(store);
+
+			// readers do not lock so they are given a new map instead of one changing under them
+			IdentityMap<Class<?>, ComponentStore<? extends Component>> stores = new IdentityMap<Class<?>, ComponentStore<? extends Component>>(componentStores);
+			stores.put(componentType, store);
+			componentStores = stores;
 		}
 
-		return store.keys();
+		return store;
 	}
 
 	/**
-	 * Get a list of components attached to the given entity.
+	 * Get a list of components attached to the given entity. The list given
+	 * is cleared and then populated.
 	 * 
 	 * @param entity
-	 * @return
+	 * @param components the list to populate
+	 * @return the populated list
 	 */
-	synchronized public PooledLinkedList<? extends Component> getComponents(Entity entity) {
-		PooledLinkedList<? extends Component> components = this.entityComponents.get(entity);
+	public Array<Component> getComponents(Entity entity, Array<Component> components) {
+		components.clear();
 
-		if (components == null) {
-			components = new PooledLinkedList<Component>(Integer.MAX_VALUE);
-			this.entityComponents.put(entity, components);
+		// reading the map first makes every store added before it was published visible
+		if (componentStores.size == 0) {
+			return components;
+		}
+
+		for (int i = 0, n = allStores.size; i < n; i += 1) {
+			Component c = allStores.get(i).get(entity);
+			if (c != null) {
+				components.add(c);
+			}
 		}
 
 		return components;
@@ -154,56 +233,207 @@ public class EntityManager {
 	 */
 	@SuppressWarnings("unchecked")
 	synchronized public <T extends Component> void addComponent(Entity entity, T component) {
-		ObjectMap<Entity, ? extends Component> store = componentStores.get(component.getClass());
+		ComponentStore<T> store = (ComponentStore<T>) this.getStore(component.getClass());
+
+		// a replaced component does not change which queries the entity matches
+		if (store.put(entity, component) == null) {
+			Bits bits = this.getComponentBits(entity);
+			bits.set(store.getTypeIndex());
+			this.updateQueries(entity, bits);
+		}
+		
+		this.markChanged(entity, store.getTypeIndex());
+	}
 
+	/**
+	 * Un-map a component from an entity and recycle it.
+	 * 
+	 * @param e
+	 * @param type
+	 */
+	synchronized public void removeComponent(Entity e, Class<? extends Component> type) {
+
+		ComponentStore<? extends Component> store = componentStores.get(type);
 		if (store == null) {
-			store = new ObjectMap<Entity, T>();
-			componentStores.put(component.getClass(), store);
+			return;
 		}
 
-		((ObjectMap<Entity, T>) store).put(entity, component);
+		// if the entity has no component of this type we are done
+		Component c = store.remove(e);
+		if (c == null) {
+			return;
+		}
 
-		// this data structure is used for recycling entities
-		PooledLinkedList<? extends Component> components = this.entityComponents.get(entity);
+		Bits bits = this.getComponentBits(e);
+		bits.clear(store.getTypeIndex());
+		this.updateQueries(e, bits);
+		this.markChanged(e, store.getTypeIndex());
 
-		if (components == null) {
-			components = new PooledLinkedList<Component>(Integer.MAX_VALUE);
-			this.entityComponents.put(entity, components);
+		// recycle the component
+		ComponentManager.getInstance().free(c);
+	}
+
+	/**
+	 * Create a query which tracks all entities matching the given aspect. The query is
+	 * kept up to date as components are added and removed, so it should be created once
+	 * and reused rather than created each tick.
+	 * 
+	 * @param aspect the component types the matching entities must and must not have
+	 * @return the new query populated with the currently matching entities
+	 */
+	synchronized public EntityQuery createQuery(Aspect aspect) {
+		Bits all = new Bits();
+		Bits none = new Bits();
+
+		for (Class<? extends Component> type : aspect.all) {
+			all.set(this.getStore(type).getTypeIndex());
+		}
+		for (Class<? extends Component> type : aspect.none) {
+			none.set(this.getStore(type).getTypeIndex());
+		}
+
+		EntityQuery query = new EntityQuery(all, none);
+		for (Entity entity : allEntities) {
+			query.update(entity, this.getComponentBits(entity));
 		}
 
-		((PooledLinkedList<T>) components).add(component);
+		this.queries.add(query);
+		return query;
 	}
 
 	/**
-	 * Un-map a component from an entity. this is a relatively slow process because the list of
-	 * components is walked to find an instance of the component type.
+	 * Stop tracking the given query
 	 * 
-	 * @param e
+	 * @param query
+	 */
+	synchronized public void removeQuery(EntityQuery query) {
+		this.queries.removeValue(query, true);
+	}
+
+	/**
+	 * Create a tracker which records every component change from now on. Each consumer
+	 * of changes, persistence, network or renderer, should create its own tracker once
+	 * and clear it as it handles the changes.
+	 * 
+	 * @return the new tracker
+	 */
+	synchronized public ChangeTracker createChangeTracker() {
+		ChangeTracker tracker = new ChangeTracker();
+		this.changeTrackers.add(tracker);
+		return tracker;
+	}
+
+	/**
+	 * Stop recording changes in the given tracker
+	 * 
+	 * @param tracker
+	 */
+	synchronized public void removeChangeTracker(ChangeTracker tracker) {
+		this.changeTrackers.removeValue(tracker, true);
+	}
+
+	/**
+	 * Mark the component of the given type as changed in every change tracker. Systems 
+	 * and scripts call this after modifying the fields of a component. Systems should 
+	 * look the type id up once and use {@link #markDirty(Entity, int)}.
+	 * 
+	 * @param entity
 	 * @param type
 	 */
-	synchronized public void removeComponent(Entity e, Class<? extends Component> type) {
+	public void markDirty(Entity entity, Class<? extends Component> type) {
+		this.markDirty(entity, ComponentManager.getInstance().getTypeId(type));
+	}
 
-		// get the component so we can recycle it in a moment if it is null we are done
-		Component c = this.getComponent(e, type);
-		if (c == null) {
-			return;
+	/**
+	 * Mark the component with the given type id as changed in every change tracker. On a
+	 * thread whose changes are deferred the change is only recorded in the thread's own 
+	 * buffer, without locking, until {@link #mergeChanges()}.
+	 * 
+	 * @param entity
+	 * @param typeId the id of the component type from {@link ComponentManager#getTypeId(Class)}
+	 */
+	public void markDirty(Entity entity, int typeId) {
+		ChangeBuffer buffer = this.changeBuffer.get();
+		if (buffer != null) {
+			buffer.add(entity, typeId);
 		}
+		else {
+			this.markChanged(entity, typeId);
+		}
+	}
 
-		// get the component store so we can unmap the component
-		ObjectMap<Entity, ? extends Component> store = componentStores.get(type);
-		store.remove(e);
+	/**
+	 * Keep the changes marked on the calling thread in a buffer of its own from now on. 
+	 * This is called by the system scheduler on its worker threads.
+	 */
+	public void deferChanges() {
+		if (this.changeBuffer.get() == null) {
+			ChangeBuffer buffer = new ChangeBuffer();
+			synchronized (this.changeBuffers) {
+				this.changeBuffers.add(buffer);
+			}
+			this.changeBuffer.set(buffer);
+		}
+	}
 
-		// iterate over the list of component for this entity and remove any with the given class type
-		PooledLinkedList<? extends Component> components = this.entityComponents.get(e);
-		Component component = null;
-		for (components.iter(); (component = components.next()) != null;) {
-			if (component.getClass().equals(type)) {
-				components.remove();
+	/**
+	 * Mark the changes kept by every deferring thread in the trackers. This is called by the
+	 * system scheduler once its systems have finished, before any entity can be recycled.
+	 */
+	public void mergeChanges() {
+		synchronized (this.changeBuffers) {
+			for (int i = 0, n = changeBuffers.size; i < n; i += 1) {
+				ChangeBuffer buffer = changeBuffers.get(i);
+				for (int j = 0, m = buffer.entities.size; j < m; j += 1) {
+					this.markChanged(buffer.entities.get(j), buffer.typeIds.get(j));
+				}
+				buffer.entities.clear();
+				buffer.typeIds.clear();
 			}
 		}
+	}
 
-		// recycle the component
-		ComponentManager.getInstance().free(c);
+	private void markChanged(Entity entity, int typeId) {
+		for (int i = 0, n = changeTrackers.size; i < n; i += 1) {
+			changeTrackers.get(i).mark(entity, typeId);
+		}
+	}
+
+	/**
+	 * Get the component type bits of the given entity, one bit is set for each
+	 * type of component attached to it.
+	 * 
+	 * @param entity
+	 * @return the component type bits of the entity
+	 */
+	private Bits getComponentBits(Entity entity) {
+		int slot = entity.index;
+
+		if (slot >= componentBits.length) {
+			Bits[] newBits = new Bits[Math.max(slot + 1, componentBits.length << 1)];
+			System.arraycopy(componentBits, 0, newBits, 0, componentBits.length);
+			componentBits = newBits;
+		}
+
+		Bits bits = componentBits[slot];
+		if (bits == null) {
+			bits = new Bits();
+			componentBits[slot] = bits;
+		}
+
+		return bits;
+	}
+
+	/**
+	 * Add the entity to or remove it from each query according to its component bits
+	 * 
+	 * @param entity
+	 * @param bits
+	 */
+	private void updateQueries(Entity entity, Bits bits) {
+		for (int i = 0, n = queries.size; i < n; i += 1) {
+			queries.get(i).update(entity, bits);
+		}
 	}
 
 	/**
@@ -231,45 +461,96 @@ public class EntityManager {
 		else {
 			entity = entityPool.pop();
 		}
+		
+		int slot;
+		if (recycledIndex.size > 0) {
+			slot = recycledIndex.pop();
+		}
+		else {
+			if (nextEntityIndex > Entity.INDEX_MASK) {
+				throw new Error("ERROR: no available Entity slots; too many entities!");
+			}
+			slot = nextEntityIndex++;
+			this.ensureSlotCapacity(slot + 1);
+		}
+		
 		entity.id = entityID;
+		entity.index = slot;
+		entity.generation = generations[slot];
+		
+		slots[slot] = entity;
+		positions[slot] = allEntities.size;
 		allEntities.add(entity);
 		entityId.put(entityID, entity);
 		return entity;
 	}
+	
+	private void ensureSlotCapacity(int capacity) {
+		if (capacity <= slots.length) {
+			return;
+		}
+		int newCapacity = Math.max(capacity, slots.length << 1);
+		
+		Entity[] newSlots = new Entity[newCapacity];
+		System.arraycopy(slots, 0, newSlots, 0, slots.length);
+		slots = newSlots;
+		
+		int[] newGenerations = new int[newCapacity];
+		System.arraycopy(generations, 0, newGenerations, 0, generations.length);
+		generations = newGenerations;
+		
+		int[] newPositions = new int[newCapacity];
+		System.arraycopy(positions, 0, newPositions, 0, positions.length);
+		positions = newPositions;
+	}
 
 	/**
-	 * Get an ID from the recycled ID array. If there are none in the array
-	 * then generate a new one, if we have reached Integer.MAX_VALUE then
-	 * an error is thrown.
+	 * Generate a new entity ID. Slots are reused through generations so IDs
+	 * are never reused, which keeps them safe to use as database keys. If we 
+	 * have reached Integer.MAX_VALUE then an error is thrown.
 	 */
 	public int generateNewEntityID() {
 		synchronized (this) // prevent it generating two entities with same ID at once
 		{
-			if (recycledID.size > 0) {
-				return recycledID.pop();
+			if (lowestUnassignedEntityID < Integer.MAX_VALUE) {
+				return lowestUnassignedEntityID++;
 			}
 			else {
-				if (lowestUnassignedEntityID < Integer.MAX_VALUE) {
-					return lowestUnassignedEntityID++;
-				}
-				else {
-					throw new Error("ERROR: no available Entity IDs; too many entities!");
-				}
+				throw new Error("ERROR: no available Entity IDs; too many entities!");
 			}
 		}
 	}
 
 	/**
-	 * remove an entity freeing up its id.
+	 * remove an entity freeing up its slot.
 	 */
 	private void killEntity(Entity entity) {
 		synchronized (this) // make this thread safe
 		{
-			recycledID.add(entity.id);
-			if (entityId.containsValue(entity, false)) {
-				entityId.remove(entityId.findKey(entity, false, 0));
+			int slot = entity.index;
+			
+			if (entityId.get(entity.id) == entity) {
+				entityId.remove(entity.id);
+			}
+			
+			// move the last entity into the hole left in the list of all entities
+			int position = positions[slot];
+			Entity last = allEntities.pop();
+			if (last != entity) {
+				allEntities.set(position, last);
+				positions[last.index] = position;
+			}
+			
+			// the slot will be reused, recycled entities are reported through the recycle listeners
+			for (int i = 0, n = changeTrackers.size; i < n; i += 1) {
+				changeTrackers.get(i).clear(entity);
 			}
-			allEntities.removeValue(entity, false);
+			
+			// bump the generation so that any handle to this entity becomes stale
+			slots[slot] = null;
+			generations[slot] = (generations[slot] + 1) & Entity.GENERATION_MASK;
+			recycledIndex.add(slot);
+			
 			entityPool.add(entity);
 			entity.id = 0;
 		}
@@ -284,27 +565,26 @@ public class EntityManager {
 	public void recycle(Entity entity) {
 		int id = entity.id;
 		synchronized (this) {
-			PooledLinkedList<? extends Component> components = this.entityComponents.get(entity);
-			if (components != null) {
-
-				ComponentManager componentManager = ComponentManager.getInstance();
+			// an entity recycled twice has already been freed
+			if (slots[entity.index] != entity) {
+				return;
+			}
 
-				// free the entity id
-				this.killEntity(entity);
+			ComponentManager componentManager = ComponentManager.getInstance();
 
-				// free each component				
-				Component c = null;
-				for (components.iter(); (c = components.next()) != null;) {
+			// remove the entity from every component store and free each component
+			for (int i = 0, n = allStores.size; i < n; i += 1) {
+				Component c = allStores.get(i).remove(entity);
+				if (c != null) {
 					componentManager.free(c);
-
-					// remove the component from the component store
-					ObjectMap<Entity, ? extends Component> store = componentStores.get(c.getClass());
-					store.remove(entity);
 				}
-
-				// remove the entity and component from the component store
-				this.entityComponents.remove(entity);
 			}
+
+			// free the slot, including that of an entity which was never given a component
+			Bits bits = this.getComponentBits(entity);
+			bits.clear();
+			this.updateQueries(entity, bits);
+			this.killEntity(entity);
 		}
 
 		// update listeners
@@ -333,10 +613,62 @@ public class EntityManager {
 	 * @param e
 	 */
 	public void setEntityId(Entity e, int id) {
+		if (entityId.get(e.id) == e) {
+			entityId.remove(e.id);
+		}
 		entityId.put(id, e);
 		e.id = id;
 	}
 
+	/**
+	 * Check whether the given entity is still alive. Entity objects are pooled, so
+	 * this cannot tell a recycled entity from a new one reusing the same object, use 
+	 * a handle when a reference is held across ticks.
+	 * 
+	 * @param entity
+	 * @return true if the entity has not been recycled
+	 */
+	public boolean isAlive(Entity entity) {
+		return slots[entity.index] == entity;
+	}
+
+	/**
+	 * Check whether the entity with the given handle is still alive
+	 * 
+	 * @param handle
+	 * @return false if the handle is stale
+	 */
+	public boolean isAlive(int handle) {
+		return this.getEntity(handle) != null;
+	}
+
+	/**
+	 * Get the entity with the given handle
+	 * 
+	 * @param handle
+	 * @return the entity or null if it has been recycled since the handle was taken
+	 */
+	public Entity getEntity(int handle) {
+		int slot = handle & Entity.INDEX_MASK;
+		if (slot >= nextEntityIndex) {
+			return null;
+		}
+		if (generations[slot] != (handle >>> Entity.INDEX_BITS)) {
+			return null;
+		}
+		return slots[slot];
+	}
+
+	/**
+	 * Get the command buffer which systems, scripts and contact callbacks use to 
+	 * record structural changes while the simulation is updating.
+	 * 
+	 * @return the command buffer
+	 */
+	public EntityCommandBuffer getCommandBuffer() {
+		return this.commandBuffer;
+	}
+
 	/**
 	 * @return the entity with the given id
 	 */
@@ -345,11 +677,12 @@ public class EntityManager {
 	}
 
 	/**
-	 * Get all the entities as an Iterable.
+	 * Get all the entities as an Iterable. The list is unordered, recycling an entity 
+	 * moves the last entity into its place, so iterate backwards when recycling.
 	 * 
 	 * @return all the entities as an Iterable.
 	 */
-	synchronized public Array<Entity> getAllEntities() {
+	public Array<Entity> getAllEntities() {
 		return this.allEntities;
 	}
 
@@ -385,4 +718,25 @@ public class EntityManager {
 		Log.debug(Config.ENTITY_ERR, "Next Entity ID set to " + id);
 		this.lowestUnassignedEntityID = id;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @return the id the next entity created without an id will be given
+	 */
+	public int getLowestUnusedEntityID() {
+		return this.lowestUnassignedEntityID;
+	}
+
+	/**
+	 * The changes marked on one thread waiting to be merged
+	 */
+	private static class ChangeBuffer {
+		final Array<Entity> entities = new Array<Entity>(false, 64);
+		final IntArray typeIds = new IntArray(false, 64);
+
+		void add(Entity entity, int typeId) {
+			entities.add(entity);
+			typeIds.add(typeId);
+		}
+	}
+
+}
@@ -0,0 +1,154 @@
+/**
+ *
+ */
+package com.stargem.entity;
+
+import java.util.Iterator;
+
+import com.badlogic.gdx.utils.Bits;
+
+/**
+ * EntityQuery.java
+ *
+ * The set of entities matching an {@link Aspect}. Queries are created through the entity
+ * manager which keeps their membership up to date whenever a component is added or removed,
+ * so a system can iterate exactly its matching entities without probing for components and
+ * without rebuilding anything each tick.
+ *
+ * Like a component store, the matching entities are packed into a dense array and walked by
+ * cursors from the end to the start so that an entity can leave the query while it is being 
+ * processed.
+ */
+public class EntityQuery implements EntityView {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	// the component type bits an entity must and must not have
+	private final Bits all;
+	private final Bits none;
+
+	// maps an entity slot to an index in the dense array
+	private int[] sparse;
+	private Entity[] entities;
+	private int size;
+
+	// shared cursor for callers which do not keep their own
+	private final EntityCursor cursor = new EntityCursor();
+
+	EntityQuery(Bits all, Bits none) {
+		this.all = all;
+		this.none = none;
+		this.sparse = new int[INITIAL_CAPACITY];
+		this.entities = new Entity[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * @param componentBits the component type bits of an entity
+	 * @return true if an entity with the given bits belongs in this query
+	 */
+	boolean matches(Bits componentBits) {
+		return componentBits.containsAll(all) && !componentBits.intersects(none);
+	}
+
+	/**
+	 * Add or remove the entity depending on whether its components match.
+	 *
+	 * @param entity
+	 * @param componentBits the component type bits of the entity
+	 */
+	void update(Entity entity, Bits componentBits) {
+		boolean matches = this.matches(componentBits);
+		boolean contains = this.contains(entity);
+
+		if(matches && !contains) {
+			this.add(entity);
+		}
+		else if(!matches && contains) {
+			this.remove(entity);
+		}
+	}
+
+	/**
+	 * @param entity
+	 * @return true if the entity currently matches this query
+	 */
+	public boolean contains(Entity entity) {
+		int slot = entity.index;
+		if(slot >= sparse.length) {
+			return false;
+		}
+		int dense = sparse[slot];
+		return dense < size && entities[dense] == entity;
+	}
+
+	private void add(Entity entity) {
+		int slot = entity.index;
+
+		if(slot >= sparse.length) {
+			int[] newSparse = new int[Math.max(slot + 1, sparse.length << 1)];
+			System.arraycopy(sparse, 0, newSparse, 0, sparse.length);
+			sparse = newSparse;
+		}
+
+		if(size == entities.length) {
+			Entity[] newEntities = new Entity[size << 1];
+			System.arraycopy(entities, 0, newEntities, 0, size);
+			entities = newEntities;
+		}
+
+		sparse[slot] = size;
+		entities[size] = entity;
+		size += 1;
+	}
+
+	/**
+	 * Remove the entity, the last entity in the dense array is moved into the hole.
+	 *
+	 * @param entity
+	 */
+	void remove(Entity entity) {
+		if(!this.contains(entity)) {
+			return;
+		}
+
+		int dense = sparse[entity.index];
+		int last = size - 1;
+
+		if(dense != last) {
+			Entity moved = entities[last];
+			entities[dense] = moved;
+			sparse[moved.index] = dense;
+		}
+
+		entities[last] = null;
+		size = last;
+	}
+
+	/**
+	 * @return the number of matching entities
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param index an index into the dense array, 0 to size - 1
+	 * @return the matching entity at the given index
+	 */
+	@Override
+	public Entity getEntity(int index) {
+		return entities[index];
+	}
+
+	/**
+	 * Returns the shared cursor over all matching entities, reset to the start.
+	 * The shared cursor is not reentrant, a caller which may nest loops over the 
+	 * same query should keep its own {@link EntityCursor}.
+	 *
+	 * @return the shared entity cursor
+	 */
+	public Iterator<Entity> entities() {
+		return cursor.set(this);
+	}
+}
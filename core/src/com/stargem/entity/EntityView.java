@@ -0,0 +1,24 @@
+/**
+ * 
+ */
+package com.stargem.entity;
+
+/**
+ * EntityView.java
+ * 
+ * A packed, index addressable list of entities which a cursor can walk.
+ */
+interface EntityView {
+
+	/**
+	 * @return the number of entities in the view
+	 */
+	public int size();
+	
+	/**
+	 * @param index 0 to size - 1
+	 * @return the entity at the given index
+	 */
+	public Entity getEntity(int index);
+	
+}
@@ -2,20 +2,50 @@ package com.stargem.entity.systems;
 
 import java.util.Iterator;
 
+import com.badlogic.gdx.utils.Array;
+import com.stargem.entity.Aspect;
 import com.stargem.entity.Entity;
+import com.stargem.entity.EntityCursor;
 import com.stargem.entity.EntityManager;
+import com.stargem.entity.EntityQuery;
 
 public abstract class AbstractSystem implements SubSystem {
 
 	protected Iterator<Entity> entities;
 	protected final EntityManager em = EntityManager.getInstance();
 	
+	// the entities this system processes, null if the system selects its own entities
+	protected final EntityQuery query;
+	
+	// this system's own position in its query, so scripts or other systems walking 
+	// the same query cannot disturb it
+	private final EntityCursor cursor = new EntityCursor();
+	
+	// the component types and resources this system touches, used to schedule systems
+	private final Array<Class<?>> reads = new Array<Class<?>>();
+	private final Array<Class<?>> writes = new Array<Class<?>>();
+	private boolean exclusive;
+	
 	public AbstractSystem() {
 		this.entities = em.nullEntityIterator;
+		this.query = null;
+	}
+	
+	/**
+	 * A system which processes every entity matching the given aspect.
+	 * 
+	 * @param aspect the component types an entity must and must not have to be processed
+	 */
+	public AbstractSystem(Aspect aspect) {
+		this.entities = em.nullEntityIterator;
+		this.query = em.createQuery(aspect);
 	}
 	
 	@Override
 	public void process(float delta) {
+		if(query != null) {
+			entities = cursor.set(query);
+		}
 		while(entities.hasNext()) {
 			process(delta, entities.next());
 		}
@@ -24,4 +54,44 @@ public abstract class AbstractSystem implements SubSystem {
 	@Override
 	public abstract void process(float delta, Entity entity);
 	
-}
\ No newline at end of file
+	/**
+	 * Declare the component types or shared resources this system only reads.
+	 * 
+	 * @param types
+	 */
+	protected void declareReads(Class<?>... types) {
+		this.reads.addAll(types);
+	}
+	
+	/**
+	 * Declare the component types or shared resources this system modifies.
+	 * 
+	 * @param types
+	 */
+	protected void declareWrites(Class<?>... types) {
+		this.writes.addAll(types);
+	}
+	
+	/**
+	 * Declare that this system may touch anything, for example by running scripts.
+	 */
+	protected void declareExclusive() {
+		this.exclusive = true;
+	}
+	
+	@Override
+	public Array<Class<?>> getReads() {
+		return this.reads;
+	}
+	
+	@Override
+	public Array<Class<?>> getWrites() {
+		return this.writes;
+	}
+	
+	@Override
+	public boolean isExclusive() {
+		return this.exclusive;
+	}
+	
+}
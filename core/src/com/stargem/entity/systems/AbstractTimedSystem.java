@@ -1,5 +1,7 @@
 package com.stargem.entity.systems;
 
+import com.stargem.entity.Aspect;
+
 
 public abstract class AbstractTimedSystem extends AbstractSystem {
 
@@ -16,6 +18,19 @@ public abstract class AbstractTimedSystem extends AbstractSystem {
 		this.frequency = frequency;
 		this.timer = frequency;
 	}
+	
+	/**
+	 * A system which is processed on a timer, processing every entity 
+	 * matching the given aspect.
+	 * 
+	 * @param frequency in nanoseconds
+	 * @param aspect the component types an entity must and must not have to be processed
+	 */
+	public AbstractTimedSystem(float frequency, Aspect aspect) {
+		super(aspect);
+		this.frequency = frequency;
+		this.timer = frequency;
+	}
 
 	@Override
 	public void process(float delta) {
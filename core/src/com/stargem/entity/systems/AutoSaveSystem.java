@@ -3,6 +3,7 @@
  */
 package com.stargem.entity.systems;
 
+import com.stargem.Config;
 import com.stargem.GameManager;
 import com.stargem.entity.Entity;
 import com.stargem.persistence.EntitiesSavedListener;
@@ -16,23 +17,36 @@ import com.stargem.persistence.EntitiesSavedListener;
  */
 public class AutoSaveSystem extends AbstractTimedSystem implements EntitiesSavedListener {
 
+	// the number of saves taken
+	private int saves;
+
 	/**
 	 * @param frequency in nanoseconds
 	 */
 	public AutoSaveSystem(float frequency) {
 		super(frequency);
+		
+		// saving reads every component
+		super.declareExclusive();
 	}
 
 	@Override
 	public void process(float delta) {
 		super.timer -= delta;
-		if(super.timer <= 0) {
+		if(super.timer > 0) {
+			return;
+		}
+		
+		// save the entities which have changed, every few saves a full checkpoint is taken
+		boolean incremental = this.saves % Config.AUTO_SAVE_CHECKPOINT != 0;
+		
+		// if the last save is still being written the timer is left 
+		// expired so the save is tried again next tick
+		if(GameManager.getInstance().saveGame(this, incremental)) {
 			super.timer = super.frequency;
+			this.saves += 1;
 			
 			// show saving icon in the hud
-			
-			// save all entities
-			GameManager.getInstance().saveGame(this);
 		}		
 	}
 	
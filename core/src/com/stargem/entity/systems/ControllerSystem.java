@@ -3,6 +3,7 @@
  */
 package com.stargem.entity.systems;
 
+import com.stargem.entity.Aspect;
 import com.stargem.entity.Entity;
 import com.stargem.entity.components.Controller;
 import com.stargem.scripting.ScriptManager;
@@ -19,13 +20,11 @@ import com.stargem.scripting.ScriptManager;
 public class ControllerSystem extends AbstractSystem {
 
 	public ControllerSystem() {
-		super();		
-	}
-
-	@Override
-	public void process(float delta) {
-		super.entities = em.getAllEntitiesPossessingComponent(Controller.class);
-		super.process(delta);
+		super(Aspect.all(Controller.class));
+		super.declareReads(Controller.class);
+		
+		// controllers are scripts
+		super.declareExclusive();
 	}
 
 	@Override
@@ -5,13 +5,20 @@ package com.stargem.entity.systems;
 
 import com.stargem.behaviour.BehaviourManager;
 import com.stargem.behaviour.BehaviourStrategy;
+import com.stargem.entity.Aspect;
+import com.stargem.entity.ComponentManager;
 import com.stargem.entity.Entity;
+import com.stargem.entity.EntityCursor;
+import com.stargem.entity.EntityQuery;
 import com.stargem.entity.components.Health;
 import com.stargem.entity.components.SkillModifiers;
 
 /**
  * The health system clamps health to max health taking into account skill modifiers.
  * It also kills entities when they hit zero health calling relevant behaviours.
+ * 
+ * Entities with and without skill modifiers are kept in separate queries so that 
+ * neither has to probe for the skill modifiers component.
  *
  * @author 	Chris B
  * @date	12 Mar 2014
@@ -19,9 +26,36 @@ import com.stargem.entity.components.SkillModifiers;
  */
 public class HealthSystem extends AbstractSystem {
 
+	private final EntityQuery withSkills;
+	private final EntityCursor withSkillsCursor = new EntityCursor();
+	
+	// the id of the component type marked as changed, looked up once
+	private final int healthType;
+
+	public HealthSystem() {
+		super(Aspect.all(Health.class).none(SkillModifiers.class));
+		this.healthType = ComponentManager.getInstance().getTypeId(Health.class);
+		this.withSkills = em.createQuery(Aspect.all(Health.class, SkillModifiers.class));
+		
+		super.declareReads(SkillModifiers.class);
+		super.declareWrites(Health.class);
+		
+		// death behaviours run scripts
+		super.declareExclusive();
+	}
+	
 	@Override
 	public void process(float delta) {
-		super.entities = em.getAllEntitiesPossessingComponent(Health.class);
+		
+		// entities with skill modifiers
+		super.entities = withSkillsCursor.set(withSkills);
+		while(entities.hasNext()) {
+			Entity entity = entities.next();
+			SkillModifiers skills = em.getComponent(entity, SkillModifiers.class);
+			this.clamp(entity, skills.healthIncrease);
+		}
+		
+		// entities without skill modifiers
 		super.process(delta);
 	}
 	
@@ -30,27 +64,32 @@ public class HealthSystem extends AbstractSystem {
 	 */
 	@Override
 	public void process(float delta, Entity entity) {
+		this.clamp(entity, 0);
+	}
+
+	/**
+	 * Clamp the health of the entity and kill it if its health has reached zero.
+	 * 
+	 * @param entity
+	 * @param healthIncrease the increase in maximum health from skill modifiers
+	 */
+	private void clamp(Entity entity, int healthIncrease) {
 		
 		Health health = em.getComponent(entity, Health.class);
 		
-		int maxHealth = health.maxHealth;
-		
-		SkillModifiers skills = em.getComponent(entity, SkillModifiers.class);
-		
-		if(skills != null) {
-			maxHealth += skills.healthIncrease;
-		}
+		int maxHealth = health.maxHealth + healthIncrease;
 		
 		if(health.currentHealth > maxHealth) {
 			health.currentHealth = maxHealth;
+			em.markDirty(entity, healthType);
 		}
 		
 		if(health.currentHealth <= 0) {
 			health.currentHealth = 0;
+			em.markDirty(entity, healthType);
 			BehaviourStrategy b = BehaviourManager.getInstance().getBehaviour(entity.getId());
 			b.onDeath();
 		}
-		
 	}
 
-}
\ No newline at end of file
+}
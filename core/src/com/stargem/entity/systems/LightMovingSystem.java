@@ -6,6 +6,8 @@ package com.stargem.entity.systems;
 import com.badlogic.gdx.graphics.g3d.environment.PointLight;
 import com.badlogic.gdx.math.Matrix4;
 import com.badlogic.gdx.physics.bullet.dynamics.btRigidBody;
+import com.stargem.entity.Aspect;
+import com.stargem.entity.ComponentManager;
 import com.stargem.entity.Entity;
 import com.stargem.entity.components.Physics;
 import com.stargem.entity.components.RenderablePointLight;
@@ -26,22 +28,19 @@ public class LightMovingSystem extends AbstractSystem {
 	private final PhysicsManager physicsManager = PhysicsManager.getInstance();
 	private final Matrix4 transform = new Matrix4();
 	
-	public LightMovingSystem() {
-		super();
-	}
+	// the id of the component type marked as changed, looked up once
+	private final int renderablePointLightType;
 
-	@Override
-	public void process(float deltaTime) {
-		super.entities = em.getAllEntitiesPossessingComponent(RenderablePointLight.class);
-		super.process(deltaTime);
+	public LightMovingSystem() {
+		super(Aspect.all(RenderablePointLight.class, Physics.class));
+		this.renderablePointLightType = ComponentManager.getInstance().getTypeId(RenderablePointLight.class);
+		super.declareReads(Physics.class, PhysicsManager.class);
+		super.declareWrites(RenderablePointLight.class, EnvironmentManager.class);
 	}
 
 	@Override
 	public void process(float deltaTime, Entity entity) {
 		Physics physicsComponent = em.getComponent(entity, Physics.class);	
-		if(physicsComponent == null) {
-			return;
-		}
 		
 		btRigidBody body = physicsManager.getRigidBody(physicsComponent.bodyIndex);
 		RenderablePointLight pointLightComponent = em.getComponent(entity, RenderablePointLight.class);	
@@ -59,6 +58,7 @@ public class LightMovingSystem extends AbstractSystem {
 		pointLightComponent.x = x;
 		pointLightComponent.y = y;
 		pointLightComponent.z = z;
+		em.markDirty(entity, renderablePointLightType);
 					
 		pointLight.position.set(x, y, z);
 	}
@@ -2,7 +2,9 @@ package com.stargem.entity.systems;
 
 import com.badlogic.gdx.math.Matrix4;
 import com.badlogic.gdx.physics.bullet.dynamics.btRigidBody;
+import com.stargem.entity.Aspect;
 import com.stargem.entity.Entity;
+import com.stargem.entity.EntityCommandBuffer;
 import com.stargem.entity.components.Parent;
 import com.stargem.entity.components.Physics;
 import com.stargem.physics.PhysicsManager;
@@ -20,13 +22,9 @@ public class ParentSystem extends AbstractSystem {
 	private final Matrix4 transform = new Matrix4();
 	
 	public ParentSystem() {
-		super();
-	}
-
-	@Override
-	public void process(float deltaTime) {
-		super.entities = em.getAllEntitiesPossessingComponent(Parent.class);
-		super.process(deltaTime);
+		super(Aspect.all(Parent.class));
+		super.declareReads(Parent.class, Physics.class);
+		super.declareWrites(PhysicsManager.class, EntityCommandBuffer.class);
 	}
 
 	@Override
@@ -37,7 +35,7 @@ public class ParentSystem extends AbstractSystem {
 				
 		// if the parent is null then we need to remove this entity also
 		if(parentEntity == null) {
-			em.recycle(entity);
+			em.getCommandBuffer().recycle(entity);
 			return;
 		}		
 		
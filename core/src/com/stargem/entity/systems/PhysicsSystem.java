@@ -1,90 +1,125 @@
 /**
- * 
+ *
  */
 package com.stargem.entity.systems;
 
-import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Vector3;
 import com.badlogic.gdx.physics.bullet.dynamics.btRigidBody;
+import com.badlogic.gdx.utils.IntArray;
+import com.stargem.entity.ComponentManager;
 import com.stargem.entity.Entity;
 import com.stargem.entity.components.Physics;
 import com.stargem.physics.MotionState;
 import com.stargem.physics.PhysicsManager;
+import com.stargem.physics.SpatialIndex;
+import com.stargem.physics.TransformBuffer;
 
 
 /**
  * PhysicsSystem.java
  *
+ * Syncs the physics components with their bodies after each step. Only the bodies queued
+ * by their motion states as moved are synced, along with the bodies which moved last tick
+ * and did not move this one, as Bullet has just put them to sleep. Sleeping bodies cost
+ * nothing.
+ *
  * @author 	Chris B
  * @date	17 Nov 2013
  * @version	1.0
  */
 public class PhysicsSystem extends AbstractSystem {
-	
+
 	private final PhysicsManager physicsManager = PhysicsManager.getInstance();
-	private final Matrix4 transform = new Matrix4();
-	
+	private final TransformBuffer transforms = physicsManager.getTransforms();
+	private final SpatialIndex spatialIndex = SpatialIndex.getInstance();
+
+	// the bodies synced last tick
+	private final IntArray lastMoved = new IntArray();
+
+	// the id of the component type marked as changed, looked up once
+	private final int physicsType;
+
 	public PhysicsSystem() {
 		super();
+		this.physicsType = ComponentManager.getInstance().getTypeId(Physics.class);
+		// empties the moved bodies queue
+		super.declareWrites(Physics.class, PhysicsManager.class, SpatialIndex.class);
 	}
 
 	@Override
 	public void process(float deltaTime) {
-		super.entities = em.getAllEntitiesPossessingComponent(Physics.class);
-		super.process(deltaTime);
+		IntArray moved = physicsManager.getMovedBodies();
+
+		// a body which moved last tick and not this one has fallen asleep,
+		// so its activation state and velocities have changed once more
+		for(int i = 0, n = lastMoved.size; i < n; i += 1) {
+			MotionState motionState = physicsManager.getMotionState(lastMoved.get(i));
+			if(motionState != null && !motionState.isUpdated()) {
+				this.sync(lastMoved.get(i), motionState);
+			}
+		}
+		lastMoved.clear();
+
+		// a body removed after it moved is skipped, and one queued twice is synced once
+		for(int i = 0, n = moved.size; i < n; i += 1) {
+			int index = moved.get(i);
+			MotionState motionState = physicsManager.getMotionState(index);
+			if(motionState != null && motionState.isUpdated()) {
+				this.sync(index, motionState);
+				motionState.setUpdated(false);
+				lastMoved.add(index);
+			}
+		}
+		moved.clear();
 	}
 
 	@Override
 	public void process(float deltaTime, Entity entity) {
 		Physics physicsComponent = em.getComponent(entity, Physics.class);
-		MotionState motionState = physicsManager.getMotionState(physicsComponent.bodyIndex);		
-		btRigidBody body = physicsManager.getRigidBody(physicsComponent.bodyIndex);
-		
-		// the activation state can change without the motion state being updated
-		physicsComponent.activationState = body.getActivationState();
-		
-		// update the component's fields if the physics body has been updated.
-		if(motionState.isUpdated() || physicsComponent.type == PhysicsManager.CHARACTER) {	
-			// get the world transform of the body
-			motionState.getWorldTransform(transform);
-			
-			// update all fields which could have changed through some motion			
-			physicsComponent.angluarVelocityX = body.getAngularVelocity().x;
-			physicsComponent.angluarVelocityY = body.getAngularVelocity().y;
-			physicsComponent.angluarVelocityZ = body.getAngularVelocity().z;
-			
-			physicsComponent.linearVelocityX = body.getLinearVelocity().x;
-			physicsComponent.linearVelocityY = body.getLinearVelocity().y;
-			physicsComponent.linearVelocityZ = body.getLinearVelocity().z;
-			
-			physicsComponent.gravityX = body.getGravity().x;
-			physicsComponent.gravityX = body.getGravity().y;
-			physicsComponent.gravityX = body.getGravity().z;
-			
-			physicsComponent.m00 = transform.val[0];
-			physicsComponent.m01 = transform.val[1];
-			physicsComponent.m02 = transform.val[2];
-			physicsComponent.m03 = transform.val[3];
-			
-			physicsComponent.m04 = transform.val[4];
-			physicsComponent.m05 = transform.val[5];
-			physicsComponent.m06 = transform.val[6];
-			physicsComponent.m07 = transform.val[7];
-			
-			physicsComponent.m08 = transform.val[8];
-			physicsComponent.m09 = transform.val[9];
-			physicsComponent.m10 = transform.val[10];
-			physicsComponent.m11 = transform.val[11];
-			
-			physicsComponent.m12 = transform.val[12];
-			physicsComponent.m13 = transform.val[13];
-			physicsComponent.m14 = transform.val[14];
-			physicsComponent.m15 = transform.val[15];
-						
-			// reset the motionstate update flag
-			motionState.setUpdated(false);
-			
+		MotionState motionState = physicsManager.getMotionState(physicsComponent.bodyIndex);
+		if(motionState != null) {
+			this.sync(physicsComponent.bodyIndex, motionState);
 		}
-		
 	}
-	
-}
\ No newline at end of file
+
+	/**
+	 * Update the component's fields which can change through motion. The transform itself
+	 * is read from the transform buffer when it is needed.
+	 *
+	 * @param index the index of the body
+	 * @param motionState the body's motion state
+	 */
+	private void sync(int index, MotionState motionState) {
+		btRigidBody body = physicsManager.getRigidBody(index);
+		Entity entity = (Entity) body.userData;
+		Physics physicsComponent = em.getComponent(entity, Physics.class);
+		if(physicsComponent == null) {
+			return;
+		}
+
+		// one call across to bullet for the activation state and for each vector
+		physicsComponent.activationState = body.getActivationState();
+
+		Vector3 v = body.getAngularVelocity();
+		physicsComponent.angluarVelocityX = v.x;
+		physicsComponent.angluarVelocityY = v.y;
+		physicsComponent.angluarVelocityZ = v.z;
+
+		v = body.getLinearVelocity();
+		physicsComponent.linearVelocityX = v.x;
+		physicsComponent.linearVelocityY = v.y;
+		physicsComponent.linearVelocityZ = v.z;
+
+		v = body.getGravity();
+		physicsComponent.gravityX = v.x;
+		physicsComponent.gravityY = v.y;
+		physicsComponent.gravityZ = v.z;
+
+		// move the entity in the spatial index
+		int slot = motionState.getSlot();
+		spatialIndex.update(entity, transforms.get(slot, 12), transforms.get(slot, 13), transforms.get(slot, 14));
+
+		em.markDirty(entity, physicsType);
+	}
+
+}
@@ -1,5 +1,6 @@
 package com.stargem.entity.systems;
 
+import com.badlogic.gdx.utils.Array;
 import com.stargem.entity.Entity;
 
 public interface SubSystem {
@@ -7,4 +8,23 @@ public interface SubSystem {
 	public void process(float delta, Entity entity);
 	public void process(float delta);
 	
-}
\ No newline at end of file
+	/**
+	 * @return the component types and shared resources this system reads
+	 */
+	public Array<Class<?>> getReads();
+	
+	/**
+	 * @return the component types and shared resources this system writes
+	 */
+	public Array<Class<?>> getWrites();
+	
+	/**
+	 * An exclusive system may touch anything, typically because it runs scripts, 
+	 * so it is never run alongside another system and always runs on the thread 
+	 * which owns the script state.
+	 * 
+	 * @return true if this system must run on its own
+	 */
+	public boolean isExclusive();
+	
+}
@@ -0,0 +1,215 @@
+/**
+ * 
+ */
+package com.stargem.entity.systems;
+
+import java.util.concurrent.ExecutorService;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.IntArray;
+import com.stargem.entity.EntityManager;
+
+/**
+ * SystemScheduler.java
+ * 
+ * Runs a group of systems, overlapping the ones which do not touch the same components.
+ * Each system declares the component types and shared resources it reads and writes. Two 
+ * systems conflict if either writes something the other reads or writes, and a system 
+ * always runs after every earlier conflicting system in the group, so the order the 
+ * systems were added in is kept wherever it matters.
+ * 
+ * Systems which do not conflict are handed to the executor. Exclusive systems, the ones 
+ * which run scripts, conflict with everything and are run on the thread calling 
+ * {@link #process(float)} because the script state belongs to that thread.
+ * 
+ * Structural changes must go through the entity command buffer while a group is running.
+ * Changes marked by the systems on the workers are kept per thread and handed to the 
+ * change trackers once the group has finished.
+ */
+public class SystemScheduler {
+
+	private final ExecutorService executor;
+	private final Array<SubSystem> systems = new Array<SubSystem>();
+	private final Array<Task> tasks = new Array<Task>();
+	
+	// for each system the systems which must wait for it and how many it waits for
+	private final Array<IntArray> dependents = new Array<IntArray>();
+	private final IntArray dependencies = new IntArray();
+	
+	// state of the current run, guarded by lock
+	private final Object lock = new Object();
+	private final IntArray pending = new IntArray();
+	private final IntArray callerReady = new IntArray();
+	private int remaining;
+	private Throwable failure;
+	private float delta;
+	
+	public SystemScheduler(ExecutorService executor) {
+		this.executor = executor;
+	}
+	
+	/**
+	 * Add a system to the end of the group. 
+	 * 
+	 * @param system
+	 */
+	public void add(SubSystem system) {
+		int index = systems.size;
+		
+		systems.add(system);
+		tasks.add(new Task(index));
+		dependents.add(new IntArray());
+		dependencies.add(0);
+		pending.add(0);
+		
+		// wait for every earlier system this one conflicts with
+		for(int i = 0; i < index; i += 1) {
+			if(conflicts(systems.get(i), system)) {
+				dependents.get(i).add(index);
+				dependencies.incr(index, 1);
+			}
+		}
+	}
+	
+	private static boolean conflicts(SubSystem a, SubSystem b) {
+		if(a.isExclusive() || b.isExclusive()) {
+			return true;
+		}
+		return intersects(a.getWrites(), b.getWrites()) 
+				|| intersects(a.getWrites(), b.getReads()) 
+				|| intersects(b.getWrites(), a.getReads());
+	}
+	
+	private static boolean intersects(Array<Class<?>> a, Array<Class<?>> b) {
+		for(int i = 0; i < a.size; i += 1) {
+			if(b.contains(a.get(i), true)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Run every system in the group and return once they have all finished.
+	 * 
+	 * @param delta
+	 */
+	public void process(float delta) {
+		
+		synchronized(lock) {
+			this.delta = delta;
+			this.failure = null;
+			this.remaining = systems.size;
+			
+			for(int i = 0; i < systems.size; i += 1) {
+				pending.set(i, dependencies.get(i));
+			}
+			for(int i = 0; i < systems.size; i += 1) {
+				if(dependencies.get(i) == 0) {
+					dispatch(i);
+				}
+			}
+		}
+		
+		// run exclusive systems here as they become ready and wait for the rest
+		while(true) {
+			Task task;
+			synchronized(lock) {
+				while(remaining > 0 && callerReady.size == 0) {
+					try {
+						lock.wait();
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				if(remaining == 0) {
+					break;
+				}
+				task = tasks.get(callerReady.removeIndex(0));
+			}
+			task.run();
+		}
+		
+		// the workers have finished so the changes they marked can be handed to the trackers
+		EntityManager.getInstance().mergeChanges();
+		
+		if(failure != null) {
+			throw new GdxRuntimeException("System failed while processing.", failure);
+		}
+	}
+	
+	/**
+	 * Start a system whose dependencies have all finished, must hold the lock.
+	 */
+	private void dispatch(int index) {
+		if(systems.get(index).isExclusive()) {
+			callerReady.add(index);
+			lock.notifyAll();
+		}
+		else {
+			executor.execute(tasks.get(index));
+		}
+	}
+	
+	/**
+	 * Release the systems waiting on the given system.
+	 */
+	private void complete(int index) {
+		synchronized(lock) {
+			IntArray waiting = dependents.get(index);
+			for(int i = 0; i < waiting.size; i += 1) {
+				int dependent = waiting.get(i);
+				pending.incr(dependent, -1);
+				if(pending.get(dependent) == 0) {
+					dispatch(dependent);
+				}
+			}
+			remaining -= 1;
+			lock.notifyAll();
+		}
+	}
+	
+	private class Task implements Runnable {
+		
+		private final int index;
+		
+		Task(int index) {
+			this.index = index;
+		}
+		
+		@Override
+		public void run() {
+			// once a system has failed the rest are skipped but still released
+			// so that the calling thread is not left waiting
+			boolean skip;
+			float delta;
+			synchronized(lock) {
+				skip = failure != null;
+				delta = SystemScheduler.this.delta;
+			}
+			
+			// systems on the workers keep their changes until the group has finished
+			if(!systems.get(index).isExclusive()) {
+				EntityManager.getInstance().deferChanges();
+			}
+			
+			if(!skip) {
+				try {
+					systems.get(index).process(delta);
+				}
+				catch (Throwable t) {
+					synchronized(lock) {
+						if(failure == null) {
+							failure = t;
+						}
+					}
+				}
+			}
+			
+			complete(index);
+		}
+	}
+	
+}
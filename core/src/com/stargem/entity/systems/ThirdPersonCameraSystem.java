@@ -4,10 +4,13 @@
 package com.stargem.entity.systems;
 
 import com.badlogic.gdx.graphics.Camera;
+import com.badlogic.gdx.math.Matrix4;
 import com.badlogic.gdx.math.Vector3;
+import com.stargem.entity.Aspect;
 import com.stargem.entity.Entity;
 import com.stargem.entity.components.Physics;
 import com.stargem.entity.components.ThirdPersonCamera;
+import com.stargem.physics.PhysicsManager;
 
 /**
  * ThirdPersonCameraSystem.java
@@ -25,16 +28,15 @@ public class ThirdPersonCameraSystem extends AbstractSystem {
 	private final Vector3 right = new Vector3();
 	private final Vector3 out = new Vector3();	
 	private final Vector3 pivot = new Vector3();
+	private final Matrix4 transform = new Matrix4();
+	private final PhysicsManager physicsManager = PhysicsManager.getInstance();
 	
 	public ThirdPersonCameraSystem(Camera camera) {
+		super(Aspect.all(ThirdPersonCamera.class, Physics.class));
+		super.declareReads(Physics.class, PhysicsManager.class);
+		super.declareWrites(ThirdPersonCamera.class, Camera.class);
 		this.camera = camera;
 	}
-
-	@Override
-	public void process(float delta) {
-		super.entities = em.getAllEntitiesPossessingComponent(ThirdPersonCamera.class);
-		super.process(delta);
-	}
 	
 	@Override
 	public void process(float delta, Entity entity) {
@@ -48,14 +50,15 @@ public class ThirdPersonCameraSystem extends AbstractSystem {
 		// check this entity has camera focus
 		if(c.hasFocus) {
 			
-			// update the camera
-			this.right.set(	p.m00, p.m01, p.m02);
-			this.up.set(	p.m04, p.m05, p.m06);
-			this.out.set(	p.m08, p.m09, p.m10);
+			// update the camera from the body's transform
+			float[] m = physicsManager.getWorldTransform(p.bodyIndex, transform).val;
+			this.right.set(	m[0], m[1], m[2]);
+			this.up.set(	m[4], m[5], m[6]);
+			this.out.set(	m[8], m[9], m[10]);
 					
 			// the camera should sit slightly to the right and behind the target
 			//this.target.getTranslation(targetPosition);
-			targetPosition.set(p.m12, p.m13, p.m14);
+			targetPosition.set(m[12], m[13], m[14]);
 			
 			this.upOffset.set(up).scl(c.heightOffset);
 			
@@ -3,7 +3,10 @@
  */
 package com.stargem.entity.systems;
 
+import com.stargem.entity.Aspect;
+import com.stargem.entity.ComponentManager;
 import com.stargem.entity.Entity;
+import com.stargem.entity.EntityCommandBuffer;
 import com.stargem.entity.components.Timer;
 import com.stargem.entity.components.Trigger;
 import com.stargem.scripting.ScriptManager;
@@ -17,10 +20,17 @@ import com.stargem.scripting.ScriptManager;
  */
 public class TimerSystem extends AbstractSystem {
 
-	@Override
-	public void process(float delta) {
-		super.entities = em.getAllEntitiesPossessingComponent(Timer.class);
-		super.process(delta);
+	// the id of the component type marked as changed, looked up once
+	private final int timerType;
+
+	public TimerSystem() {
+		super(Aspect.all(Timer.class));
+		this.timerType = ComponentManager.getInstance().getTypeId(Timer.class);
+		super.declareReads(Trigger.class);
+		super.declareWrites(Timer.class, EntityCommandBuffer.class);
+		
+		// triggers run scripts
+		super.declareExclusive();
 	}
 	
 	/* (non-Javadoc)
@@ -32,11 +42,12 @@ public class TimerSystem extends AbstractSystem {
 		Timer timer = em.getComponent(entity, Timer.class);
 		
 		timer.timeLeft -= delta;
+		em.markDirty(entity, timerType);
 		
 		if(timer.timeLeft <= 0) {
 			
-			// remove the timer component
-			em.removeComponent(entity, Timer.class);
+			// remove the timer component at the next sync point
+			em.getCommandBuffer().removeComponent(entity, Timer.class);
 			
 			// call a trigger if one exists
 			Trigger trigger = em.getComponent(entity, Trigger.class);
@@ -3,6 +3,8 @@
  */
 package com.stargem.entity.systems;
 
+import com.stargem.entity.Aspect;
+import com.stargem.entity.ComponentManager;
 import com.stargem.entity.Entity;
 import com.stargem.entity.components.Weapon;
 
@@ -17,20 +19,25 @@ import com.stargem.entity.components.Weapon;
  */
 public class WeaponSystem extends AbstractSystem {
 
-	public WeaponSystem() {
-		super();
-	}
+	// the id of the component type marked as changed, looked up once
+	private final int weaponType;
 
-	@Override
-	public void process(float delta) {
-		super.entities = em.getAllEntitiesPossessingComponent(Weapon.class);
-		super.process(delta);
+	public WeaponSystem() {
+		super(Aspect.all(Weapon.class));
+		this.weaponType = ComponentManager.getInstance().getTypeId(Weapon.class);
+		super.declareWrites(Weapon.class);
 	}
 
 	@Override
 	public void process(float delta, Entity entity) {
 		
 		Weapon weapon = em.getComponent(entity, Weapon.class);
+		
+		// an idle, cool weapon does not change
+		if(!weapon.isShooting && weapon.isReady && weapon.currentHeat == 0) {
+			return;
+		}
+		em.markDirty(entity, weaponType);
 				
 		// reduce heat if weapon is not firing
 		if(!weapon.isShooting) {			
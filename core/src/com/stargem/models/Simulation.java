@@ -3,16 +3,25 @@
  */
 package com.stargem.models;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
 import com.stargem.Config;
 import com.stargem.controllers.ControllerManager;
+import com.stargem.entity.EntityCommandBuffer;
+import com.stargem.entity.EntityManager;
 import com.stargem.entity.systems.AutoSaveSystem;
 import com.stargem.entity.systems.ControllerSystem;
 import com.stargem.entity.systems.HealthSystem;
 import com.stargem.entity.systems.LightMovingSystem;
 import com.stargem.entity.systems.ParentSystem;
 import com.stargem.entity.systems.PhysicsSystem;
+import com.stargem.entity.systems.SystemScheduler;
 import com.stargem.entity.systems.TimerSystem;
 import com.stargem.entity.systems.WeaponSystem;
+import com.stargem.persistence.EntityPersistence;
+import com.stargem.persistence.PersistenceManager;
 import com.stargem.physics.PhysicsManager;
 
 /**
@@ -26,6 +35,8 @@ public class Simulation implements Model {
 
 	private final PhysicsManager physicsManager;
 	private final ControllerManager controllerManager;
+	private final EntityCommandBuffer commandBuffer;
+	private final EntityPersistence entityPersistence;
 	
 	private final PhysicsSystem physicsSystem;
 	private final ControllerSystem keyboardMouseSystem;
@@ -36,12 +47,22 @@ public class Simulation implements Model {
 	private final WeaponSystem weaponSystem;
 	private final HealthSystem healthSystem;
 	
+	// systems run before and after the physics step
+	private final SystemScheduler beforeStep;
+	private final SystemScheduler afterStep;
+	
 	public Simulation() {
 		
 		// get a copy of the physics manager so we can step the simulation each tick
 		physicsManager 	= PhysicsManager.getInstance();
 		controllerManager = ControllerManager.getInstance();
 		
+		// structural changes recorded during the update are applied at the sync points below
+		commandBuffer = EntityManager.getInstance().getCommandBuffer();
+		
+		// changes are journaled at the end of every tick
+		entityPersistence = PersistenceManager.getInstance().getEntityPersistence();
+		
 		// create all systems
 		physicsSystem = new PhysicsSystem();
 		keyboardMouseSystem = new ControllerSystem();
@@ -51,6 +72,29 @@ public class Simulation implements Model {
 		parentSystem = new ParentSystem();
 		weaponSystem = new WeaponSystem();
 		healthSystem = new HealthSystem();
+		
+		// one worker per spare core, the update thread runs the exclusive systems
+		int workers = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+		ExecutorService executor = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "simulation");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		
+		// systems are added in the order they must run where they touch the same components
+		beforeStep = new SystemScheduler(executor);
+		beforeStep.add(weaponSystem);			// update weapon heat and ready status
+		beforeStep.add(parentSystem);			// move all child entities to their parents
+		beforeStep.add(lightMovingSystem);		// move all lights which are coupled with physics components
+		beforeStep.add(timerSystem);			// update all timer components
+		beforeStep.add(keyboardMouseSystem);	// get player input
+		
+		afterStep = new SystemScheduler(executor);
+		afterStep.add(physicsSystem);			// save the physics tick to the physics components
+		afterStep.add(healthSystem);			// update all health components
 	}
 	
 	/* (non-Javadoc)
@@ -59,40 +103,34 @@ public class Simulation implements Model {
 	@Override
 	public void update(float delta) {
 		
-		// update weapon heat and ready status
-		weaponSystem.process(delta);
-		
-		// move all child entities to their parents
-		parentSystem.process(delta);
-		
-		// move all lights which are coupled with physics components
-		lightMovingSystem.process(delta);
-		
-		// update all timer components
-		timerSystem.process(delta);
+		// weapons, parents, lights, timers and player input
+		beforeStep.process(delta);
 		
 		// get list of entities in the local player's zone of control
 		
-		// get player input
-		keyboardMouseSystem.process(delta);
-		
 		// get network updates
 		
 		// update all controllers player, ai, network
 		controllerManager.update(delta);
 		
+		// sync point: apply changes made by systems, controllers and scripts before bodies are stepped
+		commandBuffer.playback();
+		
 		// update physics simulation	
 		physicsManager.stepSimulation(delta);
 		
-		// save the physics tick to the physics components
-		physicsSystem.process(delta);
+		// save the physics tick to the physics components and update health
+		afterStep.process(delta);
+		
+		// sync point: apply changes made by contact callbacks and deaths
+		commandBuffer.playback();
 		
-		// update all health components
-		healthSystem.process(delta);
+		// record the changes made during the tick
+		entityPersistence.appendJournal();
 		
 		// store the state of the world
 		// this is a timed event that periodically happens
-		//autoSaveSystem.process(delta);
+		autoSaveSystem.process(delta);
 	}
 	
 }
\ No newline at end of file
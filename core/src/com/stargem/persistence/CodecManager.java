@@ -0,0 +1,356 @@
+/**
+ *
+ */
+package com.stargem.persistence;
+
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.IdentityMap;
+import com.stargem.entity.ComponentFactory;
+import com.stargem.entity.Entity;
+import com.stargem.entity.components.Component;
+import com.stargem.entity.components.Controller;
+import com.stargem.entity.components.Health;
+import com.stargem.entity.components.Inventory;
+import com.stargem.entity.components.Parent;
+import com.stargem.entity.components.Physics;
+import com.stargem.entity.components.RenderablePointLight;
+import com.stargem.entity.components.RenderableSkinned;
+import com.stargem.entity.components.RenderableStatic;
+import com.stargem.entity.components.RunSpeed;
+import com.stargem.entity.components.SkillModifiers;
+import com.stargem.entity.components.ThirdPersonCamera;
+import com.stargem.entity.components.Timer;
+import com.stargem.entity.components.Trigger;
+import com.stargem.entity.components.Weapon;
+
+/**
+ * CodecManager.java
+ *
+ * The registry of {@link ComponentCodec}s shared by everything which stores components 
+ * as rows, the entity persistence layer and the database factory. The codecs for the 
+ * built in component types are registered when the manager is created. They create 
+ * components through the {@link ComponentFactory} so that loading a component has the
+ * same side effects as spawning one from a script.
+ */
+public class CodecManager {
+
+	private final IdentityMap<Class<? extends Component>, ComponentCodec<? extends Component>> codecs;
+	
+	private static CodecManager instance;
+	
+	public static CodecManager getInstance() {
+		if(instance == null) {
+			instance = new CodecManager();
+		}
+		return instance;
+	}
+	
+	private CodecManager() {
+		codecs = new IdentityMap<Class<? extends Component>, ComponentCodec<? extends Component>>();
+		
+		this.registerDefaultCodecs();
+	}
+	
+	/**
+	 * Register the codecs of the built in component types. The columns of each codec 
+	 * are in the order of the component's factory method arguments, Java evaluates the
+	 * arguments from left to right so each read takes its columns in order.
+	 */
+	private void registerDefaultCodecs() {
+		
+		this.registerCodec(new ComponentCodec<Controller>(Controller.class,
+				"strategyIndex", "strategyType", "controller", "behaviour",
+				"moveForward", "moveBackward", "moveLeft", "moveRight",
+				"isJumping") {
+			@Override
+			public Controller read(Entity entity, RowReader row) {
+				return ComponentFactory.controller(entity,
+						row.nextInt(), row.nextInt(), row.nextString(), row.nextString(),
+						row.nextBoolean(), row.nextBoolean(), row.nextBoolean(), row.nextBoolean(),
+						row.nextBoolean());
+			}
+			@Override
+			protected void put(Controller c, EntitySnapshot snapshot) {
+				snapshot.putInt(c.strategyIndex);
+				snapshot.putInt(c.strategyType);
+				snapshot.putString(c.controller);
+				snapshot.putString(c.behaviour);
+				snapshot.putBoolean(c.moveForward);
+				snapshot.putBoolean(c.moveBackward);
+				snapshot.putBoolean(c.moveLeft);
+				snapshot.putBoolean(c.moveRight);
+				snapshot.putBoolean(c.isJumping);
+			}
+		});
+
+		this.registerCodec(new ComponentCodec<Health>(Health.class, "maxHealth", "currentHealth") {
+			@Override
+			public Health read(Entity entity, RowReader row) {
+				return ComponentFactory.health(entity, row.nextInt(), row.nextInt());
+			}
+			@Override
+			protected void put(Health c, EntitySnapshot snapshot) {
+				snapshot.putInt(c.maxHealth);
+				snapshot.putInt(c.currentHealth);
+			}
+		});
+
+		this.registerCodec(new ComponentCodec<Inventory>(Inventory.class, "cores", "specials", "gems") {
+			@Override
+			public Inventory read(Entity entity, RowReader row) {
+				return ComponentFactory.inventory(entity, row.nextInt(), row.nextInt(), row.nextInt());
+			}
+			@Override
+			protected void put(Inventory c, EntitySnapshot snapshot) {
+				snapshot.putInt(c.cores);
+				snapshot.putInt(c.specials);
+				snapshot.putInt(c.gems);
+			}
+		});
+
+		this.registerCodec(new ComponentCodec<Parent>(Parent.class, "parentId") {
+			@Override
+			public Parent read(Entity entity, RowReader row) {
+				return ComponentFactory.parent(entity, row.nextInt());
+			}
+			@Override
+			protected void put(Parent c, EntitySnapshot snapshot) {
+				snapshot.putInt(c.parentId);
+			}
+		});
+
+		this.registerCodec(new ComponentCodec<Physics>(Physics.class,
+				"bodyIndex", "type", "collisionGroup", "collidesWith",
+				"m00", "m01", "m02", "m03",
+				"m04", "m05", "m06", "m07",
+				"m08", "m09", "m10", "m11",
+				"m12", "m13", "m14", "m15",
+				"shape", "width", "height", "depth",
+				"angluarVelocityX", "angluarVelocityY", "angluarVelocityZ", "linearVelocityX",
+				"linearVelocityY", "linearVelocityZ", "gravityX", "gravityY",
+				"gravityZ", "mass", "restitution", "activationState",
+				"contactGroup", "contactWith") {
+			@Override
+			public Physics read(Entity entity, RowReader row) {
+				return ComponentFactory.physics(entity,
+						row.nextInt(), row.nextInt(), row.nextInt(), row.nextInt(),
+						row.nextFloat(), row.nextFloat(), row.nextFloat(), row.nextFloat(),
+						row.nextFloat(), row.nextFloat(), row.nextFloat(), row.nextFloat(),
+						row.nextFloat(), row.nextFloat(), row.nextFloat(), row.nextFloat(),
+						row.nextFloat(), row.nextFloat(), row.nextFloat(), row.nextFloat(),
+						row.nextInt(), row.nextFloat(), row.nextFloat(), row.nextFloat(),
+						row.nextFloat(), row.nextFloat(), row.nextFloat(), row.nextFloat(),
+						row.nextFloat(), row.nextFloat(), row.nextFloat(), row.nextFloat(),
+						row.nextFloat(), row.nextFloat(), row.nextFloat(), row.nextInt(),
+						row.nextInt(), row.nextInt());
+			}
+			@Override
+			protected void put(Physics c, EntitySnapshot snapshot) {
+				snapshot.putInt(c.bodyIndex);
+				snapshot.putInt(c.type);
+				snapshot.putInt(c.collisionGroup);
+				snapshot.putInt(c.collidesWith);
+				snapshot.putFloat(c.m00);
+				snapshot.putFloat(c.m01);
+				snapshot.putFloat(c.m02);
+				snapshot.putFloat(c.m03);
+				snapshot.putFloat(c.m04);
+				snapshot.putFloat(c.m05);
+				snapshot.putFloat(c.m06);
+				snapshot.putFloat(c.m07);
+				snapshot.putFloat(c.m08);
+				snapshot.putFloat(c.m09);
+				snapshot.putFloat(c.m10);
+				snapshot.putFloat(c.m11);
+				snapshot.putFloat(c.m12);
+				snapshot.putFloat(c.m13);
+				snapshot.putFloat(c.m14);
+				snapshot.putFloat(c.m15);
+				snapshot.putInt(c.shape);
+				snapshot.putFloat(c.width);
+				snapshot.putFloat(c.height);
+				snapshot.putFloat(c.depth);
+				snapshot.putFloat(c.angluarVelocityX);
+				snapshot.putFloat(c.angluarVelocityY);
+				snapshot.putFloat(c.angluarVelocityZ);
+				snapshot.putFloat(c.linearVelocityX);
+				snapshot.putFloat(c.linearVelocityY);
+				snapshot.putFloat(c.linearVelocityZ);
+				snapshot.putFloat(c.gravityX);
+				snapshot.putFloat(c.gravityY);
+				snapshot.putFloat(c.gravityZ);
+				snapshot.putFloat(c.mass);
+				snapshot.putFloat(c.restitution);
+				snapshot.putInt(c.activationState);
+				snapshot.putInt(c.contactGroup);
+				snapshot.putInt(c.contactWith);
+			}
+		});
+
+		this.registerCodec(new ComponentCodec<RenderablePointLight>(RenderablePointLight.class, "lightIndex", "colour", "intensity", "x", "y", "z") {
+			@Override
+			public RenderablePointLight read(Entity entity, RowReader row) {
+				return ComponentFactory.renderablepointlight(entity,
+						row.nextInt(), row.nextInt(), row.nextFloat(), row.nextFloat(),
+						row.nextFloat(), row.nextFloat());
+			}
+			@Override
+			protected void put(RenderablePointLight c, EntitySnapshot snapshot) {
+				snapshot.putInt(c.lightIndex);
+				snapshot.putInt(c.colour);
+				snapshot.putFloat(c.intensity);
+				snapshot.putFloat(c.x);
+				snapshot.putFloat(c.y);
+				snapshot.putFloat(c.z);
+			}
+		});
+
+		this.registerCodec(new ComponentCodec<RenderableStatic>(RenderableStatic.class, "modelIndex", "modelPath") {
+			@Override
+			public RenderableStatic read(Entity entity, RowReader row) {
+				return ComponentFactory.renderablestatic(entity, row.nextInt(), row.nextString());
+			}
+			@Override
+			protected void put(RenderableStatic c, EntitySnapshot snapshot) {
+				snapshot.putInt(c.modelIndex);
+				snapshot.putString(c.modelPath);
+			}
+		});
+
+		this.registerCodec(new ComponentCodec<RenderableSkinned>(RenderableSkinned.class, "modelIndex", "modelPath", "currentAnimationName") {
+			@Override
+			public RenderableSkinned read(Entity entity, RowReader row) {
+				return ComponentFactory.renderableskinned(entity, row.nextInt(), row.nextString(), row.nextString());
+			}
+			@Override
+			protected void put(RenderableSkinned c, EntitySnapshot snapshot) {
+				snapshot.putInt(c.modelIndex);
+				snapshot.putString(c.modelPath);
+				snapshot.putString(c.currentAnimationName);
+			}
+		});
+
+		this.registerCodec(new ComponentCodec<RunSpeed>(RunSpeed.class, "speed") {
+			@Override
+			public RunSpeed read(Entity entity, RowReader row) {
+				return ComponentFactory.runspeed(entity, row.nextInt());
+			}
+			@Override
+			protected void put(RunSpeed c, EntitySnapshot snapshot) {
+				snapshot.putInt(c.speed);
+			}
+		});
+
+		this.registerCodec(new ComponentCodec<SkillModifiers>(SkillModifiers.class, "damageIncrease", "healthIncrease", "speedIncrease") {
+			@Override
+			public SkillModifiers read(Entity entity, RowReader row) {
+				return ComponentFactory.skillmodifiers(entity, row.nextInt(), row.nextInt(), row.nextInt());
+			}
+			@Override
+			protected void put(SkillModifiers c, EntitySnapshot snapshot) {
+				snapshot.putInt(c.damageIncrease);
+				snapshot.putInt(c.healthIncrease);
+				snapshot.putInt(c.speedIncrease);
+			}
+		});
+
+		this.registerCodec(new ComponentCodec<ThirdPersonCamera>(ThirdPersonCamera.class,
+				"hasFocus", "minDistance", "maxDistance", "currentDistance",
+				"heightOffset", "pitch", "deltaPitch", "yaw",
+				"deltaYaw") {
+			@Override
+			public ThirdPersonCamera read(Entity entity, RowReader row) {
+				return ComponentFactory.thirdpersoncamera(entity,
+						row.nextBoolean(), row.nextFloat(), row.nextFloat(), row.nextFloat(),
+						row.nextFloat(), row.nextFloat(), row.nextFloat(), row.nextFloat(),
+						row.nextFloat());
+			}
+			@Override
+			protected void put(ThirdPersonCamera c, EntitySnapshot snapshot) {
+				snapshot.putBoolean(c.hasFocus);
+				snapshot.putFloat(c.minDistance);
+				snapshot.putFloat(c.maxDistance);
+				snapshot.putFloat(c.currentDistance);
+				snapshot.putFloat(c.heightOffset);
+				snapshot.putFloat(c.pitch);
+				snapshot.putFloat(c.deltaPitch);
+				snapshot.putFloat(c.yaw);
+				snapshot.putFloat(c.deltaYaw);
+			}
+		});
+
+		this.registerCodec(new ComponentCodec<Timer>(Timer.class, "timeLeft") {
+			@Override
+			public Timer read(Entity entity, RowReader row) {
+				return ComponentFactory.timer(entity, row.nextFloat());
+			}
+			@Override
+			protected void put(Timer c, EntitySnapshot snapshot) {
+				snapshot.putFloat(c.timeLeft);
+			}
+		});
+
+		this.registerCodec(new ComponentCodec<Trigger>(Trigger.class, "name") {
+			@Override
+			public Trigger read(Entity entity, RowReader row) {
+				return ComponentFactory.trigger(entity, row.nextString());
+			}
+			@Override
+			protected void put(Trigger c, EntitySnapshot snapshot) {
+				snapshot.putString(c.name);
+			}
+		});
+
+		this.registerCodec(new ComponentCodec<Weapon>(Weapon.class,
+				"weapons", "currentWeapon", "isShooting", "isReady",
+				"maxHeat", "currentHeat", "heatRate", "coolRate",
+				"overHeatingPenalty", "remainingPenalty", "rateOfFire", "timeUntilNextShot") {
+			@Override
+			public Weapon read(Entity entity, RowReader row) {
+				return ComponentFactory.weapon(entity,
+						row.nextInt(), row.nextInt(), row.nextBoolean(), row.nextBoolean(),
+						row.nextInt(), row.nextFloat(), row.nextInt(), row.nextInt(),
+						row.nextInt(), row.nextFloat(), row.nextFloat(), row.nextFloat());
+			}
+			@Override
+			protected void put(Weapon c, EntitySnapshot snapshot) {
+				snapshot.putInt(c.weapons);
+				snapshot.putInt(c.currentWeapon);
+				snapshot.putBoolean(c.isShooting);
+				snapshot.putBoolean(c.isReady);
+				snapshot.putInt(c.maxHeat);
+				snapshot.putFloat(c.currentHeat);
+				snapshot.putInt(c.heatRate);
+				snapshot.putInt(c.coolRate);
+				snapshot.putInt(c.overHeatingPenalty);
+				snapshot.putFloat(c.remainingPenalty);
+				snapshot.putFloat(c.rateOfFire);
+				snapshot.putFloat(c.timeUntilNextShot);
+			}
+		});
+	}
+	
+	/**
+	 * Register a codec, replacing any codec already registered for its type.
+	 * 
+	 * @param codec
+	 */
+	public void registerCodec(ComponentCodec<? extends Component> codec) {
+		this.codecs.put(codec.getType(), codec);
+	}
+	
+	/**
+	 * @param type
+	 * @return the codec of the given component type
+	 * @throws GdxRuntimeException if no codec is registered for the type
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends Component> ComponentCodec<T> getCodec(Class<T> type) {
+		ComponentCodec<T> codec = (ComponentCodec<T>) this.codecs.get(type);
+		if(codec == null) {
+			throw new GdxRuntimeException("No codec registered for component type " + type.getSimpleName());
+		}
+		return codec;
+	}
+	
+}
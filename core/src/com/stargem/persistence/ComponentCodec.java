@@ -0,0 +1,291 @@
+/**
+ *
+ */
+package com.stargem.persistence;
+
+import java.lang.reflect.Field;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.ObjectMap;
+import com.stargem.entity.Entity;
+import com.stargem.entity.components.Component;
+
+/**
+ * ComponentCodec.java
+ *
+ * Reads and writes one component type as a row of its table. The column layout of
+ * the type is given when the codec is created and resolved against the component's
+ * fields once, after that a codec moves values between rows and components with
+ * typed calls, so nothing is looked up or boxed per row.
+ * 
+ * Components are saved in two steps. On the update thread the codec captures the
+ * component's fields into an {@link EntitySnapshot}, later the snapshot's values are
+ * bound to a statement in column order, which only needs the kind of each column.
+ * Components are loaded from a {@link RowReader} whatever the values are read from.
+ *
+ * The first column of every component table is the entity id, the component's
+ * columns follow from column 2 in the order they were given. Statements built by the
+ * codec name their columns so the physical column order of a table does not matter.
+ *
+ * Codecs are registered with the {@link CodecManager}.
+ */
+public abstract class ComponentCodec<T extends Component> {
+
+	// the kinds of value a column holds in a snapshot
+	public static final int BOOLEAN = 0;
+	public static final int INT = 1;
+	public static final int LONG = 2;
+	public static final int FLOAT = 3;
+	public static final int DOUBLE = 4;
+	public static final int STRING = 5;
+	
+	private final Class<T> type;
+	private final String[] columns;
+	private final String[] datatypes;
+	private final int[] kinds;
+	
+	// the index of each column among the columns held in the same value array of a snapshot
+	private final int[] offsets;
+
+	// the entity id column followed by the component columns
+	private final String columnList;
+
+	/**
+	 * @param type the component type
+	 * @param columns the names of the persisted fields in the order the codec reads and writes them
+	 */
+	public ComponentCodec(Class<T> type, String... columns) {
+		this.type = type;
+		this.columns = columns;
+		this.datatypes = new String[columns.length];
+		this.kinds = new int[columns.length];
+		this.offsets = new int[columns.length];
+		
+		int numInts = 0;
+		int numLongs = 0;
+		int numFloats = 0;
+		int numStrings = 0;
+
+		ObjectMap<String, String> sqlTypes = PersistenceManager.getInstance().getDatatypes();
+		StringBuilder list = new StringBuilder("entityId");
+
+		for(int i = 0, n = columns.length; i < n; i += 1) {
+			Field field;
+			try {
+				field = type.getField(columns[i]);
+			}
+			catch (NoSuchFieldException e) {
+				throw new GdxRuntimeException("Component " + type.getSimpleName() + " has no public field " + columns[i], e);
+			}
+
+			String datatype = sqlTypes.get(field.getType().getSimpleName());
+			if(datatype == null) {
+				throw new GdxRuntimeException("Unknown shape: " + field.getType().getSimpleName() + " can only store primitives and Strings.");
+			}
+			this.datatypes[i] = datatype;
+			this.kinds[i] = kindOf(field.getType());
+			
+			switch(this.kinds[i]) {
+				case BOOLEAN:
+				case INT:
+					this.offsets[i] = numInts++;
+					break;
+				case LONG:
+				case DOUBLE:
+					this.offsets[i] = numLongs++;
+					break;
+				case FLOAT:
+					this.offsets[i] = numFloats++;
+					break;
+				default:
+					this.offsets[i] = numStrings++;
+					break;
+			}
+
+			list.append(", ");
+			list.append(columns[i]);
+		}
+
+		this.columnList = list.toString();
+	}
+
+	/**
+	 * Create a component from the next row of the reader, the component is not
+	 * added to the entity.
+	 *
+	 * @param entity the entity who will own the component
+	 * @param row the values of the component's columns in column order
+	 * @return the new component
+	 */
+	public abstract T read(Entity entity, RowReader row);
+
+	/**
+	 * Copy the component columns of the current row of the result into the snapshot
+	 * so that they can be read back with {@link #read(Entity, RowReader)}.
+	 *
+	 * @param row a result positioned on a row selected with {@link #getColumnList()}
+	 * @param snapshot
+	 * @throws SQLException
+	 */
+	public void capture(ResultSet row, EntitySnapshot snapshot) throws SQLException {
+		for(int i = 0, n = kinds.length; i < n; i += 1) {
+			int column = i + 2;
+			switch(kinds[i]) {
+				case BOOLEAN:
+				case INT:
+					snapshot.putInt(row.getInt(column));
+					break;
+				case LONG:
+					snapshot.putLong(row.getLong(column));
+					break;
+				case FLOAT:
+					snapshot.putFloat(row.getFloat(column));
+					break;
+				case DOUBLE:
+					snapshot.putDouble(row.getDouble(column));
+					break;
+				default:
+					snapshot.putString(row.getString(column));
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Put the value of each column of the component into the snapshot, in column order.
+	 *
+	 * @param component
+	 * @param snapshot
+	 */
+	protected abstract void put(T component, EntitySnapshot snapshot);
+
+	/**
+	 * Capture the fields of the component into the snapshot
+	 *
+	 * @param component a component of this codec's type
+	 * @param snapshot
+	 */
+	@SuppressWarnings("unchecked")
+	public void write(Component component, EntitySnapshot snapshot) {
+		this.put((T) component, snapshot);
+	}
+
+	/**
+	 * Set the parameters of a statement built from {@link #getColumnList()} from the next
+	 * row of the snapshot. Parameter 1 is the entity id which is left to the caller.
+	 *
+	 * @param statement
+	 * @param snapshot a snapshot positioned at a row captured by this codec
+	 * @throws SQLException
+	 */
+	public void bind(PreparedStatement statement, EntitySnapshot snapshot) throws SQLException {
+		for(int i = 0, n = kinds.length; i < n; i += 1) {
+			int parameter = i + 2;
+			switch(kinds[i]) {
+				case BOOLEAN:
+				case INT:
+					statement.setInt(parameter, snapshot.nextInt());
+					break;
+				case LONG:
+					statement.setLong(parameter, snapshot.nextLong());
+					break;
+				case FLOAT:
+					statement.setFloat(parameter, snapshot.nextFloat());
+					break;
+				case DOUBLE:
+					statement.setDouble(parameter, snapshot.nextDouble());
+					break;
+				default:
+					statement.setString(parameter, snapshot.nextString());
+					break;
+			}
+		}
+	}
+
+	/**
+	 * @return the component type
+	 */
+	public Class<T> getType() {
+		return type;
+	}
+
+	/**
+	 * @return the name of the table holding the component type
+	 */
+	public String getTableName() {
+		return type.getSimpleName();
+	}
+
+	/**
+	 * @return the number of component columns, not counting the entity id
+	 */
+	public int getNumColumns() {
+		return columns.length;
+	}
+
+	/**
+	 * @param index 0 to the number of columns - 1
+	 * @return the name of the column
+	 */
+	public String getColumnName(int index) {
+		return columns[index];
+	}
+
+	/**
+	 * @param index 0 to the number of columns - 1
+	 * @return the SQLite datatype of the column
+	 */
+	public String getDatatype(int index) {
+		return datatypes[index];
+	}
+
+	/**
+	 * @param index 0 to the number of columns - 1
+	 * @return the kind of value held by the column
+	 */
+	public int getKind(int index) {
+		return kinds[index];
+	}
+
+	/**
+	 * @param index 0 to the number of columns - 1
+	 * @return the index of the column among the columns of this codec held in the
+	 * same value array of a snapshot, ints and booleans, longs and doubles, floats or strings
+	 */
+	public int getOffset(int index) {
+		return offsets[index];
+	}
+
+	/**
+	 * @return the entity id column followed by the component columns, separated by commas
+	 */
+	public String getColumnList() {
+		return columnList;
+	}
+
+	/**
+	 * @param fieldType
+	 * @return the kind of snapshot value a field of the given type is held as
+	 */
+	private static int kindOf(Class<?> fieldType) {
+		if(fieldType == boolean.class) {
+			return BOOLEAN;
+		}
+		if(fieldType == int.class || fieldType == short.class || fieldType == byte.class) {
+			return INT;
+		}
+		if(fieldType == long.class) {
+			return LONG;
+		}
+		if(fieldType == float.class) {
+			return FLOAT;
+		}
+		if(fieldType == double.class) {
+			return DOUBLE;
+		}
+		return STRING;
+	}
+}
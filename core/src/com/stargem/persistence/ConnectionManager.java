@@ -0,0 +1,184 @@
+/**
+ *
+ */
+package com.stargem.persistence;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import com.badlogic.gdx.utils.Array;
+import com.stargem.Config;
+import com.stargem.utils.Log;
+
+/**
+ * ConnectionManager.java
+ *
+ * Owns the connections to the profile database. There is one writer connection, which
+ * is handed to every {@link ConnectionListener} and used for all updates, and a small
+ * pool of reader connections which threads borrow to run queries. The database is put
+ * into write ahead logging mode so readers see the last committed state while a save is
+ * being written, and a save does not wait for readers to finish, so a phase can be loaded
+ * in the background while the game is saved.
+ *
+ * Readers must only be used to query the database. A reader is borrowed with
+ * {@link #acquireReader()} and must always be given back with {@link #releaseReader(Connection)}.
+ */
+public class ConnectionManager {
+
+	private Connection writer;
+
+	// every reader connection and the readers not currently borrowed
+	private final Array<Connection> readers = new Array<Connection>();
+	private final Array<Connection> idle = new Array<Connection>();
+
+	/**
+	 * Open the writer and reader connections to the database at the given path, closing
+	 * any connections already open.
+	 *
+	 * @param resolver opens connections for the platform
+	 * @param databasePath
+	 * @return the writer connection
+	 */
+	synchronized public Connection open(ActionResolver resolver, String databasePath) {
+
+		this.close();
+
+		this.writer = resolver.getConnection(databasePath);
+		if(this.writer == null) {
+			return null;
+		}
+
+		// the journal mode is stored in the database so it only has to be set by the writer
+		this.execute(this.writer, "PRAGMA journal_mode=WAL;");
+		this.execute(this.writer, "PRAGMA synchronous=NORMAL;");
+		this.configure(this.writer);
+
+		for(int i = 0; i < Config.DATABASE_READERS; i += 1) {
+			Connection reader = resolver.getConnection(databasePath);
+			if(reader == null) {
+				break;
+			}
+			this.configure(reader);
+			this.readers.add(reader);
+			this.idle.add(reader);
+		}
+
+		return this.writer;
+	}
+
+	/**
+	 * Settings which every connection needs
+	 *
+	 * @param connection
+	 */
+	private void configure(Connection connection) {
+		this.execute(connection, "PRAGMA busy_timeout=" + Config.DATABASE_BUSY_TIMEOUT + ";");
+		this.execute(connection, "PRAGMA cache_size=-" + Config.DATABASE_CACHE_SIZE + ";");
+	}
+
+	private void execute(Connection connection, String sql) {
+		try {
+			Statement statement = connection.createStatement();
+			statement.execute(sql);
+			statement.close();
+		}
+		catch (SQLException e) {
+			Log.error(Config.SQL_ERR, e.getMessage() + " while running " + sql);
+		}
+	}
+
+	/**
+	 * Run a statement on the writer and on every reader, for the statements each connection
+	 * needs to run for itself such as attaching a database or creating a temporary view. 
+	 * This waits until every reader has been given back.
+	 * 
+	 * @param sql
+	 */
+	synchronized public void executeAll(String sql) {
+		while(this.idle.size < this.readers.size) {
+			try {
+				this.wait();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				Log.error(Config.SQL_ERR, "Interrupted while waiting for the readers to run " + sql);
+				return;
+			}
+		}
+		
+		if(this.writer != null) {
+			this.execute(this.writer, sql);
+		}
+		for(int i = 0, n = this.readers.size; i < n; i += 1) {
+			this.execute(this.readers.get(i), sql);
+		}
+	}
+	
+	/**
+	 * @return the connection used for all updates
+	 */
+	public Connection getWriter() {
+		return this.writer;
+	}
+
+	/**
+	 * Borrow a reader connection, waiting for one to be given back if they are all in
+	 * use. If the database has no readers the writer is returned.
+	 *
+	 * @return a connection to query the database with
+	 */
+	synchronized public Connection acquireReader() {
+		if(this.readers.size == 0) {
+			return this.writer;
+		}
+		while(this.idle.size == 0) {
+			try {
+				this.wait();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return this.writer;
+			}
+		}
+		return this.idle.pop();
+	}
+
+	/**
+	 * Give back a connection borrowed with {@link #acquireReader()}
+	 *
+	 * @param reader
+	 */
+	synchronized public void releaseReader(Connection reader) {
+		if(reader == null || reader == this.writer || !this.readers.contains(reader, true)) {
+			return;
+		}
+		this.idle.add(reader);
+		this.notifyAll();
+	}
+
+	/**
+	 * Close every connection. Readers still borrowed are closed as well.
+	 */
+	synchronized public void close() {
+		for(int i = 0, n = this.readers.size; i < n; i += 1) {
+			this.close(this.readers.get(i));
+		}
+		this.readers.clear();
+		this.idle.clear();
+
+		if(this.writer != null) {
+			this.close(this.writer);
+			this.writer = null;
+		}
+	}
+
+	private void close(Connection connection) {
+		try {
+			connection.close();
+		}
+		catch (SQLException e) {
+			Log.error(Config.SQL_ERR, e.getMessage());
+		}
+	}
+}
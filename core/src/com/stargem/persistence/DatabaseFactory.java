@@ -3,13 +3,11 @@
  */
 package com.stargem.persistence;
 
-import java.lang.reflect.Field;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
 
 import com.badlogic.gdx.utils.Array;
-import com.badlogic.gdx.utils.ObjectMap;
 import com.stargem.Config;
 import com.stargem.GameManager;
 import com.stargem.entity.components.Component;
@@ -39,6 +37,17 @@ public class DatabaseFactory {
 		
 		ActionResolver ar = GameManager.getInstance().getPlatformResolver().getActionResolver();
 		Connection connection = ar.getConnection(databasePath);
+		
+		createWorldTables(connection, componentTypes);
+	}
+	
+	/**
+	 * Create the tables of a world database
+	 * 
+	 * @param connection a connection to the world database
+	 * @param componentTypes the component types to create tables for
+	 */
+	static void createWorldTables(Connection connection, Array<Class<? extends Component>> componentTypes) {
 				
 		// assets table
 		createAssetsTable(connection);
@@ -64,7 +73,7 @@ public class DatabaseFactory {
 	/**
 	 * @param connection
 	 */
-	private static void createGateTable(Connection connection) {
+	static void createGateTable(Connection connection) {
 		
 		//CREATE TABLE "Gates" ("entityId" INTEGER, "type" INTEGER)
 		StringBuilder sql = StringHelper.getBuilder();
@@ -85,7 +94,7 @@ public class DatabaseFactory {
 	 * Create a table to store assets. This is called by the editor
 	 * and later imported into the game from a world database.
 	 */
-	private static void createAssetsTable(Connection connection) {
+	static void createAssetsTable(Connection connection) {
 
 		// CREATE TABLE IF NOT EXISTS Assets (path TEXT PRIMARY KEY, shape TEXT);
 		
@@ -109,7 +118,7 @@ public class DatabaseFactory {
 	 * Create a table to store world information. This is called by the editor
 	 * and later imported into the game from a world database.
 	 */
-	private static void createWorldTable(Connection connection) {
+	static void createWorldTable(Connection connection) {
 		
 		// CREATE TABLE IF NOT EXISTS World (name TEXT PRIMARY KEY, music TEXT, ambiance TEXT, skybox TEXT);
 				
@@ -133,7 +142,7 @@ public class DatabaseFactory {
 	 * create a table to match entity id's with player id's
 	 * player id's are indices in the player list stored by the simulation
 	 */
-	private static void createPlayerTable(Connection connection) {
+	static void createPlayerTable(Connection connection) {
 
 		StringBuilder sql = StringHelper.getBuilder();
 		sql.append("CREATE TABLE IF NOT EXISTS ");
@@ -154,10 +163,10 @@ public class DatabaseFactory {
 	/**
 	 * Create a table to store entity id's. The id's are generated automatically.
 	 */
-	private static void createEntityTable(Connection connection) {
+	static void createEntityTable(Connection connection) {
 
 		StringBuilder sql = StringHelper.getBuilder();
-		sql.append("CREATE TABLE IF NOT EXISTS Entity (entityId INTEGER PRIMARY KEY, \"phase\" INTEGER, \"load\" NUMERIC, \"active\" NUMERIC);");
+		sql.append("CREATE TABLE IF NOT EXISTS Entity (entityId INTEGER PRIMARY KEY, \"phase\" INTEGER, \"load\" NUMERIC, \"active\" NUMERIC, \"region\" INTEGER DEFAULT -1);");
 
 		// run the query
 		try {
@@ -171,46 +180,27 @@ public class DatabaseFactory {
 	}
 
 	/**
-	 * create a table which serialises the given component shape
+	 * create a table which serialises the given component shape, the columns
+	 * are taken from the component's codec
 	 * 
 	 * @param shape the component shape to create a table for
 	 */
-	private static void createTableFromComponentType(Connection connection, Class<? extends Component> type) {
+	static void createTableFromComponentType(Connection connection, Class<? extends Component> type) {
 
-		ObjectMap<String, String> datatypes = PersistenceManager.getInstance().getDatatypes();
+		ComponentCodec<? extends Component> codec = CodecManager.getInstance().getCodec(type);
 		
 		// build a query to create  a new table
 		StringBuilder sql = StringHelper.getBuilder();
 		sql.append("CREATE TABLE IF NOT EXISTS ");
-		sql.append(type.getSimpleName());
+		sql.append(codec.getTableName());
 		sql.append(" (");
-		sql.append("entityId INTEGER PRIMARY KEY,");
-
-		Field[] fields = type.getFields();
-
-		for (int i = 0, n = fields.length; i < n; i += 1) {
-
-			Field f = fields[i];
-			String datatype = f.getType().getSimpleName();
-
-			// if this is a recognised datatype then we can add it as a table field			
-			if (datatypes.containsKey(datatype)) {
-				sql.append(f.getName());
-				sql.append(" ");
-				sql.append(datatypes.get(datatype));
-
-				// add a comma if this is not the last field
-				if (i < n - 1) {
-					sql.append(", ");
-				}
-			}
+		sql.append("entityId INTEGER PRIMARY KEY");
 
-			// The datatype was not recognised so we should create a table to hold the
-			// object and its fields. This is done with a recursive call.
-			else {
-				//Log.echo("Some kind of recursive call?");
-				throw new Error("Unknown shape: " + datatype + " can only store primitives and Strings.");
-			}
+		for (int i = 0, n = codec.getNumColumns(); i < n; i += 1) {
+			sql.append(", ");
+			sql.append(codec.getColumnName(i));
+			sql.append(" ");
+			sql.append(codec.getDatatype(i));
 		}
 
 		sql.append(");");
@@ -226,6 +216,48 @@ public class DatabaseFactory {
 		}
 	}
 	
+	/**
+	 * Create the table listing the entities whose rows have been copied into the profile
+	 * from the world database it overlays, and the entities of the world which have been 
+	 * deleted.
+	 */
+	static void createModifiedTable(Connection connection) {
+		StringBuilder sql = StringHelper.getBuilder();
+		sql.append("CREATE TABLE IF NOT EXISTS ");
+		sql.append(Config.TABLE_MODIFIED);
+		sql.append(" (entityId INTEGER PRIMARY KEY, deleted NUMERIC);");
+
+		// run the query
+		try {
+			Statement statement = connection.createStatement();
+			statement.executeUpdate(sql.toString());
+			statement.close();
+		}
+		catch (SQLException e) {
+			Log.error(Config.SQL_ERR, e.getMessage() + " while creating the modified table: " + sql.toString());
+		}
+	}
+	
+	/**
+	 * Create the table recording the world database the profile overlays
+	 */
+	static void createOverlayTable(Connection connection) {
+		StringBuilder sql = StringHelper.getBuilder();
+		sql.append("CREATE TABLE IF NOT EXISTS ");
+		sql.append(Config.TABLE_OVERLAY);
+		sql.append(" (path TEXT);");
+
+		// run the query
+		try {
+			Statement statement = connection.createStatement();
+			statement.executeUpdate(sql.toString());
+			statement.close();
+		}
+		catch (SQLException e) {
+			Log.error(Config.SQL_ERR, e.getMessage() + " while creating the overlay table: " + sql.toString());
+		}
+	}
+	
 	/**
 	 * 
 	 */
@@ -0,0 +1,523 @@
+/**
+ *
+ */
+package com.stargem.persistence;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import com.stargem.Config;
+import com.stargem.entity.components.Component;
+import com.stargem.utils.Log;
+
+/**
+ * EntityJournal.java
+ *
+ * An append only log of the changes made to entities between saves. At the end of every
+ * tick the entities recycled and the components changed or removed during the tick are
+ * appended to the journal as one binary record, which costs a small write instead of a
+ * database transaction. If the game crashes the journal is replayed into the database
+ * when the profile is next opened, so little more than the last tick is lost.
+ *
+ * The journal is split into numbered segment files. Capturing a save rolls the journal
+ * over to a new segment and once the save has been written the segments it covers are
+ * deleted, so the journal is compacted into the database by the saves themselves.
+ *
+ * <pre>
+ * segment: int magic, int version, short numTypes, numTypes * (short length, byte[length] typeName), records
+ * record:  int length, byte[length] payload, int crc32 of the payload
+ * payload: int numDeaths, int[numDeaths] entityIds
+ *          int numRemovals, numRemovals * (int entityId, short type)
+ *          int numEntities, int[numEntities] entityIds
+ *          int numRows, numRows * (int entityId, short type, values in column order)
+ * </pre>
+ *
+ * Strings are written as their length in UTF-8 bytes followed by the bytes, or -1 for
+ * null. Records are written without forcing them to the disk so the journal survives the
+ * game crashing but not the machine.
+ */
+public class EntityJournal {
+
+	private static final int MAGIC = 0x53474a4c;
+	private static final int VERSION = 1;
+	private static final String CHARSET = "UTF-8";
+
+	// the path of the journal, segments are named path.1, path.2...
+	private String path;
+
+	// the segment being appended to and the segments waiting for a save to cover them
+	private int segment;
+	private FileOutputStream stream;
+	private FileChannel channel;
+	private final IntArray closed = new IntArray();
+
+	// a record is built here before it is appended, grown as needed, it is backed by an
+	// array so the checksum is taken in one call
+	private ByteBuffer out = ByteBuffer.allocate(1 << 14);
+	private final CRC32 crc = new CRC32();
+
+	// the persisted component types, a record refers to a type by its index
+	private Array<Class<? extends Component>> types;
+
+	/**
+	 * Open the journal at the given path. Segments left by a game which did not shut down
+	 * are replayed into the database first and then deleted.
+	 *
+	 * @param path the path of the journal, next to the profile database
+	 * @param entityPersistence the layer the journal belongs to
+	 */
+	public void open(String path, EntityPersistence entityPersistence) {
+
+		this.close();
+
+		// nothing is appended while the journal is replayed, the lock is not held so the
+		// database writes can report back to the journal
+		this.types = entityPersistence.getComponentTypes();
+		IntArray segments = this.findSegments(path);
+		boolean replayed = true;
+		for(int i = 0, n = segments.size; i < n && replayed; i += 1) {
+			replayed = this.replay(this.getSegmentFile(path, segments.get(i)), entityPersistence);
+		}
+
+		synchronized(this) {
+			this.path = path;
+
+			// segments which could not be written to the database are kept for next time
+			if(replayed) {
+				for(int i = 0, n = segments.size; i < n; i += 1) {
+					this.getSegmentFile(path, segments.get(i)).delete();
+				}
+				this.segment = 1;
+			}
+			else {
+				this.closed.addAll(segments);
+				this.segment = segments.peek() + 1;
+			}
+		}
+	}
+
+	/**
+	 * Stop journaling, the segments are left on disk
+	 */
+	synchronized public void close() {
+		this.closeSegment();
+		this.closed.clear();
+		this.path = null;
+	}
+
+	/**
+	 * Delete every segment, the changes they hold are no longer wanted. This is done when
+	 * the entity tables are replaced.
+	 */
+	synchronized public void reset() {
+		if(this.path == null) {
+			return;
+		}
+		this.closeSegment();
+		IntArray segments = this.findSegments(this.path);
+		for(int i = 0, n = segments.size; i < n; i += 1) {
+			this.getSegmentFile(this.path, segments.get(i)).delete();
+		}
+		this.closed.clear();
+		this.segment = 1;
+	}
+
+	/**
+	 * @return true if the journal is open and records are appended
+	 */
+	public boolean isOpen() {
+		return this.path != null;
+	}
+
+	/**
+	 * Append the changes captured in the snapshot as one record. An empty snapshot is not
+	 * recorded. If the record cannot be written journaling stops and the game relies on
+	 * its saves alone.
+	 *
+	 * @param snapshot the changes of one tick
+	 */
+	synchronized public void append(EntitySnapshot snapshot) {
+
+		if(this.path == null) {
+			return;
+		}
+
+		IntArray deathrow = snapshot.getDeathrow();
+		if(deathrow.size == 0 && snapshot.getNumRemovals() == 0 && snapshot.getNumEntities() == 0) {
+			return;
+		}
+
+		try {
+			if(this.channel == null) {
+				this.openSegment();
+			}
+
+			out.clear();
+
+			// the length is filled in once the payload is known
+			out.putInt(0);
+
+			this.ensureCapacity(12 + (deathrow.size << 2) + snapshot.getNumRemovals() * 6 + (snapshot.getNumEntities() << 2));
+			out.putInt(deathrow.size);
+			for(int i = 0, n = deathrow.size; i < n; i += 1) {
+				out.putInt(deathrow.get(i));
+			}
+
+			out.putInt(snapshot.getNumRemovals());
+			for(int i = 0, n = snapshot.getNumRemovals(); i < n; i += 1) {
+				out.putInt(snapshot.getRemovedEntity(i));
+				out.putShort((short) this.types.indexOf(snapshot.getRemovedCodec(i).getType(), true));
+			}
+
+			out.putInt(snapshot.getNumEntities());
+			for(int i = 0, n = snapshot.getNumEntities(); i < n; i += 1) {
+				out.putInt(snapshot.getEntityId(i));
+			}
+
+			this.ensureCapacity(4);
+			out.putInt(snapshot.getNumRows());
+			snapshot.rewind();
+			for(int i = 0, n = snapshot.getNumRows(); i < n; i += 1) {
+				this.putRow(snapshot, i);
+			}
+
+			// length and checksum of the payload
+			int length = out.position() - 4;
+			out.putInt(0, length);
+			crc.reset();
+			crc.update(out.array(), 4, length);
+			this.ensureCapacity(4);
+			out.putInt((int) crc.getValue());
+
+			out.flip();
+			while(out.hasRemaining()) {
+				this.channel.write(out);
+			}
+		}
+		catch (IOException e) {
+			Log.error(Config.IO_ERR, e.getMessage() + " while appending to the journal, journaling stopped");
+			this.close();
+		}
+	}
+
+	private void putRow(EntitySnapshot snapshot, int row) throws UnsupportedEncodingException {
+
+		ComponentCodec<? extends Component> codec = snapshot.getRowCodec(row);
+
+		this.ensureCapacity(6);
+		out.putInt(snapshot.getRowEntity(row));
+		out.putShort((short) this.types.indexOf(codec.getType(), true));
+
+		for(int j = 0, n = codec.getNumColumns(); j < n; j += 1) {
+			switch(codec.getKind(j)) {
+				case ComponentCodec.BOOLEAN:
+				case ComponentCodec.INT:
+					this.ensureCapacity(4);
+					out.putInt(snapshot.nextInt());
+					break;
+				case ComponentCodec.LONG:
+				case ComponentCodec.DOUBLE:
+					this.ensureCapacity(8);
+					out.putLong(snapshot.nextLong());
+					break;
+				case ComponentCodec.FLOAT:
+					this.ensureCapacity(4);
+					out.putFloat(snapshot.nextFloat());
+					break;
+				default:
+					String value = snapshot.nextString();
+					if(value == null) {
+						this.ensureCapacity(4);
+						out.putInt(-1);
+					}
+					else {
+						byte[] bytes = value.getBytes(CHARSET);
+						this.ensureCapacity(4 + bytes.length);
+						out.putInt(bytes.length);
+						out.put(bytes);
+					}
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Start a new segment so that the records appended so far can be deleted once a save
+	 * captured now has been written. This must be called on the update thread when the
+	 * save is captured.
+	 *
+	 * @return the last segment covered by the save, 0 if there is none
+	 */
+	synchronized public int roll() {
+		if(this.path == null) {
+			return 0;
+		}
+		if(this.channel != null) {
+			this.closeSegment();
+			this.closed.add(this.segment);
+			this.segment += 1;
+		}
+		return this.closed.size > 0 ? this.closed.peek() : 0;
+	}
+
+	/**
+	 * Delete the segments up to and including the given one, their changes are in the
+	 * database.
+	 *
+	 * @param last the value returned by {@link #roll()} when the save was captured
+	 */
+	synchronized public void discard(int last) {
+		if(this.path == null) {
+			return;
+		}
+		while(this.closed.size > 0 && this.closed.first() <= last) {
+			this.getSegmentFile(this.path, this.closed.removeIndex(0)).delete();
+		}
+	}
+
+	private void openSegment() throws IOException {
+
+		this.stream = new FileOutputStream(this.getSegmentFile(this.path, this.segment));
+		this.channel = this.stream.getChannel();
+
+		// the header names the component types so a journal is never replayed into
+		// tables it was not written from
+		out.clear();
+		out.putInt(MAGIC);
+		out.putInt(VERSION);
+		out.putShort((short) this.types.size);
+		for(int i = 0, n = this.types.size; i < n; i += 1) {
+			byte[] name = CodecManager.getInstance().getCodec(this.types.get(i)).getTableName().getBytes(CHARSET);
+			this.ensureCapacity(2 + name.length);
+			out.putShort((short) name.length);
+			out.put(name);
+		}
+		out.flip();
+		while(out.hasRemaining()) {
+			this.channel.write(out);
+		}
+	}
+
+	private void closeSegment() {
+		if(this.stream == null) {
+			return;
+		}
+		try {
+			this.stream.close();
+		}
+		catch (IOException e) {
+			Log.error(Config.IO_ERR, e.getMessage() + " while closing a journal segment");
+		}
+		this.stream = null;
+		this.channel = null;
+	}
+
+	/**
+	 * Write the records of a segment to the database. A record cut short by a crash ends
+	 * the segment.
+	 *
+	 * @param file
+	 * @param entityPersistence
+	 * @return false if the segment was not written to the database
+	 */
+	private boolean replay(File file, EntityPersistence entityPersistence) {
+
+		ByteBuffer in;
+		try {
+			FileInputStream input = new FileInputStream(file);
+			try {
+				FileChannel channel = input.getChannel();
+				in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+			finally {
+				input.close();
+			}
+		}
+		catch (IOException e) {
+			Log.error(Config.IO_ERR, e.getMessage() + " while opening journal segment " + file.getPath());
+			return false;
+		}
+
+		EntitySnapshot snapshot = new EntitySnapshot();
+		int records = 0;
+
+		try {
+			if(in.remaining() < 10 || in.getInt() != MAGIC || in.getInt() != VERSION) {
+				Log.error(Config.IO_ERR, "Not a journal segment or an old version: " + file.getPath());
+				return true;
+			}
+
+			int numTypes = in.getShort();
+			if(numTypes != this.types.size) {
+				Log.error(Config.IO_ERR, "Journal segment written for other component types: " + file.getPath());
+				return true;
+			}
+			for(int i = 0; i < numTypes; i += 1) {
+				byte[] name = new byte[in.getShort()];
+				in.get(name);
+				if(!CodecManager.getInstance().getCodec(this.types.get(i)).getTableName().equals(new String(name, CHARSET))) {
+					Log.error(Config.IO_ERR, "Journal segment written for other component types: " + file.getPath());
+					return true;
+				}
+			}
+
+			while(in.remaining() >= 8) {
+
+				int length = in.getInt();
+				if(length < 0 || in.remaining() < length + 4) {
+					break;
+				}
+
+				crc.reset();
+				for(int i = in.position(), n = i + length; i < n; i += 1) {
+					crc.update(in.get(i));
+				}
+				if((int) crc.getValue() != in.getInt(in.position() + length)) {
+					break;
+				}
+
+				// deletes in a record come after the writes of the records before it, so
+				// the records gathered so far are written first
+				int deaths = in.getInt(in.position());
+				int removals = in.getInt(in.position() + 4 + (deaths << 2));
+				if((deaths > 0 || removals > 0) && records > 0) {
+					if(!entityPersistence.write(snapshot)) {
+						return false;
+					}
+					snapshot.clear();
+					records = 0;
+				}
+
+				this.readRecord(in, snapshot);
+				in.getInt();
+				records += 1;
+			}
+		}
+		catch (IOException e) {
+			Log.error(Config.IO_ERR, e.getMessage() + " while replaying journal segment " + file.getPath());
+			return false;
+		}
+
+		return records == 0 || entityPersistence.write(snapshot);
+	}
+
+	private void readRecord(ByteBuffer in, EntitySnapshot snapshot) throws IOException {
+
+		IntArray deathrow = snapshot.getDeathrow();
+		for(int i = 0, n = in.getInt(); i < n; i += 1) {
+			deathrow.add(in.getInt());
+		}
+
+		for(int i = 0, n = in.getInt(); i < n; i += 1) {
+			int entityId = in.getInt();
+			snapshot.addRemoval(entityId, this.getCodec(in.getShort()));
+		}
+
+		for(int i = 0, n = in.getInt(); i < n; i += 1) {
+			snapshot.addEntity(in.getInt());
+		}
+
+		for(int i = 0, n = in.getInt(); i < n; i += 1) {
+			int entityId = in.getInt();
+			ComponentCodec<? extends Component> codec = this.getCodec(in.getShort());
+			snapshot.addRow(entityId, codec);
+
+			for(int j = 0, m = codec.getNumColumns(); j < m; j += 1) {
+				switch(codec.getKind(j)) {
+					case ComponentCodec.BOOLEAN:
+					case ComponentCodec.INT:
+						snapshot.putInt(in.getInt());
+						break;
+					case ComponentCodec.LONG:
+					case ComponentCodec.DOUBLE:
+						snapshot.putLong(in.getLong());
+						break;
+					case ComponentCodec.FLOAT:
+						snapshot.putFloat(in.getFloat());
+						break;
+					default:
+						int length = in.getInt();
+						if(length < 0) {
+							snapshot.putString(null);
+						}
+						else {
+							byte[] bytes = new byte[length];
+							in.get(bytes);
+							snapshot.putString(new String(bytes, CHARSET));
+						}
+						break;
+				}
+			}
+		}
+	}
+
+	private ComponentCodec<? extends Component> getCodec(int type) throws IOException {
+		if(type < 0 || type >= this.types.size) {
+			throw new IOException("Unknown component type " + type + " in journal");
+		}
+		return CodecManager.getInstance().getCodec(this.types.get(type));
+	}
+
+	/**
+	 * @param path the path of the journal
+	 * @return the numbers of the segments on disk in ascending order
+	 */
+	private IntArray findSegments(String path) {
+		IntArray segments = new IntArray();
+
+		File base = new File(path);
+		File directory = base.getAbsoluteFile().getParentFile();
+		String prefix = base.getName() + ".";
+
+		String[] names = directory == null ? null : directory.list();
+		if(names == null) {
+			return segments;
+		}
+
+		for(String name : names) {
+			if(!name.startsWith(prefix)) {
+				continue;
+			}
+			try {
+				segments.add(Integer.parseInt(name.substring(prefix.length())));
+			}
+			catch (NumberFormatException e) {
+				// not a segment
+			}
+		}
+
+		segments.sort();
+		return segments;
+	}
+
+	private File getSegmentFile(String path, int segment) {
+		return new File(path + "." + segment);
+	}
+
+	/**
+	 * Grow the record buffer so that it can take the given number of bytes
+	 *
+	 * @param bytes
+	 */
+	private void ensureCapacity(int bytes) {
+		if(out.remaining() >= bytes) {
+			return;
+		}
+		int capacity = out.capacity();
+		while(capacity - out.position() < bytes) {
+			capacity <<= 1;
+		}
+		ByteBuffer grown = ByteBuffer.allocate(capacity);
+		out.flip();
+		grown.put(out);
+		out = grown;
+	}
+}
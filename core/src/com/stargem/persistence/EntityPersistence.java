@@ -3,27 +3,29 @@
  */
 package com.stargem.persistence;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Bits;
+import com.badlogic.gdx.utils.GdxRuntimeException;
 import com.badlogic.gdx.utils.IntArray;
 import com.badlogic.gdx.utils.IntMap;
 import com.badlogic.gdx.utils.ObjectMap;
-import com.badlogic.gdx.utils.PooledLinkedList;
 import com.stargem.Config;
 import com.stargem.PlayersManager;
-import com.stargem.entity.ComponentFactory;
+import com.stargem.entity.ChangeTracker;
+import com.stargem.entity.ComponentManager;
 import com.stargem.entity.Entity;
 import com.stargem.entity.EntityManager;
 import com.stargem.entity.EntityRecycleListener;
 import com.stargem.entity.components.Component;
 import com.stargem.entity.components.Physics;
+import com.stargem.physics.PhysicsManager;
+import com.stargem.terrain.AbstractQuadSphere;
 import com.stargem.utils.Log;
 import com.stargem.utils.StringHelper;
 
@@ -36,58 +38,227 @@ import com.stargem.utils.StringHelper;
  */
 public class EntityPersistence implements EntityRecycleListener, ConnectionListener {
 
+	// the phase which reads the entities of the regions given instead of a phase
+	public static final int STREAMED_REGIONS = -2;
+	
+	// the columns of the Entity table every world has, worlds made before entities were
+	// partitioned have no region column
+	private static final String ENTITY_COLUMNS = "entityId, phase, load, active";
+	
+	// the suffix of a table which lost its primary key while it is being made again
+	private static final String UNKEYED = "Unkeyed";
+	
+	// the suffix of the copies of the entity tables kept with the quick save
+	private static final String QUICKSAVED = "QuickSave";
+
 	// the entity manager
 	private final EntityManager em = EntityManager.getInstance();
 	
-	// the component types which should be managed
+	// the component types which should be managed and their type ids
 	private final Array<Class<? extends Component>> componentTypes = new Array<Class<? extends Component>>();
+	private final IntArray typeIds = new IntArray();
+	
+	// the components changed since the last capture, for incremental saves
+	private final ChangeTracker changes;
+	private final Bits changedTypes = new Bits();
+	
+	// set when changes may have been lost so the next capture must be a full checkpoint
+	private volatile boolean checkpointRequired = true;
+	
+	// the changes made since the last tick, appended to the journal at the end of each tick
+	private final EntityJournal journal = new EntityJournal();
+	private final ChangeTracker journalChanges;
+	private final EntitySnapshot journalSnapshot = new EntitySnapshot();
 
-	// map Java datatypes to SQLite datatypes
-	private ObjectMap<String, String> datatypes = new ObjectMap<String, String>();
-
-	// the connection connection
+	// the connection connection, saves and updates go through it
 	private Connection connection;
-			
-	// for keeping track of entities while loading
-	private IntMap<Integer> playerIDs;
-	private final Array<Integer> entities = new Array<Integer>();
+	
+	// for keeping track of entities while loading, set by whichever loader read last
+	private volatile IntMap<Integer> playerIDs;
+	
+	// entities being loaded by id, existing player entities only reload their physics
+	private final IntMap<Entity> loading = new IntMap<Entity>();
+	private final IntMap<Entity> reloading = new IntMap<Entity>();
+	private final Array<Component> loadedComponents = new Array<Component>();
+	
+	// reused when gathering the components of an entity to store
+	private final Array<Component> components = new Array<Component>();
 
-	// the list of entities to be deleted before the next save
+	// the list of entities to be deleted before the next save, it is filled on the update 
+	// thread and handed over when a snapshot is captured so it is guarded by its own lock
 	private final IntArray deathrow = new IntArray();
+	private final IntArray journalDeaths = new IntArray();
+	
+	// set while entities are being unloaded, they are recycled without being deleted
+	private boolean unloading;
+	
+	// partitions entities into regions by position, null when they are not partitioned
+	private volatile AbstractQuadSphere regions;
+	private PreparedStatement regionStatement;
+	
+	// the offsets of the position columns of the physics codec in a snapshot
+	private final int[] positionOffsets = new int[3];
+	
+	// statements prepared once per table and reused by every save
+	private final ObjectMap<Class<? extends Component>, PreparedStatement> storeStatements = new ObjectMap<Class<? extends Component>, PreparedStatement>();
+	private final ObjectMap<Class<? extends Component>, PreparedStatement> deleteStatements = new ObjectMap<Class<? extends Component>, PreparedStatement>();
+	private PreparedStatement storeEntityStatement;
+	private PreparedStatement deleteEntityStatement;
+	
+	// statements copying an entity's rows from the overlaid world into the profile
+	private final ObjectMap<Class<? extends Component>, PreparedStatement> copyStatements = new ObjectMap<Class<? extends Component>, PreparedStatement>();
+	private PreparedStatement copyEntityStatement;
+	private PreparedStatement modifiedStatement;
+	private PreparedStatement tombstoneStatement;
+	
+	// the statements with rows waiting in their batch, in the order they were first used
+	private final Array<PreparedStatement> batched = new Array<PreparedStatement>();
 		
 	public EntityPersistence() {
-		this.datatypes = PersistenceManager.getInstance().getDatatypes();		
+		this.changes = em.createChangeTracker();
+		this.journalChanges = em.createChangeTracker();
+	}
+	
+	/**
+	 * Partition the entities saved from now on into the regions of the sphere by the 
+	 * position of their physics body, entities without a body are in region -1. Entities
+	 * in the database are given their region straight away.
+	 * 
+	 * @param sphere the sphere whose segments are the regions, null to stop partitioning
+	 */
+	synchronized public void setRegions(AbstractQuadSphere sphere) {
+		this.regions = sphere;
+		if(sphere == null) {
+			return;
+		}
+		
+		ComponentCodec<? extends Component> codec = CodecManager.getInstance().getCodec(Physics.class);
+		for(int i = 0, n = codec.getNumColumns(); i < n; i += 1) {
+			String column = codec.getColumnName(i);
+			if(column.equals("m12")) {
+				this.positionOffsets[0] = codec.getOffset(i);
+			}
+			else if(column.equals("m13")) {
+				this.positionOffsets[1] = codec.getOffset(i);
+			}
+			else if(column.equals("m14")) {
+				this.positionOffsets[2] = codec.getOffset(i);
+			}
+		}
+		
+		this.createRegionColumn();
+		this.assignRegions();
+	}
+	
+	/**
+	 * Give every entity with a physics body in the profile the region of its position. 
+	 * The entities of an overlaid world which have not been saved keep the regions the 
+	 * world database was made with.
+	 */
+	private void assignRegions() {
+		
+		boolean autoCommit = true;
+		
+		try {
+			autoCommit = this.connection.getAutoCommit();
+			this.connection.setAutoCommit(false);
+			
+			Statement statement = this.connection.createStatement();
+			ResultSet result = statement.executeQuery("SELECT entityId, m12, m13, m14 FROM main.Physics;");
+			while(result.next()) {
+				this.updateRegion(result.getInt(1), result.getFloat(2), result.getFloat(3), result.getFloat(4));
+			}
+			result.close();
+			statement.close();
+			
+			this.regionStatement.executeBatch();
+			this.connection.commit();
+		}
+		catch (SQLException e) {
+			Log.error(Config.SQL_ERR, e.getMessage() + " while assigning regions");
+			this.rollback();
+		}
+		finally {
+			this.clearBatches();
+			try {
+				this.connection.setAutoCommit(autoCommit);
+			}
+			catch (SQLException e) {
+				Log.error(Config.SQL_ERR, e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Queue the region of the entity to be set from its position
+	 * 
+	 * @param entityId
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @throws SQLException
+	 */
+	private void updateRegion(int entityId, float x, float y, float z) throws SQLException {
+		if(this.regionStatement == null) {
+			this.regionStatement = this.connection.prepareStatement("UPDATE main.Entity SET region=? WHERE entityId=?;");
+		}
+		this.regionStatement.setInt(1, this.regions.getRegion(x, y, z));
+		this.regionStatement.setInt(2, entityId);
+		this.addBatch(this.regionStatement);
+	}
+	
+	/**
+	 * Entity tables made before entities were partitioned are given a region column, and 
+	 * the column is indexed so regions can be loaded on their own.
+	 */
+	private void createRegionColumn() {
+		try {
+			Statement statement = this.connection.createStatement();
+			if(!SQLHelper.hasColumn(this.connection, "Entity", "region")) {
+				statement.executeUpdate("ALTER TABLE main.Entity ADD COLUMN region INTEGER DEFAULT -1;");
+			}
+			statement.executeUpdate("CREATE INDEX IF NOT EXISTS main.EntityRegion ON Entity (region);");
+			statement.close();
+		}
+		catch (SQLException e) {
+			Log.error(Config.SQL_ERR, e.getMessage() + " while adding the region column");
+		}
 	}
 	
 	/**
 	 * Add a component type for the entity persistence layer to manage.
 	 * Types added will have a table created in the connection when the
 	 * setup method is called. Load and Save calls will also use the
-	 * component shape.
+	 * component shape, through the codec registered with the {@link CodecManager}.
 	 * 
 	 * @param shape the component shape to manage.
+	 * @throws GdxRuntimeException if there is no codec for the type
 	 */
 	public void registerComponentType(Class<? extends Component> type) {
+		CodecManager.getInstance().getCodec(type);
 		componentTypes.add(type);
+		typeIds.add(ComponentManager.getInstance().getTypeId(type));
 	}
 	
 	/**
-	 * Sets the lowest unused entity ID in the entity manager
+	 * Gets the lowest unused entity ID for the entity manager
 	 * so that entities can be created on the fly without clashes.
+	 * 
+	 * @param reader
+	 * @return one more than the highest entity ID in the database
 	 */
-	private void setLowestUnusedEntityID() {
+	private int getLowestUnusedEntityID(Connection reader) {
 		
 		StringBuilder sql = StringHelper.getBuilder();
 		sql.append("SELECT MAX(entityId) as highestID FROM Entity;");
+		
+		int highestID = 0;
 
 		try {
-			Statement statement = this.connection.createStatement();
+			Statement statement = reader.createStatement();
 			ResultSet result = statement.executeQuery(sql.toString());
 			
-			int highestID = result.getInt(1);
-			highestID += 1;
-			
-			this.em.setLowestUnusedEntityID(highestID);
+			highestID = result.getInt(1);
 			
 			result.close();
 			statement.close();
@@ -95,52 +266,279 @@ public class EntityPersistence implements EntityRecycleListener, ConnectionListe
 		catch (SQLException e) {
 			Log.error(Config.SQL_ERR, e.getMessage());
 		}
+		
+		return highestID + 1;
 	}
 	
 	/**
-	 * If phase is set to -1 then no phase is used and all entities
-	 * with their load flag set will be loaded.
+	 * Read the entities of a phase from the database and hand them to the loader in 
+	 * batches. If phase is set to -1 then no phase is used and all entities with their 
+	 * load flag set will be read. If phase is set to {@link #STREAMED_REGIONS} only the 
+	 * entities with their load flag set in the given regions are read, without the players
+	 * and gates which are never unloaded. Otherwise if regions are given entities in other 
+	 * regions are left out. This runs on the loader's thread and only reads data,
+	 * the batches are turned into entities by {@link #materialise(EntitySnapshot)} on the
+	 * main thread.
+	 * 
+	 * The ids of the entities are read first in order. Then one query per component table
+	 * selects the components of the whole phase in the same order, and the results are read
+	 * side by side and cut into batches of ids, so the phase is only looked up once for each
+	 * table and the time taken grows with the number of rows read. The phase is flagged as 
+	 * loaded once every batch has been read. If reading fails the phase is not flagged and
+	 * the loader is told, so the phase can be loaded again.
+	 * 
+	 * The queries run on a reader connection borrowed from the {@link ConnectionManager}, 
+	 * they see the last committed save and can run while a save is being written.
 	 * 
 	 * @param phase the phase to load
+	 * @param regions the regions to load, empty to load every region
+	 * @param loader receives the batches
 	 */
-	public void load(int phase) {
-		this.setLowestUnusedEntityID();
+	public void readPhase(int phase, IntArray regions, PhaseLoader loader) {
+		// the player ids borrow a reader of their own so they are read first
 		this.playerIDs = PersistenceManager.getInstance().getPlayerIDs();
-		this.populateEntityList(phase);
-						
-		for(int entityID : entities) {
-			this.loadEntity(entityID);
-			this.setLoaded(entityID);
+		
+		ConnectionManager connections = PersistenceManager.getInstance().getConnectionManager();
+		Connection reader = connections.acquireReader();
+		Array<PreparedStatement> selects = new Array<PreparedStatement>();
+		Array<ResultSet> results = new Array<ResultSet>();
+		IntArray entities = new IntArray();
+		EntitySnapshot batch = null;
+		
+		try {
+			int lowestUnusedEntityID = this.getLowestUnusedEntityID(reader);
+			this.populateEntityList(reader, phase, regions, entities);
+			loader.begin(lowestUnusedEntityID, entities.size);
+			
+			// every table is read in step, each result is left on the first row not yet read
+			boolean[] hasRow = new boolean[componentTypes.size];
+			for(int t = 0, m = componentTypes.size; t < m; t += 1) {
+				PreparedStatement select = this.prepareSelect(reader, phase, regions, CodecManager.getInstance().getCodec(componentTypes.get(t)));
+				selects.add(select);
+				ResultSet result = select.executeQuery();
+				results.add(result);
+				hasRow[t] = result.next();
+			}
+			
+			for(int first = 0, n = entities.size; first < n; first += Config.LOAD_BATCH_SIZE) {
+				int last = Math.min(first + Config.LOAD_BATCH_SIZE, n) - 1;
+				
+				batch = loader.obtain();
+				if(batch == null) {
+					return;
+				}
+				
+				for(int i = first; i <= last; i += 1) {
+					batch.addEntity(entities.get(i));
+				}
+				
+				for(int t = 0, m = componentTypes.size; t < m; t += 1) {
+					if(hasRow[t]) {
+						hasRow[t] = this.readComponents(results.get(t), componentTypes.get(t), entities.get(last), batch);
+					}
+				}
+				
+				loader.submit(batch);
+				batch = null;
+			}
+		}
+		catch (SQLException e) {
+			// the phase is left unflagged so it can be loaded again
+			Log.error(Config.SQL_ERR, e.getMessage() + " while reading phase " + phase);
+			loader.fail();
+			return;
+		}
+		finally {
+			if(batch != null) {
+				loader.discard(batch);
+			}
+			for(int i = 0, n = results.size; i < n; i += 1) {
+				try {
+					results.get(i).close();
+				}
+				catch (SQLException e) {
+					Log.error(Config.SQL_ERR, e.getMessage());
+				}
+			}
+			for(int i = 0, n = selects.size; i < n; i += 1) {
+				try {
+					selects.get(i).close();
+				}
+				catch (SQLException e) {
+					Log.error(Config.SQL_ERR, e.getMessage());
+				}
+			}
+			connections.releaseReader(reader);
+		}
+		
+		// a prefetched phase is only loaded once it is started
+		if(loader.awaitStart()) {
+			this.setLoaded(phase);
+		}
+	}
+	
+	/**
+	 * Find the phase which will be loaded next, the lowest phase whose entities have not
+	 * been loaded.
+	 * 
+	 * @return the next phase or -1 if every phase has been loaded
+	 */
+	public int getNextPhase() {
+		
+		StringBuilder sql = StringHelper.getBuilder();
+		sql.append("SELECT MIN(phase) FROM Entity WHERE load=0;");
+		
+		int phase = -1;
+		
+		ConnectionManager connections = PersistenceManager.getInstance().getConnectionManager();
+		Connection reader = connections.acquireReader();
+		try {
+			Statement statement = reader.createStatement();
+			ResultSet result = statement.executeQuery(sql.toString());
+			
+			if(result.next()) {
+				phase = result.getInt(1);
+				if(result.wasNull()) {
+					phase = -1;
+				}
+			}
+			
+			result.close();
+			statement.close();
 		}
-		entities.clear();
+		catch (SQLException e) {
+			Log.error(Config.SQL_ERR, e.getMessage());
+		}
+		finally {
+			connections.releaseReader(reader);
+		}
+		
+		return phase;
 	}
 	
 	/**
-	 * Load all entities into the world which have their load flag
-	 * set to 1
+	 * Create the entities of a batch read by {@link #readPhase(int, IntArray, PhaseLoader)} and add
+	 * their components. This must be called on the main thread. Existing player entities
+	 * only take their physics component from the batch.
+	 * 
+	 * @param batch
 	 */
-	synchronized public void load() {
-		this.load(-1);
+	public void materialise(EntitySnapshot batch) {
+		
+		for(int i = 0, n = batch.getNumEntities(); i < n; i += 1) {
+			this.createEntity(batch.getEntityId(i));
+		}
+		
+		for(int row = 0, n = batch.getNumRows(); row < n; row += 1) {
+			
+			int entityID = batch.getRowEntity(row);
+			ComponentCodec<? extends Component> codec = batch.getRowCodec(row);
+			Entity entity = this.loading.get(entityID);
+			
+			// players already in the game only take their physics component from the world
+			if(entity == null && codec.getType() == Physics.class) {
+				entity = this.reloading.get(entityID);
+			}
+			if(entity == null) {
+				continue;
+			}
+			
+			batch.seek(row);
+			em.addComponent(entity, codec.read(entity, batch));
+		}
+		
+		this.resetChanges();
+		
+		loading.clear();
+		reloading.clear();
 	}
-
+	
 	/**
-	 * Populate entity list and reset the pointer. Return the number of entities in the database
-	 * @return the number of entities to be loaded
+	 * Load every entity of a quick save, replacing the components of the players who
+	 * are already in the game. Non player entities must have been unloaded first. The
+	 * quick save is newer than the database so the next save has to be a full one.
+	 * 
+	 * @param quicksave an open quick save
 	 */
-	synchronized private void populateEntityList(int phase) {
-		StringBuilder sql = StringHelper.getBuilder();
+	public void load(QuickSave quicksave) {
+		ConnectionManager connections = PersistenceManager.getInstance().getConnectionManager();
+		Connection reader = connections.acquireReader();
+		try {
+			this.em.setLowestUnusedEntityID(this.getLowestUnusedEntityID(reader));
+		}
+		finally {
+			connections.releaseReader(reader);
+		}
+		this.playerIDs = PersistenceManager.getInstance().getPlayerIDs();
 		
-		if(phase == -1) {
-			sql.append("SELECT entityId FROM Entity WHERE load=1;");
+		for(int i = 0, n = quicksave.getNumEntities(); i < n; i += 1) {
+			this.createEntity(quicksave.getEntityId(i));
 		}
-		else {
-			sql.append("SELECT entityId FROM Entity WHERE phase=");
-			sql.append(phase);
-			sql.append(";");
+		
+		// players go back to the state they were saved in, not only their position
+		for(IntMap.Entry<Entity> entry : this.reloading.entries()) {
+			Array<Component> components = em.getComponents(entry.value, this.loadedComponents);
+			for(int i = components.size - 1; i >= 0; i -= 1) {
+				em.removeComponent(entry.value, components.get(i).getClass());
+			}
+		}
+		
+		for(int b = 0, n = quicksave.getNumBlocks(); b < n; b += 1) {
+			ComponentCodec<? extends Component> codec = quicksave.getCodec(b);
+			for(int r = 0, rows = quicksave.getNumRows(b); r < rows; r += 1) {
+				int entityID = quicksave.getRowEntity(b, r);
+				Entity entity = this.loading.get(entityID);
+				if(entity == null) {
+					entity = this.reloading.get(entityID);
+				}
+				if(entity == null) {
+					continue;
+				}
+				em.addComponent(entity, codec.read(entity, quicksave.getRow(b, r)));
+			}
+		}
+		
+		this.resetChanges();
+		this.checkpointRequired = true;
+		
+		loading.clear();
+		reloading.clear();
+	}
+	
+	/**
+	 * Entities which have just been loaded match the database so they are not saved again
+	 * by an incremental save. Player entities carried over from another world are saved in
+	 * full because the database only has the rows of the player placeholder.
+	 */
+	private void resetChanges() {
+		for(IntMap.Entry<Entity> entry : this.loading.entries()) {
+			this.changes.clear(entry.value);
+			this.journalChanges.clear(entry.value);
+		}
+		for(IntMap.Entry<Entity> entry : this.reloading.entries()) {
+			Array<Component> components = em.getComponents(entry.value, this.loadedComponents);
+			for(int i = 0, n = components.size; i < n; i += 1) {
+				em.markDirty(entry.value, components.get(i).getClass());
+			}
 		}
+	}
+	
+	/**
+	 * Populate the entity list with the ids of the entities to be loaded in ascending order
+	 * 
+	 * @param reader
+	 * @param phase
+	 * @param regions
+	 * @param entities the list to add the ids to
+	 */
+	private void populateEntityList(Connection reader, int phase, IntArray regions, IntArray entities) {
+		StringBuilder sql = StringHelper.getBuilder();
+		sql.append("SELECT entityId FROM Entity WHERE ");
+		this.appendPhaseCondition(sql, phase, regions);
+		sql.append(" ORDER BY entityId;");
 
 		try {
-			Statement statement = this.connection.createStatement();
+			Statement statement = reader.createStatement();
 			ResultSet result = statement.executeQuery(sql.toString());
 									
 			while(result.next()) {
@@ -156,23 +554,71 @@ public class EntityPersistence implements EntityRecycleListener, ConnectionListe
 	}
 	
 	/**
-	 * Check to see if the entity is a player. If so then the physics component is copied into
-	 * the entity reference, otherwise, the entity is populated with an ID and components from the database.
-	 * The given entity should be a blank instance with no attached components or ID.
+	 * Append the condition selecting the entities of the phase from the Entity table.
 	 * 
-	 * @param entity a blank entity with no components or ID
-	 * @return a populated entity object or null if the entity was a player placeholder and the player hasn't joined the game
+	 * @param sql
+	 * @param phase the phase, -1 for all entities with their load flag set or {@link #STREAMED_REGIONS}
+	 * @param regions the regions to select entities from, empty for every region
 	 */
-	synchronized public Entity loadEntity(int entityID) {
-
-		Entity entity = null;
+	private void appendPhaseCondition(StringBuilder sql, int phase, IntArray regions) {
+		if(phase == -1 || phase == STREAMED_REGIONS) {
+			sql.append("load=1");
+		}
+		else {
+			sql.append("phase=");
+			sql.append(phase);
+		}
 		
+		if(regions.size == 0) {
+			return;
+		}
+		
+		if(phase == STREAMED_REGIONS) {
+			sql.append(" AND region IN (");
+			this.appendRegions(sql, regions);
+			sql.append(") AND entityId NOT IN (SELECT entityId FROM ");
+			sql.append(Config.TABLE_PLAYERS);
+			sql.append(") AND entityId NOT IN (SELECT entityId FROM ");
+			sql.append(Config.TABLE_GATES);
+			sql.append(")");
+		}
+		else {
+			// entities outside any region, players and gates are always loaded
+			sql.append(" AND (region=-1 OR region IN (");
+			this.appendRegions(sql, regions);
+			sql.append(") OR entityId IN (SELECT entityId FROM ");
+			sql.append(Config.TABLE_PLAYERS);
+			sql.append(") OR entityId IN (SELECT entityId FROM ");
+			sql.append(Config.TABLE_GATES);
+			sql.append("))");
+		}
+	}
+	
+	private void appendRegions(StringBuilder sql, IntArray regions) {
+		for(int i = 0, n = regions.size; i < n; i += 1) {
+			if(i > 0) {
+				sql.append(",");
+			}
+			sql.append(regions.get(i));
+		}
+	}
+	
+	/**
+	 * Check to see if the entity is a player. If so then the existing player entity is given
+	 * the new id and queued to have only its physics component replaced, otherwise a new 
+	 * entity is created with the id and queued to receive all of its components. 
+	 * 
+	 * Entities which are player placeholders for a player who hasn't joined the game are
+	 * not created and their rows are skipped.
+	 * 
+	 * @param entityID
+	 */
+	private void createEntity(int entityID) {
+
 		// check to see if this entity id is a player id		
 		// if this is a player then we want to keep it persistent across worlds
 		if(playerIDs.containsValue(entityID, false)) {
 			
-			Log.info(Config.SQL_ERR, "Loading player entity: " + entityID);
-			
 			// get the key associated with the entity id, this is the player number
 			int playerNum = playerIDs.findKey(entityID, false, -1);
 			
@@ -184,64 +630,62 @@ public class EntityPersistence implements EntityRecycleListener, ConnectionListe
 				if(PlayersManager.getInstance().playerEntityExists(playerNum)) {
 					
 					// we need to get the entity which is already stored as the player
-					entity = PlayersManager.getInstance().getPlayerEntity(playerNum);
+					Entity entity = PlayersManager.getInstance().getPlayerEntity(playerNum);
 					
 					// set the entity's new id
 					this.em.setEntityId(entity, entityID);
 					
-					// replace its physics component
+					// its physics component is replaced by the one in this world
 					this.em.removeComponent(entity, Physics.class);
-					this.loadComponent(entity, Physics.class);
+					this.reloading.put(entityID, entity);
 				}
 				else {							
 					// otherwise, load the entity as normal and add it to the player manager
-					
-					entity = this.em.createEntity(entityID);
-					
-					// iterate over component types and load them
-					for (Class<? extends Component> type : componentTypes) {
-						loadComponent(entity, type);
-					}
-					
+					Entity entity = this.em.createEntity(entityID);
+					this.loading.put(entityID, entity);
 					PlayersManager.getInstance().addPlayerEntity(playerNum, entity);
 				}
 			}
-			
-			// at this point it is possible that the entity is not needed and will be returned null
-			
 		}
-		else {
-			
-			Log.info(Config.SQL_ERR, "Loading entity: " + entityID);
-			
-			// this is not a player entity so load it as normal
-			entity = this.em.createEntity(entityID);			
-			
-			// iterate over component types and load them
-			for (Class<? extends Component> type : componentTypes) {
-				loadComponent(entity, type);
-			}
+		else if(this.em.getEntityByID(entityID) == null) {
+			// this is not a player entity so load it as normal, unless it has been loaded
+			// already because it moved out of the region it was saved in
+			this.loading.put(entityID, this.em.createEntity(entityID));
 		}		
-		
-		return entity;
 	}
 
 	/**
-	 * Set the loaded flag to true for the given entity ID
+	 * Set the loaded flag for every entity of the phase
 	 * 
-	 * @param entityID
+	 * @param phase
 	 */
-	private void setLoaded(int entityID) {
+	synchronized private void setLoaded(int phase) {
+		
+		// entities loaded without a phase already have their flag set
+		if(phase < 0) {
+			return;
+		}
+		
+		// the update goes through the writer, holding the lock keeps it out of a save's transaction
 		
-		StringBuilder sql = StringHelper.getBuilder();
-		sql.append("UPDATE Entity SET load=1 WHERE entityId=");
-		sql.append(entityID);
-		sql.append(";");
-				
 		try {
-			Statement statement;
-			statement = this.connection.createStatement();
+			Statement statement = this.connection.createStatement();
+			StringBuilder sql = StringHelper.getBuilder();
+			
+			// the phase's rows of an overlaid world are copied into the profile to be flagged
+			if(PersistenceManager.getInstance().getWorldOverlay().isAttached()) {
+				sql.append("INSERT OR IGNORE INTO main.Entity (entityId, phase, load, active, region) SELECT entityId, phase, load, active, region FROM Entity WHERE phase=");
+				sql.append(phase);
+				sql.append(";");
+				statement.executeUpdate(sql.toString());
+				sql.setLength(0);
+			}
+			
+			sql.append("UPDATE main.Entity SET load=1 WHERE phase=");
+			sql.append(phase);
+			sql.append(";");
 			statement.executeUpdate(sql.toString());
+			
 			statement.close();
 		}
 		catch (SQLException e) {
@@ -250,470 +694,568 @@ public class EntityPersistence implements EntityRecycleListener, ConnectionListe
 	}
 	
 	/**
-	 * Load a component of the given type and attach it to the entity given.
-	 * If no component is found for this entity in the database none it attached.
+	 * Prepare the query selecting the components of one type belonging to the entities of 
+	 * the phase in the order of their ids. The phase is looked up once each time the query
+	 * is run, so it is run once for the whole phase rather than once for each batch.
 	 * 
-	 * @param entity the entity to attach the loaded component to.
-	 * @param shape the class shape of the component to load.
+	 * @param reader
+	 * @param phase
+	 * @param regions
+	 * @param codec
+	 * @return the statement
+	 * @throws SQLException
 	 */
-	synchronized private void loadComponent(Entity entity, Class<? extends Component> type) {
-				
-		// leave early if there is no component of shape for this entity
+	private PreparedStatement prepareSelect(Connection reader, int phase, IntArray regions, ComponentCodec<? extends Component> codec) throws SQLException {
 		StringBuilder sql = StringHelper.getBuilder();
-		sql.append("SELECT COUNT(entityId) FROM ");
-		sql.append(type.getSimpleName());
-		sql.append(" WHERE entityId=");
-		sql.append(entity.getId());
-		sql.append(";");
-
-		int numRows = 0;
-
-		try {
-			Statement statement = this.connection.createStatement();
-			ResultSet result = statement.executeQuery(sql.toString());
-			numRows = result.getInt(1);
-			
-			result.close();
-			statement.close();
-		}
-		catch (SQLException e) {
-			Log.error(Config.SQL_ERR, e.getMessage() + " while creating the " + type.getSimpleName() + " table: " + sql.toString());
-		}
-
-		if (numRows == 0) {
-			//Log.info(Config.SQL_ERR, "No component of type: " + type.getSimpleName());
-			return;
-		}
-		else {
-			Log.debug(Config.SQL_ERR, "Loading component " + type.getSimpleName() + " for entity " + entity.getId());
+		sql.append("SELECT ");
+		sql.append(codec.getColumnList());
+		sql.append(" FROM ");
+		sql.append(codec.getTableName());
+		sql.append(" WHERE entityId IN (SELECT entityId FROM Entity WHERE ");
+		this.appendPhaseCondition(sql, phase, regions);
+		sql.append(") ORDER BY entityId;");
+		return reader.prepareStatement(sql.toString());
+	}
+	
+	/**
+	 * Capture the components of the given type into the batch from the current row of the
+	 * result onwards, up to the last entity of the batch.
+	 * 
+	 * @param result the result of the statement from {@link #prepareSelect(Connection, int, IntArray, ComponentCodec)}
+	 * on the first row not yet read
+	 * @param type
+	 * @param lastID the id of the last entity of the batch
+	 * @param batch
+	 * @return false once every row of the result has been read
+	 * @throws SQLException 
+	 */
+	private boolean readComponents(ResultSet result, Class<? extends Component> type, int lastID, EntitySnapshot batch) throws SQLException {
+		
+		ComponentCodec<? extends Component> codec = CodecManager.getInstance().getCodec(type);
+		
+		boolean hasRow = true;
+		while(hasRow && result.getInt(1) <= lastID) {
+			batch.addRow(result.getInt(1), codec);
+			codec.capture(result, batch);
+			hasRow = result.next();
 		}
+		
+		return hasRow;
+	}
 
-		// select the data from the correct table
-		sql.setLength(0);
-		sql.append("SELECT * FROM ");
-		sql.append(type.getSimpleName());
-		sql.append(" WHERE entityId=");
-		sql.append(entity.getId());
-		sql.append(";");
-
-		try {
-
-			// select the component data
-			Statement statement = this.connection.createStatement();
-			ResultSet result = statement.executeQuery(sql.toString());
-
-			// use reflection to create a new component
-
-			// get fields of the component class shape and create an array of types
-			// for grabbing the correct method from the component factory
-			// add an extra field which is the entity send to the factory
-			Field[] fields = type.getFields();
-			Class<?>[] fieldTypes = new Class<?>[fields.length + 1];
-			fieldTypes[0] = entity.getClass();
-			for (int i = 0, n = fields.length; i < n; i += 1) {
-				fieldTypes[i + 1] = fields[i].getType();
-			}
-
-			// get data ready for creating the component
-			// we start on column 2 because we want to skip the entityId column
-			// we add one extra field for the entity which is also sent as an argument
-			Object[] arguments = new Object[fields.length + 1];
-			arguments[0] = entity;
-			for (int i = 1, n = arguments.length; i < n; i += 1) {
-				arguments[i] = this.getArgument(fieldTypes[i], result.getObject(i + 1));				
+	/**
+	 * Capture every entity in the entity manager and its components into the snapshot,
+	 * along with the entities waiting to be deleted. This must be called on the update 
+	 * thread between ticks, it only copies values so it is cheap enough to do in a frame.
+	 * 
+	 * @param snapshot the snapshot to capture into, it is cleared first
+	 */
+	public void capture(EntitySnapshot snapshot) {
+		this.capture(snapshot, false);
+	}
+	
+	/**
+	 * Capture the entities waiting to be deleted and either every entity, a full checkpoint, 
+	 * or only the components which have changed since the last capture. An incremental 
+	 * capture becomes a full one if a previous save failed to be written.
+	 * 
+	 * This must be called on the update thread between ticks.
+	 * 
+	 * @param snapshot the snapshot to capture into, it is cleared first
+	 * @param incremental true to capture only the changed components
+	 */
+	public void capture(EntitySnapshot snapshot, boolean incremental) {
+		
+		snapshot.clear();
+		
+		// death row is handed over to the snapshot
+		synchronized(this.deathrow) {
+			snapshot.getDeathrow().addAll(this.deathrow);
+			this.deathrow.clear();
+		}
+		
+		// the journal up to now is covered by the snapshot once it is written
+		snapshot.setJournalSegment(this.journal.roll());
+		
+		if(incremental && !this.checkpointRequired) {
+			for(int i = 0, n = this.changes.size(); i < n; i += 1) {
+				this.captureChanges(snapshot, this.changes.getEntity(i), this.changes);
 			}
-
-			result.close();
-			statement.close();
+		}
+		else {
+			this.checkpointRequired = false;
 			
-			// get the factory method which instantiates the component and call it, 
-			// then add the component to the entity 
-			try {
-				
-//				Log.info(Config.REFLECTION_ERR, type.getSimpleName().toLowerCase());
-//				Log.info(Config.REFLECTION_ERR, "Args num: " + arguments.length);
-//				Log.info(Config.REFLECTION_ERR, "Fields num: " + fieldTypes.length);
-//				for(int i = 0, n = fieldTypes.length; i < n; i += 1) {
-//					Log.info(Config.REFLECTION_ERR, "Argument: " + fieldTypes[i].getSimpleName() + " " + arguments[i].getClass().getSimpleName());
-//				}
-				
-				Method method = ComponentFactory.class.getMethod(type.getSimpleName().toLowerCase(), fieldTypes);
-				Component component = (Component) method.invoke(null, arguments);
-				em.addComponent(entity, component);
-			}
-			catch (NoSuchMethodException e) {
-				Log.error(Config.REFLECTION_ERR, e.getMessage() + ": No method found in component factory, unable to create new component.");
-			}
-			catch (SecurityException e) {
-				Log.error(Config.REFLECTION_ERR, e.getMessage() + ": Unable to create new component.");
-			}
-			catch (IllegalAccessException e) {
-				Log.error(Config.REFLECTION_ERR, e.getMessage() + " Illegal access exception " + type.getSimpleName());
+			Array<Entity> entities = em.getAllEntities();
+			for(int i = 0, n = entities.size; i < n; i += 1) {
+				this.capture(snapshot, entities.get(i));
 			}
-			catch (IllegalArgumentException e) {
-				Log.error(Config.REFLECTION_ERR, e.getMessage() + ": Illegal argument whilst loading " + type.getSimpleName());
-			}
-			catch (InvocationTargetException e) {				
-				Log.error(Config.REFLECTION_ERR, e.getMessage() + " Invocation target exception " + type.getSimpleName());
-			}
-
-		}
-		catch (SQLException e) {
-			Log.error(Config.SQL_ERR, e.getMessage() + " while accessing the " + type.getSimpleName() + " table: " + sql.toString());
 		}
+		
+		// everything up to now is in the snapshot
+		this.changes.clear();
 	}
-
+	
 	/**
-	 * This helper method converts SQLite datatypes
-	 * to the appropriate Java datatype
+	 * Capture only the changed components of the entity. A component which was changed 
+	 * but which the entity no longer has is captured as a removal.
 	 * 
-	 * @param type the type coming in from the database
-	 * @param object the value coming in from the database
-	 * @return
+	 * @param snapshot
+	 * @param entity
+	 * @param tracker the changes to capture
 	 */
-	private Object getArgument(Class<?> type, Object argument) {
+	private void captureChanges(EntitySnapshot snapshot, Entity entity, ChangeTracker tracker) {
+		
+		tracker.getChangedTypes(entity, this.changedTypes);
+		
+		int entityId = entity.getId();
+		snapshot.addEntity(entityId);
 		
-		// if the field type is boolean then we want to convert from
-		// the integer value 1/0 stored in the database to boolean true/false
-		if(type.equals(boolean.class)) {					
-			if((Integer)argument == 1) {
-				argument = true;
+		for(int i = 0, n = this.componentTypes.size; i < n; i += 1) {
+			
+			if(!this.changedTypes.get(this.typeIds.get(i))) {
+				continue;
+			}
+			
+			Class<? extends Component> type = this.componentTypes.get(i);
+			ComponentCodec<? extends Component> codec = CodecManager.getInstance().getCodec(type);
+			Component component = em.getComponent(entity, type);
+			
+			if(component == null) {
+				snapshot.addRemoval(entityId, codec);
+				continue;
 			}
-			else {
-				argument = false;
+			
+			// the live transform of a body is held in the transform buffer, not the component
+			if(type == Physics.class) {
+				PhysicsManager.getInstance().readTransform((Physics) component);
 			}
+			
+			snapshot.addComponent(entityId, codec, component);
 		}
+	}
+	
+	/**
+	 * Append the entities recycled and the components changed since the last tick to the 
+	 * journal. This must be called on the update thread at the end of every tick.
+	 */
+	public void appendJournal() {
 		
-		// the database gives us a double when we need a float
-		// we need to convert from a double to a float
-		else if(type.equals(float.class)) {
-			Double d = (Double)argument;
-			Float f = new Float(d.floatValue());
-			argument = f;
+		if(!this.journal.isOpen()) {
+			this.journalChanges.clear();
+			return;
 		}
 		
-		return argument;
+		this.journalSnapshot.clear();
+		
+		synchronized(this.deathrow) {
+			this.journalSnapshot.getDeathrow().addAll(this.journalDeaths);
+			this.journalDeaths.clear();
+		}
+		
+		for(int i = 0, n = this.journalChanges.size(); i < n; i += 1) {
+			this.captureChanges(this.journalSnapshot, this.journalChanges.getEntity(i), this.journalChanges);
+		}
+		this.journalChanges.clear();
+		
+		this.journal.append(this.journalSnapshot);
 	}
-
+	
+	/**
+	 * Open the journal of the profile whose database is connected. Changes left in the 
+	 * journal by a crash are written to the database first.
+	 * 
+	 * @param path the path of the journal
+	 */
+	public void openJournal(String path) {
+		this.journal.open(path, this);
+	}
+	
 	/**
-	 * Iterate over all entities in the entity manager storing
-	 * them and their components in the database.
+	 * Stop journaling changes
 	 */
-	synchronized public void save() {
+	public void closeJournal() {
+		this.journal.close();
+	}
+	
+	/**
+	 * Capture the entity and its components into the snapshot
+	 * 
+	 * @param snapshot
+	 * @param entity
+	 */
+	private void capture(EntitySnapshot snapshot, Entity entity) {
 		
-		// delete all recycled entities from the database
-		for(int i = 0, n = this.deathrow.size; i < n; i += 1) {
-			this.deleteEntity(this.deathrow.get(i));
+		// the live transform of a body is held in the transform buffer, not the component
+		Physics physics = em.getComponent(entity, Physics.class);
+		if(physics != null) {
+			PhysicsManager.getInstance().readTransform(physics);
 		}
-		this.deathrow.clear();
 		
-		// save all entities in the manager to the database
-		for(Entity entity : em.getAllEntities()) {
-			this.storeEntity(entity);
+		int entityId = entity.getId();
+		snapshot.addEntity(entityId);
+		
+		Array<Component> components = em.getComponents(entity, this.components);
+		for(int i = 0, n = components.size; i < n; i += 1) {
+			Component component = components.get(i);
+			snapshot.addComponent(entityId, CodecManager.getInstance().getCodec(component.getClass()), component);
 		}
 	}
-
+	
 	/**
-	 * Remove the entity and all its components from the database
+	 * Unload an entity which is still part of the world, for example because no player is
+	 * near it. The entity is captured into the snapshot and recycled without being deleted
+	 * from the database, the snapshot has to be written to keep what has changed since the
+	 * last save. This must be called on the update thread between ticks.
 	 * 
-	 * @param entityId
+	 * @param entity
+	 * @param snapshot
 	 */
-	synchronized public void deleteEntity(int entityId) {
+	public void unload(Entity entity, EntitySnapshot snapshot) {
+		this.capture(snapshot, entity);
+		this.unloading = true;
+		try {
+			em.recycle(entity);
+		}
+		finally {
+			this.unloading = false;
+		}
+	}
+	
+	/**
+	 * Write the snapshot to the database. This can be called on any thread.
+	 * 
+	 * The whole snapshot is written in one transaction. Entities on death row are deleted 
+	 * and every entity and component row is written through a cached statement per table, 
+	 * the rows are sent to the database in one batch per statement and committed together. 
+	 * If any write fails the transaction is rolled back so the previous save is left intact
+	 * and the snapshot's death row is handed back for the next save. Once the snapshot is
+	 * committed the journal segments it covers are deleted.
+	 * 
+	 * @param snapshot
+	 * @return true if the snapshot was committed
+	 */
+	synchronized public boolean write(EntitySnapshot snapshot) {
 		
-		Log.info(Config.SQL_ERR, "Deleting entity " + entityId);
+		boolean autoCommit = true;
+		boolean committed = false;
+		IntArray deathrow = snapshot.getDeathrow();
+		boolean overlay = PersistenceManager.getInstance().getWorldOverlay().isAttached();
 		
-		// remove the entity from the entity table
-		StringBuilder sql = StringHelper.getBuilder();
-		sql.append("DELETE FROM Entity WHERE entityId=");
-		sql.append(entityId);
-		sql.append(";");
-
 		try {
-			Statement statement = this.connection.createStatement();
-			statement.executeUpdate(sql.toString());
-			statement.close();
+			autoCommit = this.connection.getAutoCommit();
+			this.connection.setAutoCommit(false);
+			
+			// the rows of an overlaid world's entities are copied into the profile before 
+			// anything else is written so the changes are made to the copies
+			if(overlay) {
+				for(int i = 0, n = snapshot.getNumRemovals(); i < n; i += 1) {
+					this.copyEntity(snapshot.getRemovedEntity(i));
+				}
+				for(int i = 0, n = snapshot.getNumEntities(); i < n; i += 1) {
+					this.copyEntity(snapshot.getEntityId(i));
+				}
+			}
+			
+			// delete all recycled entities from the database
+			for(int i = 0, n = deathrow.size; i < n; i += 1) {
+				this.deleteEntity(deathrow.get(i), overlay);
+			}
+			
+			// delete components removed from entities which are still alive
+			for(int i = 0, n = snapshot.getNumRemovals(); i < n; i += 1) {
+				this.deleteComponent(snapshot.getRemovedEntity(i), snapshot.getRemovedCodec(i).getType());
+			}
+			
+			// save all captured entities and their components
+			for(int i = 0, n = snapshot.getNumEntities(); i < n; i += 1) {
+				this.storeEntity(snapshot.getEntityId(i));
+			}
+			
+			snapshot.rewind();
+			for(int i = 0, n = snapshot.getNumRows(); i < n; i += 1) {
+				this.storeComponent(snapshot.getRowEntity(i), snapshot.getRowCodec(i), snapshot);
+			}
+			
+			// entities which have moved are moved to their new region
+			if(this.regions != null) {
+				for(int i = 0, n = snapshot.getNumRows(); i < n; i += 1) {
+					if(snapshot.getRowCodec(i).getType() == Physics.class) {
+						float x = snapshot.getFloat(i, this.positionOffsets[0]);
+						float y = snapshot.getFloat(i, this.positionOffsets[1]);
+						float z = snapshot.getFloat(i, this.positionOffsets[2]);
+						this.updateRegion(snapshot.getRowEntity(i), x, y, z);
+					}
+				}
+			}
+			
+			// statements are executed in the order they were first used so that
+			// deletes reach the database before any writes
+			for(int i = 0, n = this.batched.size; i < n; i += 1) {
+				this.batched.get(i).executeBatch();
+			}
+			
+			this.connection.commit();
+			committed = true;
 		}
 		catch (SQLException e) {
-			Log.error(Config.SQL_ERR, e.getMessage() + " while deleting entity: " + sql.toString());
+			Log.error(Config.SQL_ERR, e.getMessage() + " while saving, rolling back");
+			this.rollback();
+			
+			synchronized(this.deathrow) {
+				this.deathrow.addAll(deathrow);
+			}
+			
+			// the changes in the snapshot are lost so the next save has to be a full one
+			this.checkpointRequired = true;
 		}
-		
-		// iterate over component types and load them
-		for (Class<? extends Component> type : componentTypes) {
-			deleteComponent(entityId, type);
+		finally {
+			this.clearBatches();
+			try {
+				this.connection.setAutoCommit(autoCommit);
+			}
+			catch (SQLException e) {
+				Log.error(Config.SQL_ERR, e.getMessage());
+			}
 		}
 		
+		if(committed) {
+			this.journal.discard(snapshot.getJournalSegment());
+		}
+		return committed;
 	}
-
+	
 	/**
-	 * Remove the component of the given shape from the given entity.
-	 * 
-	 * @param entityId the entity
-	 * @param shape the shape of the component
+	 * Roll back the current save transaction
 	 */
-	synchronized private void deleteComponent(int entityId, Class<? extends Component> type) {
-		
-		Log.info(Config.SQL_ERR, "Deleting component " + type.getSimpleName() + " from entity " + entityId);
-		
-		StringBuilder sql = StringHelper.getBuilder();
-		sql.append("DELETE FROM ");
-		sql.append(type.getSimpleName());
-		sql.append(" WHERE entityId=");
-		sql.append(entityId);
-		sql.append(";");
-		
+	private void rollback() {
 		try {
-			Statement statement = this.connection.createStatement();
-			statement.executeUpdate(sql.toString());
-			statement.close();
+			this.connection.rollback();
 		}
 		catch (SQLException e) {
-			Log.error(Config.SQL_ERR, e.getMessage() + " while deleting " + type.getSimpleName() + " component: " + sql.toString());
+			Log.error(Config.SQL_ERR, e.getMessage() + " while rolling back");
 		}
 	}
-
+	
 	/**
-	 * Store the given entity and all its components in the connection.
-	 * If the entity id is zero then it has not been previously stored in the connection and
-	 * will be inserted, otherwise it will be updated.
-	 * 
-	 * @param entity the entity to store.
+	 * Discard anything left in the batches after a save
 	 */
-	synchronized public void storeEntity(Entity entity) {
-
-		Log.info(Config.SQL_ERR, "Storing entity " + entity.getId());
-				
-		StringBuilder sql = StringHelper.getBuilder();
-		PooledLinkedList<? extends Component> components;
-		
-		// check to see if we have stored the entity before
-		if (isNewEntity(entity.getId())) {
-			
-			// if not then we insert everything
-			sql.append("INSERT INTO Entity VALUES (");
-			sql.append(entity.getId());
-			sql.append(",1,1,1");
-			sql.append(");");			
-			
+	private void clearBatches() {
+		for(int i = 0, n = this.batched.size; i < n; i += 1) {
 			try {
-				Statement statement = this.connection.createStatement();
-				statement.executeUpdate(sql.toString());
-
-				// db no longer authoritative over IDs
-				// get the id of the entity
-				//int id = statement.getGeneratedKeys().getInt(1);
-				//em.setEntityId(entity, id);
-				
-				statement.close();
-				
-				//Log.info(Config.SQL_ERR, "Assigning a new id: " + id);		
+				this.batched.get(i).clearBatch();
 			}
 			catch (SQLException e) {
-				Log.error(Config.SQL_ERR, e.getMessage() + " while inserting new entity: " + sql.toString());
-			}
-
-			// insert all the components for this entity into the connection
-			components = em.getComponents(entity);
-			Component c = null;
-			for(components.iter(); (c = components.next()) != null;) {
-				this.insertComponent(entity, c);
+				Log.error(Config.SQL_ERR, e.getMessage());
 			}
 		}
-		else {
-			// update all the components for this entity
-			components = em.getComponents(entity);
-			Component c = null;
-			for(components.iter(); (c = components.next()) != null;) {
-				this.updateComponent(entity, c);
-			}
+		this.batched.clear();
+	}
+	
+	/**
+	 * Add the current parameters of the statement to its batch and remember 
+	 * that the statement has to be executed at the end of the save.
+	 * 
+	 * @param statement
+	 * @throws SQLException
+	 */
+	private void addBatch(PreparedStatement statement) throws SQLException {
+		statement.addBatch();
+		if(!this.batched.contains(statement, true)) {
+			this.batched.add(statement);
 		}
 	}
 
 	/**
-	 * Determine whether an entity is already in the database.
+	 * Queue the entity's rows in an overlaid world to be copied into the profile, unless
+	 * they have been already. The copy is made from the views so an entity which has been
+	 * copied is left as it is.
 	 * 
-	 * @param entityID
-	 * @return
+	 * @param entityId
+	 * @throws SQLException
 	 */
-	private boolean isNewEntity(int entityID) {
-		
-		boolean isNew = true;
-				
-		StringBuilder sql = StringHelper.getBuilder();
-		sql.append("SELECT COUNT(entityId)  as entityExists FROM Entity WHERE entityId=");
-		sql.append(entityID);
-		sql.append(";");
-		
-		try {
-			Statement statement = this.connection.createStatement();
-			ResultSet result = statement.executeQuery(sql.toString());
-									
-			int exists = result.getInt(1);
-			
-			if(exists == 1) {
-				isNew = false;
+	private void copyEntity(int entityId) throws SQLException {
+		for (Class<? extends Component> type : componentTypes) {
+			PreparedStatement statement = this.copyStatements.get(type);
+			if(statement == null) {
+				ComponentCodec<? extends Component> codec = CodecManager.getInstance().getCodec(type);
+				StringBuilder sql = StringHelper.getBuilder();
+				sql.append("INSERT OR IGNORE INTO main.");
+				sql.append(codec.getTableName());
+				sql.append(" (");
+				sql.append(codec.getColumnList());
+				sql.append(") SELECT ");
+				sql.append(codec.getColumnList());
+				sql.append(" FROM ");
+				sql.append(codec.getTableName());
+				sql.append(" WHERE entityId=?;");
+				statement = this.connection.prepareStatement(sql.toString());
+				this.copyStatements.put(type, statement);
 			}
-			
-			result.close();
-			statement.close();
+			statement.setInt(1, entityId);
+			this.addBatch(statement);
 		}
-		catch (SQLException e) {
-			Log.error(Config.SQL_ERR, e.getMessage());
+		
+		if(this.copyEntityStatement == null) {
+			this.copyEntityStatement = this.connection.prepareStatement("INSERT OR IGNORE INTO main.Entity (entityId, phase, load, active, region) SELECT entityId, phase, load, active, region FROM Entity WHERE entityId=?;");
 		}
+		this.copyEntityStatement.setInt(1, entityId);
+		this.addBatch(this.copyEntityStatement);
 		
-		return isNew;
+		// from now on every component of the entity is read from the profile
+		if(this.modifiedStatement == null) {
+			this.modifiedStatement = this.connection.prepareStatement("INSERT OR IGNORE INTO main." + Config.TABLE_MODIFIED + " (entityId, deleted) VALUES (?,0);");
+		}
+		this.modifiedStatement.setInt(1, entityId);
+		this.addBatch(this.modifiedStatement);
 	}
 	
 	/**
-	 * Insert a component into the database
+	 * Queue the removal of the entity and all its components from the database
 	 * 
-	 * @param entity
-	 * @param component
+	 * @param entityId
+	 * @param overlay true to leave a tombstone hiding the entity's rows in the overlaid world
+	 * @throws SQLException 
 	 */
-	synchronized private void insertComponent(Entity entity, Component component) {
-
-		Log.info(Config.SQL_ERR, "Inserting component " + component.getClass().getSimpleName() + " from entity " + entity.getId());
-				
-		StringBuilder sql = StringHelper.getBuilder();
-
-		// generate the sql from the components fields
-		Class<? extends Component> type = component.getClass();
-		Field[] fields = type.getFields();
-
-		sql.append("INSERT INTO ");
-		sql.append(type.getSimpleName());
-		sql.append(" VALUES (");
-		sql.append(entity.getId());
-
-		for (int i = 0, n = fields.length; i < n; i += 1) {
-
-			Field f = fields[i];
-			String datatype = f.getType().getSimpleName();
-
-			// if this is a recognised datatype then we can update it
-			if (this.datatypes.containsKey(datatype)) {
-				try {
-					// adding quotes to deal with strings and chars
-					// other data types don't seem to mind this
-					sql.append(", ");					
-					sql.append("\"");
-					
-					// check if we have to convert a boolean value to 1 or 0
-					if(f.getType().equals(boolean.class)) {
-						Boolean value = (Boolean) f.get(component);
-						if(value) {
-							sql.append(1);
-						}
-						else {
-							sql.append(0);
-						}
-					}
-					else {
-						sql.append(f.get(component)); // get the field data
-					}
-										
-					sql.append("\"");
-				}
-				catch (IllegalArgumentException e) {
-					Log.error(Config.SQL_ERR, e.getMessage());
-				}
-				catch (IllegalAccessException e) {
-					Log.error(Config.SQL_ERR, e.getMessage());
-				}
-			}
-			else {
-				//Log.echo("Some kind of recursive call to store the complex field?");
-				throw new Error("Unknown shape: " + datatype + " can only store primitives and Strings.");
+	private void deleteEntity(int entityId, boolean overlay) throws SQLException {
+		
+		// remove the entity from the entity table
+		if(this.deleteEntityStatement == null) {
+			this.deleteEntityStatement = this.connection.prepareStatement("DELETE FROM main.Entity WHERE entityId=?;");
+		}
+		this.deleteEntityStatement.setInt(1, entityId);
+		this.addBatch(this.deleteEntityStatement);
+		
+		if(overlay) {
+			if(this.tombstoneStatement == null) {
+				this.tombstoneStatement = this.connection.prepareStatement("INSERT OR REPLACE INTO main." + Config.TABLE_MODIFIED + " (entityId, deleted) VALUES (?,1);");
 			}
+			this.tombstoneStatement.setInt(1, entityId);
+			this.addBatch(this.tombstoneStatement);
 		}
-		sql.append(");");
-
-		// run the query
-		try {
-			Statement statement = this.connection.createStatement();
-			statement.executeUpdate(sql.toString());
-			statement.close();
+		
+		// remove the entity from each component table
+		for (Class<? extends Component> type : componentTypes) {
+			this.deleteComponent(entityId, type);
 		}
-		catch (SQLException e) {
-			Log.error(Config.SQL_ERR, e.getMessage() + " while inserting into the " + type.getSimpleName() + " table: " + sql.toString());
+	}
+	
+	/**
+	 * Queue the removal of the entity's component of the given type from the database
+	 * 
+	 * @param entityId
+	 * @param type
+	 * @throws SQLException
+	 */
+	private void deleteComponent(int entityId, Class<? extends Component> type) throws SQLException {
+		PreparedStatement statement = this.deleteStatements.get(type);
+		if(statement == null) {
+			StringBuilder sql = StringHelper.getBuilder();
+			sql.append("DELETE FROM main.");
+			sql.append(CodecManager.getInstance().getCodec(type).getTableName());
+			sql.append(" WHERE entityId=?;");
+			statement = this.connection.prepareStatement(sql.toString());
+			this.deleteStatements.put(type, statement);
 		}
+		statement.setInt(1, entityId);
+		this.addBatch(statement);
 	}
 
 	/**
-	 * Update a component in the database
+	 * Queue the entity to be stored in the database. The entity row is only inserted if 
+	 * the entity has not been stored before so that its phase and flags are kept.
 	 * 
-	 * @param entity
-	 * @param component
+	 * @param entityId the entity to store.
+	 * @throws SQLException 
 	 */
-	synchronized private void updateComponent(Entity entity, Component component) {
+	private void storeEntity(int entityId) throws SQLException {
+		if(this.storeEntityStatement == null) {
+			this.storeEntityStatement = this.connection.prepareStatement("INSERT OR IGNORE INTO main.Entity (entityId, phase, load, active) VALUES (?,1,1,1);");
+		}
+		this.storeEntityStatement.setInt(1, entityId);
+		this.addBatch(this.storeEntityStatement);
+	}
+	
+	/**
+	 * Queue the next component row of the snapshot to be inserted or replaced in the database
+	 * 
+	 * @param entityId the entity owning the row
+	 * @param codec the codec which captured the row
+	 * @param snapshot
+	 * @throws SQLException 
+	 */
+	private void storeComponent(int entityId, ComponentCodec<? extends Component> codec, EntitySnapshot snapshot) throws SQLException {
 
-		Log.info(Config.SQL_ERR, "Updating component " + component.getClass().getSimpleName() + " from entity " + entity.getId());
+		Class<? extends Component> type = codec.getType();
 		
-		StringBuilder sql = StringHelper.getBuilder();
-
-		// generate the sql from the components fields
-		Class<? extends Component> type = component.getClass();
-		Field[] fields = type.getFields();
-
-		sql.append("UPDATE ");
-		sql.append(type.getSimpleName());
-		sql.append(" SET entityId=");
-		sql.append(entity.getId());
-
-		for (int i = 0, n = fields.length; i < n; i += 1) {
-
-			Field f = fields[i];
-			String datatype = f.getType().getSimpleName();
-
-			// if this is a recognised datatype then we can update it
-			if (this.datatypes.containsKey(datatype)) {
-				try {
-					// adding quotes to deal with strings and chars
-					// other data types don't seem to mind this
-					sql.append(", ");
-					sql.append(f.getName()); // get the field name
-					sql.append("=\"");
-					
-					// check if we have to convert a boolean value to 1 or 0
-					if(f.getType().equals(boolean.class)) {
-						Boolean value = (Boolean) f.get(component);
-						if(value) {
-							sql.append(1);
-						}
-						else {
-							sql.append(0);
-						}
-					}
-					else {
-						sql.append(f.get(component)); // get the field data
-					}
-					
-					sql.append("\"");
-				}
-				catch (IllegalArgumentException e) {
-					Log.error(Config.SQL_ERR, e.getMessage());
-				}
-				catch (IllegalAccessException e) {
-					Log.error(Config.SQL_ERR, e.getMessage());
-				}
-			}
-			else {
-				//Log.echo("Some kind of recursive call to store the complex field?");
-				throw new Error("Unknown shape: " + datatype + " can only store primitives and Strings.");
+		PreparedStatement statement = this.storeStatements.get(type);
+		if(statement == null) {
+			StringBuilder sql = StringHelper.getBuilder();
+			sql.append("INSERT OR REPLACE INTO main.");
+			sql.append(codec.getTableName());
+			sql.append(" (");
+			sql.append(codec.getColumnList());
+			sql.append(") VALUES (?");
+			for (int i = 0, n = codec.getNumColumns(); i < n; i += 1) {
+				sql.append(",?");
 			}
+			sql.append(");");
+			statement = this.connection.prepareStatement(sql.toString());
+			this.storeStatements.put(type, statement);
 		}
-		sql.append(" WHERE entityId=");
-		sql.append(entity.getId());
-		sql.append(";");
-
-		// run the query
+		
+		statement.setInt(1, entityId);
+		codec.bind(statement, snapshot);
+		
+		this.addBatch(statement);
+	}
+	
+	/**
+	 * Close every cached statement. Statements are prepared against one connection
+	 * and one set of tables so they are closed when either changes.
+	 */
+	private void closeStatements() {
 		try {
-			Statement statement = this.connection.createStatement();
-			statement.executeUpdate(sql.toString());
-			statement.close();
+			for(PreparedStatement statement : this.storeStatements.values()) {
+				statement.close();
+			}
+			for(PreparedStatement statement : this.deleteStatements.values()) {
+				statement.close();
+			}
+			for(PreparedStatement statement : this.copyStatements.values()) {
+				statement.close();
+			}
+			if(this.storeEntityStatement != null) {
+				this.storeEntityStatement.close();
+			}
+			if(this.deleteEntityStatement != null) {
+				this.deleteEntityStatement.close();
+			}
+			if(this.regionStatement != null) {
+				this.regionStatement.close();
+			}
+			if(this.copyEntityStatement != null) {
+				this.copyEntityStatement.close();
+			}
+			if(this.modifiedStatement != null) {
+				this.modifiedStatement.close();
+			}
+			if(this.tombstoneStatement != null) {
+				this.tombstoneStatement.close();
+			}
 		}
 		catch (SQLException e) {
-			Log.error(Config.SQL_ERR, e.getMessage() + " while updating the " + type.getSimpleName() + " table: " + sql.toString());
+			Log.error(Config.SQL_ERR, e.getMessage() + " while closing statements");
 		}
+		
+		this.storeStatements.clear();
+		this.deleteStatements.clear();
+		this.copyStatements.clear();
+		this.storeEntityStatement = null;
+		this.deleteEntityStatement = null;
+		this.regionStatement = null;
+		this.copyEntityStatement = null;
+		this.modifiedStatement = null;
+		this.tombstoneStatement = null;
 	}
 
 	/**
@@ -727,15 +1269,26 @@ public class EntityPersistence implements EntityRecycleListener, ConnectionListe
 	 */
 	@Override
 	public void recycle(int entityId) {		
+		// unloaded entities are still part of the world
+		if(this.unloading) {
+			return;
+		}
+		
 		// add the entity to the deletion list
-		this.deathrow.add(entityId);		
+		synchronized(this.deathrow) {
+			this.deathrow.add(entityId);
+			if(this.journal.isOpen()) {
+				this.journalDeaths.add(entityId);
+			}
+		}
 	}
 
 	/* (non-Javadoc)
 	 * @see com.stargem.persistence.ConnectionListener#setConnection(java.sql.Connection)
 	 */
 	@Override
-	public void setConnection(Connection c) {
+	synchronized public void setConnection(Connection c) {
+		this.closeStatements();
 		this.connection = c;
 	}
 
@@ -753,31 +1306,257 @@ public class EntityPersistence implements EntityRecycleListener, ConnectionListe
 		String attachName = "world";
 		SQLHelper.attach(connection, databasePath, attachName);		
 		
-		// for the entity table copy the entries
-		String toTableName = "main.Entity";
+		// the tables are made from their definitions and then filled, as creating them from 
+		// a select would lose the primary keys the saves replace rows by
 		String fromTableName = "\"" + attachName + "\"" + ".Entity";
+		String columns = SQLHelper.hasColumn(connection, attachName, Config.TABLE_ENTITY, "region") ? ENTITY_COLUMNS + ", region" : ENTITY_COLUMNS;
 		
-		SQLHelper.dropTable(connection, toTableName);
-		SQLHelper.createAs(connection, fromTableName, toTableName);	
+		SQLHelper.dropTable(connection, "main.Entity");
+		DatabaseFactory.createEntityTable(connection);
+		SQLHelper.copyTable(connection, fromTableName, "main.Entity", columns);
 		
 		// for each component shape copy the table entries		
 		for (Class<? extends Component> type : componentTypes) {			
-			toTableName = "main." + type.getSimpleName();
-			fromTableName = "\"" + attachName + "\"" + "." + type.getSimpleName();
+			ComponentCodec<? extends Component> codec = CodecManager.getInstance().getCodec(type);
+			String toTableName = "main." + codec.getTableName();
+			fromTableName = "\"" + attachName + "\"" + "." + codec.getTableName();
 			
 			SQLHelper.dropTable(connection, toTableName);
-			SQLHelper.createAs(connection, fromTableName, toTableName);		
+			DatabaseFactory.createTableFromComponentType(connection, type);
+			SQLHelper.copyTable(connection, fromTableName, toTableName, codec.getColumnList());
 		}
 		
 		// detach the database
 		SQLHelper.detach(connection, attachName);
-						
+		
+		this.createRegionColumn();
+	}
+
+	/**
+	 * Give back the primary keys of the tables of profiles which copied their world before
+	 * the tables were made from their definitions, when the keys were lost. Without a key
+	 * each save added rows instead of replacing them, so each table is rebuilt keeping the 
+	 * first Entity row of each entity, which holds its phase and flags, and the last row of
+	 * each component, which is the latest save. Tables which have their key are left alone.
+	 * This is called each time the profile is connected to, before any world is overlaid.
+	 */
+	synchronized protected void restoreKeys() {
+		boolean autoCommit = true;
+		
+		try {
+			// a table is never left half made
+			autoCommit = this.connection.getAutoCommit();
+			this.connection.setAutoCommit(false);
+			
+			String columns = SQLHelper.hasColumn(connection, Config.TABLE_ENTITY, "region") ? ENTITY_COLUMNS + ", region" : ENTITY_COLUMNS;
+			if(this.restoreKey(Config.TABLE_ENTITY)) {
+				DatabaseFactory.createEntityTable(connection);
+				this.copyKeyed(Config.TABLE_ENTITY, columns, "MIN");
+			}
+			
+			for (Class<? extends Component> type : componentTypes) {
+				ComponentCodec<? extends Component> codec = CodecManager.getInstance().getCodec(type);
+				if(this.restoreKey(codec.getTableName())) {
+					DatabaseFactory.createTableFromComponentType(connection, type);
+					this.copyKeyed(codec.getTableName(), codec.getColumnList(), "MAX");
+				}
+			}
+			
+			this.connection.commit();
+		}
+		catch (SQLException e) {
+			Log.error(Config.SQL_ERR, e.getMessage() + " while restoring primary keys");
+			this.rollback();
+		}
+		finally {
+			try {
+				this.connection.setAutoCommit(autoCommit);
+			}
+			catch (SQLException e) {
+				Log.error(Config.SQL_ERR, e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Move a table which has lost its primary key out of the way so it can be made again
+	 * 
+	 * @param tableName
+	 * @return true if the table was moved and has to be made again from its definition
+	 * @throws SQLException if the table could not be moved, the caller rolls back
+	 */
+	private boolean restoreKey(String tableName) throws SQLException {
+		if(!SQLHelper.hasTable(connection, "main", tableName) || SQLHelper.isPrimaryKey(connection, "main", tableName, "entityId")) {
+			return false;
+		}
+		
+		Log.info(Config.SQL_ERR, "Restoring the primary key of " + tableName);
+		
+		// the index goes with the old table and would stop it being made on the new one
+		this.execute("DROP TABLE IF EXISTS main." + tableName + UNKEYED + ";");
+		this.execute("DROP INDEX IF EXISTS main.EntityRegion;");
+		this.execute("ALTER TABLE main." + tableName + " RENAME TO " + tableName + UNKEYED + ";");
+		return true;
+	}
+	
+	/**
+	 * Fill the table made again from its definition with one row of each entity from the 
+	 * old table, then drop the old table. The old table is only dropped once every row has
+	 * been copied.
+	 * 
+	 * @param tableName
+	 * @param columns the columns to copy
+	 * @param keep MIN to keep the first row of each entity or MAX to keep the last
+	 * @throws SQLException if the rows could not be copied, the caller rolls back
+	 */
+	private void copyKeyed(String tableName, String columns, String keep) throws SQLException {
+		StringBuilder sql = StringHelper.getBuilder();
+		sql.append("INSERT INTO main.");
+		sql.append(tableName);
+		sql.append(" (");
+		sql.append(columns);
+		sql.append(") SELECT ");
+		sql.append(columns);
+		sql.append(" FROM main.");
+		sql.append(tableName);
+		sql.append(UNKEYED);
+		sql.append(" WHERE rowid IN (SELECT ");
+		sql.append(keep);
+		sql.append("(rowid) FROM main.");
+		sql.append(tableName);
+		sql.append(UNKEYED);
+		sql.append(" GROUP BY entityId);");
+		this.execute(sql.toString());
+		
+		this.execute("DROP TABLE main." + tableName + UNKEYED + ";");
+		if(tableName.equals(Config.TABLE_ENTITY)) {
+			this.execute("CREATE INDEX IF NOT EXISTS main.EntityRegion ON Entity (region);");
+		}
+	}
+	
+	/**
+	 * Run a statement which is part of a larger change, leaving a failure to the caller
+	 * 
+	 * @param sql
+	 * @throws SQLException
+	 */
+	private void execute(String sql) throws SQLException {
+		Statement statement = this.connection.createStatement();
+		try {
+			statement.executeUpdate(sql);
+		}
+		finally {
+			statement.close();
+		}
 	}
 
+	/**
+	 * Copy the entity tables of the profile once a quick save has been written to them, so
+	 * a quick load can put back the entities which were not in the game, such as those 
+	 * streamed out of it, as they were at the quick save. This is called on the saver's 
+	 * thread straight after the quick save has been written.
+	 * 
+	 * @return true if the tables were copied, otherwise the copies of the last quick save are kept
+	 */
+	synchronized public boolean keepQuickSave() {
+		return this.copyEntityTables(true);
+	}
+	
+	/**
+	 * Replace the entity tables of the profile with the copies made by {@link #keepQuickSave()}.
+	 * The changes journaled since the tables were last saved are thrown away. This must be
+	 * called while nothing is being loaded or saved.
+	 * 
+	 * @return true if the tables were replaced, otherwise they are left as they were
+	 */
+	synchronized public boolean restoreQuickSave() {
+		if(!this.copyEntityTables(false)) {
+			return false;
+		}
+		this.journal.reset();
+		this.checkpointRequired = true;
+		return true;
+	}
+	
+	/**
+	 * Copy every entity table of the profile to its quick save copy or back. Either every
+	 * table is copied or none is.
+	 * 
+	 * @param keep true to copy the tables to their copies, false to copy them back
+	 * @return true if the tables were copied
+	 */
+	private boolean copyEntityTables(boolean keep) {
+		boolean autoCommit = true;
+		boolean copied = false;
+		
+		Array<String> tables = new Array<String>();
+		tables.add(Config.TABLE_ENTITY);
+		for (Class<? extends Component> type : componentTypes) {
+			tables.add(CodecManager.getInstance().getCodec(type).getTableName());
+		}
+		// the deletions from an overlaid world are kept with the rows
+		if(SQLHelper.hasTable(connection, "main", Config.TABLE_MODIFIED)) {
+			tables.add(Config.TABLE_MODIFIED);
+		}
+		
+		try {
+			autoCommit = this.connection.getAutoCommit();
+			this.connection.setAutoCommit(false);
+			
+			for(int i = 0, n = tables.size; i < n; i += 1) {
+				String table = tables.get(i);
+				if(keep) {
+					this.execute("DROP TABLE IF EXISTS main." + table + QUICKSAVED + ";");
+					this.execute("CREATE TABLE main." + table + QUICKSAVED + " AS SELECT * FROM main." + table + ";");
+				}
+				else {
+					this.execute("DELETE FROM main." + table + ";");
+					this.execute("INSERT INTO main." + table + " SELECT * FROM main." + table + QUICKSAVED + ";");
+				}
+			}
+			
+			this.connection.commit();
+			copied = true;
+		}
+		catch (SQLException e) {
+			Log.error(Config.SQL_ERR, e.getMessage() + (keep ? " while copying the tables of the quick save" : " while restoring the tables of the quick save"));
+			this.rollback();
+		}
+		finally {
+			try {
+				this.connection.setAutoCommit(autoCommit);
+			}
+			catch (SQLException e) {
+				Log.error(Config.SQL_ERR, e.getMessage());
+			}
+		}
+		
+		return copied;
+	}
+
+	/**
+	 * Close the statements and reset the journal which belong to the tables of the current
+	 * world, before the world is replaced.
+	 */
+	synchronized protected void closeTables() {
+		this.closeStatements();
+		this.journal.reset();
+	}
+
+	/**
+	 * @return the persisted component types in the order they were registered
+	 */
+	public Array<Class<? extends Component>> getComponentTypes() {
+		return this.componentTypes;
+	}
+	
 	/**
 	 * 
 	 */
 	public void clearDeathRow() {
-		this.deathrow.clear();
+		synchronized(this.deathrow) {
+			this.deathrow.clear();
+			this.journalDeaths.clear();
+		}
 	}
 }
\ No newline at end of file
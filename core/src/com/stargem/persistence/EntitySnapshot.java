@@ -0,0 +1,339 @@
+/**
+ *
+ */
+package com.stargem.persistence;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.FloatArray;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.LongArray;
+import com.stargem.entity.components.Component;
+
+/**
+ * EntitySnapshot.java
+ *
+ * A copy of the persistent state of a set of entities taken at a tick boundary. Each
+ * component is captured by its {@link ComponentCodec} as a row of primitive values
+ * appended to typed arrays, so the snapshot holds no references to live components and
+ * can be written to disk on another thread while the simulation carries on.
+ *
+ * Rows are read back in the order they were captured, or a single value can be read
+ * from any row with its column's offset from {@link ComponentCodec#getOffset(int)}.
+ * A snapshot keeps the capacity of its arrays when it is cleared so capturing does not
+ * allocate once it has grown to the size of the world.
+ */
+public class EntitySnapshot implements RowReader {
+
+	// the ids of the captured entities
+	private final IntArray entities = new IntArray();
+
+	// the owning entity and codec of each component row
+	private final IntArray rowEntities = new IntArray();
+	private final Array<ComponentCodec<? extends Component>> rowCodecs = new Array<ComponentCodec<? extends Component>>();
+
+	// where the values of each row start in each of the value arrays
+	private final IntArray rowInts = new IntArray();
+	private final IntArray rowLongs = new IntArray();
+	private final IntArray rowFloats = new IntArray();
+	private final IntArray rowStrings = new IntArray();
+
+	// the values of every row in column order, booleans are held as ints and doubles as longs
+	private final IntArray ints = new IntArray();
+	private final LongArray longs = new LongArray();
+	private final FloatArray floats = new FloatArray();
+	private final Array<String> strings = new Array<String>();
+
+	// read positions in the value arrays
+	private int intPosition;
+	private int longPosition;
+	private int floatPosition;
+	private int stringPosition;
+
+	// the ids of entities to be deleted
+	private final IntArray deathrow = new IntArray();
+
+	// the last journal segment whose changes are in the snapshot
+	private int journalSegment;
+
+	// components removed from entities since the last save, each index is one removal
+	private final IntArray removedEntities = new IntArray();
+	private final Array<ComponentCodec<? extends Component>> removedCodecs = new Array<ComponentCodec<? extends Component>>();
+
+	/**
+	 * Empty the snapshot ready to capture again
+	 */
+	public void clear() {
+		entities.clear();
+		rowEntities.clear();
+		rowCodecs.clear();
+		rowInts.clear();
+		rowLongs.clear();
+		rowFloats.clear();
+		rowStrings.clear();
+		ints.clear();
+		longs.clear();
+		floats.clear();
+		strings.clear();
+		deathrow.clear();
+		removedEntities.clear();
+		removedCodecs.clear();
+		journalSegment = 0;
+		this.rewind();
+	}
+
+	/**
+	 * Move the read positions back to the first row
+	 */
+	public void rewind() {
+		intPosition = 0;
+		longPosition = 0;
+		floatPosition = 0;
+		stringPosition = 0;
+	}
+
+	/**
+	 * Move the read positions to the start of the given row
+	 *
+	 * @param row
+	 */
+	public void seek(int row) {
+		intPosition = rowInts.get(row);
+		longPosition = rowLongs.get(row);
+		floatPosition = rowFloats.get(row);
+		stringPosition = rowStrings.get(row);
+	}
+
+	/**
+	 * @param entityId an entity whose components follow
+	 */
+	public void addEntity(int entityId) {
+		entities.add(entityId);
+	}
+
+	/**
+	 * Capture the component as a row belonging to the entity
+	 *
+	 * @param entityId
+	 * @param codec the codec of the component's type
+	 * @param component
+	 */
+	public void addComponent(int entityId, ComponentCodec<? extends Component> codec, Component component) {
+		this.addRow(entityId, codec);
+		codec.write(component, this);
+	}
+
+	/**
+	 * Start a row belonging to the entity, the values of its columns must be put next
+	 * in column order
+	 *
+	 * @param entityId
+	 * @param codec the codec of the row's component type
+	 */
+	public void addRow(int entityId, ComponentCodec<? extends Component> codec) {
+		rowEntities.add(entityId);
+		rowCodecs.add(codec);
+		rowInts.add(ints.size);
+		rowLongs.add(longs.size);
+		rowFloats.add(floats.size);
+		rowStrings.add(strings.size);
+	}
+
+	/**
+	 * Record that the entity no longer has a component of the codec's type
+	 *
+	 * @param entityId
+	 * @param codec
+	 */
+	public void addRemoval(int entityId, ComponentCodec<? extends Component> codec) {
+		removedEntities.add(entityId);
+		removedCodecs.add(codec);
+	}
+
+	/**
+	 * @return the number of removed components
+	 */
+	public int getNumRemovals() {
+		return removedEntities.size;
+	}
+
+	/**
+	 * @param index
+	 * @return the id of the entity the component was removed from
+	 */
+	public int getRemovedEntity(int index) {
+		return removedEntities.get(index);
+	}
+
+	/**
+	 * @param index
+	 * @return the codec of the removed component's type
+	 */
+	public ComponentCodec<? extends Component> getRemovedCodec(int index) {
+		return removedCodecs.get(index);
+	}
+
+	/**
+	 * @param journalSegment the last journal segment whose changes are in the snapshot
+	 */
+	public void setJournalSegment(int journalSegment) {
+		this.journalSegment = journalSegment;
+	}
+
+	/**
+	 * @return the last journal segment whose changes are in the snapshot, 0 for none
+	 */
+	public int getJournalSegment() {
+		return journalSegment;
+	}
+
+	/**
+	 * @return the ids of entities to be deleted when the snapshot is written
+	 */
+	public IntArray getDeathrow() {
+		return deathrow;
+	}
+
+	/**
+	 * @return the number of captured entities
+	 */
+	public int getNumEntities() {
+		return entities.size;
+	}
+
+	/**
+	 * @param index 0 to the number of entities - 1
+	 * @return the id of the captured entity
+	 */
+	public int getEntityId(int index) {
+		return entities.get(index);
+	}
+
+	/**
+	 * @return the number of component rows
+	 */
+	public int getNumRows() {
+		return rowEntities.size;
+	}
+
+	/**
+	 * @return an estimate of the bytes held by the entities and rows of the snapshot
+	 */
+	public long getMemorySize() {
+		// an entity id, and an owner, a codec and four starts for each row
+		long size = 4L * (entities.size + rowEntities.size * 6);
+		size += 4L * ints.size + 8L * longs.size + 4L * floats.size;
+		for(int i = 0, n = strings.size; i < n; i += 1) {
+			String value = strings.get(i);
+			if(value != null) {
+				size += 40 + 2 * value.length();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @param row
+	 * @return the id of the entity owning the row
+	 */
+	public int getRowEntity(int row) {
+		return rowEntities.get(row);
+	}
+
+	/**
+	 * @param row
+	 * @return the codec which captured the row
+	 */
+	public ComponentCodec<? extends Component> getRowCodec(int row) {
+		return rowCodecs.get(row);
+	}
+
+	/**
+	 * @param row
+	 * @param offset the offset of an int or boolean column
+	 * @return the value of the column in the row
+	 */
+	public int getInt(int row, int offset) {
+		return ints.get(rowInts.get(row) + offset);
+	}
+
+	/**
+	 * @param row
+	 * @param offset the offset of a long or double column
+	 * @return the raw value of the column in the row, doubles are held as their long bits
+	 */
+	public long getLong(int row, int offset) {
+		return longs.get(rowLongs.get(row) + offset);
+	}
+
+	/**
+	 * @param row
+	 * @param offset the offset of a float column
+	 * @return the value of the column in the row
+	 */
+	public float getFloat(int row, int offset) {
+		return floats.get(rowFloats.get(row) + offset);
+	}
+
+	/**
+	 * @param row
+	 * @param offset the offset of a string column
+	 * @return the value of the column in the row
+	 */
+	public String getString(int row, int offset) {
+		return strings.get(rowStrings.get(row) + offset);
+	}
+
+	public void putInt(int value) {
+		ints.add(value);
+	}
+
+	public void putBoolean(boolean value) {
+		ints.add(value ? 1 : 0);
+	}
+
+	public void putLong(long value) {
+		longs.add(value);
+	}
+
+	public void putFloat(float value) {
+		floats.add(value);
+	}
+
+	public void putDouble(double value) {
+		longs.add(Double.doubleToRawLongBits(value));
+	}
+
+	public void putString(String value) {
+		strings.add(value);
+	}
+
+	@Override
+	public int nextInt() {
+		return ints.get(intPosition++);
+	}
+
+	@Override
+	public boolean nextBoolean() {
+		return ints.get(intPosition++) != 0;
+	}
+
+	@Override
+	public long nextLong() {
+		return longs.get(longPosition++);
+	}
+
+	@Override
+	public float nextFloat() {
+		return floats.get(floatPosition++);
+	}
+
+	@Override
+	public double nextDouble() {
+		return Double.longBitsToDouble(longs.get(longPosition++));
+	}
+
+	@Override
+	public String nextString() {
+		return strings.get(stringPosition++);
+	}
+}
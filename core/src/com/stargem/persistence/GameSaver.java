@@ -1,19 +1,50 @@
 /**
- * 
+ *
  */
 package com.stargem.persistence;
 
+import java.io.File;
+
+import com.stargem.Config;
+import com.stargem.utils.Log;
+
 /**
  * GameSaver.java
  *
+ * Saves the game in two steps. A snapshot of the entities is captured on the update
+ * thread between ticks, which only copies values, then the snapshot is written to disk
+ * by a single writer thread which is started once and reused, so the player experiences
+ * no long pause and a save never sees the simulation half way through a tick.
+ *
+ * The saver double buffers two snapshots, one being written and one waiting to be
+ * written. If both are in use a save request is refused and the caller should try
+ * again later, so saves can never queue up faster than the disk can take them.
+ *
+ * A quick save is a full save which is also written to a {@link QuickSave} file, so the
+ * entities in the game can be loaded back without reading the database. Once it has been
+ * written to the database the entity tables are copied as well, so the entities which
+ * were not in the game go back to how they were too. The file is only replaced once the
+ * tables have been copied, so the two always belong to the same quick save.
+ *
  * @author 	Chris B
  * @date	27 Feb 2014
  * @version	1.0
  */
 public class GameSaver implements Runnable {
-	
-	private EntitiesSavedListener listener;
-	
+
+	private final EntitySnapshot[] snapshots = {new EntitySnapshot(), new EntitySnapshot()};
+
+	// the snapshot waiting to be written and the snapshot being written
+	private EntitySnapshot pending;
+	private EntitySnapshot writing;
+
+	private EntitiesSavedListener pendingListener;
+	private File pendingQuickSave;
+
+	private final QuickSave quicksave = new QuickSave();
+
+	private Thread thread;
+
 	/**
 	 * Save the game to disk not on the ui thread so that the player
 	 * experiences no long pause.
@@ -21,25 +52,134 @@ public class GameSaver implements Runnable {
 	public GameSaver() {
 	}
 
-	/* (non-Javadoc)
-	 * @see java.lang.Runnable#run()
+	/**
+	 * Capture the current state of the game and queue it to be written. This must
+	 * be called on the update thread between ticks.
+	 *
+	 * @param l notified on the writer thread when the save has been written, may be null
+	 * @param incremental true to save only the components changed since the last save,
+	 * false to save a full checkpoint
+	 * @return false if a save is already waiting to be written and nothing was captured
 	 */
-	@Override
-	public void run() {
-		PersistenceManager.getInstance().getEntityPersistence().save();
-		
-		if(listener != null) {
-			listener.finishedSaving();
-			listener = null;
+	synchronized public boolean save(EntitiesSavedListener l, boolean incremental) {
+		return this.save(l, incremental, null);
+	}
+
+	/**
+	 * Capture the whole game and queue it to be written to the quick save file and then
+	 * to the database. This must be called on the update thread between ticks.
+	 *
+	 * @param l notified on the writer thread when the save has been written, may be null
+	 * @param file the quick save file, it is replaced
+	 * @return false if a save is already waiting to be written and nothing was captured
+	 */
+	synchronized public boolean quickSave(EntitiesSavedListener l, File file) {
+		return this.save(l, false, file);
+	}
+
+	private boolean save(EntitiesSavedListener l, boolean incremental, File file) {
+
+		// back pressure, the writer has not caught up yet
+		if(this.pending != null) {
+			return false;
+		}
+
+		EntitySnapshot snapshot = (this.snapshots[0] != this.writing) ? this.snapshots[0] : this.snapshots[1];
+		PersistenceManager.getInstance().getEntityPersistence().capture(snapshot, incremental);
+
+		this.pending = snapshot;
+		this.pendingListener = l;
+		this.pendingQuickSave = file;
+
+		if(this.thread == null) {
+			this.thread = new Thread(this, "GameSaver");
+			this.thread.setDaemon(true);
+			this.thread.start();
+		}
+
+		this.notifyAll();
+		return true;
+	}
+
+	/**
+	 * Block until every captured snapshot has been written. This is called before the
+	 * tables being saved to are replaced or the connection is closed.
+	 */
+	synchronized public void finish() {
+		while(this.pending != null || this.writing != null) {
+			try {
+				this.wait();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
 		}
-		
 	}
 
 	/**
-	 * @param l
+	 * @return true if a snapshot is waiting to be written or being written
+	 */
+	synchronized public boolean isSaving() {
+		return this.pending != null || this.writing != null;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Runnable#run()
 	 */
-	public void setListener(EntitiesSavedListener l) {
-		this.listener = l;
+	@Override
+	public void run() {
+
+		while(true) {
+
+			EntitySnapshot snapshot;
+			EntitiesSavedListener listener;
+			File file;
+
+			// wait for a snapshot to be captured
+			synchronized(this) {
+				while(this.pending == null) {
+					try {
+						this.wait();
+					}
+					catch (InterruptedException e) {
+						Log.error(Config.IO_ERR, "Game saver interrupted");
+						return;
+					}
+				}
+
+				snapshot = this.writing = this.pending;
+				listener = this.pendingListener;
+				file = this.pendingQuickSave;
+				this.pending = null;
+				this.pendingListener = null;
+				this.pendingQuickSave = null;
+			}
+
+			EntityPersistence entityPersistence = PersistenceManager.getInstance().getEntityPersistence();
+			boolean written = entityPersistence.write(snapshot);
+			
+			if(file != null) {
+				if(written && entityPersistence.keepQuickSave()) {
+					// the copied tables no longer match the last quick save file
+					if(!this.quicksave.write(snapshot, entityPersistence.getComponentTypes(), file)) {
+						file.delete();
+					}
+				}
+				else {
+					Log.error(Config.IO_ERR, "Quick save failed, the last quick save is kept");
+				}
+			}
+
+			if(listener != null) {
+				listener.finishedSaving();
+			}
+
+			synchronized(this) {
+				this.writing = null;
+				this.notifyAll();
+			}
+		}
 	}
 
-}
\ No newline at end of file
+}
@@ -4,7 +4,6 @@
 package com.stargem.persistence;
 
 import java.sql.Connection;
-import java.sql.SQLException;
 
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.utils.Array;
@@ -12,7 +11,6 @@ import com.badlogic.gdx.utils.IntMap;
 import com.badlogic.gdx.utils.ObjectMap;
 import com.stargem.Config;
 import com.stargem.GameManager;
-import com.stargem.utils.Log;
 
 /**
  * PersistenceManager.java
@@ -25,7 +23,12 @@ public class PersistenceManager {
 
 	private final Array<ConnectionListener> listeners = new Array<ConnectionListener>();
 	
+	// the writer connection and a pool of readers to the profile database
+	private final ConnectionManager connectionManager = new ConnectionManager();
 	private Connection connection;
+	
+	// the world database the profile is laid over
+	private final WorldOverlay worldOverlay = new WorldOverlay(connectionManager);
 
 	// layers managed by this class
 	private EntityPersistence entityPersistence;
@@ -69,23 +72,58 @@ public class PersistenceManager {
 	/**
 	 * Connects to the specified database then updates
 	 * all connection listeners setting their connection
-	 * to the new connection. the connection is also returned.
+	 * to the new writer connection. the connection is also returned.
+	 * Queries run off the update thread borrow a reader from 
+	 * the connection manager instead.
 	 * 
 	 * @param databasePath the path to the database to connect to
 	 * @return the new database connection
 	 */
 	public Connection connect(String databasePath) {
 		ActionResolver ar = GameManager.getInstance().getPlatformResolver().getActionResolver();
-		this.connection = ar.getConnection(databasePath);	
+		return this.connect(ar, databasePath);
+	}
+	
+	/**
+	 * Connects to the specified database through the given resolver, so the persistence
+	 * layers can be used without the game, such as by tools.
+	 * 
+	 * @param ar opens connections for the platform
+	 * @param databasePath the path to the database to connect to
+	 * @return the new database connection
+	 */
+	public Connection connect(ActionResolver ar, String databasePath) {
+		this.connection = this.connectionManager.open(ar, databasePath);	
 		
 		// update listeners with the new connection
 		for(ConnectionListener o : listeners) {
 			o.setConnection(connection);
 		}
 		
+		// the world the profile was laid over is attached to the new connections, once any
+		// tables copied without their primary keys have been given them back
+		if(this.entityPersistence != null) {
+			this.entityPersistence.restoreKeys();
+			this.worldOverlay.restore(this.entityPersistence.getComponentTypes());
+		}
+		
 		return this.connection;
 	}
 	
+	/**
+	 * @return the manager of the connections to the profile database
+	 */
+	public ConnectionManager getConnectionManager() {
+		return this.connectionManager;
+	}
+	
+	/**
+	 * @return the overlay of the profile on the world database
+	 */
+	public WorldOverlay getWorldOverlay() {
+		return this.worldOverlay;
+	}
+	
 	/**
 	 * Register a new connection contactListener
 	 * @param o
@@ -187,24 +225,29 @@ public class PersistenceManager {
 	 * dispose of all resources
 	 */
 	public void dispose() {
-		try {
-			this.connection.close();
-		}
-		catch (SQLException e) {
-			Log.error(Config.SQL_ERR, e.getMessage());
-		}
+		this.connectionManager.close();
+		this.connection = null;
 	}
 
 	/**
 	 * Import the entities and world information from the database specified
-	 * by the path, into the currently active profile.
+	 * by the path, into the currently active profile. With {@link Config#WORLD_OVERLAY}
+	 * set nothing is copied, the profile is laid over the world database instead.
 	 * 
 	 * @param campaignName
 	 * @param levelName
 	 */
 	public void importWorld(String databasePath) {
-		this.entityPersistence.importEntities(databasePath);
-		this.simulationPersistence.importWorld(databasePath);		
+		this.entityPersistence.closeTables();
+		
+		if(Config.WORLD_OVERLAY) {
+			this.worldOverlay.attach(databasePath, this.entityPersistence.getComponentTypes());
+		}
+		else {
+			this.worldOverlay.clear();
+			this.entityPersistence.importEntities(databasePath);
+			this.simulationPersistence.importWorld(databasePath);
+		}
 	}
 
 	/**
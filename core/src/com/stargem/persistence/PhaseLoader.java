@@ -1,50 +1,453 @@
 /**
- * 
+ *
  */
 package com.stargem.persistence;
 
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.TimeUtils;
+import com.stargem.Config;
+import com.stargem.entity.EntityManager;
+import com.stargem.utils.Log;
+
 /**
- * 
+ *
  * PhaseLoader.java
  *
+ * Streams a phase of entities from the database in two halves. A reader thread queries
+ * the entities in batches and captures their component rows into snapshots, which are
+ * only data, and queues them. Each frame the main thread takes batches off the queue and
+ * materialises them, creating the entities and their components along with their physics
+ * bodies, model instances and scripts, until the frame's time budget is spent. Nothing
+ * which is not thread safe is touched off the main thread and a large phase is spread over
+ * many frames instead of stalling one.
+ *
+ * Batches are recycled through a fixed pool so the reader waits for the main thread when
+ * it gets too far ahead. The number of entities materialised out of the total is published
+ * for the loading screen.
+ *
+ * A phase can also be prefetched before it is needed. The reader runs as usual but the
+ * batches are staged instead of materialised, and the pool grows until the staged batches
+ * reach {@link Config#PREFETCH_MEMORY_CAP}, then the reader waits. When the phase is
+ * started it only has to materialise what has been staged and read the rest, and the
+ * phase is only flagged as loaded in the database once it has been started. Starting a
+ * different phase, or calling {@link #finishNow()}, throws the staged batches away.
+ *
  * @author 	Chris B
  * @date	30 Apr 2014
  * @version	1.0
  */
 public class PhaseLoader implements Runnable {
-	
+
 	private int phase;
+	private final IntArray regions = new IntArray();
 	private EntitiesLoadedListener listener;
 
+	// batches read and waiting to be materialised, and batches free to be read into
+	private final BlockingQueue<EntitySnapshot> ready = new LinkedBlockingQueue<EntitySnapshot>();
+	private final BlockingQueue<EntitySnapshot> free = new LinkedBlockingQueue<EntitySnapshot>();
+
+	// the estimated size of the batches waiting to be materialised
+	private final AtomicLong readyBytes = new AtomicLong();
+
+	// the reader thread, set while a phase is being prefetched or loaded
+	private Thread thread;
+
+	// set while the phase is only being prefetched, and when a prefetch is thrown away
+	private volatile boolean staged;
+	private volatile boolean cancelled;
+
+	// set by the reader before the first batch and when it has read the last one
+	private volatile int lowestUnusedEntityID = -1;
+	private volatile boolean finishedReading;
+
+	// set by the reader if the phase could not be read, it is not flagged as loaded
+	private volatile boolean failed;
+
+	// progress, the total is counted by the reader and the loaded entities by the main thread
+	private volatile int numEntities;
+	private volatile int numLoaded;
+
+	private boolean loading;
+
 	/**
-	 * Load the given phase from disk into memory
-	 * 
-	 * @param phase
+	 * Create a loader and its pool of batches
 	 */
 	public PhaseLoader() {
+		for(int i = 0; i < Config.LOAD_QUEUE_BATCHES; i += 1) {
+			this.free.add(new EntitySnapshot());
+		}
+	}
+
+	/**
+	 * Start loading the phase. This must be called on the main thread, which must then
+	 * call {@link #update()} every frame until the listener is told loading has finished.
+	 *
+	 * @param phase the phase to load or -1 for the entities with their load flag set
+	 * @param l notified on the main thread once every entity has been materialised, may be null
+	 */
+	public void start(int phase, EntitiesLoadedListener l) {
+		this.start(phase, null, l);
+	}
+
+	/**
+	 * Start loading the entities of a phase in some regions of the world.
+	 *
+	 * @param phase the phase to load, -1 for the entities with their load flag set or
+	 * {@link EntityPersistence#STREAMED_REGIONS}
+	 * @param regions the regions to load entities from, null for every region
+	 * @param l notified on the main thread once every entity has been materialised, may be null
+	 * @see EntityPersistence#readPhase(int, IntArray, PhaseLoader)
+	 */
+	public void start(int phase, IntArray regions, EntitiesLoadedListener l) {
+
+		if(this.loading) {
+			throw new IllegalStateException("A phase is already being loaded");
+		}
+
+		if(this.thread != null) {
+			// the phase was prefetched so loading it carries on from what has been staged,
+			// unless the prefetch failed and the phase has to be read again
+			if(this.phase == phase && regions == null && this.regions.size == 0 && !this.failed) {
+				synchronized(this) {
+					this.listener = l;
+					this.loading = true;
+					this.staged = false;
+					this.notifyAll();
+				}
+				return;
+			}
+			this.cancel();
+		}
+
+		this.regions.clear();
+		if(regions != null) {
+			this.regions.addAll(regions);
+		}
+		this.listener = l;
+		this.loading = true;
+		this.launch(phase, false);
+	}
+
+	/**
+	 * Start reading a phase in the background without creating its entities. The phase is
+	 * loaded by calling {@link #start(int, EntitiesLoadedListener)} with the same phase. This
+	 * must be called on the main thread.
+	 *
+	 * @param phase the phase to prefetch
+	 * @return false if a phase is already being prefetched or loaded
+	 */
+	public boolean prefetch(int phase) {
+		if(this.thread != null) {
+			return false;
+		}
+		this.regions.clear();
+		this.launch(phase, true);
+		return true;
+	}
+
+	private void launch(int phase, boolean staged) {
+		this.phase = phase;
+		this.staged = staged;
+		this.cancelled = false;
+		this.lowestUnusedEntityID = -1;
+		this.finishedReading = false;
+		this.failed = false;
+		this.numEntities = 0;
+		this.numLoaded = 0;
+
+		this.thread = new Thread(this, "PhaseLoader");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Throw away a phase which is being prefetched and wait for the reader to stop. Nothing
+	 * is done if a phase is being loaded. This must be called on the main thread.
+	 */
+	public void cancel() {
+
+		if(this.thread == null || this.loading) {
+			return;
+		}
+
+		synchronized(this) {
+			this.cancelled = true;
+			this.notifyAll();
+		}
+
+		// a reader waiting for a free batch is woken by the staged ones
+		this.recycleReady();
+
+		try {
+			this.thread.join();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			Log.error(Config.IO_ERR, "Interrupted while waiting for a prefetch to stop");
+		}
+
+		this.recycleReady();
+		this.thread = null;
+		this.staged = false;
 	}
-	
+
+	private void recycleReady() {
+		EntitySnapshot batch = this.ready.poll();
+		while(batch != null) {
+			this.readyBytes.addAndGet(-batch.getMemorySize());
+			this.recycle(batch);
+			batch = this.ready.poll();
+		}
+	}
+
+	/**
+	 * Put a batch back in the pool, batches added while prefetching are let go once the
+	 * pool is back to its usual size
+	 *
+	 * @param batch
+	 */
+	private void recycle(EntitySnapshot batch) {
+		if(this.free.size() < Config.LOAD_QUEUE_BATCHES) {
+			this.free.add(batch);
+		}
+	}
+
 	/* (non-Javadoc)
 	 * @see java.lang.Runnable#run()
 	 */
 	@Override
 	public void run() {
-		
-		PersistenceManager.getInstance().loadGates();
-		PersistenceManager.getInstance().getEntityPersistence().load(phase);
-		
-		if(listener != null) {
-			listener.finishedLoading();
-			listener = null;
+		try {
+			if(this.phase != EntityPersistence.STREAMED_REGIONS) {
+				PersistenceManager.getInstance().loadGates();
+			}
+			PersistenceManager.getInstance().getEntityPersistence().readPhase(this.phase, this.regions, this);
+		}
+		finally {
+			this.finishedReading = true;
 		}
 	}
-	
-	public void setPhase(int phase) {
-		this.phase = phase;
+
+	/**
+	 * Called by the reader once the entities of the phase are known
+	 *
+	 * @param lowestUnusedEntityID
+	 * @param numEntities the number of entities in the phase
+	 */
+	void begin(int lowestUnusedEntityID, int numEntities) {
+		this.numEntities = numEntities;
+		this.lowestUnusedEntityID = lowestUnusedEntityID;
 	}
 
-	public void setListener(EntitiesLoadedListener l) {
-		this.listener = l;
+	/**
+	 * Called by the reader for an empty batch to read into. This waits until the main
+	 * thread has materialised a batch if they are all in use.
+	 *
+	 * @return an empty batch or null if the reader was interrupted
+	 */
+	EntitySnapshot obtain() {
+		try {
+			EntitySnapshot batch = this.free.poll();
+			if(batch == null) {
+				// a prefetch stages as much as it is allowed to before it waits
+				if(this.staged && this.readyBytes.get() < Config.PREFETCH_MEMORY_CAP) {
+					batch = new EntitySnapshot();
+				}
+				else {
+					batch = this.free.take();
+				}
+			}
+			if(this.cancelled) {
+				this.free.add(batch);
+				return null;
+			}
+			batch.clear();
+			return batch;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	/**
+	 * Called by the reader to queue a batch to be materialised
+	 *
+	 * @param batch
+	 */
+	void submit(EntitySnapshot batch) {
+		this.readyBytes.addAndGet(batch.getMemorySize());
+		this.ready.add(batch);
+	}
+
+	/**
+	 * Called by the reader once every batch has been read, a prefetch waits here until
+	 * the phase is started so the phase is not flagged as loaded before its entities exist.
+	 *
+	 * @return false if the phase was thrown away and must not be flagged as loaded
+	 */
+	synchronized boolean awaitStart() {
+		while(this.staged && !this.cancelled) {
+			try {
+				this.wait();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return !this.cancelled;
+	}
+
+	/**
+	 * Called by the reader when the phase could not be read. The batches read so far are
+	 * still materialised but the phase is not flagged as loaded.
+	 */
+	void fail() {
+		this.failed = true;
+	}
+
+	/**
+	 * Called by the reader to give back a batch it could not finish
+	 *
+	 * @param batch
+	 */
+	void discard(EntitySnapshot batch) {
+		this.free.add(batch);
 	}
-	
-}
\ No newline at end of file
+
+	/**
+	 * Materialise batches until the frame's time budget is spent, then return. A batch is
+	 * always materialised whole so no entity is seen by the systems half loaded. This must
+	 * be called on the main thread every frame while loading.
+	 */
+	public void update() {
+
+		if(!this.loading) {
+			return;
+		}
+
+		EntityPersistence entityPersistence = PersistenceManager.getInstance().getEntityPersistence();
+		long deadline = TimeUtils.nanoTime() + Config.LOAD_FRAME_BUDGET * 1000000L;
+
+		while(TimeUtils.nanoTime() < deadline) {
+
+			// finished reading must be read before the queue is found empty
+			boolean finished = this.finishedReading;
+
+			// new entities are numbered above every entity in the database, and above any
+			// created since a prefetch read the database
+			if(this.lowestUnusedEntityID != -1) {
+				EntityManager em = EntityManager.getInstance();
+				em.setLowestUnusedEntityID(Math.max(this.lowestUnusedEntityID, em.getLowestUnusedEntityID()));
+				this.lowestUnusedEntityID = -1;
+			}
+
+			EntitySnapshot batch = this.ready.poll();
+			if(batch == null) {
+				if(finished) {
+					this.finish();
+				}
+				return;
+			}
+
+			this.readyBytes.addAndGet(-batch.getMemorySize());
+			entityPersistence.materialise(batch);
+			this.numLoaded += batch.getNumEntities();
+
+			this.recycle(batch);
+		}
+	}
+
+	/**
+	 * Materialise every remaining batch, blocking until the whole phase is loaded. A phase
+	 * which is only being prefetched is thrown away. This must be called on the main thread.
+	 */
+	public void finishNow() {
+		this.cancel();
+		while(this.loading) {
+			this.update();
+			if(this.loading) {
+				try {
+					// give the reader a moment to catch up
+					Thread.sleep(1);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					Log.error(Config.IO_ERR, "Interrupted while waiting for a phase to load");
+					return;
+				}
+			}
+		}
+	}
+
+	private void finish() {
+		this.loading = false;
+		this.thread = null;
+
+		EntitiesLoadedListener l = this.listener;
+		this.listener = null;
+		if(l != null) {
+			l.finishedLoading();
+		}
+	}
+
+	/**
+	 * @return true if a phase is being loaded
+	 */
+	public boolean isLoading() {
+		return this.loading;
+	}
+
+	/**
+	 * @return true if a phase is being prefetched or loaded
+	 */
+	public boolean isBusy() {
+		return this.thread != null;
+	}
+
+	/**
+	 * @return true if a phase is being prefetched and has not been started
+	 */
+	public boolean isPrefetching() {
+		return this.thread != null && !this.loading;
+	}
+
+	/**
+	 * @return true if the last phase could not be read completely and was not flagged as 
+	 * loaded, it can be started again
+	 */
+	public boolean hasFailed() {
+		return this.failed;
+	}
+
+	/**
+	 * @return the number of entities in the phase being loaded, 0 until they have been counted
+	 */
+	public int getNumEntities() {
+		return this.numEntities;
+	}
+
+	/**
+	 * @return the number of entities materialised so far
+	 */
+	public int getNumLoaded() {
+		return this.numLoaded;
+	}
+
+	/**
+	 * @return the fraction of the phase loaded from 0 to 1
+	 */
+	public float getProgress() {
+		int total = this.numEntities;
+		if(total == 0) {
+			return this.loading ? 0 : 1;
+		}
+		return Math.min(1f, (float) this.numLoaded / total);
+	}
+
+}
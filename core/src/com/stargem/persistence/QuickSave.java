@@ -0,0 +1,477 @@
+/**
+ *
+ */
+package com.stargem.persistence;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.IntArray;
+import com.stargem.Config;
+import com.stargem.entity.components.Component;
+import com.stargem.utils.Log;
+
+/**
+ * QuickSave.java
+ *
+ * A compact binary copy of a full {@link EntitySnapshot} for quick saving and loading.
+ * The file is a header, the ids of every entity, then one block per registered component
+ * type. A block holds the owning entity id of each component followed by each column's
+ * values stored together, so a column of floats is one run of floats.
+ *
+ * <pre>
+ * int magic, int version
+ * int numEntities, int[numEntities] entityIds
+ * int numBlocks
+ * per block:
+ *     short nameLength, byte[nameLength] typeName
+ *     int numRows, int numColumns, byte[numColumns] kinds
+ *     int[numRows] entityIds
+ *     per column: int[numRows] | long[numRows] | float[numRows] | numRows * (int length, byte[length] utf8)
+ * </pre>
+ *
+ * A quick save is written through a file channel in one write. It is read back through
+ * a memory mapped buffer, fixed width columns are read in place and only strings are
+ * decoded when the file is opened. The profile database remains the canonical store.
+ */
+public class QuickSave {
+
+	private static final int MAGIC = 0x53475153;
+	private static final int VERSION = 1;
+	private static final String CHARSET = "UTF-8";
+
+	// buffer the file is written from, grown as needed and kept between saves
+	private ByteBuffer out = ByteBuffer.allocateDirect(1 << 16);
+
+	// the rows of each block while writing
+	private final Array<IntArray> blockRows = new Array<IntArray>();
+
+	// the mapped file while reading
+	private MappedByteBuffer in;
+	private final IntArray entities = new IntArray();
+	private final Array<Block> blocks = new Array<Block>();
+	private final BlockReader reader = new BlockReader();
+
+	/**
+	 * A component block of the mapped file
+	 */
+	private static class Block {
+		ComponentCodec<? extends Component> codec;
+		int numRows;
+		int entities;
+		int[] columns;
+		String[][] strings;
+	}
+
+	/**
+	 * Reads the values of one row of a block in column order
+	 */
+	private class BlockReader implements RowReader {
+
+		private Block block;
+		private int row;
+		private int column;
+
+		void set(Block block, int row) {
+			this.block = block;
+			this.row = row;
+			this.column = 0;
+		}
+
+		@Override
+		public int nextInt() {
+			return in.getInt(block.columns[column++] + (row << 2));
+		}
+
+		@Override
+		public boolean nextBoolean() {
+			return this.nextInt() != 0;
+		}
+
+		@Override
+		public long nextLong() {
+			return in.getLong(block.columns[column++] + (row << 3));
+		}
+
+		@Override
+		public float nextFloat() {
+			return in.getFloat(block.columns[column++] + (row << 2));
+		}
+
+		@Override
+		public double nextDouble() {
+			return Double.longBitsToDouble(this.nextLong());
+		}
+
+		@Override
+		public String nextString() {
+			return block.strings[column++][row];
+		}
+	}
+
+	/**
+	 * Write a full snapshot to the file. The file is written next to its destination and
+	 * renamed over it once complete, so a crash while saving leaves the last quick save.
+	 *
+	 * @param snapshot a full snapshot
+	 * @param types the persisted component types, one block is written for each
+	 * @param file
+	 * @return true if the file was written
+	 */
+	public boolean write(EntitySnapshot snapshot, Array<Class<? extends Component>> types, File file) {
+
+		out.clear();
+
+		out.putInt(MAGIC);
+		out.putInt(VERSION);
+
+		int numEntities = snapshot.getNumEntities();
+		this.ensureCapacity(8 + (numEntities << 2));
+		out.putInt(numEntities);
+		for(int i = 0; i < numEntities; i += 1) {
+			out.putInt(snapshot.getEntityId(i));
+		}
+
+		// group the rows of the snapshot by component type
+		while(blockRows.size < types.size) {
+			blockRows.add(new IntArray());
+		}
+		for(int i = 0, n = types.size; i < n; i += 1) {
+			blockRows.get(i).clear();
+		}
+		for(int i = 0, n = snapshot.getNumRows(); i < n; i += 1) {
+			int block = types.indexOf(snapshot.getRowCodec(i).getType(), true);
+			if(block != -1) {
+				blockRows.get(block).add(i);
+			}
+		}
+
+		out.putInt(types.size);
+
+		try {
+			for(int i = 0, n = types.size; i < n; i += 1) {
+				this.writeBlock(snapshot, CodecManager.getInstance().getCodec(types.get(i)), blockRows.get(i));
+			}
+		}
+		catch (UnsupportedEncodingException e) {
+			Log.error(Config.IO_ERR, e.getMessage() + " while writing quick save");
+			return false;
+		}
+
+		out.flip();
+
+		File temp = new File(file.getPath() + ".tmp");
+		try {
+			FileOutputStream stream = new FileOutputStream(temp);
+			FileChannel channel = stream.getChannel();
+			try {
+				while(out.hasRemaining()) {
+					channel.write(out);
+				}
+				channel.force(false);
+			}
+			finally {
+				stream.close();
+			}
+		}
+		catch (IOException e) {
+			Log.error(Config.IO_ERR, e.getMessage() + " while writing quick save " + temp.getPath());
+			return false;
+		}
+
+		// rename does not replace an existing file on every platform
+		if(!temp.renameTo(file)) {
+			file.delete();
+			if(!temp.renameTo(file)) {
+				Log.error(Config.IO_ERR, "Unable to replace quick save " + file.getPath());
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private void writeBlock(EntitySnapshot snapshot, ComponentCodec<? extends Component> codec, IntArray rows) throws UnsupportedEncodingException {
+
+		byte[] name = codec.getTableName().getBytes(CHARSET);
+		int numRows = rows.size;
+		int numColumns = codec.getNumColumns();
+
+		this.ensureCapacity(2 + name.length + 8 + numColumns + (numRows << 2));
+		out.putShort((short) name.length);
+		out.put(name);
+		out.putInt(numRows);
+		out.putInt(numColumns);
+		for(int j = 0; j < numColumns; j += 1) {
+			out.put((byte) codec.getKind(j));
+		}
+		for(int r = 0; r < numRows; r += 1) {
+			out.putInt(snapshot.getRowEntity(rows.get(r)));
+		}
+
+		for(int j = 0; j < numColumns; j += 1) {
+			int offset = codec.getOffset(j);
+			switch(codec.getKind(j)) {
+				case ComponentCodec.BOOLEAN:
+				case ComponentCodec.INT:
+					this.ensureCapacity(numRows << 2);
+					for(int r = 0; r < numRows; r += 1) {
+						out.putInt(snapshot.getInt(rows.get(r), offset));
+					}
+					break;
+				case ComponentCodec.LONG:
+				case ComponentCodec.DOUBLE:
+					this.ensureCapacity(numRows << 3);
+					for(int r = 0; r < numRows; r += 1) {
+						out.putLong(snapshot.getLong(rows.get(r), offset));
+					}
+					break;
+				case ComponentCodec.FLOAT:
+					this.ensureCapacity(numRows << 2);
+					for(int r = 0; r < numRows; r += 1) {
+						out.putFloat(snapshot.getFloat(rows.get(r), offset));
+					}
+					break;
+				default:
+					for(int r = 0; r < numRows; r += 1) {
+						String value = snapshot.getString(rows.get(r), offset);
+						if(value == null) {
+							this.ensureCapacity(4);
+							out.putInt(-1);
+						}
+						else {
+							byte[] bytes = value.getBytes(CHARSET);
+							this.ensureCapacity(4 + bytes.length);
+							out.putInt(bytes.length);
+							out.put(bytes);
+						}
+					}
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Grow the output buffer so that it can take the given number of bytes
+	 *
+	 * @param bytes
+	 */
+	private void ensureCapacity(int bytes) {
+		if(out.remaining() >= bytes) {
+			return;
+		}
+		int capacity = out.capacity();
+		while(capacity - out.position() < bytes) {
+			capacity <<= 1;
+		}
+		ByteBuffer grown = ByteBuffer.allocateDirect(capacity);
+		out.flip();
+		grown.put(out);
+		out = grown;
+	}
+
+	/**
+	 * Map the quick save file and index its blocks. Blocks for component types which are
+	 * not persisted are skipped.
+	 *
+	 * @param file
+	 * @param types the persisted component types
+	 * @return true if the file is a quick save which can be read
+	 */
+	public boolean open(File file, Array<Class<? extends Component>> types) {
+
+		this.close();
+
+		try {
+			FileInputStream stream = new FileInputStream(file);
+			try {
+				FileChannel channel = stream.getChannel();
+				in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+			finally {
+				stream.close();
+			}
+		}
+		catch (IOException e) {
+			Log.error(Config.IO_ERR, e.getMessage() + " while opening quick save " + file.getPath());
+			return false;
+		}
+
+		try {
+			if(in.getInt() != MAGIC || in.getInt() != VERSION) {
+				Log.error(Config.IO_ERR, "Not a quick save or an old version: " + file.getPath());
+				this.close();
+				return false;
+			}
+
+			int numEntities = in.getInt();
+			entities.ensureCapacity(numEntities);
+			for(int i = 0; i < numEntities; i += 1) {
+				entities.add(in.getInt());
+			}
+
+			int numBlocks = in.getInt();
+			for(int i = 0; i < numBlocks; i += 1) {
+				this.readBlock(types);
+			}
+		}
+		catch (IOException e) {
+			Log.error(Config.IO_ERR, e.getMessage() + " while reading quick save " + file.getPath());
+			this.close();
+			return false;
+		}
+		catch (RuntimeException e) {
+			Log.error(Config.IO_ERR, e.getMessage() + " while reading quick save " + file.getPath());
+			this.close();
+			return false;
+		}
+
+		return true;
+	}
+
+	private void readBlock(Array<Class<? extends Component>> types) throws UnsupportedEncodingException {
+
+		byte[] name = new byte[in.getShort()];
+		in.get(name);
+		String typeName = new String(name, CHARSET);
+
+		int numRows = in.getInt();
+		int numColumns = in.getInt();
+		byte[] kinds = new byte[numColumns];
+		in.get(kinds);
+
+		Block block = new Block();
+		block.numRows = numRows;
+		block.entities = in.position();
+		block.columns = new int[numColumns];
+		block.strings = new String[numColumns][];
+		in.position(in.position() + (numRows << 2));
+
+		for(int j = 0; j < numColumns; j += 1) {
+			block.columns[j] = in.position();
+			switch(kinds[j]) {
+				case ComponentCodec.BOOLEAN:
+				case ComponentCodec.INT:
+				case ComponentCodec.FLOAT:
+					in.position(in.position() + (numRows << 2));
+					break;
+				case ComponentCodec.LONG:
+				case ComponentCodec.DOUBLE:
+					in.position(in.position() + (numRows << 3));
+					break;
+				default:
+					String[] strings = new String[numRows];
+					for(int r = 0; r < numRows; r += 1) {
+						int length = in.getInt();
+						if(length >= 0) {
+							byte[] bytes = new byte[length];
+							in.get(bytes);
+							strings[r] = new String(bytes, CHARSET);
+						}
+					}
+					block.strings[j] = strings;
+					break;
+			}
+		}
+
+		// find the codec of the block by its table name
+		ComponentCodec<? extends Component> codec = null;
+		for(int i = 0, n = types.size; i < n && codec == null; i += 1) {
+			ComponentCodec<? extends Component> candidate = CodecManager.getInstance().getCodec(types.get(i));
+			if(candidate.getTableName().equals(typeName)) {
+				codec = candidate;
+			}
+		}
+		if(codec == null) {
+			Log.error(Config.IO_ERR, "Skipping quick save block of unknown component type " + typeName);
+			return;
+		}
+		if(codec.getNumColumns() != numColumns) {
+			throw new GdxRuntimeException("Quick save block does not match component type " + typeName);
+		}
+		for(int j = 0; j < numColumns; j += 1) {
+			if(codec.getKind(j) != kinds[j]) {
+				throw new GdxRuntimeException("Quick save block does not match component type " + typeName);
+			}
+		}
+
+		block.codec = codec;
+		blocks.add(block);
+	}
+
+	/**
+	 * Release the mapped file
+	 */
+	public void close() {
+		in = null;
+		entities.clear();
+		blocks.clear();
+	}
+
+	/**
+	 * @return the number of entities in the open quick save
+	 */
+	public int getNumEntities() {
+		return entities.size;
+	}
+
+	/**
+	 * @param index
+	 * @return the id of the entity
+	 */
+	public int getEntityId(int index) {
+		return entities.get(index);
+	}
+
+	/**
+	 * @return the number of component blocks in the open quick save, in registration order
+	 */
+	public int getNumBlocks() {
+		return blocks.size;
+	}
+
+	/**
+	 * @param block
+	 * @return the codec of the block's component type
+	 */
+	public ComponentCodec<? extends Component> getCodec(int block) {
+		return blocks.get(block).codec;
+	}
+
+	/**
+	 * @param block
+	 * @return the number of components in the block
+	 */
+	public int getNumRows(int block) {
+		return blocks.get(block).numRows;
+	}
+
+	/**
+	 * @param block
+	 * @param row
+	 * @return the id of the entity owning the component
+	 */
+	public int getRowEntity(int block, int row) {
+		return in.getInt(blocks.get(block).entities + (row << 2));
+	}
+
+	/**
+	 * Returns the shared reader positioned at the start of the given row
+	 *
+	 * @param block
+	 * @param row
+	 * @return the reader
+	 */
+	public RowReader getRow(int block, int row) {
+		reader.set(blocks.get(block), row);
+		return reader;
+	}
+}
@@ -0,0 +1,392 @@
+/**
+ *
+ */
+package com.stargem.persistence;
+
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.TimeUtils;
+import com.stargem.Config;
+import com.stargem.GateManager;
+import com.stargem.PlayersManager;
+import com.stargem.entity.Entity;
+import com.stargem.entity.EntityManager;
+import com.stargem.entity.components.Physics;
+import com.stargem.physics.PhysicsManager;
+import com.stargem.terrain.AbstractQuadSphere;
+import com.stargem.utils.Log;
+
+/**
+ * RegionStreamer.java
+ *
+ * Keeps only the entities near the players in the game. Each segment of each face of the
+ * terrain sphere is a region, and every entity with a physics body is saved with the region
+ * it is in. The regions within {@link Config#REGION_STREAM_RADIUS} segments of a player are
+ * resident. When a player moves into another segment the entities no longer near any player
+ * are unloaded and the regions which have become resident are loaded by a {@link PhaseLoader}
+ * of the streamer's own, so the memory used and the time spent loading depend on the
+ * neighbourhood of the players and not on the size of the world.
+ *
+ * Unloaded entities are captured and written to the database by a writer thread which is
+ * started once and reused, after any save captured before they were unloaded so an older
+ * save can not overwrite them. No region is loaded until the entities unloaded before it
+ * have been written, otherwise an entity which moved could be read back as it was at the
+ * last save. Unloaded entities which can not be written are kept until they are, and are 
+ * only thrown away when the world is left. Players, gates and entities without a body are
+ * never unloaded.
+ */
+public class RegionStreamer implements Runnable {
+
+	// the wait in milliseconds before unloaded entities which failed to be written are written again
+	private static final long RETRY_DELAY = 1000;
+
+	private final EntityManager em = EntityManager.getInstance();
+	private final GameSaver saver;
+	private final PhaseLoader loader = new PhaseLoader();
+
+	// the regions of the world, null while no world is streamed
+	private AbstractQuadSphere sphere;
+
+	// the regions near the players, the regions waiting to be loaded and the region of each player
+	private final IntArray resident = new IntArray();
+	private final IntArray entering = new IntArray();
+	private final IntArray playerRegions = new IntArray();
+
+	// the entities unloaded and not yet written to the database
+	private final EntitySnapshot unloaded = new EntitySnapshot();
+	private volatile boolean written;
+	private volatile long retryTime;
+
+	// the writer thread, started once and reused, and whether it is writing
+	private Thread thread;
+	private boolean writing;
+
+	// scratch space
+	private final IntArray wanted = new IntArray();
+	private final Array<Entity> players = new Array<Entity>();
+	private final Matrix4 transform = new Matrix4();
+	private final Vector3 position = new Vector3();
+
+	/**
+	 * @param saver the saver whose saves unloaded entities are written after
+	 */
+	public RegionStreamer(GameSaver saver) {
+		this.saver = saver;
+	}
+
+	/**
+	 * Start streaming the world partitioned by the given sphere. The entities in the
+	 * database are given their regions. This must be called on the main thread before the
+	 * world's entities are loaded.
+	 *
+	 * @param sphere the terrain of the world
+	 */
+	public void setSphere(AbstractQuadSphere sphere) {
+		this.finishNow();
+		this.sphere = Config.REGION_STREAMING ? sphere : null;
+		this.resident.clear();
+		this.entering.clear();
+		this.playerRegions.clear();
+		PersistenceManager.getInstance().getEntityPersistence().setRegions(this.sphere);
+	}
+
+	/**
+	 * Find the regions around the players as they were last saved, these are the regions
+	 * whose entities are loaded with the world. This must be called on the main thread.
+	 *
+	 * @return the regions to load, empty if the world is not streamed
+	 */
+	public IntArray getInitialRegions() {
+		this.resident.clear();
+		if(this.sphere == null) {
+			return this.resident;
+		}
+
+		SimulationPersistence simulationPersistence = PersistenceManager.getInstance().getSimulationPersistence();
+		simulationPersistence.getPlayerRegions(this.sphere, Config.REGION_STREAM_RADIUS, this.resident);
+		return this.resident;
+	}
+
+	/**
+	 * Materialise the regions being loaded, and if a player has moved into another segment
+	 * unload the entities which are no longer near a player and start loading the regions
+	 * which are. This must be called on the main thread every frame between ticks.
+	 */
+	public void update() {
+
+		if(this.sphere == null) {
+			return;
+		}
+
+		this.loader.update();
+		if(this.loader.isBusy() || this.isWriting()) {
+			return;
+		}
+
+		// entities are only read back once they have been written
+		if(this.unloaded.getNumEntities() > 0) {
+			if(!this.written) {
+				if(TimeUtils.millis() >= this.retryTime) {
+					this.write();
+				}
+				return;
+			}
+			this.unloaded.clear();
+		}
+
+		if(this.entering.size > 0) {
+			this.loader.start(EntityPersistence.STREAMED_REGIONS, this.entering, null);
+			this.entering.clear();
+			return;
+		}
+
+		if(!this.findPlayerRegions()) {
+			return;
+		}
+
+		// the new neighbourhood of the players
+		this.wanted.clear();
+		for(int i = 0, n = this.players.size; i < n; i += 1) {
+			this.getPosition(this.players.get(i));
+			this.sphere.getRegionsAround(this.position.x, this.position.y, this.position.z, Config.REGION_STREAM_RADIUS, this.wanted);
+		}
+
+		for(int i = 0, n = this.wanted.size; i < n; i += 1) {
+			if(!this.resident.contains(this.wanted.get(i))) {
+				this.entering.add(this.wanted.get(i));
+			}
+		}
+		this.resident.clear();
+		this.resident.addAll(this.wanted);
+
+		this.unloadOutside(this.resident);
+		if(this.unloaded.getNumEntities() > 0) {
+			this.write();
+		}
+	}
+
+	/**
+	 * Find the region each player is in.
+	 *
+	 * @return true if a player is in a different region since the last call
+	 */
+	private boolean findPlayerRegions() {
+		PlayersManager.getInstance().getPlayerEntities(this.players);
+
+		boolean changed = this.players.size != this.playerRegions.size;
+		this.playerRegions.truncate(this.players.size);
+		while(this.playerRegions.size < this.players.size) {
+			this.playerRegions.add(-1);
+		}
+
+		for(int i = 0, n = this.players.size; i < n; i += 1) {
+			this.getPosition(this.players.get(i));
+			int region = this.sphere.getRegion(this.position.x, this.position.y, this.position.z);
+			if(this.playerRegions.get(i) != region) {
+				this.playerRegions.set(i, region);
+				changed = true;
+			}
+		}
+		return changed && this.players.size > 0;
+	}
+
+	/**
+	 * Unload every entity with a body which is outside the given regions, except the
+	 * players and the gates.
+	 *
+	 * @param regions
+	 */
+	private void unloadOutside(IntArray regions) {
+
+		EntityPersistence entityPersistence = PersistenceManager.getInstance().getEntityPersistence();
+		PlayersManager playersManager = PlayersManager.getInstance();
+		GateManager gateManager = GateManager.getInstance();
+
+		// iterate backwards as recycling moves the last entity into the hole
+		Array<Entity> entities = this.em.getAllEntities();
+		for(int i = entities.size - 1; i >= 0; i -= 1) {
+			Entity entity = entities.get(i);
+
+			if(!this.getPosition(entity) || playersManager.playerExists(entity)) {
+				continue;
+			}
+			int id = entity.getId();
+			if(id == gateManager.getEntranceGateID() || id == gateManager.getExitGateID()) {
+				continue;
+			}
+
+			if(!regions.contains(this.sphere.getRegion(this.position.x, this.position.y, this.position.z))) {
+				entityPersistence.unload(entity, this.unloaded);
+			}
+		}
+	}
+
+	/**
+	 * Read the position of the entity's body into the position vector
+	 *
+	 * @param entity
+	 * @return false if the entity has no body
+	 */
+	private boolean getPosition(Entity entity) {
+		Physics physics = this.em.getComponent(entity, Physics.class);
+		if(physics == null || PhysicsManager.getInstance().getMotionState(physics.bodyIndex) == null) {
+			return false;
+		}
+		PhysicsManager.getInstance().getWorldTransform(physics.bodyIndex, this.transform).getTranslation(this.position);
+		return true;
+	}
+
+	/**
+	 * Start writing the unloaded entities on the writer thread
+	 */
+	synchronized private void write() {
+		this.written = false;
+		this.writing = true;
+
+		if(this.thread == null) {
+			this.thread = new Thread(this, "RegionStreamer");
+			this.thread.setDaemon(true);
+			this.thread.start();
+		}
+
+		this.notifyAll();
+	}
+
+	synchronized private boolean isWriting() {
+		return this.writing;
+	}
+
+	/**
+	 * Block until the writer thread has finished writing
+	 */
+	synchronized private void awaitWritten() {
+		while(this.writing) {
+			try {
+				this.wait();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				Log.error(Config.IO_ERR, "Interrupted while waiting for unloaded entities to be written");
+				return;
+			}
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+
+		while(true) {
+
+			// wait for entities to be unloaded
+			synchronized(this) {
+				while(!this.writing) {
+					try {
+						this.wait();
+					}
+					catch (InterruptedException e) {
+						Log.error(Config.IO_ERR, "Region streamer interrupted");
+						return;
+					}
+				}
+			}
+
+			this.flush();
+
+			synchronized(this) {
+				this.writing = false;
+				this.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Write the unloaded entities to the database on the calling thread
+	 */
+	private void flush() {
+		// saves captured while the entities were still loaded are written first
+		this.saver.finish();
+
+		this.written = PersistenceManager.getInstance().getEntityPersistence().write(this.unloaded);
+		if(!this.written) {
+			Log.error(Config.SQL_ERR, "Failed to write unloaded entities");
+			this.retryTime = TimeUtils.millis() + RETRY_DELAY;
+		}
+	}
+
+	/**
+	 * Write the unloaded entities on the calling thread and forget them once they have been
+	 * written. Entities which can not be written are kept and written again by the next 
+	 * update, before any region is loaded.
+	 */
+	private void writeNow() {
+		this.flush();
+		if(this.written) {
+			this.unloaded.clear();
+		}
+	}
+
+	/**
+	 * Finish loading any regions being loaded and wait for unloaded entities to be written.
+	 * If they still can not be written they are kept for the next update to write. This is
+	 * called before the world is replaced or saved in full. This must be called on the main
+	 * thread.
+	 */
+	public void finishNow() {
+		this.loader.finishNow();
+		this.awaitWritten();
+
+		if(this.unloaded.getNumEntities() > 0) {
+			if(this.written) {
+				this.unloaded.clear();
+			}
+			else {
+				this.writeNow();
+			}
+		}
+	}
+
+	/**
+	 * Throw away the unloaded entities which have not been written and forget the regions,
+	 * so the regions around the players are loaded again by the next update. This is used
+	 * before the entity tables are replaced, such as by a quick load, when writing the 
+	 * entities would only be undone. This must be called on the main thread.
+	 */
+	public void discard() {
+		this.loader.finishNow();
+		this.awaitWritten();
+		this.unloaded.clear();
+
+		this.resident.clear();
+		this.entering.clear();
+		this.playerRegions.clear();
+	}
+
+	/**
+	 * Stop streaming, the regions loaded stay loaded. This is called before the world is 
+	 * left, so unloaded entities which still can not be written are thrown away. This must
+	 * be called on the main thread.
+	 */
+	public void stop() {
+		this.finishNow();
+		if(this.unloaded.getNumEntities() > 0) {
+			Log.error(Config.SQL_ERR, "Dropping " + this.unloaded.getNumEntities() + " unloaded entities which could not be written");
+			this.unloaded.clear();
+		}
+		this.sphere = null;
+		this.resident.clear();
+		this.playerRegions.clear();
+		PersistenceManager.getInstance().getEntityPersistence().setRegions(null);
+	}
+
+	/**
+	 * @return the regions near the players
+	 */
+	public IntArray getResidentRegions() {
+		return this.resident;
+	}
+}
@@ -0,0 +1,27 @@
+/**
+ *
+ */
+package com.stargem.persistence;
+
+/**
+ * RowReader.java
+ *
+ * A source of the column values of one component row, read in column order. Codecs
+ * create components from a row reader so the same code loads components from a
+ * database result, an {@link EntitySnapshot} or a {@link QuickSave}.
+ */
+public interface RowReader {
+
+	public int nextInt();
+
+	public boolean nextBoolean();
+
+	public long nextLong();
+
+	public float nextFloat();
+
+	public double nextDouble();
+
+	public String nextString();
+
+}
@@ -4,6 +4,7 @@
 package com.stargem.persistence;
 
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 
@@ -109,6 +110,41 @@ public class SQLHelper {
 		
 	}
 
+	/**
+	 * Copy the given columns of the table given by fromTableName into toTableName,
+	 * which may have more columns than the table copied from. The columns left out 
+	 * are given their defaults.
+	 * 
+	 * @param connection
+	 * @param fromTableName
+	 * @param toTableName
+	 * @param columns a comma separated list of the columns to copy
+	 */
+	public static void copyTable(Connection connection, String fromTableName, String toTableName, String columns) {
+		
+		StringBuilder sql = StringHelper.getBuilder();
+		
+		sql.append("INSERT INTO ");
+		sql.append(toTableName);
+		sql.append(" (");
+		sql.append(columns);
+		sql.append(") SELECT ");
+		sql.append(columns);
+		sql.append(" FROM ");
+		sql.append(fromTableName);
+		sql.append(";");
+		
+		try {
+			Statement statement = connection.createStatement();
+			statement.executeUpdate(sql.toString());
+			statement.close();
+		}
+		catch (SQLException e) {
+			Log.error(Config.SQL_ERR, e.getMessage() + " while copying table " + fromTableName + " " + sql.toString());
+		}
+		
+	}
+
 	/**
 	 * Drop the given table if it exists
 	 * 
@@ -135,8 +171,11 @@ public class SQLHelper {
 	}
 
 	/**
-	 * Create a new table with the name given by toTableName based on the
-	 * table given by fromTableName. All fields and indices are copied.
+	 * Create a new table with the name given by toTableName holding the rows
+	 * of the table given by fromTableName. Only the column names and rows are
+	 * copied, the primary key, constraints, defaults and indices are not, so
+	 * tables written with INSERT OR REPLACE or INSERT OR IGNORE must be created
+	 * from their definition and filled with {@link #copyTable} instead.
 	 * 
 	 * @param connection
 	 * @param fromTableName
@@ -163,4 +202,134 @@ public class SQLHelper {
 		
 	}
 	
-}
\ No newline at end of file
+	/**
+	 * Check whether the table in the main database has a column with the given name
+	 * 
+	 * @param connection
+	 * @param tableName
+	 * @param columnName
+	 * @return true if the table exists and has the column
+	 */
+	public static boolean hasColumn(Connection connection, String tableName, String columnName) {
+		return hasColumn(connection, "main", tableName, columnName);
+	}
+	
+	/**
+	 * Check whether the table in the given database has a column with the given name
+	 * 
+	 * @param connection
+	 * @param schemaName the name of the database, such as main or the name it was attached as
+	 * @param tableName
+	 * @param columnName
+	 * @return true if the table exists and has the column
+	 */
+	public static boolean hasColumn(Connection connection, String schemaName, String tableName, String columnName) {
+		
+		StringBuilder sql = StringHelper.getBuilder();
+		
+		sql.append("PRAGMA \"");
+		sql.append(schemaName);
+		sql.append("\".table_info(");
+		sql.append(tableName);
+		sql.append(");");
+		
+		boolean found = false;
+		
+		try {
+			Statement statement = connection.createStatement();
+			ResultSet result = statement.executeQuery(sql.toString());
+			
+			// the second column of the table info is the name of each column
+			while(result.next()) {
+				if(columnName.equalsIgnoreCase(result.getString(2))) {
+					found = true;
+				}
+			}
+			
+			result.close();
+			statement.close();
+		}
+		catch (SQLException e) {
+			Log.error(Config.SQL_ERR, e.getMessage() + " while reading the columns of " + tableName + " " + sql.toString());
+		}
+		
+		return found;
+	}
+	
+	/**
+	 * Check whether the given column is the primary key of the table in the given database
+	 * 
+	 * @param connection
+	 * @param schemaName the name of the database, such as main or the name it was attached as
+	 * @param tableName
+	 * @param columnName
+	 * @return true if the table exists and the column is its primary key
+	 */
+	public static boolean isPrimaryKey(Connection connection, String schemaName, String tableName, String columnName) {
+		
+		StringBuilder sql = StringHelper.getBuilder();
+		
+		sql.append("PRAGMA \"");
+		sql.append(schemaName);
+		sql.append("\".table_info(");
+		sql.append(tableName);
+		sql.append(");");
+		
+		boolean key = false;
+		
+		try {
+			Statement statement = connection.createStatement();
+			ResultSet result = statement.executeQuery(sql.toString());
+			
+			// the sixth column of the table info is non zero for the columns of the primary key
+			while(result.next()) {
+				if(columnName.equalsIgnoreCase(result.getString(2)) && result.getInt(6) != 0) {
+					key = true;
+				}
+			}
+			
+			result.close();
+			statement.close();
+		}
+		catch (SQLException e) {
+			Log.error(Config.SQL_ERR, e.getMessage() + " while reading the primary key of " + tableName + " " + sql.toString());
+		}
+		
+		return key;
+	}
+	
+	/**
+	 * Check whether the given database has a table with the given name
+	 * 
+	 * @param connection
+	 * @param schemaName the name of the database, such as main or the name it was attached as
+	 * @param tableName
+	 * @return true if the table exists
+	 */
+	public static boolean hasTable(Connection connection, String schemaName, String tableName) {
+		
+		StringBuilder sql = StringHelper.getBuilder();
+		
+		sql.append("SELECT name FROM \"");
+		sql.append(schemaName);
+		sql.append("\".sqlite_master WHERE type='table' AND name='");
+		sql.append(tableName);
+		sql.append("';");
+		
+		boolean found = false;
+		
+		try {
+			Statement statement = connection.createStatement();
+			ResultSet result = statement.executeQuery(sql.toString());
+			found = result.next();
+			result.close();
+			statement.close();
+		}
+		catch (SQLException e) {
+			Log.error(Config.SQL_ERR, e.getMessage() + " while looking for the table " + tableName + " " + sql.toString());
+		}
+		
+		return found;
+	}
+	
+}
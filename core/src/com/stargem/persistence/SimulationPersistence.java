@@ -8,10 +8,14 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.utils.IntArray;
 import com.badlogic.gdx.utils.IntMap;
 import com.stargem.Config;
+import com.stargem.GameManager;
 import com.stargem.GateManager;
 import com.stargem.models.WorldDetails;
+import com.stargem.terrain.AbstractQuadSphere;
 import com.stargem.utils.AssetList;
 import com.stargem.utils.Log;
 import com.stargem.utils.StringHelper;
@@ -43,6 +47,46 @@ public class SimulationPersistence implements ConnectionListener {
 	 * @param list the asset list to be populated
 	 */
 	public void populateAssetList(AssetList list) {
+		this.populateAssetList(this.connection, list);
+	}
+	
+	/**
+	 * Populate the given asset list from a world database which has not been imported
+	 * into the profile, so a world's assets can be loaded before changing to it.
+	 * 
+	 * @param list the asset list to be populated
+	 * @param databasePath path to the world database
+	 * @return false if the world database does not exist
+	 */
+	public boolean populateAssetList(AssetList list, String databasePath) {
+		
+		// connecting would create an empty database
+		if(!Gdx.files.internal(databasePath).file().exists()) {
+			Log.error(Config.IO_ERR, "World database not found: " + databasePath);
+			return false;
+		}
+		
+		ActionResolver ar = GameManager.getInstance().getPlatformResolver().getActionResolver();
+		Connection world = ar.getConnection(databasePath);
+		if(world == null) {
+			return false;
+		}
+		
+		try {
+			this.populateAssetList(world, list);
+		}
+		finally {
+			try {
+				world.close();
+			}
+			catch (SQLException e) {
+				Log.error(Config.SQL_ERR, e.getMessage());
+			}
+		}
+		return true;
+	}
+	
+	private void populateAssetList(Connection connection, AssetList list) {
 		
 		// select assets from db
 		StringBuilder sql = StringHelper.getBuilder();
@@ -85,19 +129,27 @@ public class SimulationPersistence implements ConnectionListener {
 		String attachName = "world";
 		SQLHelper.attach(connection, databasePath, attachName);		
 		
-		// copy the World and Asset tables
+		// copy the World, Asset, Players and Gates tables, the tables are made from their
+		// definitions as creating them from a select would lose their primary keys
 		String[] tables = new String[4];
 		tables[0] = Config.TABLE_WORLD;
 		tables[1] = Config.TABLE_ASSETS;
 		tables[2] = Config.TABLE_PLAYERS;
 		tables[3] = Config.TABLE_GATES;
 		
+		for(int i = 0, n = tables.length; i < n; i += 1) {		
+			SQLHelper.dropTable(connection, "main." + tables[i]);
+		}
+		
+		DatabaseFactory.createWorldTable(connection);
+		DatabaseFactory.createAssetsTable(connection);
+		DatabaseFactory.createPlayerTable(connection);
+		DatabaseFactory.createGateTable(connection);
+		
 		for(int i = 0, n = tables.length; i < n; i += 1) {		
 			String toTableName = "main." + tables[i];
 			String fromTableName = "\"" + attachName + "\"" + "." + tables[i];
-			
-			SQLHelper.dropTable(connection, toTableName);
-			SQLHelper.createAs(connection, fromTableName, toTableName);
+			SQLHelper.copyTable(connection, fromTableName, toTableName);
 		}
 		
 		// detach the database
@@ -118,8 +170,9 @@ public class SimulationPersistence implements ConnectionListener {
 		sql.append(Config.TABLE_PLAYERS);
 		sql.append(";");
 
+		Connection reader = PersistenceManager.getInstance().getConnectionManager().acquireReader();
 		try {
-			Statement statement = this.connection.createStatement();
+			Statement statement = reader.createStatement();
 			ResultSet result = statement.executeQuery(sql.toString());
 						
 			while(result.next()) {
@@ -134,10 +187,47 @@ public class SimulationPersistence implements ConnectionListener {
 		catch (SQLException e) {
 			Log.error(Config.SQL_ERR, e.getMessage());
 		}
+		finally {
+			PersistenceManager.getInstance().getConnectionManager().releaseReader(reader);
+		}
 		
 		return playerEntityIDs;
 	}
 
+	/**
+	 * Add the regions around the positions the players were last saved at to the list
+	 * 
+	 * @param sphere the sphere whose segments are the regions
+	 * @param radius the number of segments around each player
+	 * @param out the list to add the regions to
+	 */
+	public void getPlayerRegions(AbstractQuadSphere sphere, int radius, IntArray out) {
+		
+		StringBuilder sql = StringHelper.getBuilder();
+		sql.append("SELECT m12, m13, m14 FROM Physics WHERE entityId IN (SELECT entityId FROM ");
+		sql.append(Config.TABLE_PLAYERS);
+		sql.append(");");
+
+		Connection reader = PersistenceManager.getInstance().getConnectionManager().acquireReader();
+		try {
+			Statement statement = reader.createStatement();
+			ResultSet result = statement.executeQuery(sql.toString());
+						
+			while(result.next()) {
+				sphere.getRegionsAround(result.getFloat(1), result.getFloat(2), result.getFloat(3), radius, out);
+			}
+			
+			result.close();
+			statement.close();
+		}
+		catch (SQLException e) {
+			Log.error(Config.SQL_ERR, e.getMessage());
+		}
+		finally {
+			PersistenceManager.getInstance().getConnectionManager().releaseReader(reader);
+		}
+	}
+
 	/**
 	 * Populate the world details from the database.
 	 * 
@@ -209,7 +299,7 @@ public class SimulationPersistence implements ConnectionListener {
 		
 		// if not then we insert everything
 		StringBuilder sql = StringHelper.getBuilder();
-		sql.append("INSERT INTO Gates VALUES (");
+		sql.append("INSERT INTO main.Gates VALUES (");
 		sql.append(entityID);
 		sql.append(",");
 		sql.append(type);
@@ -235,8 +325,9 @@ public class SimulationPersistence implements ConnectionListener {
 		sql.append("Gates");
 		sql.append(";");
 
+		Connection reader = PersistenceManager.getInstance().getConnectionManager().acquireReader();
 		try {
-			Statement statement = this.connection.createStatement();
+			Statement statement = reader.createStatement();
 			ResultSet result = statement.executeQuery(sql.toString());
 						
 			while(result.next()) {				
@@ -257,6 +348,9 @@ public class SimulationPersistence implements ConnectionListener {
 		catch (SQLException e) {
 			Log.error(Config.SQL_ERR, e.getMessage());
 		}
+		finally {
+			PersistenceManager.getInstance().getConnectionManager().releaseReader(reader);
+		}
 	}
 	
 }
\ No newline at end of file
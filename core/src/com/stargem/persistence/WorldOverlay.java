@@ -0,0 +1,291 @@
+/**
+ *
+ */
+package com.stargem.persistence;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.utils.Array;
+import com.stargem.Config;
+import com.stargem.entity.components.Component;
+import com.stargem.utils.Log;
+import com.stargem.utils.StringHelper;
+
+/**
+ * WorldOverlay.java
+ *
+ * Lays the profile over the world database instead of copying the world into it. The
+ * world database is attached to every connection and only ever read. The profile holds
+ * what has changed since the world was entered: the Entity and component rows of every
+ * entity which has been saved, and a tombstone for every entity of the world which has
+ * been recycled. An entity listed in the Modified table has all of its component rows in
+ * the profile, the component rows of every other entity are read from the world.
+ *
+ * Every connection has temporary views named after the world's tables which read the
+ * profile's rows first, so queries are written against the table names as if the whole
+ * world was in the profile. The views hide the profile's own tables, so writes have to
+ * name the main database. Changing world only drops the rows changed in the last world
+ * and attaches the next, which costs the same however big the world is.
+ *
+ * The world being overlaid is recorded in the profile so it is attached again when the
+ * profile is next opened.
+ */
+public class WorldOverlay {
+
+	// the name the world database is attached as
+	public static final String SCHEMA = "world";
+
+	private final ConnectionManager connections;
+
+	// the path of the attached world database, null if none is attached
+	private String worldPath;
+
+	// the views created on every connection
+	private final Array<String> views = new Array<String>();
+
+	/**
+	 * @param connections the connections the world database is attached to
+	 */
+	public WorldOverlay(ConnectionManager connections) {
+		this.connections = connections;
+	}
+
+	/**
+	 * Overlay the profile on a new world. The rows kept for the last world are dropped,
+	 * as are whole tables copied into the profile before worlds were overlaid, and empty
+	 * tables are made for the rows which will change. This must be called while nothing
+	 * is being loaded or saved.
+	 *
+	 * @param databasePath the path to the world database
+	 * @param componentTypes the persisted component types
+	 */
+	public void attach(String databasePath, Array<Class<? extends Component>> componentTypes) {
+
+		this.detach();
+
+		Connection writer = this.connections.getWriter();
+
+		SQLHelper.dropTable(writer, "main." + Config.TABLE_ENTITY);
+		for (Class<? extends Component> type : componentTypes) {
+			SQLHelper.dropTable(writer, "main." + CodecManager.getInstance().getCodec(type).getTableName());
+		}
+		SQLHelper.dropTable(writer, "main." + Config.TABLE_GATES);
+		SQLHelper.dropTable(writer, "main." + Config.TABLE_PLAYERS);
+		SQLHelper.dropTable(writer, "main." + Config.TABLE_WORLD);
+		SQLHelper.dropTable(writer, "main." + Config.TABLE_ASSETS);
+		SQLHelper.dropTable(writer, "main." + Config.TABLE_MODIFIED);
+		SQLHelper.dropTable(writer, "main." + Config.TABLE_OVERLAY);
+
+		DatabaseFactory.createEntityTable(writer);
+		for (Class<? extends Component> type : componentTypes) {
+			DatabaseFactory.createTableFromComponentType(writer, type);
+		}
+		DatabaseFactory.createGateTable(writer);
+		DatabaseFactory.createModifiedTable(writer);
+		DatabaseFactory.createOverlayTable(writer);
+
+		StringBuilder sql = StringHelper.getBuilder();
+		sql.append("INSERT INTO ");
+		sql.append(Config.TABLE_OVERLAY);
+		sql.append(" (path) VALUES ('");
+		sql.append(databasePath.replace("'", "''"));
+		sql.append("');");
+		this.execute(writer, sql.toString());
+
+		this.execute(writer, "CREATE INDEX IF NOT EXISTS main.EntityRegion ON Entity (region);");
+
+		this.open(databasePath, componentTypes);
+	}
+
+	/**
+	 * Attach the world the profile was overlaying when it was last open. This is called
+	 * each time the profile's connections are opened.
+	 *
+	 * @param componentTypes the persisted component types
+	 */
+	public void restore(Array<Class<? extends Component>> componentTypes) {
+
+		// the views went with the old connections
+		this.worldPath = null;
+		this.views.clear();
+
+		Connection writer = this.connections.getWriter();
+		if(writer == null || !SQLHelper.hasTable(writer, "main", Config.TABLE_OVERLAY)) {
+			return;
+		}
+
+		String databasePath = null;
+		try {
+			Statement statement = writer.createStatement();
+			ResultSet result = statement.executeQuery("SELECT path FROM main." + Config.TABLE_OVERLAY + ";");
+			if(result.next()) {
+				databasePath = result.getString(1);
+			}
+			result.close();
+			statement.close();
+		}
+		catch (SQLException e) {
+			Log.error(Config.SQL_ERR, e.getMessage() + " while reading the overlaid world");
+		}
+
+		if(databasePath == null) {
+			return;
+		}
+
+		// attaching would create an empty database
+		if(!Gdx.files.internal(databasePath).file().exists()) {
+			Log.error(Config.IO_ERR, "Overlaid world database not found: " + databasePath);
+			return;
+		}
+
+		this.open(databasePath, componentTypes);
+	}
+
+	/**
+	 * Attach the world database to every connection and create the views
+	 *
+	 * @param databasePath
+	 * @param componentTypes
+	 */
+	private void open(String databasePath, Array<Class<? extends Component>> componentTypes) {
+
+		StringBuilder sql = StringHelper.getBuilder();
+		sql.append("ATTACH \"");
+		sql.append(databasePath);
+		sql.append("\" AS \"");
+		sql.append(SCHEMA);
+		sql.append("\";");
+		this.connections.executeAll(sql.toString());
+		this.worldPath = databasePath;
+
+		// worlds made before entities were partitioned have every entity outside any region
+		String region = "-1";
+		if(SQLHelper.hasColumn(this.connections.getWriter(), SCHEMA, Config.TABLE_ENTITY, "region")) {
+			region = "region";
+		}
+
+		// an entity's row is read from the profile once it has been copied there, and
+		// the rows of entities deleted from the world are not read at all
+		sql = StringHelper.getBuilder();
+		sql.append("SELECT entityId, phase, load, active, region FROM main.Entity UNION ALL SELECT entityId, phase, load, active, ");
+		sql.append(region);
+		sql.append(" FROM ");
+		sql.append(SCHEMA);
+		sql.append(".Entity w WHERE NOT EXISTS (SELECT 1 FROM main.Entity m WHERE m.entityId=w.entityId) AND NOT EXISTS (SELECT 1 FROM main.");
+		sql.append(Config.TABLE_MODIFIED);
+		sql.append(" m WHERE m.entityId=w.entityId AND m.deleted=1)");
+		this.createView(Config.TABLE_ENTITY, sql.toString());
+
+		// an entity's components are all read from one database or the other
+		for (Class<? extends Component> type : componentTypes) {
+			ComponentCodec<? extends Component> codec = CodecManager.getInstance().getCodec(type);
+			sql = StringHelper.getBuilder();
+			sql.append("SELECT ");
+			sql.append(codec.getColumnList());
+			sql.append(" FROM main.");
+			sql.append(codec.getTableName());
+			sql.append(" UNION ALL SELECT ");
+			sql.append(codec.getColumnList());
+			sql.append(" FROM ");
+			sql.append(SCHEMA);
+			sql.append(".");
+			sql.append(codec.getTableName());
+			sql.append(" w WHERE NOT EXISTS (SELECT 1 FROM main.");
+			sql.append(Config.TABLE_MODIFIED);
+			sql.append(" m WHERE m.entityId=w.entityId)");
+			this.createView(codec.getTableName(), sql.toString());
+		}
+
+		// gates can be added while playing
+		sql = StringHelper.getBuilder();
+		sql.append("SELECT entityId, type FROM main.Gates UNION ALL SELECT entityId, type FROM ");
+		sql.append(SCHEMA);
+		sql.append(".Gates");
+		this.createView(Config.TABLE_GATES, sql.toString());
+
+		// the rest of the world is never changed
+		String[] tables = new String[3];
+		tables[0] = Config.TABLE_WORLD;
+		tables[1] = Config.TABLE_ASSETS;
+		tables[2] = Config.TABLE_PLAYERS;
+
+		for(int i = 0, n = tables.length; i < n; i += 1) {
+			this.createView(tables[i], "SELECT * FROM " + SCHEMA + "." + tables[i]);
+		}
+	}
+
+	/**
+	 * Create a temporary view on every connection
+	 *
+	 * @param name the name of the view, the name of the table it stands for
+	 * @param select the query of the view
+	 */
+	private void createView(String name, String select) {
+		StringBuilder sql = StringHelper.getBuilder();
+		sql.append("CREATE TEMP VIEW ");
+		sql.append(name);
+		sql.append(" AS ");
+		sql.append(select);
+		sql.append(";");
+		this.connections.executeAll(sql.toString());
+		this.views.add(name);
+	}
+
+	/**
+	 * Drop the views and detach the world database from every connection. The profile
+	 * still records the world so it is attached again when the profile is next opened.
+	 */
+	public void detach() {
+		if(this.worldPath == null) {
+			return;
+		}
+
+		for(int i = 0, n = this.views.size; i < n; i += 1) {
+			this.connections.executeAll("DROP VIEW IF EXISTS temp." + this.views.get(i) + ";");
+		}
+		this.views.clear();
+
+		this.connections.executeAll("DETACH DATABASE \"" + SCHEMA + "\";");
+		this.worldPath = null;
+	}
+
+	/**
+	 * Stop overlaying any world, the world's tables are about to be copied into the profile
+	 */
+	public void clear() {
+		this.detach();
+
+		Connection writer = this.connections.getWriter();
+		SQLHelper.dropTable(writer, "main." + Config.TABLE_MODIFIED);
+		SQLHelper.dropTable(writer, "main." + Config.TABLE_OVERLAY);
+	}
+
+	private void execute(Connection connection, String sql) {
+		try {
+			Statement statement = connection.createStatement();
+			statement.executeUpdate(sql);
+			statement.close();
+		}
+		catch (SQLException e) {
+			Log.error(Config.SQL_ERR, e.getMessage() + " while running " + sql);
+		}
+	}
+
+	/**
+	 * @return true if the profile is overlaid on a world database
+	 */
+	public boolean isAttached() {
+		return this.worldPath != null;
+	}
+
+	/**
+	 * @return the path of the overlaid world database or null
+	 */
+	public String getWorldPath() {
+		return this.worldPath;
+	}
+}
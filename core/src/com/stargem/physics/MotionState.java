@@ -4,10 +4,20 @@
 package com.stargem.physics;
 
 import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.physics.bullet.dynamics.btRigidBody;
 import com.badlogic.gdx.physics.bullet.linearmath.btMotionState;
+import com.badlogic.gdx.utils.IntArray;
 
 /**
  * MotionState.java
+ * 
+ * The transform matrix is the one the model instance of the entity renders with and the 
+ * one the kinematic character works on. Each time Bullet moves the body the transform is
+ * also published to the body's slot in the {@link TransformBuffer}, which is where 
+ * everything else reads it from, and the body's index is queued on the moved bodies 
+ * queue so only the bodies which moved are synced with their components. The motion 
+ * state of a body pulled by {@link RadialGravity} also queues the body there so its 
+ * gravity is pointed again before the next step.
  *
  * @author 	Chris B
  * @date	17 Nov 2013
@@ -16,10 +26,31 @@ import com.badlogic.gdx.physics.bullet.linearmath.btMotionState;
 public class MotionState extends btMotionState {
 	
 	protected final Matrix4 transform;
+	private final TransformBuffer transforms;
+	private final int slot;
+	
+	// the index of the body and the queue of moved bodies it is put on when it moves
+	private final int index;
+	private final IntArray moved;
 	private boolean updated;
 	
-	public MotionState(final Matrix4 transform) {
+	// the radial gravity pulling the body and the body, null if it is not pulled
+	private RadialGravity gravity;
+	private btRigidBody body;
+	private boolean gravityQueued;
+	
+	/**
+	 * @param transform the matrix the body's transform is kept in
+	 * @param transforms the buffer the transform is published to
+	 * @param index the index of the body
+	 * @param moved the queue the index is put on each time the body moves
+	 */
+	public MotionState(final Matrix4 transform, TransformBuffer transforms, int index, IntArray moved) {
 		this.transform = transform;
+		this.transforms = transforms;
+		this.slot = transforms.obtain();
+		this.index = index;
+		this.moved = moved;
 	}
 
 	@Override
@@ -29,14 +60,64 @@ public class MotionState extends btMotionState {
 
 	/**
 	 * This is called by Bullet when the rigid body associated with the motion state
-	 * is updated. This function is used to also update the component by setting the updated
-	 * flag to true. The physics system will then read this and update the component when
-	 * appropriate.
+	 * is updated, which Bullet only does for active bodies. The body is queued so the
+	 * physics system updates its component.
 	 */
 	@Override
 	public void setWorldTransform(Matrix4 worldTrans) {
 		this.transform.set(worldTrans);
-		this.updated = true;
+		this.publish();
+		
+		if(this.gravity != null) {
+			this.gravity.queue(this);
+		}
+	}
+	
+	/**
+	 * Publish the transform to the transform buffer, flag this motion state as updated and
+	 * queue the body as moved unless it already is. This is needed after the transform
+	 * matrix is changed directly, as characters do.
+	 */
+	public void publish() {
+		this.transforms.put(this.slot, this.transform);
+		if(!this.updated) {
+			this.updated = true;
+			this.moved.add(this.index);
+		}
+	}
+	
+	/**
+	 * @return the slot of this motion state in the transform buffer
+	 */
+	public int getSlot() {
+		return this.slot;
+	}
+
+	/**
+	 * Called by {@link RadialGravity} when it starts or stops pulling the body
+	 * 
+	 * @param gravity the gravity or null
+	 * @param body the body of this motion state or null
+	 */
+	void setRadialGravity(RadialGravity gravity, btRigidBody body) {
+		this.gravity = gravity;
+		this.body = body;
+		this.gravityQueued = false;
+	}
+	
+	/**
+	 * @return the body pulled by radial gravity, null if it is not pulled
+	 */
+	btRigidBody getBody() {
+		return this.body;
+	}
+	
+	void setGravityQueued(boolean gravityQueued) {
+		this.gravityQueued = gravityQueued;
+	}
+	
+	boolean isGravityQueued() {
+		return this.gravityQueued;
 	}
 
 	public void setUpdated(boolean updated) {
@@ -24,6 +24,8 @@ import com.badlogic.gdx.physics.bullet.dynamics.btDynamicsWorld;
 import com.badlogic.gdx.physics.bullet.dynamics.btRigidBody;
 import com.badlogic.gdx.physics.bullet.dynamics.btRigidBody.btRigidBodyConstructionInfo;
 import com.badlogic.gdx.physics.bullet.dynamics.btSequentialImpulseConstraintSolver;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
 import com.badlogic.gdx.utils.IntMap;
 import com.stargem.Config;
 import com.stargem.entity.Entity;
@@ -65,13 +67,20 @@ public class PhysicsManager {
 	private final IntMap<btRigidBodyConstructionInfo> bodyInfos = new IntMap<btRigidBodyConstructionInfo>();
 	private final IntMap<btCollisionShape> shapes = new IntMap<btCollisionShape>();
 	private final IntMap<btRigidBody> bodies = new IntMap<btRigidBody>();	
+	
+	// the transform of every body, published by its motion state
+	private final TransformBuffer transforms = new TransformBuffer(Config.TRANSFORM_BUFFER_CAPACITY);
 	private TerrainPhysicsBody terrain;
 	
-	private final Vector3 tempVector = new Vector3(0, 0, 0);
+	// the indices of the bodies moved since the physics system last synced them
+	private final IntArray moved = new IntArray();
+	
+	// the dynamic bodies pulled towards the centre of the world and the characters, which 
+	// pull themselves and are updated by hand, so the step never has to sort through every body
+	private final RadialGravity radialGravity = new RadialGravity(WORLD_ORIGIN, Config.GRAVITY, transforms);
+	private final Array<KinematicCharacter> characters = new Array<KinematicCharacter>(false, 16);
 	
-	// Used to calculate the gravity direction of each body
-	private final Vector3 acceleration = new Vector3();
-	private final Vector3 position = new Vector3(0, 0, 0);
+	private final Vector3 tempVector = new Vector3(0, 0, 0);
 	
 	// the collision callback contactListener
 	StargemContactListener contactListener;
@@ -190,7 +199,7 @@ public class PhysicsManager {
 		// If so then we grab the transform matrix from it for the motion state,
 		// otherwise we use a new matrix.		
 		Matrix4 transform = RepresentationManager.getInstance().getTransformMatrix(entity);		
-		motionState = (transform == null) ? new MotionState(new Matrix4()) : new MotionState(transform);
+		motionState = new MotionState((transform == null) ? new Matrix4() : transform, transforms, key, moved);
 		
 		motionState.transform.val[0]  = component.m00;
 		motionState.transform.val[1]  = component.m01;
@@ -211,6 +220,7 @@ public class PhysicsManager {
 		motionState.transform.val[13] = component.m13;
 		motionState.transform.val[14] = component.m14;
 		motionState.transform.val[15] = component.m15;
+		motionState.publish();
 		
 		// info
 		btRigidBodyConstructionInfo info = new btRigidBodyConstructionInfo(component.mass, null, shape, tempVector.set(1, 1, 1));
@@ -252,6 +262,13 @@ public class PhysicsManager {
 		
 		this.addRigidBody(key, info, shape, body, motionState, (short) component.collisionGroup, (short) component.collidesWith);
 		
+		if(component.type == CHARACTER) {
+			this.characters.add((KinematicCharacter) body);
+		}
+		else if(!body.isStaticOrKinematicObject()) {
+			this.radialGravity.add(body, motionState);
+		}
+		
 		// if debug mode is set then we add a model to the debug draw
 		if(this.debug) {
 			PhysicsDebugDraw.getInstance().createDebugInstance(key, motionState.transform, component.shape, component.width, component.height, component.depth);
@@ -314,13 +331,24 @@ public class PhysicsManager {
 	public void removeRigidBody(int index) {
 		
 		// remove the body
-		this.dynamicsWorld.removeRigidBody(this.bodies.get(index));
+		btRigidBody body = this.bodies.get(index);
+		this.dynamicsWorld.removeRigidBody(body);
+		
+		MotionState motionState = this.motionStates.remove(index);
+		if(body instanceof KinematicCharacter) {
+			this.characters.removeValue((KinematicCharacter) body, true);
+		}
+		else {
+			this.radialGravity.remove(motionState);
+		}
 		
 		// remove the stored references to the objects and dispose the bullet objects
 		this.bodies.remove(index).dispose();
 		this.bodyInfos.remove(index).dispose();
 		this.shapes.remove(index); // disposing this crashes Bullet
-		this.motionStates.remove(index).dispose();
+		
+		this.transforms.free(motionState.getSlot());
+		motionState.dispose();
 	}
 	
 	/**
@@ -340,33 +368,21 @@ public class PhysicsManager {
 	 */
 	public void stepSimulation(float delta) {
 		
-		// set the gravity for each body based on its position relative to the center of the world
-		for(btRigidBody body : bodies.values()) {
-						
-			if(body.isActive() && !body.isStaticOrKinematicObject() && !body.getClass().equals(KinematicCharacter.class)) {
-			
-				// get the position of the body as a vector
-				body.getWorldTransform().getTranslation(position);
-				
-				// get the vector direction from the body to the origin and normalise
-				acceleration.set(position).sub(WORLD_ORIGIN).nor();
-				
-				// scale by the gravity force
-				acceleration.scl(Config.GRAVITY);
-				
-				// set the gravity on the body
-				body.setGravity(acceleration);
-			}
-			
-			// if the body is a character we need to update it manually
-			if(body.getClass().equals(KinematicCharacter.class)) {
-				KinematicCharacter character = (KinematicCharacter) body;
-				character.updateAction(this.dynamicsWorld, delta);
-			}
-			
+		// point the gravity of the bodies moved by the last step at the centre of the world,
+		// Bullet only moves active bodies so the rest are asleep and keep the gravity they had
+		this.radialGravity.apply();
+		
+		// characters are not actions of the world so they are updated by hand
+		for(int i = 0, n = this.characters.size; i < n; i += 1) {
+			this.characters.get(i).updateAction(this.dynamicsWorld, delta);
 		}
 		
 		this.dynamicsWorld.stepSimulation(delta, Config.NUM_SUBSTEPS);
+		
+		// characters move their transform directly rather than through Bullet
+		for(int i = 0, n = this.characters.size; i < n; i += 1) {
+			this.characters.get(i).getMotionState().publish();
+		}
 	}
 
 	/**
@@ -388,6 +404,71 @@ public class PhysicsManager {
 		return transform;		
 	}
 
+	/**
+	 * The indices of the bodies moved since they were last synced with their components,
+	 * each body is queued once by its motion state. The physics system empties the queue.
+	 * 
+	 * @return the queue of moved bodies
+	 */
+	public IntArray getMovedBodies() {
+		return this.moved;
+	}
+	
+	/**
+	 * @return the buffer holding the transform of every body
+	 */
+	public TransformBuffer getTransforms() {
+		return this.transforms;
+	}
+	
+	/**
+	 * Read the transform of the body with the given index from the transform buffer
+	 * 
+	 * @param index the body index
+	 * @param out the matrix to write the transform to
+	 * @return the given matrix
+	 */
+	public Matrix4 getWorldTransform(int index, Matrix4 out) {
+		return this.transforms.get(this.motionStates.get(index).getSlot(), out);
+	}
+	
+	/**
+	 * Copy the transform of the component's body from the transform buffer into the 
+	 * component's matrix fields. The fields are only the stored form of the transform,
+	 * so this only needs doing before the component is saved or sent.
+	 * 
+	 * @param component
+	 */
+	public void readTransform(Physics component) {
+		MotionState motionState = this.motionStates.get(component.bodyIndex);
+		if(motionState == null) {
+			return;
+		}
+		
+		int slot = motionState.getSlot();
+		TransformBuffer t = this.transforms;
+		
+		component.m00 = t.get(slot, 0);
+		component.m01 = t.get(slot, 1);
+		component.m02 = t.get(slot, 2);
+		component.m03 = t.get(slot, 3);
+		
+		component.m04 = t.get(slot, 4);
+		component.m05 = t.get(slot, 5);
+		component.m06 = t.get(slot, 6);
+		component.m07 = t.get(slot, 7);
+		
+		component.m08 = t.get(slot, 8);
+		component.m09 = t.get(slot, 9);
+		component.m10 = t.get(slot, 10);
+		component.m11 = t.get(slot, 11);
+		
+		component.m12 = t.get(slot, 12);
+		component.m13 = t.get(slot, 13);
+		component.m14 = t.get(slot, 14);
+		component.m15 = t.get(slot, 15);
+	}
+
 	/**
 	 * Return whether or not the debug draw is switched on
 	 * 
@@ -430,6 +511,9 @@ public class PhysicsManager {
 			o.dispose();
 		}
 		
+		radialGravity.clear();
+		moved.clear();
+		characters.clear();
 		bodies.clear();
 		shapes.clear();
 		bodyInfos.clear();
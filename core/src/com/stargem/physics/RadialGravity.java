@@ -0,0 +1,109 @@
+/**
+ *
+ */
+package com.stargem.physics;
+
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.physics.bullet.dynamics.btRigidBody;
+import com.badlogic.gdx.utils.Array;
+
+/**
+ * RadialGravity.java
+ *
+ * Pulls dynamic rigid bodies towards the centre of the world. A body's gravity only has
+ * to be pointed again once the body has moved, and Bullet only moves active bodies, so
+ * each time Bullet moves a body its motion state queues it here and only the queued
+ * bodies are given new gravity before the next step. Their positions are read from the
+ * {@link TransformBuffer}, leaving setting the gravity as the only call into Bullet for
+ * each of them. Sleeping bodies cost nothing.
+ */
+public class RadialGravity {
+
+	private final Vector3 centre = new Vector3();
+	private final float strength;
+	private final TransformBuffer transforms;
+
+	// the motion states of the bodies moved since gravity was last applied
+	private final Array<MotionState> queued = new Array<MotionState>(false, 64);
+
+	private final Vector3 acceleration = new Vector3();
+
+	/**
+	 * @param centre the point bodies are pulled towards
+	 * @param strength the acceleration of gravity, negative to pull bodies towards the centre
+	 * @param transforms the buffer the motion states publish the transforms of the bodies to
+	 */
+	public RadialGravity(Vector3 centre, float strength, TransformBuffer transforms) {
+		this.centre.set(centre);
+		this.strength = strength;
+		this.transforms = transforms;
+	}
+
+	/**
+	 * Pull the body towards the centre from now on. Its gravity is set before the next step.
+	 *
+	 * @param body a dynamic rigid body
+	 * @param motionState the body's motion state
+	 */
+	public void add(btRigidBody body, MotionState motionState) {
+		motionState.setRadialGravity(this, body);
+		this.queue(motionState);
+	}
+
+	/**
+	 * Stop pulling the body of the motion state
+	 *
+	 * @param motionState
+	 */
+	public void remove(MotionState motionState) {
+		if(motionState.isGravityQueued()) {
+			this.queued.removeValue(motionState, true);
+		}
+		motionState.setRadialGravity(null, null);
+	}
+
+	/**
+	 * Called by a motion state when its body has moved
+	 *
+	 * @param motionState
+	 */
+	void queue(MotionState motionState) {
+		if(!motionState.isGravityQueued()) {
+			motionState.setGravityQueued(true);
+			this.queued.add(motionState);
+		}
+	}
+
+	/**
+	 * Point the gravity of every body which has moved at the centre
+	 */
+	public void apply() {
+		TransformBuffer t = this.transforms;
+
+		for(int i = 0, n = this.queued.size; i < n; i += 1) {
+			MotionState motionState = this.queued.get(i);
+			int slot = motionState.getSlot();
+
+			// the direction from the centre to the body scaled by the gravity force
+			this.acceleration.set(t.get(slot, 12), t.get(slot, 13), t.get(slot, 14)).sub(this.centre).nor().scl(this.strength);
+			motionState.getBody().setGravity(this.acceleration);
+
+			motionState.setGravityQueued(false);
+		}
+		this.queued.clear();
+	}
+
+	/**
+	 * Forget the queued bodies, they are about to be disposed
+	 */
+	public void clear() {
+		this.queued.clear();
+	}
+
+	/**
+	 * @return the number of bodies waiting for their gravity to be set
+	 */
+	public int getNumQueued() {
+		return this.queued.size;
+	}
+}
@@ -0,0 +1,327 @@
+/**
+ * 
+ */
+package com.stargem.physics;
+
+import java.util.Arrays;
+
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.FloatArray;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.LongMap;
+import com.stargem.Config;
+import com.stargem.entity.Entity;
+import com.stargem.entity.EntityManager;
+
+/**
+ * SpatialIndex.java
+ * 
+ * A sparse grid of cubic cells around the world origin which buckets entities by position.
+ * Only the cells on and around the planet surface are ever occupied, so cells are kept in 
+ * a map keyed by their packed coordinates rather than in a dense grid. Radius and nearest 
+ * neighbour queries only visit the cells overlapping the search sphere.
+ * 
+ * The physics system moves an entity in the index whenever its body moves. Buckets hold 
+ * entity handles, entities which have been recycled are dropped the next time a query 
+ * visits their cell.
+ */
+public class SpatialIndex {
+
+	// bits used by each axis of a packed cell key
+	private static final int AXIS_BITS = 21;
+	private static final long AXIS_MASK = (1L << AXIS_BITS) - 1;
+	private static final int AXIS_OFFSET = 1 << (AXIS_BITS - 1);
+	
+	// marks a slot with no entity in the index, handles are never negative
+	private static final int EMPTY = -1;
+	
+	private final EntityManager em = EntityManager.getInstance();
+	private final float cellSize;
+	
+	// the entity handles in each occupied cell
+	private final LongMap<IntArray> cells = new LongMap<IntArray>();
+	private final Array<IntArray> bucketPool = new Array<IntArray>();
+	
+	// the handle, cell and position of each indexed entity, indexed by entity slot
+	private int[] handles = new int[64];
+	private long[] cellKeys = new long[64];
+	private float[] positions = new float[64 * 3];
+	
+	// scratch space for queries
+	private final Array<Entity> candidates = new Array<Entity>();
+	private final FloatArray distances = new FloatArray();
+	private final Array<Entity> results = new Array<Entity>();
+	
+	private static SpatialIndex instance;
+	public static SpatialIndex getInstance() {
+		if(instance == null) {
+			instance = new SpatialIndex(Config.SPATIAL_CELL_SIZE);
+		}
+		return instance;
+	}
+	
+	private SpatialIndex(float cellSize) {
+		this.cellSize = cellSize;
+		Arrays.fill(handles, EMPTY);
+	}
+	
+	private int cell(float v) {
+		return (int) Math.floor(v / cellSize);
+	}
+	
+	private long key(float x, float y, float z) {
+		Vector3 o = PhysicsManager.WORLD_ORIGIN;
+		return key(cell(x - o.x), cell(y - o.y), cell(z - o.z));
+	}
+	
+	private static long key(int x, int y, int z) {
+		return ((x + AXIS_OFFSET) & AXIS_MASK) 
+				| (((y + AXIS_OFFSET) & AXIS_MASK) << AXIS_BITS) 
+				| (((z + AXIS_OFFSET) & AXIS_MASK) << (AXIS_BITS * 2));
+	}
+	
+	/**
+	 * Insert the entity or move it to its new position
+	 * 
+	 * @param entity
+	 * @param x
+	 * @param y
+	 * @param z
+	 */
+	synchronized public void update(Entity entity, float x, float y, float z) {
+		int handle = entity.getHandle();
+		int slot = handle & Entity.INDEX_MASK;
+		
+		this.ensureCapacity(slot + 1);
+		
+		long key = key(x, y, z);
+		
+		if(handles[slot] != handle) {
+			// the slot was last used by an entity which has since been recycled
+			if(handles[slot] != EMPTY) {
+				this.removeFromCell(cellKeys[slot], handles[slot]);
+			}
+			handles[slot] = handle;
+			this.addToCell(key, handle);
+		}
+		else if(cellKeys[slot] != key) {
+			this.removeFromCell(cellKeys[slot], handle);
+			this.addToCell(key, handle);
+		}
+		
+		cellKeys[slot] = key;
+		positions[slot * 3] 	= x;
+		positions[slot * 3 + 1] = y;
+		positions[slot * 3 + 2] = z;
+	}
+	
+	/**
+	 * Remove the entity from the index
+	 * 
+	 * @param entity
+	 */
+	synchronized public void remove(Entity entity) {
+		int handle = entity.getHandle();
+		int slot = handle & Entity.INDEX_MASK;
+		if(slot < handles.length && handles[slot] == handle) {
+			this.removeFromCell(cellKeys[slot], handle);
+			handles[slot] = EMPTY;
+		}
+	}
+	
+	private void ensureCapacity(int capacity) {
+		if(capacity <= handles.length) {
+			return;
+		}
+		int newCapacity = Math.max(capacity, handles.length << 1);
+		
+		int[] newHandles = new int[newCapacity];
+		Arrays.fill(newHandles, EMPTY);
+		System.arraycopy(handles, 0, newHandles, 0, handles.length);
+		handles = newHandles;
+		
+		long[] newKeys = new long[newCapacity];
+		System.arraycopy(cellKeys, 0, newKeys, 0, cellKeys.length);
+		cellKeys = newKeys;
+		
+		float[] newPositions = new float[newCapacity * 3];
+		System.arraycopy(positions, 0, newPositions, 0, positions.length);
+		positions = newPositions;
+	}
+	
+	private void addToCell(long key, int handle) {
+		IntArray bucket = cells.get(key);
+		if(bucket == null) {
+			bucket = (bucketPool.size > 0) ? bucketPool.pop() : new IntArray();
+			cells.put(key, bucket);
+		}
+		bucket.add(handle);
+	}
+	
+	private void removeFromCell(long key, int handle) {
+		IntArray bucket = cells.get(key);
+		if(bucket == null) {
+			return;
+		}
+		bucket.removeValue(handle);
+		if(bucket.size == 0) {
+			cells.remove(key);
+			bucketPool.add(bucket);
+		}
+	}
+	
+	/**
+	 * Find every entity within the given distance of a point. 
+	 * 
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param radius
+	 * @param out the array to add the entities to, it is not cleared
+	 * @return the given array
+	 */
+	synchronized public Array<Entity> getEntitiesInRadius(float x, float y, float z, float radius, Array<Entity> out) {
+		this.gather(x, y, z, radius, out, null);
+		return out;
+	}
+	
+	/**
+	 * Find every entity within the given distance of a point. The returned array is
+	 * reused by the next query, this is intended for scripts.
+	 * 
+	 * @param point
+	 * @param radius
+	 * @return the entities in range
+	 */
+	synchronized public Array<Entity> getEntitiesInRadius(Vector3 point, float radius) {
+		results.clear();
+		return this.getEntitiesInRadius(point.x, point.y, point.z, radius, results);
+	}
+	
+	/**
+	 * Find up to k entities nearest to a point, no further away than the given distance.
+	 * The entities are added closest first.
+	 * 
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param k the maximum number of entities to find
+	 * @param maxRadius the distance to give up searching at
+	 * @param out the array to add the entities to, it is not cleared
+	 * @return the given array
+	 */
+	synchronized public Array<Entity> getNearestEntities(float x, float y, float z, int k, float maxRadius, Array<Entity> out) {
+		
+		// widen the search until enough entities have been found
+		float radius = Math.min(cellSize, maxRadius);
+		while(true) {
+			candidates.clear();
+			distances.clear();
+			this.gather(x, y, z, radius, candidates, distances);
+			if(candidates.size >= k || radius >= maxRadius) {
+				break;
+			}
+			radius = Math.min(radius * 2, maxRadius);
+		}
+		
+		// select the k closest candidates in order
+		int n = Math.min(k, candidates.size);
+		for(int i = 0; i < n; i += 1) {
+			int closest = i;
+			for(int j = i + 1; j < candidates.size; j += 1) {
+				if(distances.get(j) < distances.get(closest)) {
+					closest = j;
+				}
+			}
+			candidates.swap(i, closest);
+			distances.swap(i, closest);
+			out.add(candidates.get(i));
+		}
+		
+		return out;
+	}
+	
+	/**
+	 * Find up to k entities nearest to a point. The returned array is reused by the 
+	 * next query, this is intended for scripts.
+	 * 
+	 * @param point
+	 * @param k
+	 * @param maxRadius
+	 * @return the nearest entities closest first
+	 */
+	synchronized public Array<Entity> getNearestEntities(Vector3 point, int k, float maxRadius) {
+		results.clear();
+		return this.getNearestEntities(point.x, point.y, point.z, k, maxRadius, results);
+	}
+	
+	/**
+	 * Add the entities within the radius to the given array along with their squared distances
+	 */
+	private void gather(float x, float y, float z, float radius, Array<Entity> out, FloatArray squaredDistances) {
+		float radius2 = radius * radius;
+		
+		Vector3 o = PhysicsManager.WORLD_ORIGIN;
+		int minX = cell(x - o.x - radius), maxX = cell(x - o.x + radius);
+		int minY = cell(y - o.y - radius), maxY = cell(y - o.y + radius);
+		int minZ = cell(z - o.z - radius), maxZ = cell(z - o.z + radius);
+		
+		for(int cx = minX; cx <= maxX; cx += 1) {
+			for(int cy = minY; cy <= maxY; cy += 1) {
+				for(int cz = minZ; cz <= maxZ; cz += 1) {
+					
+					long key = key(cx, cy, cz);
+					IntArray bucket = cells.get(key);
+					if(bucket == null) {
+						continue;
+					}
+					
+					// walk backwards so dead entities can be dropped as we go
+					for(int i = bucket.size - 1; i >= 0; i -= 1) {
+						int handle = bucket.get(i);
+						Entity entity = em.getEntity(handle);
+						if(entity == null) {
+							bucket.removeIndex(i);
+							if(handles[handle & Entity.INDEX_MASK] == handle) {
+								handles[handle & Entity.INDEX_MASK] = EMPTY;
+							}
+							continue;
+						}
+						
+						int p = (handle & Entity.INDEX_MASK) * 3;
+						float dx = positions[p] - x;
+						float dy = positions[p + 1] - y;
+						float dz = positions[p + 2] - z;
+						float d2 = dx * dx + dy * dy + dz * dz;
+						
+						if(d2 <= radius2) {
+							out.add(entity);
+							if(squaredDistances != null) {
+								squaredDistances.add(d2);
+							}
+						}
+					}
+					
+					if(bucket.size == 0) {
+						cells.remove(key);
+						bucketPool.add(bucket);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Remove everything from the index, used when the world changes
+	 */
+	synchronized public void clear() {
+		for(IntArray bucket : cells.values()) {
+			bucket.clear();
+			bucketPool.add(bucket);
+		}
+		cells.clear();
+		Arrays.fill(handles, EMPTY);
+	}
+	
+}
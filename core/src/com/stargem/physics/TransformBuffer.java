@@ -0,0 +1,129 @@
+/**
+ * 
+ */
+package com.stargem.physics;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.utils.IntArray;
+
+/**
+ * TransformBuffer.java
+ * 
+ * An off-heap store of body transforms. Each motion state is given a slot when it is
+ * created and publishes the transform Bullet gives it into that slot, 16 floats in the 
+ * column major order of {@link Matrix4#val}. Anything which needs the transform of a body
+ * outside the physics step, persistence, the network or a camera, reads it from here 
+ * rather than from a copy held in the physics component.
+ * 
+ * All reads and writes use absolute indices so the buffer position is never shared 
+ * between threads. The buffer is replaced when it grows, so readers should fetch it 
+ * through {@link #getBuffer()} rather than holding on to it.
+ */
+public class TransformBuffer {
+
+	public static final int STRIDE = 16;
+	
+	private volatile FloatBuffer buffer;
+	private int capacity;
+	private int nextSlot;
+	private final IntArray freeSlots = new IntArray();
+	
+	/**
+	 * @param capacity the number of transforms to make room for up front
+	 */
+	public TransformBuffer(int capacity) {
+		this.capacity = capacity;
+		this.buffer = allocate(capacity);
+	}
+	
+	private static FloatBuffer allocate(int capacity) {
+		return ByteBuffer.allocateDirect(capacity * STRIDE * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+	}
+	
+	/**
+	 * Reserve a slot for a transform, growing the buffer if needed
+	 * 
+	 * @return the slot
+	 */
+	synchronized public int obtain() {
+		if(freeSlots.size > 0) {
+			return freeSlots.pop();
+		}
+		
+		if(nextSlot == capacity) {
+			int newCapacity = capacity << 1;
+			FloatBuffer newBuffer = allocate(newCapacity);
+			for(int i = 0, n = capacity * STRIDE; i < n; i += 1) {
+				newBuffer.put(i, buffer.get(i));
+			}
+			buffer = newBuffer;
+			capacity = newCapacity;
+		}
+		
+		return nextSlot++;
+	}
+	
+	/**
+	 * Release a slot so it can be reused
+	 * 
+	 * @param slot
+	 */
+	synchronized public void free(int slot) {
+		freeSlots.add(slot);
+	}
+	
+	/**
+	 * Write a transform into the given slot
+	 * 
+	 * @param slot
+	 * @param transform
+	 */
+	public void put(int slot, Matrix4 transform) {
+		FloatBuffer b = this.buffer;
+		float[] val = transform.val;
+		int offset = slot * STRIDE;
+		for(int i = 0; i < STRIDE; i += 1) {
+			b.put(offset + i, val[i]);
+		}
+	}
+	
+	/**
+	 * Read the transform in the given slot
+	 * 
+	 * @param slot
+	 * @param out the matrix to write the transform to
+	 * @return the given matrix
+	 */
+	public Matrix4 get(int slot, Matrix4 out) {
+		FloatBuffer b = this.buffer;
+		float[] val = out.val;
+		int offset = slot * STRIDE;
+		for(int i = 0; i < STRIDE; i += 1) {
+			val[i] = b.get(offset + i);
+		}
+		return out;
+	}
+	
+	/**
+	 * Read a single element of the transform in the given slot
+	 * 
+	 * @param slot
+	 * @param element an index into the matrix, e.g. {@link Matrix4#M03} for the x translation
+	 * @return the value of the element
+	 */
+	public float get(int slot, int element) {
+		return this.buffer.get(slot * STRIDE + element);
+	}
+	
+	/**
+	 * @return the backing buffer, slot n starts at n * {@link #STRIDE}
+	 */
+	public FloatBuffer getBuffer() {
+		return this.buffer;
+	}
+	
+}
@@ -17,6 +17,7 @@ import com.stargem.graphics.RepresentationManager;
 import com.stargem.models.WorldDetails;
 import com.stargem.persistence.EntitiesLoadedListener;
 import com.stargem.persistence.PersistenceManager;
+import com.stargem.persistence.PhaseLoader;
 import com.stargem.persistence.SimulationPersistence;
 import com.stargem.physics.PhysicsManager;
 import com.stargem.profile.PlayerProfile;
@@ -113,6 +114,9 @@ public class LoadingScreen extends AbstractScreen implements Observer, EntitiesL
 		// load the new asset list into the asset manager
 		this.currentWorldAssets.load();
 		
+		// assets prefetched before the world changed are now referenced by the new list
+		GameManager.getInstance().releasePrefetchedAssets();
+		
 		// unload the old assets. we do this last because the asset manager counts references
 		// this saves us unloading anything we still need. Old world assets will always be a
 		// null reference when the first world is loaded.
@@ -198,6 +202,9 @@ public class LoadingScreen extends AbstractScreen implements Observer, EntitiesL
 				// pass the terrain to the physics manager
 				PhysicsManager.getInstance().createBodyFromTerrain(terrain);
 				
+				// the segments of the terrain partition the entities streamed around the players
+				GameManager.getInstance().getRegionStreamer().setSphere(terrain);
+				
 				// pass the terrain to the representation manager with the loaded textures
 				Texture terrain_1 = this.assets.get(this.worldDetails.getTerrainTexture_1(), Texture.class);
 				Texture terrain_2 = this.assets.get(this.worldDetails.getTerrainTexture_2(), Texture.class);
@@ -239,12 +246,16 @@ public class LoadingScreen extends AbstractScreen implements Observer, EntitiesL
 			
 			case LOADING_ENTITIES:
 			
+				// create the entities read so far, the callback advances the state when 
+				// entities have finished loading and sets an any key input processor
+				// see finishedLoading method below
+				GameManager.getInstance().updateLoading();
+				
+				PhaseLoader loader = GameManager.getInstance().getPhaseLoader();
+				this.view.setProgress(loader.getNumLoaded(), loader.getNumEntities());
+				
 				// render the view
 				this.view.render(delta);
-											
-				// wait for for the callback when entities have finished loading
-				// the callback advances the state and sets an any key input processor
-				// see finishedLoading method below
 				
 			break;
 			
@@ -4,6 +4,7 @@
 package com.stargem.screens;
 
 import com.stargem.Config;
+import com.stargem.GameManager;
 import com.stargem.Stargem;
 import com.stargem.models.Simulation;
 import com.stargem.views.SimulationView;
@@ -42,6 +43,9 @@ public class PlayScreen extends AbstractScreen {
 	@Override
 	public void render(float delta) {
 		
+		// create the entities of any phase being loaded
+		GameManager.getInstance().updateLoading();
+		
 		// Update
 		accum += delta;
 		iterations = 0;
@@ -12,6 +12,9 @@ import org.keplerproject.luajava.LuaStateFactory;
 
 import com.badlogic.gdx.Gdx;
 import com.stargem.Config;
+import com.stargem.entity.Entity;
+import com.stargem.entity.EntityManager;
+import com.stargem.entity.components.Component;
 import com.stargem.utils.Log;
 import com.stargem.utils.StringHelper;
 
@@ -179,6 +182,20 @@ public class ScriptManager {
 		}		
 	}
 	
+	/**
+	 * Set a field of an entity's component and mark the component as changed so that
+	 * persistence and other consumers of changes pick it up.
+	 * 
+	 * @param entity the entity owning the component
+	 * @param component the component to set the field value on
+	 * @param fieldName the name of the field to set
+	 * @param value the value to set
+	 */
+	public void setComponentField(Entity entity, Component component, String fieldName, Object value) {
+		this.setField(component, fieldName, value);
+		EntityManager.getInstance().markDirty(entity, component.getClass());
+	}
+	
 	/**
 	 * Bitwise OR operation because Lua doesn't support it
 	 * out of the box.
@@ -4,6 +4,7 @@
 package com.stargem.terrain;
 
 import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.IntArray;
 
 /**
  * AbstractQuadSphere.java
@@ -251,6 +252,161 @@ public abstract class AbstractQuadSphere {
 		return this.segmentWidth;
 	}
 	
+	/**
+	 * The region of the sphere a position is in. A region is one segment of one face,
+	 * the position is projected from the centre of the sphere onto the cube the sphere
+	 * was made from, so positions above or below the surface are in the region of the 
+	 * segment beneath or above them. This can be called from any thread.
+	 * 
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return the region, from 0 to {@link #getNumRegions()} - 1
+	 */
+	public int getRegion(float x, float y, float z) {
+		int face = faceOf(x, y, z);
+		return this.getRegion(face, this.faceU(face, x, y, z), this.faceV(face, x, y, z));
+	}
+	
+	/**
+	 * Add the regions within the given number of segments of a position to the list, 
+	 * regions already in the list are not added again. The neighbourhood wraps over the 
+	 * edges of a face onto the faces next to it.
+	 * 
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param radius the number of segments either side of the position's segment
+	 * @param out the list to add the regions to
+	 */
+	public void getRegionsAround(float x, float y, float z, int radius, IntArray out) {
+		
+		int face = faceOf(x, y, z);
+		float half = this.getHalfWidth();
+		float step = this.segmentWidth - 1;
+		
+		// step from the centre of the position's segment so no point falls on an edge
+		int region = this.getRegion(face, this.faceU(face, x, y, z), this.faceV(face, x, y, z));
+		float u = -half + (region / this.numSegments % this.numSegments + 0.5f) * step;
+		float v = -half + (region % this.numSegments + 0.5f) * step;
+		
+		for(int dv = -radius; dv <= radius; dv += 1) {
+			for(int du = -radius; du <= radius; du += 1) {
+				
+				float pu = u + du * step;
+				float pv = v + dv * step;
+				
+				// points off the edge of the face are put back on the cube and projected 
+				// onto the face next to it
+				if(Math.abs(pu) > half || Math.abs(pv) > half) {
+					float d = (face == QuadSphereSegment.RIGHT || face == QuadSphereSegment.TOP || face == QuadSphereSegment.BACK) ? half : -half;
+					if(face == QuadSphereSegment.RIGHT || face == QuadSphereSegment.LEFT) {
+						region = this.getRegion(d, pu, pv);
+					}
+					else if(face == QuadSphereSegment.TOP || face == QuadSphereSegment.BOTTOM) {
+						region = this.getRegion(pu, d, pv);
+					}
+					else {
+						region = this.getRegion(pu, pv, d);
+					}
+				}
+				else {
+					region = this.getRegion(face, pu, pv);
+				}
+				
+				if(!out.contains(region)) {
+					out.add(region);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return the number of regions, one for each segment of each face
+	 */
+	public int getNumRegions() {
+		return NUM_FACES * this.numSegments * this.numSegments;
+	}
+	
+	/**
+	 * @param face
+	 * @param u the position across the face of the cube
+	 * @param v the position up the face of the cube
+	 * @return the region
+	 */
+	private int getRegion(int face, float u, float v) {
+		float half = this.getHalfWidth();
+		float step = this.segmentWidth - 1;
+		
+		int segmentNumX = Math.min(Math.max((int) Math.floor((u + half) / step), 0), this.numSegments - 1);
+		int segmentNumY = Math.min(Math.max((int) Math.floor((v + half) / step), 0), this.numSegments - 1);
+		
+		return (face * this.numSegments + segmentNumX) * this.numSegments + segmentNumY;
+	}
+	
+	/**
+	 * @return half the width of the cube the sphere is made from, in vertices
+	 */
+	private float getHalfWidth() {
+		return this.numSegments * (this.segmentWidth - 1) * 0.5f;
+	}
+	
+	/**
+	 * @return the face of the cube the direction of the position points at
+	 */
+	private static int faceOf(float x, float y, float z) {
+		float ax = Math.abs(x);
+		float ay = Math.abs(y);
+		float az = Math.abs(z);
+		
+		if(ax >= ay && ax >= az) {
+			return (x > 0) ? QuadSphereSegment.RIGHT : QuadSphereSegment.LEFT;
+		}
+		if(ay >= az) {
+			return (y > 0) ? QuadSphereSegment.TOP : QuadSphereSegment.BOTTOM;
+		}
+		return (z > 0) ? QuadSphereSegment.BACK : QuadSphereSegment.FRONT;
+	}
+	
+	/**
+	 * The position across the face, segments number their x along this axis
+	 */
+	private float faceU(int face, float x, float y, float z) {
+		if(face == QuadSphereSegment.RIGHT || face == QuadSphereSegment.LEFT) {
+			return scaleToFace(y, x);
+		}
+		if(face == QuadSphereSegment.TOP || face == QuadSphereSegment.BOTTOM) {
+			return scaleToFace(x, y);
+		}
+		return scaleToFace(x, z);
+	}
+	
+	/**
+	 * The position up the face, segments number their y along this axis
+	 */
+	private float faceV(int face, float x, float y, float z) {
+		if(face == QuadSphereSegment.RIGHT || face == QuadSphereSegment.LEFT) {
+			return scaleToFace(z, x);
+		}
+		if(face == QuadSphereSegment.TOP || face == QuadSphereSegment.BOTTOM) {
+			return scaleToFace(z, y);
+		}
+		return scaleToFace(y, z);
+	}
+	
+	/**
+	 * @param value a coordinate across the face
+	 * @param depth the coordinate along the axis the face points along
+	 * @return the coordinate where the ray through the position meets the face of the cube
+	 */
+	private float scaleToFace(float value, float depth) {
+		float d = Math.abs(depth);
+		if(d == 0) {
+			return 0;
+		}
+		return value * this.getHalfWidth() / d;
+	}
+	
 	/**
 	 * The multidimensional array which stores all the segments for this sphere.
 	 * The array is of the shape [Num Faces][Num Segments][Num Segments]
@@ -12,14 +12,22 @@ package com.stargem.utils;
  */
 public class StringHelper {
 
-	private static final StringBuilder builder = new StringBuilder();
+	// each thread has its own builder so the game saver and loader threads
+	// can build queries while the update thread builds strings of its own
+	private static final ThreadLocal<StringBuilder> builder = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder();
+		}
+	};
 	
 	/**
-	 * Resets and returns the string builder object
+	 * Resets and returns the string builder object of the calling thread
 	 * @return the string builder object
 	 */
 	public static StringBuilder getBuilder() {
-		builder.setLength(0);
-		return builder;
+		StringBuilder b = builder.get();
+		b.setLength(0);
+		return b;
 	}
 }
\ No newline at end of file
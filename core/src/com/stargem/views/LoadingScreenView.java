@@ -34,6 +34,7 @@ import com.badlogic.gdx.utils.Scaling;
 import com.badlogic.gdx.utils.viewport.StretchViewport;
 import com.stargem.audio.AudioManager;
 import com.stargem.utils.AssetList;
+import com.stargem.utils.StringHelper;
 
 /**
  * LoadingScreenView.java
@@ -62,6 +63,11 @@ public class LoadingScreenView implements View {
 	private Image loadingText;
 	private Label briefingLabel;
 	private Label continueLabel;
+	private Label progressLabel;
+	
+	// entities loaded out of the total, the label is only updated when these change
+	private int loaded = -1;
+	private int total = -1;
 	
 	// text writer for the briefing
 	private final Typewriter typewriter = new Typewriter();
@@ -93,6 +99,7 @@ public class LoadingScreenView implements View {
 	public void show() {
 		
 		TextureAtlas loadingAtlas = assetManager.get(loadingAtlasPath, TextureAtlas.class);
+		BitmapFont frigate = new BitmapFont(Gdx.files.internal("data/fonts/space-frigate.fnt"));
 		
 		// add the background to the root table
 		TextureRegion backgroundRegion = new TextureRegion(this.assetManager.get(backgroundPath, Texture.class));
@@ -123,6 +130,10 @@ public class LoadingScreenView implements View {
 		loading.add(icon);
 		loading.add().expand();
 		
+		// entities loaded out of the total
+		progressLabel = new Label("", new LabelStyle(frigate, Color.WHITE));
+		loading.add(progressLabel).padRight(20);
+		
 		// add loading to stage
 		stage.addActor(loading);
 		loading.setX(0);
@@ -136,7 +147,6 @@ public class LoadingScreenView implements View {
 		AudioManager.getInstance().playMusic(loadingMusic);
 		
 		// typewriter for showing the briefing screen
-		BitmapFont frigate = new BitmapFont(Gdx.files.internal("data/fonts/space-frigate.fnt"));
 		briefingLabel = new Label("", new LabelStyle(frigate, Color.WHITE));
 		briefingLabel.setFillParent(false);
 		briefingLabel.setWrap(true);
@@ -198,6 +208,31 @@ public class LoadingScreenView implements View {
 		stage.getViewport().update(width, height, true);		
 	}
 	
+	/**
+	 * Show how many entities have been loaded
+	 * 
+	 * @param loaded the number of entities loaded
+	 * @param total the number of entities to load, 0 if they have not been counted yet
+	 */
+	public void setProgress(int loaded, int total) {
+		if(loaded == this.loaded && total == this.total) {
+			return;
+		}
+		this.loaded = loaded;
+		this.total = total;
+		
+		if(total == 0) {
+			progressLabel.setText("");
+			return;
+		}
+		
+		StringBuilder s = StringHelper.getBuilder();
+		s.append(loaded);
+		s.append(" / ");
+		s.append(total);
+		progressLabel.setText(s);
+	}
+	
 	/**
 	 * This is called when loading is completed
 	 */
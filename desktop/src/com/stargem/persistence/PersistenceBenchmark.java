@@ -0,0 +1,487 @@
+/**
+ *
+ */
+package com.stargem.persistence;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.JsonWriter;
+import com.badlogic.gdx.utils.LongArray;
+import com.stargem.Config;
+import com.stargem.entity.components.Component;
+import com.stargem.entity.components.Controller;
+import com.stargem.entity.components.Health;
+import com.stargem.entity.components.Inventory;
+import com.stargem.entity.components.Parent;
+import com.stargem.entity.components.Physics;
+import com.stargem.entity.components.RenderablePointLight;
+import com.stargem.entity.components.RenderableSkinned;
+import com.stargem.entity.components.RenderableStatic;
+import com.stargem.entity.components.RunSpeed;
+import com.stargem.entity.components.SkillModifiers;
+import com.stargem.entity.components.ThirdPersonCamera;
+import com.stargem.entity.components.Timer;
+import com.stargem.entity.components.Trigger;
+import com.stargem.entity.components.Weapon;
+
+/**
+ * PersistenceBenchmark.java
+ *
+ * Times the persistence layer on a plain JVM against SQLite files in the temporary
+ * directory, without starting the game. For each world size a synthetic world is
+ * generated from a mix of the entities found in a level, built from the component types
+ * the game persists. Saving, loading phases, importing the world into a profile and
+ * deleting entities are then timed and the results written as JSON, so runs can be
+ * compared between builds. The worlds are generated from a fixed seed.
+ *
+ * Loading is timed up to the batches being read from the database. Creating the entities
+ * from the batches needs the physics and rendering of a running game and is left out.
+ *
+ * Usage: PersistenceBenchmark [output file] [world sizes]
+ * e.g. PersistenceBenchmark benchmark.json 1000,10000,100000
+ */
+public class PersistenceBenchmark {
+
+	private static final long SEED = 1610;
+	private static final int[] DEFAULT_SIZES = {1000, 10000, 100000};
+
+	// entities in a world are spread over this many phases
+	private static final int PHASES = 4;
+
+	// entities written by each save, about one auto save, and deleted by each save
+	private static final int SAVE_BATCH = 500;
+	private static final int DELETE_BATCH = 100;
+
+	// times each import is repeated
+	private static final int IMPORT_REPEATS = 5;
+
+	// the entities in a level and how many of each there are out of 100
+	/* @formatter:off */
+	private static final Class<?>[][] ARCHETYPES = new Class<?>[][] {
+		{Physics.class, RenderableStatic.class},																		// scenery
+		{RenderablePointLight.class},																					// lights
+		{Physics.class, Trigger.class, Timer.class},																	// triggers
+		{Physics.class, RenderableStatic.class, Parent.class, Timer.class},												// pickups
+		{Physics.class, RenderableSkinned.class, Controller.class, Health.class, Weapon.class, RunSpeed.class,
+			Inventory.class, SkillModifiers.class},																		// bots
+	};
+	private static final int[] WEIGHTS = {50, 10, 10, 10, 20};
+
+	// the player has every component
+	private static final Class<?>[] PLAYER = new Class<?>[] {
+		Controller.class, Health.class, Inventory.class, Parent.class, Physics.class, RenderablePointLight.class,
+		RenderableStatic.class, RenderableSkinned.class, RunSpeed.class, SkillModifiers.class, ThirdPersonCamera.class,
+		Timer.class, Trigger.class, Weapon.class
+	};
+	/* @formatter:on */
+
+	private static final String[] STRINGS = {"data/models/rock_01.g3db", "data/models/crate.g3db", "data/models/bot.g3db", "idle", "run", "patrol", "exit", "collect"};
+
+	private final PersistenceManager persistenceManager = PersistenceManager.getInstance();
+	private final EntityPersistence entityPersistence = new EntityPersistence();
+	private final Array<Class<? extends Component>> componentTypes = new Array<Class<? extends Component>>();
+	private final ActionResolver resolver = new DesktopActionResolver();
+	private final File directory = new File(System.getProperty("java.io.tmpdir"), "stargem-benchmark");
+
+	// the archetype of each entity of the world being timed
+	private int[] archetypes;
+	private int numRows;
+
+	public static void main(String[] args) throws IOException {
+
+		int[] sizes = DEFAULT_SIZES;
+		if(args.length > 1) {
+			String[] values = args[1].split(",");
+			sizes = new int[values.length];
+			for(int i = 0, n = values.length; i < n; i += 1) {
+				sizes[i] = Integer.parseInt(values[i].trim());
+			}
+		}
+
+		Writer out;
+		if(args.length > 0) {
+			out = new FileWriter(args[0]);
+		}
+		else {
+			out = new OutputStreamWriter(System.out);
+		}
+
+		new PersistenceBenchmark().run(sizes, out);
+		out.close();
+	}
+
+	public PersistenceBenchmark() {
+
+		// the component types registered by the game manager
+		this.componentTypes.add(Controller.class);
+		this.componentTypes.add(Health.class);
+		this.componentTypes.add(Inventory.class);
+		this.componentTypes.add(Parent.class);
+		this.componentTypes.add(Physics.class);
+		this.componentTypes.add(RenderablePointLight.class);
+		this.componentTypes.add(RenderableStatic.class);
+		this.componentTypes.add(RenderableSkinned.class);
+		this.componentTypes.add(RunSpeed.class);
+		this.componentTypes.add(SkillModifiers.class);
+		this.componentTypes.add(ThirdPersonCamera.class);
+		this.componentTypes.add(Timer.class);
+		this.componentTypes.add(Trigger.class);
+		this.componentTypes.add(Weapon.class);
+
+		for(Class<? extends Component> type : this.componentTypes) {
+			this.entityPersistence.registerComponentType(type);
+		}
+
+		this.persistenceManager.setEntityPersistence(this.entityPersistence);
+		this.persistenceManager.setSimulationPersistence(new SimulationPersistence());
+		this.persistenceManager.setProfilePersistence(new ProfilePersistence());
+
+		this.directory.mkdirs();
+	}
+
+	/**
+	 * Time every world size and write the results
+	 *
+	 * @param sizes the number of entities in each world
+	 * @param out
+	 * @throws IOException
+	 */
+	public void run(int[] sizes, Writer out) throws IOException {
+
+		// a small world first so the timings are not of the JIT compiler
+		this.time(Math.min(1000, sizes[0]), null);
+
+		JsonWriter json = new JsonWriter(out);
+		json.setOutputType(JsonWriter.OutputType.json);
+		json.object();
+		json.set("seed", SEED);
+		json.set("overlay", Config.WORLD_OVERLAY);
+		json.set("loadBatchSize", Config.LOAD_BATCH_SIZE);
+		json.set("saveBatchSize", SAVE_BATCH);
+		json.set("deleteBatchSize", DELETE_BATCH);
+		json.set("java", System.getProperty("java.version"));
+		json.set("os", System.getProperty("os.name") + " " + System.getProperty("os.arch"));
+		json.array("worlds");
+		for(int i = 0, n = sizes.length; i < n; i += 1) {
+			this.time(sizes[i], json);
+		}
+		json.pop();
+		json.pop();
+		json.flush();
+		out.write("\n");
+		out.flush();
+	}
+
+	/**
+	 * Generate a world of the given size and time each operation on it
+	 *
+	 * @param numEntities
+	 * @param json the writer to add the results to, null to throw them away
+	 * @throws IOException
+	 */
+	private void time(int numEntities, JsonWriter json) throws IOException {
+
+		String worldPath = this.newDatabase("world_" + numEntities);
+		String profilePath = this.newDatabase("profile_" + numEntities);
+
+		Timings generate = new Timings("generate");
+		Timings importEntities = new Timings("importEntities");
+		Timings overlayWorld = new Timings("overlayWorld");
+		Timings loadPhase = new Timings("loadPhase");
+		Timings loadBatch = new Timings("loadBatch");
+		Timings save = new Timings("save");
+		Timings deleteEntity = new Timings("deleteEntity");
+
+		// the world is saved in batches into a database of its own
+		Random random = new Random(SEED);
+		this.archetypes = new int[numEntities + 1];
+		this.numRows = 0;
+		this.persistenceManager.connect(this.resolver, worldPath);
+		DatabaseFactory.createWorldTables(this.persistenceManager.getConnectionManager().getWriter(), this.componentTypes);
+		this.save(1, numEntities, random, true, generate);
+		this.finishWorld();
+
+		// then imported into a profile, copied and overlaid
+		this.persistenceManager.connect(this.resolver, profilePath);
+		WorldOverlay overlay = this.persistenceManager.getWorldOverlay();
+		for(int i = 0; i < IMPORT_REPEATS; i += 1) {
+			this.entityPersistence.closeTables();
+			overlay.clear();
+			long start = System.nanoTime();
+			this.entityPersistence.importEntities(worldPath);
+			importEntities.add(System.nanoTime() - start, numEntities);
+		}
+		for(int i = 0; i < IMPORT_REPEATS; i += 1) {
+			this.entityPersistence.closeTables();
+			long start = System.nanoTime();
+			overlay.attach(worldPath, this.componentTypes);
+			overlayWorld.add(System.nanoTime() - start, numEntities);
+		}
+
+		// the rest is timed against the world as the game would import it
+		this.persistenceManager.importWorld(worldPath);
+
+		IntArray regions = new IntArray();
+		for(int phase = 0; phase < PHASES; phase += 1) {
+			BenchmarkLoader loader = new BenchmarkLoader(loadBatch);
+			long start = System.nanoTime();
+			this.entityPersistence.readPhase(phase, regions, loader);
+			loadPhase.add(System.nanoTime() - start, loader.numEntities);
+		}
+
+		this.save(1, numEntities, random, false, save);
+
+		for(int first = 1; first <= numEntities; first += DELETE_BATCH) {
+			EntitySnapshot snapshot = new EntitySnapshot();
+			for(int id = first, last = Math.min(first + DELETE_BATCH - 1, numEntities); id <= last; id += 1) {
+				snapshot.getDeathrow().add(id);
+			}
+			long start = System.nanoTime();
+			this.entityPersistence.write(snapshot);
+			deleteEntity.add(System.nanoTime() - start, snapshot.getDeathrow().size);
+		}
+
+		this.persistenceManager.dispose();
+
+		if(json == null) {
+			return;
+		}
+
+		json.object();
+		json.set("entities", numEntities);
+		json.set("componentRows", this.numRows);
+		json.set("worldBytes", new File(worldPath).length());
+		json.object("results");
+		generate.write(json);
+		importEntities.write(json);
+		overlayWorld.write(json);
+		loadPhase.write(json);
+		loadBatch.write(json);
+		save.write(json);
+		deleteEntity.write(json);
+		json.pop();
+		json.pop();
+	}
+
+	/**
+	 * Save every entity of the world in batches, timing each batch
+	 *
+	 * @param firstID
+	 * @param lastID
+	 * @param random
+	 * @param create true to pick the archetype of each entity, false to save the entities with new values
+	 * @param timings
+	 */
+	private void save(int firstID, int lastID, Random random, boolean create, Timings timings) {
+		for(int first = firstID; first <= lastID; first += SAVE_BATCH) {
+			EntitySnapshot snapshot = new EntitySnapshot();
+			for(int id = first, last = Math.min(first + SAVE_BATCH - 1, lastID); id <= last; id += 1) {
+				if(create) {
+					this.archetypes[id] = this.pickArchetype(random);
+				}
+				Class<?>[] types = id == firstID ? PLAYER : ARCHETYPES[this.archetypes[id]];
+				this.capture(snapshot, id, types, random);
+				if(create) {
+					this.numRows += types.length;
+				}
+			}
+			long start = System.nanoTime();
+			this.entityPersistence.write(snapshot);
+			timings.add(System.nanoTime() - start, snapshot.getNumEntities());
+		}
+	}
+
+	private int pickArchetype(Random random) {
+		int pick = random.nextInt(100);
+		for(int i = 0, n = WEIGHTS.length; i < n; i += 1) {
+			pick -= WEIGHTS[i];
+			if(pick < 0) {
+				return i;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Add the entity and a row of made up values for each of its components to the snapshot
+	 *
+	 * @param snapshot
+	 * @param entityId
+	 * @param types
+	 * @param random
+	 */
+	private void capture(EntitySnapshot snapshot, int entityId, Class<?>[] types, Random random) {
+		snapshot.addEntity(entityId);
+		for(int t = 0, m = types.length; t < m; t += 1) {
+			ComponentCodec<? extends Component> codec = CodecManager.getInstance().getCodec(types[t].asSubclass(Component.class));
+			snapshot.addRow(entityId, codec);
+			for(int i = 0, n = codec.getNumColumns(); i < n; i += 1) {
+				switch(codec.getKind(i)) {
+					case ComponentCodec.BOOLEAN:
+						snapshot.putBoolean(random.nextBoolean());
+						break;
+					case ComponentCodec.INT:
+						snapshot.putInt(random.nextInt(1000));
+						break;
+					case ComponentCodec.LONG:
+						snapshot.putLong(random.nextLong());
+						break;
+					case ComponentCodec.FLOAT:
+						snapshot.putFloat(random.nextFloat() * 200 - 100);
+						break;
+					case ComponentCodec.DOUBLE:
+						snapshot.putDouble(random.nextDouble() * 200 - 100);
+						break;
+					default:
+						snapshot.putString(STRINGS[random.nextInt(STRINGS.length)]);
+						break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Spread the entities of the world over its phases and make the first entity the player
+	 */
+	private void finishWorld() {
+		Connection writer = this.persistenceManager.getConnectionManager().getWriter();
+		try {
+			Statement statement = writer.createStatement();
+			statement.executeUpdate("UPDATE Entity SET phase=entityId%" + PHASES + ", load=0;");
+			statement.executeUpdate("INSERT INTO " + Config.TABLE_PLAYERS + " (playerId, entityId) VALUES (0,1);");
+			statement.close();
+		}
+		catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+		this.persistenceManager.dispose();
+	}
+
+	/**
+	 * @param name
+	 * @return the path of a new empty database with the given name
+	 */
+	private String newDatabase(String name) {
+		File file = new File(this.directory, name + Config.DATABASE_EXTENSION);
+		String path = file.getPath();
+		file.delete();
+		new File(path + "-wal").delete();
+		new File(path + "-shm").delete();
+		return path;
+	}
+
+	/**
+	 * Reads phases without creating their entities, timing each batch
+	 */
+	private static class BenchmarkLoader extends PhaseLoader {
+
+		private final EntitySnapshot batch = new EntitySnapshot();
+		private final Timings timings;
+		private long batchStart;
+		private int numEntities;
+
+		public BenchmarkLoader(Timings timings) {
+			this.timings = timings;
+		}
+
+		@Override
+		void begin(int lowestUnusedEntityID, int numEntities) {
+			this.batchStart = System.nanoTime();
+		}
+
+		@Override
+		EntitySnapshot obtain() {
+			this.batch.clear();
+			return this.batch;
+		}
+
+		@Override
+		void submit(EntitySnapshot batch) {
+			long now = System.nanoTime();
+			this.timings.add(now - this.batchStart, batch.getNumEntities());
+			this.numEntities += batch.getNumEntities();
+			this.batchStart = now;
+		}
+
+		@Override
+		void discard(EntitySnapshot batch) {
+		}
+
+		/**
+		 * The phases are not flagged as loaded so they can be read again
+		 */
+		@Override
+		synchronized boolean awaitStart() {
+			return false;
+		}
+	}
+
+	/**
+	 * The times taken by one operation and the number of entities each covered
+	 */
+	private static class Timings {
+
+		private final String name;
+		private final LongArray nanos = new LongArray();
+		private long numItems;
+
+		public Timings(String name) {
+			this.name = name;
+		}
+
+		public void add(long nanos, int numItems) {
+			this.nanos.add(nanos);
+			this.numItems += numItems;
+		}
+
+		/**
+		 * Write the count, throughput and latency percentiles in milliseconds
+		 *
+		 * @param json
+		 * @throws IOException
+		 */
+		public void write(JsonWriter json) throws IOException {
+			long[] sorted = this.nanos.toArray();
+			Arrays.sort(sorted);
+
+			long total = 0;
+			for(int i = 0, n = sorted.length; i < n; i += 1) {
+				total += sorted[i];
+			}
+
+			json.object(this.name);
+			json.set("samples", sorted.length);
+			json.set("entities", this.numItems);
+			json.set("entitiesPerSecond", total == 0 ? 0 : Math.round(this.numItems * 1e9 / total));
+			json.set("meanMs", sorted.length == 0 ? 0 : toMillis(total / sorted.length));
+			json.set("p50Ms", percentile(sorted, 50));
+			json.set("p90Ms", percentile(sorted, 90));
+			json.set("p99Ms", percentile(sorted, 99));
+			json.set("maxMs", sorted.length == 0 ? 0 : toMillis(sorted[sorted.length - 1]));
+			json.pop();
+		}
+
+		private static double percentile(long[] sorted, int percent) {
+			if(sorted.length == 0) {
+				return 0;
+			}
+			int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+			return toMillis(sorted[Math.max(0, index)]);
+		}
+
+		private static double toMillis(long nanos) {
+			return Math.round(nanos / 1000.0) / 1000.0;
+		}
+	}
+}
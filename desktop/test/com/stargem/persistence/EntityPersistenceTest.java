@@ -0,0 +1,188 @@
+/**
+ *
+ */
+package com.stargem.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.stargem.Config;
+import com.stargem.entity.components.Physics;
+
+/**
+ * EntityPersistenceTest.java
+ *
+ * Saves entities into profiles made the ways a profile can be made, by copying a world
+ * into it, and by a copy made before the copied tables kept their primary keys, and checks
+ * every entity is left with one row per table holding its latest save. A quick load must
+ * put the rows back as they were at the quick save.
+ */
+public class EntityPersistenceTest {
+
+	private static final int ENTITY = 1;
+
+	private final PersistenceManager persistenceManager = PersistenceManager.getInstance();
+	private final ActionResolver resolver = new DesktopActionResolver();
+	private final File directory = new File(System.getProperty("java.io.tmpdir"), "stargem-test");
+
+	private EntityPersistence entityPersistence;
+	private String worldPath;
+	private String profilePath;
+
+	@Before
+	public void setUp() {
+		this.entityPersistence = new EntityPersistence();
+		this.entityPersistence.registerComponentType(Physics.class);
+		this.persistenceManager.setEntityPersistence(this.entityPersistence);
+		this.persistenceManager.setSimulationPersistence(new SimulationPersistence());
+		this.persistenceManager.setProfilePersistence(new ProfilePersistence());
+
+		this.directory.mkdirs();
+		this.worldPath = this.newDatabase("world");
+		this.profilePath = this.newDatabase("profile");
+
+		// a world holding the entity
+		this.persistenceManager.connect(this.resolver, this.worldPath);
+		DatabaseFactory.createWorldTables(this.writer(), this.entityPersistence.getComponentTypes());
+		this.save(0);
+		this.persistenceManager.dispose();
+	}
+
+	@After
+	public void tearDown() {
+		this.persistenceManager.dispose();
+	}
+
+	@Test
+	public void savingTwiceAfterCopyingTheWorldLeavesOneRow() throws SQLException {
+		this.persistenceManager.connect(this.resolver, this.profilePath);
+		this.entityPersistence.importEntities(this.worldPath);
+
+		this.save(1);
+		this.save(2);
+
+		assertEquals(1, this.count(Config.TABLE_ENTITY));
+		assertEquals(1, this.count("Physics"));
+		assertEquals(2f, this.position(), 0f);
+	}
+
+	@Test
+	public void connectingGivesBackLostPrimaryKeys() throws SQLException {
+
+		// a profile copied the way it was before the keys were kept, then saved to twice
+		this.persistenceManager.connect(this.resolver, this.profilePath);
+		SQLHelper.attach(this.writer(), this.worldPath, "world");
+		SQLHelper.createAs(this.writer(), "world.Entity", "main.Entity");
+		SQLHelper.createAs(this.writer(), "world.Physics", "main.Physics");
+		SQLHelper.detach(this.writer(), "world");
+		this.entityPersistence.closeTables();
+		this.save(1);
+		this.save(2);
+		assertEquals(3, this.count("Physics"));
+		this.persistenceManager.dispose();
+
+		this.persistenceManager.connect(this.resolver, this.profilePath);
+		assertEquals(1, this.count(Config.TABLE_ENTITY));
+		assertEquals(1, this.count("Physics"));
+		assertEquals(2f, this.position(), 0f);
+
+		this.save(3);
+		assertEquals(1, this.count("Physics"));
+		assertEquals(3f, this.position(), 0f);
+	}
+
+	@Test
+	public void quickLoadingPutsBackTheTablesOfTheQuickSave() throws SQLException {
+		this.persistenceManager.connect(this.resolver, this.profilePath);
+		this.entityPersistence.importEntities(this.worldPath);
+
+		this.save(1);
+		assertTrue(this.entityPersistence.keepQuickSave());
+		this.save(2);
+
+		assertTrue(this.entityPersistence.restoreQuickSave());
+		assertEquals(1, this.count(Config.TABLE_ENTITY));
+		assertEquals(1, this.count("Physics"));
+		assertEquals(1f, this.position(), 0f);
+	}
+
+	/**
+	 * Save the entity with a physics row whose every number is the given value
+	 *
+	 * @param value
+	 */
+	private void save(int value) {
+		ComponentCodec<Physics> codec = CodecManager.getInstance().getCodec(Physics.class);
+		EntitySnapshot snapshot = new EntitySnapshot();
+		snapshot.addEntity(ENTITY);
+		snapshot.addRow(ENTITY, codec);
+		for(int i = 0, n = codec.getNumColumns(); i < n; i += 1) {
+			switch(codec.getKind(i)) {
+				case ComponentCodec.BOOLEAN:
+					snapshot.putBoolean(true);
+					break;
+				case ComponentCodec.INT:
+					snapshot.putInt(value);
+					break;
+				case ComponentCodec.LONG:
+					snapshot.putLong(value);
+					break;
+				case ComponentCodec.FLOAT:
+					snapshot.putFloat(value);
+					break;
+				case ComponentCodec.DOUBLE:
+					snapshot.putDouble(value);
+					break;
+				default:
+					snapshot.putString(String.valueOf(value));
+					break;
+			}
+		}
+		this.entityPersistence.write(snapshot);
+	}
+
+	private int count(String table) throws SQLException {
+		return (int) this.query("SELECT COUNT(*) FROM main." + table + " WHERE entityId=" + ENTITY + ";");
+	}
+
+	private float position() throws SQLException {
+		return this.query("SELECT m12 FROM main.Physics WHERE entityId=" + ENTITY + ";");
+	}
+
+	private float query(String sql) throws SQLException {
+		Statement statement = this.writer().createStatement();
+		ResultSet result = statement.executeQuery(sql);
+		result.next();
+		float value = result.getFloat(1);
+		result.close();
+		statement.close();
+		return value;
+	}
+
+	private Connection writer() {
+		return this.persistenceManager.getConnectionManager().getWriter();
+	}
+
+	/**
+	 * @param name
+	 * @return the path of a new empty database with the given name
+	 */
+	private String newDatabase(String name) {
+		File file = new File(this.directory, name + Config.DATABASE_EXTENSION);
+		String path = file.getPath();
+		file.delete();
+		new File(path + "-wal").delete();
+		new File(path + "-shm").delete();
+		return path;
+	}
+}